@@ -33,20 +33,12 @@ abstract public class AlgorithmUser {
     * InitializeDefaultStrategy abstract method using setDefaultAlgorithm.
     */
    private Strategy mLocalOverride = null;
-   /**
+
+   /*
     * While algorithms are specified on a AlgorithmUser by user basis, overrides
-    * are done on a global basis.
+    * are done on a global basis. The global override and the default
+    * algorithms it implies are stored in the current SimulationContext.
     */
-   static private Strategy mGlobalOverride = null;
-
-   private static EdgeEnergy sDefaultEdgeEnergy = null;
-   private static TransitionEnergy sDefaultTransitionEnergy = null;
-   private static MassAbsorptionCoefficient sDefaultMAC = null;
-   private static FluorescenceYieldMean sDefaultFluorescenceYieldMean = null;
-   private static FluorescenceYield sDefaultFluorescenceYield = null;
-   private static BetheElectronEnergyLoss sDefaultBetheEnergyLoss = null;
-   private static BremsstrahlungAngularDistribution sDefaultAngularDistribution = null;
-   private static CorrectionAlgorithm sDefaultCorrectionAlgorithm = null;
 
    protected AlgorithmUser() {
       super();
@@ -60,7 +52,8 @@ abstract public class AlgorithmUser {
     * @return EdgeEnergy
     */
    public static EdgeEnergy getDefaultEdgeEnergy() {
-      return sDefaultEdgeEnergy == null ? EdgeEnergy.Default : sDefaultEdgeEnergy;
+      final EdgeEnergy res = SimulationContext.current().mDefaultEdgeEnergy;
+      return res == null ? EdgeEnergy.Default : res;
    }
 
    /**
@@ -70,7 +63,8 @@ abstract public class AlgorithmUser {
     * @return CorrectionAlgorithm
     */
    public static CorrectionAlgorithm getDefaultCorrectionAlgorithm() {
-      return sDefaultCorrectionAlgorithm == null ? CorrectionAlgorithm.XPPExtended : sDefaultCorrectionAlgorithm;
+      final CorrectionAlgorithm res = SimulationContext.current().mDefaultCorrectionAlgorithm;
+      return res == null ? CorrectionAlgorithm.XPPExtended : res;
    }
 
    /**
@@ -80,7 +74,8 @@ abstract public class AlgorithmUser {
     * @return TransitionEnergy
     */
    public static TransitionEnergy getDefaultTransitionEnergy() {
-      return sDefaultTransitionEnergy == null ? TransitionEnergy.Default : sDefaultTransitionEnergy;
+      final TransitionEnergy res = SimulationContext.current().mDefaultTransitionEnergy;
+      return res == null ? TransitionEnergy.Default : res;
    }
 
    /**
@@ -90,7 +85,8 @@ abstract public class AlgorithmUser {
     * @return MassAbsorptionCoefficient
     */
    public static MassAbsorptionCoefficient getDefaultMAC() {
-      return sDefaultMAC == null ? MassAbsorptionCoefficient.Default : sDefaultMAC;
+      final MassAbsorptionCoefficient res = SimulationContext.current().mDefaultMAC;
+      return res == null ? MassAbsorptionCoefficient.Default : res;
    }
 
    /**
@@ -100,7 +96,8 @@ abstract public class AlgorithmUser {
     * @return FluorescenceYieldMean
     */
    public static FluorescenceYieldMean getDefaultFluorescenceYieldMean() {
-      return sDefaultFluorescenceYieldMean == null ? FluorescenceYieldMean.DefaultMean : sDefaultFluorescenceYieldMean;
+      final FluorescenceYieldMean res = SimulationContext.current().mDefaultFluorescenceYieldMean;
+      return res == null ? FluorescenceYieldMean.DefaultMean : res;
    }
 
    /**
@@ -110,7 +107,8 @@ abstract public class AlgorithmUser {
     * @return FluorescenceYield
     */
    public static FluorescenceYield getDefaultFluorescenceYield() {
-      return sDefaultFluorescenceYield == null ? FluorescenceYield.DefaultShell : sDefaultFluorescenceYield;
+      final FluorescenceYield res = SimulationContext.current().mDefaultFluorescenceYield;
+      return res == null ? FluorescenceYield.DefaultShell : res;
    }
 
    /**
@@ -120,11 +118,13 @@ abstract public class AlgorithmUser {
     * @return BetheElectronEnergyLoss
     */
    public static BetheElectronEnergyLoss getDefaultBetheEnergyLoss() {
-      return sDefaultBetheEnergyLoss == null ? BetheElectronEnergyLoss.JoyLuo1989 : sDefaultBetheEnergyLoss;
+      final BetheElectronEnergyLoss res = SimulationContext.current().mDefaultBetheEnergyLoss;
+      return res == null ? BetheElectronEnergyLoss.JoyLuo1989 : res;
    }
 
    public static BremsstrahlungAngularDistribution getDefaultAngularDistribution() {
-      return sDefaultAngularDistribution == null ? BremsstrahlungAngularDistribution.Acosta2002L : sDefaultAngularDistribution;
+      final BremsstrahlungAngularDistribution res = SimulationContext.current().mDefaultAngularDistribution;
+      return res == null ? BremsstrahlungAngularDistribution.Acosta2002L : res;
    }
 
    /**
@@ -135,8 +135,9 @@ abstract public class AlgorithmUser {
     */
    public Strategy getActiveStrategy() {
       final Strategy res = mLocalOverride != null ? (Strategy) mLocalOverride.clone() : new Strategy();
-      if (mGlobalOverride != null)
-         res.apply(mGlobalOverride);
+      final Strategy global = SimulationContext.current().mGlobalOverride;
+      if (global != null)
+         res.apply(global);
       return res;
    }
 
@@ -149,8 +150,9 @@ abstract public class AlgorithmUser {
     */
    public AlgorithmClass getAlgorithm(Class<?> cls) {
       AlgorithmClass res = null;
-      if (mGlobalOverride != null)
-         res = mGlobalOverride.getAlgorithm(cls);
+      final Strategy global = SimulationContext.current().mGlobalOverride;
+      if (global != null)
+         res = global.getAlgorithm(cls);
       if ((res == null) && (mLocalOverride != null))
          res = mLocalOverride.getAlgorithm(cls);
       if (res == null) {
@@ -183,8 +185,9 @@ abstract public class AlgorithmUser {
     */
    public AlgorithmClass getAlgorithm(String clsName) {
       AlgorithmClass res = null;
-      if (mGlobalOverride != null)
-         res = mGlobalOverride.getAlgorithm(clsName);
+      final Strategy global = SimulationContext.current().mGlobalOverride;
+      if (global != null)
+         res = global.getAlgorithm(clsName);
       if ((res == null) && (mLocalOverride != null))
          res = mLocalOverride.getAlgorithm(clsName);
       return res;
@@ -198,15 +201,18 @@ abstract public class AlgorithmUser {
     */
    static public void applyGlobalOverride(Strategy strat) {
       if (strat != null) {
-         mGlobalOverride = strat;
-         sDefaultTransitionEnergy = (TransitionEnergy) strat.getAlgorithm(TransitionEnergy.class);
-         sDefaultEdgeEnergy = (EdgeEnergy) strat.getAlgorithm(EdgeEnergy.class);
-         sDefaultMAC = (MassAbsorptionCoefficient) strat.getAlgorithm(MassAbsorptionCoefficient.class);
-         sDefaultFluorescenceYield = (FluorescenceYield) strat.getAlgorithm(FluorescenceYield.class);
-         sDefaultFluorescenceYieldMean = (FluorescenceYieldMean) strat.getAlgorithm(FluorescenceYieldMean.class);
-         sDefaultBetheEnergyLoss = (BetheElectronEnergyLoss) strat.getAlgorithm(BetheElectronEnergyLoss.class);
-         sDefaultAngularDistribution = (BremsstrahlungAngularDistribution) strat.getAlgorithm(BremsstrahlungAngularDistribution.class);
-         sDefaultCorrectionAlgorithm = (CorrectionAlgorithm) strat.getAlgorithm(CorrectionAlgorithm.class);
+         final SimulationContext sc = SimulationContext.current();
+         synchronized (sc) {
+            sc.mGlobalOverride = strat;
+            sc.mDefaultTransitionEnergy = (TransitionEnergy) strat.getAlgorithm(TransitionEnergy.class);
+            sc.mDefaultEdgeEnergy = (EdgeEnergy) strat.getAlgorithm(EdgeEnergy.class);
+            sc.mDefaultMAC = (MassAbsorptionCoefficient) strat.getAlgorithm(MassAbsorptionCoefficient.class);
+            sc.mDefaultFluorescenceYield = (FluorescenceYield) strat.getAlgorithm(FluorescenceYield.class);
+            sc.mDefaultFluorescenceYieldMean = (FluorescenceYieldMean) strat.getAlgorithm(FluorescenceYieldMean.class);
+            sc.mDefaultBetheEnergyLoss = (BetheElectronEnergyLoss) strat.getAlgorithm(BetheElectronEnergyLoss.class);
+            sc.mDefaultAngularDistribution = (BremsstrahlungAngularDistribution) strat.getAlgorithm(BremsstrahlungAngularDistribution.class);
+            sc.mDefaultCorrectionAlgorithm = (CorrectionAlgorithm) strat.getAlgorithm(CorrectionAlgorithm.class);
+         }
       } else
          clearGlobalOverride();
    }
@@ -219,7 +225,7 @@ abstract public class AlgorithmUser {
     */
    static public Strategy getGlobalStrategy() {
       final Strategy res = new Strategy();
-      res.addAll(mGlobalOverride);
+      res.addAll(SimulationContext.current().mGlobalOverride);
       res.addAlgorithm(TransitionEnergy.class, getDefaultTransitionEnergy());
       res.addAlgorithm(EdgeEnergy.class, getDefaultEdgeEnergy());
       res.addAlgorithm(MassAbsorptionCoefficient.class, getDefaultMAC());
@@ -236,14 +242,17 @@ abstract public class AlgorithmUser {
     * algorithm to use its default algorithms.
     */
    static public void clearGlobalOverride() {
-      mGlobalOverride = null;
-      sDefaultTransitionEnergy = null;
-      sDefaultEdgeEnergy = null;
-      sDefaultMAC = null;
-      sDefaultFluorescenceYield = null;
-      sDefaultFluorescenceYieldMean = null;
-      sDefaultBetheEnergyLoss = null;
-      sDefaultAngularDistribution = null;
+      final SimulationContext sc = SimulationContext.current();
+      synchronized (sc) {
+         sc.mGlobalOverride = null;
+         sc.mDefaultTransitionEnergy = null;
+         sc.mDefaultEdgeEnergy = null;
+         sc.mDefaultMAC = null;
+         sc.mDefaultFluorescenceYield = null;
+         sc.mDefaultFluorescenceYieldMean = null;
+         sc.mDefaultBetheEnergyLoss = null;
+         sc.mDefaultAngularDistribution = null;
+      }
    }
 
    /**
@@ -267,7 +276,7 @@ abstract public class AlgorithmUser {
     * @throws IOException
     */
    public void documentStrategy(Writer wr) throws IOException {
-      for (final String cls : mGlobalOverride.getStrategyMap().keySet()) {
+      for (final String cls : SimulationContext.current().mGlobalOverride.getStrategyMap().keySet()) {
          wr.write(getAlgorithm(cls).toString());
          wr.write('\n');
       }
@@ -291,7 +300,7 @@ abstract public class AlgorithmUser {
     */
    public Strategy getEffectiveStrategy() {
       final Strategy strat = getEffectiveStrategyHelper();
-      strat.apply(mGlobalOverride);
+      strat.apply(SimulationContext.current().mGlobalOverride);
       return strat;
    }
 
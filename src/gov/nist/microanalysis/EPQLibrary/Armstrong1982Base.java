@@ -75,7 +75,7 @@ public class Armstrong1982Base extends ZAFCorrectionAlgorithm {
 
    @Override
    public boolean initialize(Composition comp, AtomicShell shell, SpectrumProperties props) throws EPQException {
-      comp = comp.normalize();
+      comp = normalized(comp);
       final boolean res = super.initialize(comp, shell, props);
       if (res) {
          final SurfaceIonization si = (SurfaceIonization) getAlgorithm(SurfaceIonization.class);
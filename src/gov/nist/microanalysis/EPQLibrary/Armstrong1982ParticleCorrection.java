@@ -866,7 +866,7 @@ public class Armstrong1982ParticleCorrection extends Armstrong1982Base {
     * The algorithm for computing bulk corrections if USE_ANALYTICAL_BULK is
     * true.
     */
-   private final Armstrong1982Correction mBulkCorrection = new Armstrong1982Correction();;
+   private Armstrong1982Correction mBulkCorrection = new Armstrong1982Correction();
 
    private static final boolean USE_ANALYTICAL_BULK = true;
    private static final double TOLERANCE = 1.0e-6;
@@ -877,7 +877,7 @@ public class Armstrong1982ParticleCorrection extends Armstrong1982Base {
 
    @Override
    public boolean initialize(Composition comp, AtomicShell shell, SpectrumProperties props) throws EPQException {
-      comp = comp.normalize();
+      comp = normalized(comp);
       final boolean res = super.initialize(comp, shell, props);
       mBulkCorrection.initialize(comp, shell, props);
       final SampleShape sh = props.getSampleShapeWithDefault(SpectrumProperties.SampleShape, null);
@@ -974,6 +974,13 @@ public class Armstrong1982ParticleCorrection extends Armstrong1982Base {
       return toSI(emitted) / generated(xrt);
    }
 
+   @Override
+   protected Armstrong1982ParticleCorrection clone() {
+      final Armstrong1982ParticleCorrection res = (Armstrong1982ParticleCorrection) super.clone();
+      res.mBulkCorrection = (Armstrong1982Correction) mBulkCorrection.clone();
+      return res;
+   }
+
    @Override
    public double computeZACorrection(XRayTransition xrt) throws EPQException {
       if (mShape != null) {
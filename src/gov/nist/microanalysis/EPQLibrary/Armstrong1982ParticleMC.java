@@ -1,5 +1,12 @@
 package gov.nist.microanalysis.EPQLibrary;
 
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.TreeMap;
+
 import gov.nist.microanalysis.NISTMonte.MonteCarloSS.Shape;
 import gov.nist.microanalysis.Utility.MCIntegrator;
 import gov.nist.microanalysis.Utility.Math2;
@@ -10,6 +17,13 @@ import gov.nist.microanalysis.Utility.Math2;
  * algorithm for generic shapes.
  * </p>
  * <p>
+ * The absorption integral is evaluated using a randomly shifted Halton sequence
+ * in parallel until the estimated relative error falls below
+ * <code>getRelativeError()</code>. The results are cached by sample shape,
+ * composition, transition, geometry, mass absorption coefficient and the
+ * algorithms in the active Strategy.
+ * </p>
+ * <p>
  * Copyright: Pursuant to title 17 Section 105 of the United States Code this
  * software is not subject to copyright protection and is in the public domain
  * </p>
@@ -23,7 +37,71 @@ import gov.nist.microanalysis.Utility.Math2;
  */
 public class Armstrong1982ParticleMC extends Armstrong1982Base {
 
+   /**
+    * The maximum number of sample points per transition
+    */
+   private static final int MAX_ITER = 1000000;
+   private static final int CACHE_SIZE = 1000;
+
+   private static final class Key {
+      private final SampleShape mShape;
+      private final double[] mOrientation;
+      private final Composition mComposition;
+      private final XRayTransition mTransition;
+      private final MassAbsorptionCoefficient mMAC;
+      // The algorithms used to compute phi(rho z) (by value not by reference)
+      private final Map<String, AlgorithmClass> mStrategy;
+      private final double[] mGeometry;
+
+      private Key(Armstrong1982ParticleMC pmc, XRayTransition xrt, MassAbsorptionCoefficient mac) {
+         mShape = pmc.mShape;
+         mOrientation = pmc.mShape.getOrientation();
+         mComposition = pmc.mComposition;
+         mTransition = xrt;
+         mMAC = mac;
+         // Both the global override and this instance's own Strategy
+         final Strategy strat = pmc.getActiveStrategy();
+         mStrategy = new TreeMap<String, AlgorithmClass>();
+         for (final String cls : strat.listAlgorithmClasses())
+            mStrategy.put(cls, strat.getAlgorithm(cls));
+         final double[] geom = new double[12];
+         System.arraycopy(pmc.mDetectorPt, 0, geom, 0, 3);
+         System.arraycopy(pmc.mPt0, 0, geom, 3, 3);
+         System.arraycopy(pmc.mPt1, 0, geom, 6, 3);
+         geom[9] = pmc.mRho;
+         geom[10] = pmc.mBeamEnergy;
+         geom[11] = pmc.mRelErr;
+         mGeometry = geom;
+      }
+
+      @Override
+      public int hashCode() {
+         return Objects.hash(mShape, mComposition, mTransition, System.identityHashCode(mMAC), mStrategy.keySet(), Arrays.hashCode(mGeometry));
+      }
+
+      @Override
+      public boolean equals(Object obj) {
+         if (this == obj)
+            return true;
+         if (!(obj instanceof Key))
+            return false;
+         final Key other = (Key) obj;
+         return mShape.equals(other.mShape) && Arrays.equals(mOrientation, other.mOrientation) && mComposition.equals(other.mComposition)
+               && mTransition.equals(other.mTransition) && (mMAC == other.mMAC) && mStrategy.equals(other.mStrategy) && Arrays.equals(mGeometry, other.mGeometry);
+      }
+   }
+
+   private static final Map<Key, Double> mCache = Collections.synchronizedMap(new LinkedHashMap<Key, Double>(16, 0.75f, true) {
+      private static final long serialVersionUID = -3317207862164418791L;
+
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<Key, Double> eldest) {
+         return size() > CACHE_SIZE;
+      }
+   });
+
    private SampleShape mShape;
+   private double mRelErr = 1.0e-3;
    private Shape mMCShape;
    /**
     * In SI
@@ -47,13 +125,36 @@ public class Armstrong1982ParticleMC extends Armstrong1982Base {
       super("Armstrong 1982 - MC");
    }
 
+   /**
+    * The target relative (one-sigma) error in the absorption integrals.
+    *
+    * @return double
+    */
+   public double getRelativeError() {
+      return mRelErr;
+   }
+
+   public void setRelativeError(double relErr) {
+      mRelErr = relErr;
+   }
+
+   /**
+    * Clears the cache of particle absorption corrections.
+    */
+   public static void clearCache() {
+      mCache.clear();
+   }
+
    @Override
    public boolean initialize(Composition comp, AtomicShell shell, SpectrumProperties props) throws EPQException {
-      comp = comp.normalize();
+      // Normalizing a Material returns a Composition so get the density first
+      final double rho = comp instanceof Material ? ((Material) comp).getDensity()
+            : ToSI.gPerCC(props.getNumericWithDefault(SpectrumProperties.SpecimenDensity, Double.NaN));
+      comp = normalized(comp);
       final boolean res = super.initialize(comp, shell, props);
       if (res) {
          mDetectorPt = SpectrumUtils.getDetectorPosition(props);
-         mRho = ((Material) comp).getDensity();
+         mRho = rho;
          mShape = props.getSampleShapeWithDefault(SpectrumProperties.SampleShape, new SampleShape.Bulk());
          final double[] da = SpectrumUtils.getDetectorAxis(props);
          mMCShape = mShape.getShape();
@@ -77,8 +178,11 @@ public class Armstrong1982ParticleMC extends Armstrong1982Base {
    }
 
    public double particleAbsorptionCorrection(XRayTransition xrt) throws EPQException {
-      final int N_ITER = 1000000;
       final MassAbsorptionCoefficient mac = (MassAbsorptionCoefficient) getAlgorithm(MassAbsorptionCoefficient.class);
+      final Key key = new Key(this, xrt, mac);
+      final Double cached = mCache.get(key);
+      if (cached != null)
+         return cached.doubleValue();
       // muArho in CGS
       final double muArho = MassAbsorptionCoefficient.toCmSqrPerGram(mac.compute(mComposition, xrt)) * FromSI.gPerCC(mRho);
       assert muArho > 0.0;
@@ -86,20 +190,16 @@ public class Armstrong1982ParticleMC extends Armstrong1982Base {
 
       final MCIntegrator integrator = new MCIntegrator(mPt0, mPt1) {
 
-         private double h(double[] args) {
-            return 1.0;
-         }
-
          @Override
          public double[] function(double[] args) {
             assert inside(args);
             final double f = mMCShape.getFirstIntersection(args, mDetectorPt);
             // g in cm
             final double g = FromSI.cm(f * Math2.distance(args, mDetectorPt));
-            // rhoXyz in kg/m^2
-            final double[] rhoXyz = Math2.multiply(mRho, Math2.minus(args, Math2.multiply(mPt0[2], Math2.Z_AXIS)));
-            final double gen = computeCurve(rhoXyz[2]);
-            return new double[]{gen * Math.exp(-muArho * g) * h(rhoXyz), gen};
+            // rhoZ in kg/m^2
+            final double rhoZ = mRho * (args[2] - mPt0[2]);
+            final double gen = computeCurve(rhoZ);
+            return new double[]{gen * Math.exp(-muArho * g), gen};
          }
 
          @Override
@@ -107,7 +207,11 @@ public class Armstrong1982ParticleMC extends Armstrong1982Base {
             return mMCShape.contains(args);
          }
       };
-      final double[] res = integrator.compute(N_ITER);
-      return res[0] / res[1];
+      integrator.setSampling(MCIntegrator.Sampling.HALTON);
+      integrator.setParallel(true);
+      final double[] res = integrator.compute(mRelErr, MAX_ITER);
+      final double pac = res[0] / res[1];
+      mCache.put(key, Double.valueOf(pac));
+      return pac;
    }
 }
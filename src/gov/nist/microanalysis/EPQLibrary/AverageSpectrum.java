@@ -3,7 +3,7 @@ package gov.nist.microanalysis.EPQLibrary;
 import java.util.Arrays;
 import java.util.Iterator;
 
-import gov.nist.microanalysis.Utility.Math2;
+import gov.nist.microanalysis.Utility.ArrayKernels;
 
 public class AverageSpectrum extends BaseSpectrum {
 
@@ -51,10 +51,7 @@ public class AverageSpectrum extends BaseSpectrum {
       if (SpectrumUtils.areCompatible(this, spec)) {
          if (notFirst)
             mProperties = SpectrumProperties.merge(mProperties, spec.getProperties());
-         for (int ch = mSum.length - 1; ch >= 0; --ch) {
-            mSum[ch] += spec.getCounts(ch);
-            mSumOfSqrs[ch] += Math2.sqr(spec.getCounts(ch));
-         }
+         ArrayKernels.get().accumulate(SpectrumUtils.counts(spec), mSum, mSumOfSqrs);
          ++mNSpectra;
       } else
          throw new EPQException("This spectrum is not compatible with the previous spectra in this running average.");
@@ -0,0 +1,425 @@
+package gov.nist.microanalysis.EPQLibrary;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.stream.IntStream;
+
+import gov.nist.microanalysis.EPQLibrary.Detector.EDSDetector;
+import gov.nist.microanalysis.Utility.Math2;
+
+/**
+ * <p>
+ * Simulates spectra for many materials made from a fixed set of elements
+ * under a single set of conditions on a single detector. The results are
+ * equivalent (to round-off) to those of
+ * BasicSpectrumSimulator.generateSpectrum(comp, props, withBrem) but are
+ * computed far more quickly.
+ * </p>
+ * <p>
+ * Everything which does not depend upon the composition is computed once
+ * when the BatchSpectrumSimulator is constructed:
+ * </p>
+ * <ul>
+ * <li>The detector response to an event in each channel (the line shape
+ * scaled by the detector efficiency)</li>
+ * <li>For each element, the lines, channels, transition probabilities and
+ * ionization cross sections</li>
+ * <li>For each element, the MAC at the energy of each channel (for the
+ * bremsstrahlung absorption)</li>
+ * </ul>
+ * <p>
+ * Each spectrum is then the sum of the responses to the characteristic lines
+ * (whose intensities require only the matrix correction for the material)
+ * plus the response to the continuum. When the BremsstrahlungAnalytic model
+ * is one of the quadratic models (Lifshin74 or DTSA) the continuum is
+ * evaluated from the tabulated MACs and the mean atomic number. Other models
+ * are evaluated through the model instance one material at a time.
+ * </p>
+ * <p>
+ * simulate(List, float[][], int) evaluates the materials in parallel and
+ * writes the results into a channel-major (columnar) table. The
+ * BatchSpectrumSimulator is immutable once constructed and may be shared
+ * between threads.
+ * </p>
+ * <p>
+ * Copyright: Pursuant to title 17 Section 105 of the United States Code this
+ * software is not subject to copyright protection and is in the public domain
+ * </p>
+ * <p>
+ * Institution: National Institute of Standards and Technology
+ * </p>
+ *
+ * @author Nicholas
+ * @version 1.0
+ */
+public class BatchSpectrumSimulator {
+
+   private static final double MIN_WEIGHT = 1.0e-5;
+
+   /**
+    * The characteristic lines produced by one element.
+    */
+   private static final class LineTemplate {
+      private final AtomicShell[] mShells;
+      private final XRayTransition[] mTransitions;
+      // The detector channel into which each line falls or -1
+      private final int[] mChannels;
+      // The transition probability
+      private final double[] mWeights;
+      // Ionization cross section times dose
+      private final double[] mIonizations;
+
+      private LineTemplate(List<AtomicShell> shells, List<XRayTransition> xrts, List<double[]> wgtIcx, int[] channels) {
+         mShells = shells.toArray(new AtomicShell[shells.size()]);
+         mTransitions = xrts.toArray(new XRayTransition[xrts.size()]);
+         mChannels = channels;
+         mWeights = new double[wgtIcx.size()];
+         mIonizations = new double[wgtIcx.size()];
+         for (int i = 0; i < mWeights.length; ++i) {
+            mWeights[i] = wgtIcx.get(i)[0];
+            mIonizations[i] = wgtIcx.get(i)[1];
+         }
+      }
+   }
+
+   private final SpectrumSimulator.BasicSpectrumSimulator mSimulator;
+   private final SpectrumProperties mProperties;
+   private final EDSDetector mDetector;
+   private final boolean mBremsstrahlung;
+   private final Element[] mElements;
+   // Indexed by atomic number
+   private final LineTemplate[] mTemplates;
+   private final double mBeamEnergy;
+   private final double mTakeOffAngle;
+   // (nA*s) / 10 eV * channel width
+   private final double mBremFlux;
+   // 1 / (sample-to-detector distance)^2
+   private final double mScale;
+   private final int mChannelCount;
+   // The response to a unit event in channel i starting at channel
+   // mResponseOffset[i]
+   private final int[] mResponseOffset;
+   private final double[][] mResponse;
+   // The bremsstrahlung photon energy and destination channel for each channel
+   private final double[] mBremEnergy;
+   private final int[] mBremChannel;
+   // mBremMAC[z][ch] the MAC of element z at mBremEnergy[ch] (quadratic models)
+   private final double[][] mBremMAC;
+
+   /**
+    * Constructs a BatchSpectrumSimulator for materials containing some or all
+    * of the elements in <code>elms</code>.
+    *
+    * @param sim
+    *           The simulator whose algorithms are used
+    * @param props
+    *           As for SpectrumSimulator.generateSpectrum(...) including the
+    *           detector, beam energy and live time
+    * @param elms
+    *           The elements
+    * @param withBrem
+    *           Include the bremsstrahlung contribution.
+    * @throws EPQException
+    */
+   public BatchSpectrumSimulator(SpectrumSimulator.BasicSpectrumSimulator sim, SpectrumProperties props, Collection<Element> elms,
+         boolean withBrem) throws EPQException {
+      mSimulator = sim;
+      mDetector = (EDSDetector) props.getDetector();
+      if (mDetector == null)
+         throw new EPQException("You must specify the detector.");
+      final SpectrumProperties inProps = new SpectrumProperties();
+      inProps.setDetector(mDetector);
+      inProps.addAll(props);
+      if ((!inProps.isDefined(SpectrumProperties.WorkingDistance)) && inProps.isDefined(SpectrumProperties.DetectorOptWD))
+         inProps.setNumericProperty(SpectrumProperties.WorkingDistance, inProps.getNumericWithDefault(SpectrumProperties.DetectorOptWD, 0.0));
+      mProperties = props.clone();
+      mBremsstrahlung = withBrem;
+      mElements = new TreeSet<Element>(elms).toArray(new Element[0]);
+      mBeamEnergy = ToSI.keV(inProps.getNumericWithDefault(SpectrumProperties.BeamEnergy, -1.0));
+      if (mBeamEnergy < ToSI.keV(0.1))
+         throw new EPQException("The beam energy is too low to simulate a spectrum.");
+      mTakeOffAngle = SpectrumUtils.getTakeOffAngle(inProps);
+      mScale = 1.0 / Math2.sqr(SpectrumUtils.sampleToDetectorDistance(inProps, SpectrumSimulator.DEFAULT_DET_DISTANCE));
+      mChannelCount = mDetector.getChannelCount();
+      final EditableSpectrum es = new EditableSpectrum(mChannelCount, mDetector.getChannelWidth(), mDetector.getZeroOffset());
+      // Line templates
+      final double dose = (inProps.getNumericWithDefault(SpectrumProperties.LiveTime, 60.0) * SpectrumUtils.getAverageFaradayCurrent(inProps, 1.0)
+            * 1.0e-9) / PhysicalConstants.ElectronCharge;
+      mTemplates = new LineTemplate[Element.elmEndOfElements];
+      final EdgeEnergy ee = (EdgeEnergy) sim.getAlgorithm(EdgeEnergy.class);
+      final TransitionProbabilities tp = (TransitionProbabilities) sim.getAlgorithm(TransitionProbabilities.class);
+      final AbsoluteIonizationCrossSection ic = (AbsoluteIonizationCrossSection) sim.getAlgorithm(AbsoluteIonizationCrossSection.class);
+      for (final Element elm : mElements) {
+         final List<AtomicShell> shells = new ArrayList<AtomicShell>();
+         final List<XRayTransition> xrts = new ArrayList<XRayTransition>();
+         final List<double[]> wgtIcx = new ArrayList<double[]>();
+         for (int sh = AtomicShell.K; sh <= AtomicShell.MV; ++sh) {
+            final AtomicShell shell = new AtomicShell(elm, sh);
+            if (ee.isSupported(shell) && (ee.compute(shell) < mBeamEnergy) && shell.exists() && (shell.getEnergy() < mBeamEnergy)) {
+               final double icx = ic.computeShell(shell, mBeamEnergy) * dose;
+               for (final Map.Entry<XRayTransition, Double> me : tp.getTransitions(shell, 0.0).entrySet()) {
+                  final XRayTransition xrt = me.getKey();
+                  final double wgt = me.getValue().doubleValue();
+                  if (xrt.energyIsAvailable() && (wgt >= MIN_WEIGHT) && xrt.isWellKnown()) {
+                     shells.add(shell);
+                     xrts.add(xrt);
+                     wgtIcx.add(new double[]{wgt, icx});
+                  }
+               }
+            }
+         }
+         final int[] channels = new int[xrts.size()];
+         for (int i = 0; i < channels.length; ++i) {
+            final int ch = SpectrumUtils.channelForEnergy(es, FromSI.eV(xrts.get(i).getEnergy()));
+            channels[i] = (ch >= 0) && (ch < mChannelCount) ? ch : -1;
+         }
+         mTemplates[elm.getAtomicNumber()] = new LineTemplate(shells, xrts, wgtIcx, channels);
+      }
+      // Bremsstrahlung
+      mBremEnergy = new double[mChannelCount];
+      mBremChannel = new int[mChannelCount];
+      for (int ch = 0; ch < mChannelCount; ++ch) {
+         mBremEnergy[ch] = ToSI.eV(SpectrumUtils.avgEnergyForChannel(es, ch));
+         final int dest = SpectrumUtils.channelForEnergy(es, FromSI.eV(mBremEnergy[ch]));
+         mBremChannel[ch] = (dest >= 0) && (dest < mChannelCount) ? dest : -1;
+      }
+      mBremFlux = inProps.getNumericWithDefault(SpectrumProperties.LiveTime, Double.NaN) * SpectrumUtils.getAverageFaradayCurrent(inProps, Double.NaN)
+            * (es.getChannelWidth() / 10.0);
+      final BremsstrahlungAnalytic bs = (BremsstrahlungAnalytic) sim.getAlgorithm(BremsstrahlungAnalytic.class);
+      if (withBrem && (bs instanceof BremsstrahlungAnalytic.QuadraticBremsstrahlung)) {
+         final MassAbsorptionCoefficient mac = (MassAbsorptionCoefficient) bs.getAlgorithm(MassAbsorptionCoefficient.class);
+         mBremMAC = new double[Element.elmEndOfElements][];
+         for (final Element elm : mElements) {
+            final double[] macs = new double[mChannelCount];
+            for (int ch = 0; ch < mChannelCount; ++ch)
+               macs[ch] = mac.compute(elm, mBremEnergy[ch]);
+            mBremMAC[elm.getAtomicNumber()] = macs;
+         }
+      } else
+         mBremMAC = null;
+      // Detector response to a unit event in each channel
+      mResponseOffset = new int[mChannelCount];
+      mResponse = new double[mChannelCount][];
+      synchronized (mDetector) {
+         try {
+            for (int ch = 0; ch < mChannelCount; ++ch) {
+               mDetector.reset();
+               mDetector.addEvent(ToSI.eV(SpectrumUtils.avgEnergyForChannel(es, ch)), 1.0);
+               final ISpectrumData resp = mDetector.getSpectrum(1.0);
+               int first = -1, last = -1;
+               for (int i = 0; i < mChannelCount; ++i)
+                  if (resp.getCounts(i) != 0.0) {
+                     if (first == -1)
+                        first = i;
+                     last = i;
+                  }
+               if (first == -1) {
+                  mResponseOffset[ch] = 0;
+                  mResponse[ch] = new double[0];
+               } else {
+                  mResponseOffset[ch] = first;
+                  mResponse[ch] = new double[(last - first) + 1];
+                  for (int i = first; i <= last; ++i)
+                     mResponse[ch][i - first] = resp.getCounts(i);
+               }
+            }
+         } finally {
+            mDetector.reset();
+         }
+      }
+   }
+
+   /**
+    * The elements which materials simulated by this BatchSpectrumSimulator
+    * may contain.
+    *
+    * @return List&lt;Element&gt;
+    */
+   public List<Element> getElements() {
+      return Arrays.asList(mElements.clone());
+   }
+
+   public EDSDetector getDetector() {
+      return mDetector;
+   }
+
+   public int getChannelCount() {
+      return mChannelCount;
+   }
+
+   /**
+    * Computes the spectrum for comp into res (which is overwritten.)
+    *
+    * @param comp
+    * @param res
+    *           double[getChannelCount()]
+    * @throws EPQException
+    */
+   private void compute(Composition comp, double[] res) throws EPQException {
+      final Composition posComp = Composition.positiveDefinite(comp);
+      // The events recorded in each channel
+      final double[] acc = new double[mChannelCount];
+      // Characteristic lines
+      int n = 0;
+      for (final Element elm : posComp.getElementSet())
+         if (posComp.weightFraction(elm, false) > 0.0) {
+            final LineTemplate lt = mTemplates[elm.getAtomicNumber()];
+            if (lt == null)
+               throw new EPQException(elm.toAbbrev() + " is not one of the elements in this batch spectrum simulator.");
+            n += lt.mTransitions.length;
+         }
+      final AtomicShell[] shells = new AtomicShell[n];
+      final XRayTransition[] xrts = new XRayTransition[n];
+      final double[] scales = new double[n];
+      final int[] channels = new int[n];
+      n = 0;
+      for (final Element elm : posComp.getElementSet())
+         if (posComp.weightFraction(elm, false) > 0.0) {
+            final LineTemplate lt = mTemplates[elm.getAtomicNumber()];
+            final double apk = posComp.atomsPerKg(elm, true);
+            for (int i = 0; i < lt.mTransitions.length; ++i, ++n) {
+               shells[n] = lt.mShells[i];
+               xrts[n] = lt.mTransitions[i];
+               scales[n] = lt.mWeights[i] * (lt.mIonizations[i] * apk);
+               channels[n] = lt.mChannels[i];
+            }
+         }
+      if (n > 0) {
+         final CorrectionAlgorithm.PhiRhoZAlgorithm ca = (CorrectionAlgorithm.PhiRhoZAlgorithm) mSimulator
+               .getAlgorithm(CorrectionAlgorithm.PhiRhoZAlgorithm.class);
+         final double[] zaf = new double[n];
+         ca.computeBatch(posComp, mProperties, shells, xrts, null, zaf);
+         for (int i = 0; i < n; ++i) {
+            final double s = scales[i] * zaf[i];
+            if ((channels[i] >= 0) && (!Double.isNaN(s)))
+               acc[channels[i]] += s;
+         }
+      }
+      // Continuum
+      if (mBremsstrahlung) {
+         final BremsstrahlungAnalytic bs = (BremsstrahlungAnalytic) mSimulator.getAlgorithm(BremsstrahlungAnalytic.class);
+         final double e0keV = FromSI.keV(mBeamEnergy);
+         if (mBremMAC != null) {
+            final BremsstrahlungAnalytic.QuadraticBremsstrahlung qb = (BremsstrahlungAnalytic.QuadraticBremsstrahlung) bs;
+            final double meanZ = qb.meanAtomicNumber(posComp);
+            final Element[] elms = posComp.getElementSet().toArray(new Element[0]);
+            final double[][] macs = new double[elms.length][];
+            final double[] wf = new double[elms.length];
+            for (int e = 0; e < elms.length; ++e) {
+               macs[e] = mBremMAC[elms[e].getAtomicNumber()];
+               if (macs[e] == null)
+                  throw new EPQException(elms[e].toAbbrev() + " is not one of the elements in this batch spectrum simulator.");
+               wf[e] = posComp.weightFraction(elms[e], false);
+            }
+            for (int ch = mChannelCount - 1; ch >= 0; --ch)
+               if (mBremChannel[ch] >= 0) {
+                  double mac = 0.0;
+                  for (int e = 0; e < elms.length; ++e)
+                     mac += macs[e][ch] * wf[e];
+                  acc[mBremChannel[ch]] += Math.max(0.0, qb.compute(mBremEnergy[ch], e0keV, mTakeOffAngle, meanZ, mac)) * mBremFlux;
+               }
+         } else
+            synchronized (bs) {
+               bs.initialize(posComp, mBeamEnergy, mTakeOffAngle);
+               for (int ch = mChannelCount - 1; ch >= 0; --ch)
+                  if (mBremChannel[ch] >= 0)
+                     acc[mBremChannel[ch]] += Math.max(0.0, bs.compute(mBremEnergy[ch])) * mBremFlux;
+            }
+      }
+      // Detector response
+      Arrays.fill(res, 0.0);
+      for (int ch = 0; ch < mChannelCount; ++ch)
+         if (acc[ch] > 0.0) {
+            final double a = acc[ch] * mScale;
+            final double[] resp = mResponse[ch];
+            final int off = mResponseOffset[ch];
+            for (int i = 0; i < resp.length; ++i)
+               res[off + i] += a * resp[i];
+         }
+   }
+
+   /**
+    * Simulates the spectrum for a single material.
+    *
+    * @param comp
+    * @return ISpectrumData
+    * @throws EPQException
+    */
+   public ISpectrumData simulate(Composition comp) throws EPQException {
+      final double[] counts = new double[mChannelCount];
+      compute(comp, counts);
+      final EditableSpectrum res = new EditableSpectrum(mDetector.getChannelWidth(), mDetector.getZeroOffset(), counts);
+      final SpectrumProperties sp = res.getProperties();
+      sp.setDetector(mDetector);
+      sp.setBooleanProperty(SpectrumProperties.IsTheoreticallyGenerated, true);
+      sp.setTimestampProperty(SpectrumProperties.AcquisitionTime, new Date());
+      sp.addAll(mProperties);
+      sp.setCompositionProperty(SpectrumProperties.StandardComposition, comp);
+      SpectrumUtils.rename(res, "Simulation of " + comp.toString());
+      return res;
+   }
+
+   /**
+    * Simulates the spectra for each material in comps writing the counts for
+    * comps.get(i) in channel ch into columns[ch][firstRow + i]. The materials
+    * are simulated in parallel on the common ForkJoinPool with each worker
+    * thread bound to the caller's SimulationContext.
+    *
+    * @param comps
+    *           The materials
+    * @param columns
+    *           float[getChannelCount()][&gt;= firstRow + comps.size()]
+    * @param firstRow
+    *           The row into which to write comps.get(0)
+    * @throws EPQException
+    */
+   public void simulate(List<Composition> comps, float[][] columns, int firstRow) throws EPQException {
+      if (columns.length != mChannelCount)
+         throw new EPQException("The output table must have one column per channel.");
+      final AtomicReference<EPQException> error = new AtomicReference<EPQException>();
+      final SimulationContext ctx = SimulationContext.current();
+      IntStream.range(0, comps.size()).parallel().forEach(row -> {
+         if (error.get() != null)
+            return;
+         final SimulationContext prev = SimulationContext.setCurrent(ctx);
+         try {
+            final double[] counts = new double[mChannelCount];
+            compute(comps.get(row), counts);
+            for (int ch = 0; ch < mChannelCount; ++ch)
+               columns[ch][firstRow + row] = (float) counts[ch];
+         } catch (final EPQException e) {
+            error.compareAndSet(null, e);
+         } finally {
+            SimulationContext.setCurrent(prev);
+         }
+      });
+      if (error.get() != null)
+         throw error.get();
+   }
+
+   /**
+    * Simulates the spectra for each material in comps and returns them as a
+    * channel-major table in which result[ch][i] is the counts in channel ch
+    * for comps.get(i).
+    *
+    * @param comps
+    * @return float[getChannelCount()][comps.size()]
+    * @throws EPQException
+    */
+   public float[][] simulate(List<Composition> comps) throws EPQException {
+      final float[][] res = new float[mChannelCount][comps.size()];
+      simulate(comps, res, 0);
+      return res;
+   }
+
+   @Override
+   public String toString() {
+      return "BatchSpectrumSimulator[" + mDetector.getName() + ", E0=" + FromSI.keV(mBeamEnergy) + " keV, " + mElements.length + " elements]";
+   }
+}
@@ -327,18 +327,15 @@ abstract public class BremsstrahlungAnalytic extends AlgorithmClass {
          mB = 3.3;
       }
 
-      /**
-       * @see gov.nist.microanalysis.EPQLibrary.BremsstrahlungAnalytic#compute(double)
-       */
       @Override
-      public double compute(double eNu) {
+      public double compute(double eNu, double e0keV, double toa, double meanZ, double mac) {
          final double nukeV = FromSI.keV(eNu);
-         if ((nukeV > 0.0) && (nukeV < mE0keV)) {
-            final double ee = Math.pow(mE0keV, 1.65) - Math.pow(nukeV, 1.65);
-            final double chiC = MassAbsorptionCoefficient.toCmSqrPerGram(mMac.compute(mComposition, eNu)) / Math.sin(mTakeOffAngle);
+         if ((nukeV > 0.0) && (nukeV < e0keV)) {
+            final double ee = Math.pow(e0keV, 1.65) - Math.pow(nukeV, 1.65);
+            final double chiC = MassAbsorptionCoefficient.toCmSqrPerGram(mac) / Math.sin(toa);
             final double fE = 1.0 / (1.0 + (A1 * ee * chiC) + (A2 * Math2.sqr(ee * chiC)));
-            final double x = (mE0keV - nukeV) / nukeV;
-            return fE * mMeanZ * x * (mA + (mB * x));
+            final double x = (e0keV - nukeV) / nukeV;
+            return fE * meanZ * x * (mA + (mB * x));
          } else
             return 0.0;
       }
@@ -375,17 +372,14 @@ abstract public class BremsstrahlungAnalytic extends AlgorithmClass {
          mB = 2.572;
       }
 
-      /**
-       * @see gov.nist.microanalysis.EPQLibrary.BremsstrahlungAnalytic#compute(double)
-       */
       @Override
-      public double compute(double eNu) {
+      public double compute(double eNu, double e0keV, double toa, double meanZ, double mac) {
          final double nukeV = FromSI.keV(eNu);
-         if ((nukeV > 0.0) && (nukeV < mE0keV)) {
-            final double ee = Math.pow(mE0keV, 1.65) - Math.pow(nukeV, 1.65);
-            final double chiC = MassAbsorptionCoefficient.toCmSqrPerGram(mMac.compute(mComposition, eNu)) / Math.sin(mTakeOffAngle);
+         if ((nukeV > 0.0) && (nukeV < e0keV)) {
+            final double ee = Math.pow(e0keV, 1.65) - Math.pow(nukeV, 1.65);
+            final double chiC = MassAbsorptionCoefficient.toCmSqrPerGram(mac) / Math.sin(toa);
             final double fE = 1.0 / (1.0 + (A1 * ee * chiC) + (A2 * Math2.sqr(ee * chiC)));
-            return (fE * mMeanZ * ((mA * (mE0keV - nukeV)) + (mB * Math2.sqr(mE0keV - nukeV)))) / nukeV;
+            return (fE * meanZ * ((mA * (e0keV - nukeV)) + (mB * Math2.sqr(e0keV - nukeV)))) / nukeV;
          } else
             return 0.0;
       }
@@ -421,6 +415,48 @@ abstract public class BremsstrahlungAnalytic extends AlgorithmClass {
          mB = b;
       }
 
+      /**
+       * Evaluates the model at the photon energy eNu for a material with the
+       * specified mean atomic number and mass absorption coefficient at eNu.
+       * Unlike compute(eNu), this does not depend upon the state set by
+       * initialize(...) so it may be called concurrently.
+       * 
+       * @param eNu
+       *           Photon energy in Joules
+       * @param e0keV
+       *           Beam energy in keV
+       * @param toa
+       *           Take-off angle in radians
+       * @param meanZ
+       *           As computed by meanAtomicNumber(...)
+       * @param mac
+       *           The MAC for the material at eNu in SI
+       * @return double
+       */
+      abstract public double compute(double eNu, double e0keV, double toa, double meanZ, double mac);
+
+      /**
+       * @see gov.nist.microanalysis.EPQLibrary.BremsstrahlungAnalytic#compute(double)
+       */
+      @Override
+      public double compute(double eNu) {
+         final double nukeV = FromSI.keV(eNu);
+         if ((nukeV > 0.0) && (nukeV < mE0keV))
+            return compute(eNu, mE0keV, mTakeOffAngle, mMeanZ, mMac.compute(mComposition, eNu));
+         else
+            return 0.0;
+      }
+
+      /**
+       * The mean atomic number used to scale the model for the material comp.
+       * 
+       * @param comp
+       * @return double
+       */
+      public double meanAtomicNumber(Composition comp) {
+         return mWeightAverage ? comp.weightAvgAtomicNumber() : comp.meanAtomicNumber();
+      }
+
       /**
        * Set the model parameters.
        * 
@@ -450,7 +486,7 @@ abstract public class BremsstrahlungAnalytic extends AlgorithmClass {
           * material is A*Z_A + B*Z_B for A+B atoms so the average Z per atom is
           * (A*Z_A + B*Z_B)/(A+B). That is to say I think Donovan is correct.
           */
-         mMeanZ = mWeightAverage ? comp.weightAvgAtomicNumber() : comp.meanAtomicNumber();
+         mMeanZ = meanAtomicNumber(comp);
       }
 
       /**
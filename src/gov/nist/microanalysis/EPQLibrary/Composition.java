@@ -413,7 +413,7 @@ public class Composition implements Comparable<Composition>, Cloneable, Serializ
    private void recomputeWeightFractions() {
       UncertainValue2 totalWgt = UncertainValue2.ZERO;
       for (final Element elm : mConstituentsAtomic.keySet())
-         totalWgt = UncertainValue2.add(totalWgt, UncertainValue2.multiply(elm.getAtomicWeight(), atomicPercentU(elm)));
+         totalWgt = UncertainValue2.add(1.0, totalWgt, elm.getAtomicWeight(), atomicPercentU(elm));
       mConstituents.clear();
       for (final Element elm : mConstituentsAtomic.keySet()) {
          final UncertainValue2 wgtFrac = UncertainValue2.multiply(elm.getAtomicWeight(), UncertainValue2.divide(atomicPercentU(elm), totalWgt));
@@ -511,7 +511,7 @@ public class Composition implements Comparable<Composition>, Cloneable, Serializ
       for (final Element el : elms) {
          UncertainValue2 sum = UncertainValue2.ZERO;
          for (int i = 0; i < compositions.length; ++i)
-            sum = UncertainValue2.add(sum, UncertainValue2.multiply(matFracs[i], compositions[i].weightFractionU(el, true)));
+            sum = UncertainValue2.add(1.0, sum, matFracs[i], compositions[i].weightFractionU(el, true));
          frac[ji] = sum;
          newElms[ji] = el;
          ++ji;
@@ -744,7 +744,7 @@ public class Composition implements Comparable<Composition>, Cloneable, Serializ
       UncertainValue2 res = UncertainValue2.ZERO;
       for (final Map.Entry<Element, UncertainValue2> me : mConstituents.entrySet()) {
          final Element elm = me.getKey();
-         res = UncertainValue2.add(res, UncertainValue2.multiply(elm.getAtomicNumber(), weightFractionU(elm, true)));
+         res = UncertainValue2.add(1.0, res, elm.getAtomicNumber(), weightFractionU(elm, true));
       }
       return res;
    }
@@ -1218,7 +1218,7 @@ public class Composition implements Comparable<Composition>, Cloneable, Serializ
    public UncertainValue2 meanAtomicNumberU() {
       UncertainValue2 res = UncertainValue2.ZERO;
       for (final Element elm : getElementSet())
-         res = UncertainValue2.add(res, UncertainValue2.multiply(elm.getAtomicNumber(), weightFractionU(elm, false)));
+         res = UncertainValue2.add(1.0, res, elm.getAtomicNumber(), weightFractionU(elm, false));
       return res;
    }
 
@@ -1376,8 +1376,12 @@ public class Composition implements Comparable<Composition>, Cloneable, Serializ
 
    public Composition normalize() {
       final Composition res = new Composition();
+      // Equivalent to addElement(...) for each element but only recomputes the
+      // derived quantities once.
       for (final Element elm : getElementSet())
-         res.addElement(elm, weightFraction(elm, true));
+         res.mConstituents.put(elm, new UncertainValue2(weightFraction(elm, true)));
+      res.recomputeStoiciometry();
+      res.renormalize();
       res.setName("N" + getName());
       return res;
    }
@@ -12,12 +12,15 @@ import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
 import java.util.Set;
 import java.util.SortedSet;
 import java.util.TreeMap;
 import java.util.TreeSet;
+import java.util.concurrent.atomic.AtomicLong;
 
 import gov.nist.microanalysis.Utility.HalfUpFormat;
 import gov.nist.microanalysis.Utility.UncertainValue2;
@@ -291,6 +294,178 @@ public class CompositionFromKRatios extends AlgorithmClass {
       }
    }
 
+   /**
+    * <p>
+    * A bounded, thread-safe memo of standard-side ZAF corrections. The ZAF
+    * correction for a standard depends only upon the standard's composition,
+    * the x-ray transition, the measurement conditions and the
+    * CorrectionAlgorithm (and the Strategy in force). It is therefore the same
+    * for every unknown quantified against the standard. By default, all
+    * CompositionFromKRatios objects created within a SimulationContext share
+    * one StandardZAFCache.
+    * </p>
+    * <p>
+    * The cache retains copies of the standard's Composition and of the
+    * Strategy override so that later modifications to either are detected
+    * rather than served stale results.
+    * </p>
+    */
+   public static class StandardZAFCache {
+
+      private static final class Key {
+         private final CorrectionAlgorithm mAlgorithm;
+         // The override's algorithm mappings (by value not by reference)
+         private final Map<String, AlgorithmClass> mOverride;
+         private final Composition mStandard;
+         private final XRayTransition mTransition;
+         private final double mBeamEnergy;
+         private final double mTakeOffAngle;
+         private final double mExitAngle;
+         private final double mTilt;
+         private final double[] mSurfaceNormal;
+         private final SampleShape mShape;
+         private final double mDensity;
+         private final int mHashCode;
+
+         private Key(final CorrectionAlgorithm ca, final Composition std, final XRayTransition xrt, final SpectrumProperties props) throws EPQException {
+            mAlgorithm = ca;
+            final Strategy override = SimulationContext.current().getStrategyOverride();
+            mOverride = new TreeMap<String, AlgorithmClass>();
+            if (override != null)
+               for (final String cls : override.listAlgorithmClasses())
+                  mOverride.put(cls, override.getAlgorithm(cls));
+            mStandard = std;
+            mTransition = xrt;
+            mBeamEnergy = props.getNumericProperty(SpectrumProperties.BeamEnergy);
+            mTakeOffAngle = SpectrumUtils.getTakeOffAngle(props);
+            mExitAngle = SpectrumUtils.getExitAngle(props);
+            // XPP1989Ext and others depend upon the sample tilt
+            mTilt = CorrectionAlgorithm.getTilt(props);
+            mSurfaceNormal = SpectrumUtils.getSurfaceNormal(props).clone();
+            mShape = props.getSampleShapeWithDefault(SpectrumProperties.SampleShape, null);
+            mDensity = props.getNumericWithDefault(SpectrumProperties.SpecimenDensity, Double.NaN);
+            mHashCode = Objects.hash(System.identityHashCode(ca), mOverride.keySet(), std, xrt, mBeamEnergy, mTakeOffAngle, mExitAngle, mTilt,
+                  Arrays.hashCode(mSurfaceNormal), mShape, mDensity);
+         }
+
+         private Key(final Key key, final Composition std) {
+            mAlgorithm = key.mAlgorithm;
+            mOverride = key.mOverride;
+            mStandard = std;
+            mTransition = key.mTransition;
+            mBeamEnergy = key.mBeamEnergy;
+            mTakeOffAngle = key.mTakeOffAngle;
+            mExitAngle = key.mExitAngle;
+            mTilt = key.mTilt;
+            mSurfaceNormal = key.mSurfaceNormal;
+            mShape = key.mShape;
+            mDensity = key.mDensity;
+            mHashCode = key.mHashCode;
+         }
+
+         /**
+          * A Key suitable for storing in the cache. The caller's standard may
+          * later be modified so the stored key holds a copy.
+          */
+         private Key snapshot() {
+            return new Key(this, mStandard.clone());
+         }
+
+         @Override
+         public int hashCode() {
+            return mHashCode;
+         }
+
+         @Override
+         public boolean equals(final Object obj) {
+            if (this == obj)
+               return true;
+            if (!(obj instanceof Key))
+               return false;
+            final Key other = (Key) obj;
+            return (mHashCode == other.mHashCode) && (mAlgorithm == other.mAlgorithm) && mOverride.equals(other.mOverride)
+                  && (Double.compare(mBeamEnergy, other.mBeamEnergy) == 0) && (Double.compare(mTakeOffAngle, other.mTakeOffAngle) == 0)
+                  && (Double.compare(mExitAngle, other.mExitAngle) == 0) && (Double.compare(mTilt, other.mTilt) == 0)
+                  && Arrays.equals(mSurfaceNormal, other.mSurfaceNormal) && (Double.compare(mDensity, other.mDensity) == 0)
+                  && mTransition.equals(other.mTransition) && Objects.equals(mShape, other.mShape) && mStandard.equals(other.mStandard);
+         }
+      }
+
+      private final Map<Key, Double> mCache;
+      private final AtomicLong mHits = new AtomicLong();
+      private final AtomicLong mMisses = new AtomicLong();
+
+      /**
+       * Constructs a StandardZAFCache which holds at most capacity entries.
+       * The least recently used entries are discarded first.
+       *
+       * @param capacity
+       */
+      public StandardZAFCache(final int capacity) {
+         mCache = Collections.synchronizedMap(new LinkedHashMap<Key, Double>(16, 0.75f, true) {
+            private static final long serialVersionUID = 7164403947329017563L;
+
+            @Override
+            protected boolean removeEldestEntry(final Map.Entry<Key, Double> eldest) {
+               return size() > capacity;
+            }
+         });
+      }
+
+      /**
+       * Returns the StandardZAFCache shared by the current SimulationContext.
+       *
+       * @return StandardZAFCache
+       */
+      public static StandardZAFCache getDefault() {
+         final SimulationContext sc = SimulationContext.current();
+         final StandardZAFCache res = sc.getResource(StandardZAFCache.class, "default");
+         return res != null ? res : sc.putResourceIfAbsent(StandardZAFCache.class, "default", new StandardZAFCache(10000));
+      }
+
+      /**
+       * Returns the ZAF correction for the standard std computed using ca.
+       * The value is computed and memoised if it is not already available.
+       *
+       * @param ca
+       * @param std
+       * @param xrt
+       * @param props
+       * @return ZAF[std]
+       * @throws EPQException
+       */
+      public double get(final CorrectionAlgorithm ca, final Composition std, final XRayTransition xrt, final SpectrumProperties props)
+            throws EPQException {
+         final Key key = new Key(ca, std, xrt, props);
+         final Double res = mCache.get(key);
+         if (res != null) {
+            mHits.incrementAndGet();
+            return res.doubleValue();
+         }
+         mMisses.incrementAndGet();
+         // Computed outside the lock; a concurrent miss may compute it twice
+         final double zaf = ca.createContext(std, xrt.getDestination(), props).computeZAFCorrection(xrt);
+         mCache.put(key.snapshot(), Double.valueOf(zaf));
+         return zaf;
+      }
+
+      public long getHitCount() {
+         return mHits.get();
+      }
+
+      public long getMissCount() {
+         return mMisses.get();
+      }
+
+      public int size() {
+         return mCache.size();
+      }
+
+      public void clear() {
+         mCache.clear();
+      }
+   }
+
    // Helper to tie reference Composition and SpectrumProperties together
    private class TransitionData {
       private final Composition mComposition;
@@ -312,13 +487,14 @@ public class CompositionFromKRatios extends AlgorithmClass {
       private double getKstd(final XRayTransition xrt) {
          if (!mZAFFactors.containsKey(xrt))
             try {
-               final CorrectionAlgorithm ca = getCorrectionAlgorithm();
-               ca.initialize(mComposition, xrt.getDestination(), mProperties);
+               final StandardZAFCache cache = getStandardZAFCache();
+               final double zaf = cache != null ? cache.get(getCorrectionAlgorithm(), mComposition, xrt, mProperties)
+                     : getCorrectionAlgorithm().createContext(mComposition, xrt.getDestination(), mProperties).computeZAFCorrection(xrt);
                final ConductiveCoating cc = (ConductiveCoating) mProperties.getObjectWithDefault(SpectrumProperties.ConductiveCoating, null);
                final double toa = SpectrumUtils.getTakeOffAngle(mProperties);
                final double trStd = cc != null ? cc.computeTransmission(toa, xrt) : 1.0;
                mZAFFactors.put(xrt, //
-                     ca.computeZAFCorrection(xrt) * mComposition.weightFraction(xrt.getElement(), false) * trStd);
+                     zaf * mComposition.weightFraction(xrt.getElement(), false) * trStd);
             } catch (final EPQException e) {
                mZAFFactors.put(xrt, mComposition.weightFraction(xrt.getElement(), false));
             }
@@ -339,6 +515,8 @@ public class CompositionFromKRatios extends AlgorithmClass {
    private final Map<Element, XRayTransitionSet> mUserSelectedTransitions = new HashMap<Element, XRayTransitionSet>();
    // Correction algorithm
    private CorrectionAlgorithm mCorrectionAlgorithm = null;
+   // Shared memo of standard-side ZAF corrections (null to disable)
+   private StandardZAFCache mStandardZAFCache = StandardZAFCache.getDefault();
    // Optional coating on unknown sample
    private ConductiveCoating mCoating = null;
    private String mWarningMessage = null;
@@ -537,7 +715,8 @@ public class CompositionFromKRatios extends AlgorithmClass {
 
    public Composition iterate(final KRatioSet krs, final SpectrumProperties unkProps, final Composition initialGuess) throws EPQException {
       Composition prev = initialGuess;
-      IterationAlgorithm ia = (IterationAlgorithm) getAlgorithm(IterationAlgorithm.class);
+      // Iterate on a private copy since IterationAlgorithm instances hold state
+      IterationAlgorithm ia = ((IterationAlgorithm) getAlgorithm(IterationAlgorithm.class)).clone();
       FileWriter lfs = null;
       mWarningMessage = null;
       if (LOG_ITERATION)
@@ -560,9 +739,11 @@ public class CompositionFromKRatios extends AlgorithmClass {
             // Compute k-ratios based on the estimated composition
             final Map<XRayTransitionSet, Double> zafMap = new TreeMap<XRayTransitionSet, Double>();
             final KRatioSet calcKrs = new KRatioSet();
+            // Transitions sharing a shell share the unknown-side set-up
+            final Map<AtomicShell, CorrectionAlgorithm.Context> contexts = new HashMap<AtomicShell, CorrectionAlgorithm.Context>();
             for (final XRayTransitionSet xrts : krs.getTransitions()) {
                // zafCorr = ZAF[unk]/(C[std]*ZAF[std])
-               final double zafCorr = prev.weightFraction(xrts.getElement(), false) > 0.0 ? compute(xrts, prev, unkProps) : 1.0;
+               final double zafCorr = prev.weightFraction(xrts.getElement(), false) > 0.0 ? compute(xrts, prev, unkProps, contexts) : 1.0;
                calcKrs.addKRatio(xrts, new UncertainValue2( //
                      zafCorr * prev.weightFraction(xrts.getElement(), false), //
                      krs.getKRatioU(xrts).uncertainty()) //
@@ -619,6 +800,18 @@ public class CompositionFromKRatios extends AlgorithmClass {
       return prev.normalize();
    }
 
+   private Composition seedInitialComposition(final KRatioSet krs, final Composition seed) {
+      Composition prev = new Composition();
+      for (final Element elm : krs.getElementSet()) {
+         if (!seed.containsElement(elm))
+            return estimateInitialComposition(krs);
+         prev.addElement(elm, seed.weightFractionU(elm, false));
+      }
+      for (final UnmeasuredElementRule uer : mUnmeasuredElementRule)
+         prev = uer.compute(prev);
+      return prev;
+   }
+
    private KRatioSet pickOptimized(final Composition firstC, final KRatioSet measured, final SpectrumProperties unkProps) {
       final KRatioSet res = new KRatioSet();
       // For each element select the best XRayTransitionSet
@@ -705,6 +898,23 @@ public class CompositionFromKRatios extends AlgorithmClass {
     * @throws EPQException
     */
    public Composition compute(final KRatioSet measured, final SpectrumProperties unkProps) throws EPQException {
+      return compute(measured, unkProps, null);
+   }
+
+   /**
+    * As <code>compute(measured, unkProps)</code> except the iteration starts
+    * from the specified Composition rather than from an estimate derived from
+    * the k-ratios. A good seed, such as the converged result for a similar
+    * set of k-ratios, reduces the number of iterations. If the seed is null or
+    * lacks any of the measured elements, the usual estimate is used.
+    *
+    * @param measured
+    * @param unkProps
+    * @param seed An initial estimate of the Composition (may be null)
+    * @return The best estimate Composition for the measured k-ratio set
+    * @throws EPQException
+    */
+   public Composition compute(final KRatioSet measured, final SpectrumProperties unkProps, final Composition seed) throws EPQException {
       if (!isReady(measured))
          throwConfigurationError(measured);
       final KRatioSet measuredNz = new KRatioSet(), measuredZ = new KRatioSet();
@@ -721,7 +931,7 @@ public class CompositionFromKRatios extends AlgorithmClass {
       mIterationCount = 0;
       // Try up to mMaxIterations iterations until convergence achieved
       final KRatioSet firstKrs = selectInitialKRatios(measuredNz);
-      final Composition firstC = iterate(firstKrs, unkProps, estimateInitialComposition(firstKrs));
+      final Composition firstC = iterate(firstKrs, unkProps, seed != null ? seedInitialComposition(firstKrs, seed) : estimateInitialComposition(firstKrs));
       // Use the total uncertainty budget to pick the best sub-set of k-ratios
       mBestKRS = pickOptimized(firstC, measuredNz, unkProps);
       // Reiterate if necessary based on the optimized k-ratio set.
@@ -831,6 +1041,38 @@ public class CompositionFromKRatios extends AlgorithmClass {
       return false;
    }
 
+   /**
+    * Specifies the CorrectionAlgorithm instance to use in place of the default.
+    * The correction factors are computed through
+    * CorrectionAlgorithm.createContext(...) so the CorrectionAlgorithm is never
+    * modified and may be shared by CompositionFromKRatios objects used
+    * concurrently.
+    *
+    * @param ca
+    */
+   public void setCorrectionAlgorithm(final CorrectionAlgorithm ca) {
+      mCorrectionAlgorithm = ca;
+      for (final TransitionData td : mStandardData.values())
+         td.mZAFFactors.clear();
+   }
+
+   /**
+    * Specifies the memo used to share standard-side ZAF corrections between
+    * CompositionFromKRatios objects. The default is
+    * StandardZAFCache.getDefault(). Specify null to disable sharing.
+    *
+    * @param cache
+    */
+   public void setStandardZAFCache(final StandardZAFCache cache) {
+      mStandardZAFCache = cache;
+      for (final TransitionData td : mStandardData.values())
+         td.mZAFFactors.clear();
+   }
+
+   public StandardZAFCache getStandardZAFCache() {
+      return mStandardZAFCache;
+   }
+
    public CorrectionAlgorithm getCorrectionAlgorithm() {
       if (mCorrectionAlgorithm == null)
          mCorrectionAlgorithm = AlgorithmUser.getDefaultCorrectionAlgorithm();
@@ -852,6 +1094,16 @@ public class CompositionFromKRatios extends AlgorithmClass {
     * @return Returns ZAF[unk]/(C[std]*ZAF[std])
     */
    public double compute(final XRayTransitionSet xrts, final Composition unkComp, final SpectrumProperties unkProps) {
+      return compute(xrts, unkComp, unkProps, new HashMap<AtomicShell, CorrectionAlgorithm.Context>());
+   }
+
+   /**
+    * As compute(xrts, unkComp, unkProps) but shares the unknown-side
+    * CorrectionAlgorithm.Context objects (one per shell) with other calls
+    * for the same unknown composition and properties through contexts.
+    */
+   private double compute(final XRayTransitionSet xrts, final Composition unkComp, final SpectrumProperties unkProps,
+         final Map<AtomicShell, CorrectionAlgorithm.Context> contexts) {
       assert (unkProps.isDefined(SpectrumProperties.BeamEnergy));
       final SampleShape ss = unkProps.getSampleShapeWithDefault(SpectrumProperties.SampleShape, null);
       assert (ss == null) || getCorrectionAlgorithm().supports(ss.getClass());
@@ -875,10 +1127,13 @@ public class CompositionFromKRatios extends AlgorithmClass {
             final AtomicShell shell = xrt.getDestination();
             if (unkComp.containsElement(shell.getElement()))
                try {
-                  final CorrectionAlgorithm ca = getCorrectionAlgorithm();
-                  ca.initialize(unkComp, shell, unkProps);
+                  CorrectionAlgorithm.Context ctx = contexts.get(shell);
+                  if (ctx == null) {
+                     ctx = getCorrectionAlgorithm().createContext(unkComp, shell, unkProps);
+                     contexts.put(shell, ctx);
+                  }
                   // kstd = ZAFstd Cstd trStd
-                  sum += (w * ca.computeZAFCorrection(xrt) * trUnk) / kStd;
+                  sum += (w * ctx.computeZAFCorrection(xrt) * trUnk) / kStd;
                   // sum += (w ZAFunk trUnk) / (ZAFstd Cstd trStd)
                   sumW += w;
                } catch (final EPQException e) {
@@ -11,8 +11,11 @@ import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
 import java.util.TreeMap;
 import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * <p>
@@ -20,6 +23,16 @@ import java.util.TreeSet;
  * composition.
  * </p>
  * <p>
+ * The mass fraction uncertainties computed for each candidate standard are
+ * memoised in a cache shared by all CompositionOptimizer instances so
+ * repeated optimizations in a session (different beam energies, re-running
+ * after changing the exclusion list, ...) only compute each standard once.
+ * The cache holds copies of the standard, of the estimated unknown and of the
+ * Strategy override, and hands out copies of the cached uncertainties, so
+ * later modifications by the caller neither corrupt nor go unnoticed by the
+ * cache.
+ * </p>
+ * <p>
  * Copyright: Pursuant to title 17 Section 105 of the United States Code this
  * software is not subject to copyright protection and is in the public domain
  * </p>
@@ -42,7 +55,7 @@ public class CompositionOptimizer extends EPMAOptimizer {
          assert region.getElementSet().size() == 1;
          final Element elm = region.getElementSet().first();
          final XRayTransition xrt = region.getXRayTransitionSet(elm).getWeighiestTransition();
-         mComposition = XPP1991.massFraction(std, mEstimatedUnknown, xrt, sp);
+         mComposition = massFraction(std, mEstimatedUnknown, xrt, sp);
          mScore = 100.0 * (1.0 - mComposition.fractionalUncertainty());
          final RegionOfInterestSet rois = new RegionOfInterestSet(region);
          final double e0 = ToSI.keV(sp.getNumericWithDefault(SpectrumProperties.BeamEnergy, 20.0));
@@ -74,6 +87,99 @@ public class CompositionOptimizer extends EPMAOptimizer {
 
    }
 
+   private static final class MassFractionKey {
+      private final Composition mStandard;
+      private final Composition mUnknown;
+      private final XRayTransition mTransition;
+      private final double mBeamEnergy;
+      private final double mTakeOffAngle;
+      private final double mExitAngle;
+      // The algorithms used by XPP1991 depend upon the SimulationContext
+      private final MassAbsorptionCoefficient mMAC;
+      // The override's algorithm mappings (by value not by reference)
+      private final Map<String, AlgorithmClass> mOverride;
+      private final int mHashCode;
+
+      private MassFractionKey(Composition std, Composition unk, XRayTransition xrt, SpectrumProperties sp) throws EPQException {
+         mStandard = std;
+         mUnknown = unk;
+         mTransition = xrt;
+         mBeamEnergy = sp.getNumericProperty(SpectrumProperties.BeamEnergy);
+         mTakeOffAngle = SpectrumUtils.getTakeOffAngle(sp);
+         mExitAngle = SpectrumUtils.getExitAngle(sp);
+         mMAC = AlgorithmUser.getDefaultMAC();
+         final Strategy override = SimulationContext.current().getStrategyOverride();
+         mOverride = new TreeMap<String, AlgorithmClass>();
+         if (override != null)
+            for (final String cls : override.listAlgorithmClasses())
+               mOverride.put(cls, override.getAlgorithm(cls));
+         mHashCode = Objects.hash(std, unk, xrt, mBeamEnergy, mTakeOffAngle, mExitAngle, System.identityHashCode(mMAC), mOverride.keySet());
+      }
+
+      private MassFractionKey(MassFractionKey key, Composition std, Composition unk) {
+         mStandard = std;
+         mUnknown = unk;
+         mTransition = key.mTransition;
+         mBeamEnergy = key.mBeamEnergy;
+         mTakeOffAngle = key.mTakeOffAngle;
+         mExitAngle = key.mExitAngle;
+         mMAC = key.mMAC;
+         mOverride = key.mOverride;
+         mHashCode = key.mHashCode;
+      }
+
+      /**
+       * A key suitable for storing in the cache. The caller's standard and
+       * unknown may later be modified so the stored key holds copies.
+       */
+      private MassFractionKey snapshot() {
+         return new MassFractionKey(this, mStandard.clone(), mUnknown.clone());
+      }
+
+      @Override
+      public int hashCode() {
+         return mHashCode;
+      }
+
+      @Override
+      public boolean equals(Object obj) {
+         if (!(obj instanceof MassFractionKey))
+            return false;
+         final MassFractionKey other = (MassFractionKey) obj;
+         return mStandard.equals(other.mStandard) && mUnknown.equals(other.mUnknown) && mTransition.equals(other.mTransition)
+               && (Double.compare(mBeamEnergy, other.mBeamEnergy) == 0) && (Double.compare(mTakeOffAngle, other.mTakeOffAngle) == 0)
+               && (Double.compare(mExitAngle, other.mExitAngle) == 0) && (mMAC == other.mMAC) && mOverride.equals(other.mOverride);
+      }
+   }
+
+   private static final ConcurrentHashMap<MassFractionKey, UncertainValue2> sMassFractions = new ConcurrentHashMap<MassFractionKey, UncertainValue2>();
+   private static final int MAX_MASS_FRACTIONS = 100000;
+
+   /**
+    * A memoised version of XPP1991.massFraction(...). Returns a copy which
+    * the caller is free to modify.
+    */
+   private static UncertainValue2 massFraction(Composition std, Composition unk, XRayTransition xrt, SpectrumProperties sp) throws EPQException {
+      final MassFractionKey key = new MassFractionKey(std, unk, xrt, sp);
+      UncertainValue2 res = sMassFractions.get(key);
+      if (res == null) {
+         res = XPP1991.massFraction(std, unk, xrt, sp);
+         if (sMassFractions.size() > MAX_MASS_FRACTIONS)
+            sMassFractions.clear();
+         sMassFractions.put(key.snapshot(), res.clone());
+         return res;
+      }
+      return res.clone();
+   }
+
+   /**
+    * Empties the cache of mass fraction uncertainties shared by all
+    * CompositionOptimizer instances.
+    */
+   public static void clearCache() {
+      sMassFractions.clear();
+   }
+
    private double mNominalIntegral = 1.00e6; // Number of counts in a nominal
    private final StandardsDatabase2 mDatabase;
    private final TreeSet<StandardBlock2> mExclude;
@@ -107,15 +213,25 @@ public class CompositionOptimizer extends EPMAOptimizer {
     */
    @Override
    public List<OptimizedStandard> getOptimizedStandards(Element elm, SpectrumProperties sp) throws EPQException {
-      final ArrayList<OptimizedStandard> res = new ArrayList<EPMAOptimizer.OptimizedStandard>();
+      startOptimization();
       final List<Composition> comps = mDatabase.findStandards(elm, 0.01, mExclude);
       final double e0 = ToSI.keV(sp.getNumericProperty(SpectrumProperties.BeamEnergy));
       final RegionOfInterestSet rois = LinearSpectrumFit.createElementROIS(elm, mDetector, e0);
-      for (final Composition comp : comps)
-         for (final RegionOfInterest roi : rois)
-            res.add(new CompositionOptimizedStandard(comp, roi, sp));
-      Collections.sort(res);
-      return res;
+      final boolean inUnk = mEstimatedUnknown.weightFraction(elm, false) > 0.0;
+      return evaluateCandidates(comps, rois, new CandidateEvaluator() {
+         @Override
+         public double bound(Composition std) {
+            // The uncertainty in the standard's composition is one of the
+            // terms added in quadrature so it bounds the score. (Relaxed a
+            // little to allow for round-off.)
+            return inUnk ? 100.0 * (1.0 - (0.999999 * std.weightFractionU(elm, false).fractionalUncertainty())) : Double.POSITIVE_INFINITY;
+         }
+
+         @Override
+         public OptimizedStandard evaluate(Composition std, RegionOfInterest roi) throws EPQException {
+            return new CompositionOptimizedStandard(std, roi, sp);
+         }
+      });
    }
 
    private class RefComparitor implements Comparator<Composition> {
@@ -25,7 +25,16 @@ import gov.nist.microanalysis.Utility.UncertainValue2;
  * back-calculate the Z term.
  * <p>
  * The usage of the CorrectionAlgorithm involves first calling initialize(...)
- * followed by computeZAFCorrection(...) or generated(...).
+ * followed by computeZAFCorrection(...) or generated(...). Since
+ * initialize(...) stores its results in the instance, a CorrectionAlgorithm
+ * can't be shared between threads this way. Use createContext(...) instead to
+ * obtain a CorrectionAlgorithm.Context for each thread.
+ * </p>
+ * <p>
+ * When many transitions are required for a single composition (as when
+ * simulating a spectrum), computeBatch(...) evaluates them all in one call
+ * initializing each ionized shell only once and sharing the
+ * composition-dependent terms between shells.
  * </p>
  * <p>
  * Copyright: Pursuant to title 17 Section 105 of the United States Code this
@@ -38,7 +47,7 @@ import gov.nist.microanalysis.Utility.UncertainValue2;
  * @author Nicholas W. M. Ritchie
  * @version 1.0
  */
-abstract public class CorrectionAlgorithm extends AlgorithmClass implements Comparable<AlgorithmClass> {
+abstract public class CorrectionAlgorithm extends AlgorithmClass implements Comparable<AlgorithmClass>, Cloneable {
 
    /**
     * @author nicholas
@@ -92,6 +101,20 @@ abstract public class CorrectionAlgorithm extends AlgorithmClass implements Comp
     */
    protected SpectrumProperties mProperties;
 
+   /**
+    * The most recent result of normalized(...). Compositions are normalized
+    * once on entry to initialize(...) rather than at each level of the class
+    * hierarchy.
+    */
+   private transient Composition mNormalized;
+
+   /**
+    * Tabulated MACs for chi(...) and for the Fluorescence algorithm. Only
+    * assigned by computeBatch(...) on a private copy.
+    */
+   private transient MACMatrix mMACs;
+   private transient MACMatrix mFluorescenceMACs;
+
    public CorrectionAlgorithm(String name, String ref) {
       super("Matrix Correction", name, ref);
    }
@@ -145,11 +168,12 @@ abstract public class CorrectionAlgorithm extends AlgorithmClass implements Comp
     *         changed.
     */
    public boolean initialize(Composition comp, AtomicShell shell, SpectrumProperties props) throws EPQException {
-      comp = comp.normalize();
+      comp = normalized(comp);
       final double e0 = ToSI.keV(props.getNumericProperty(SpectrumProperties.BeamEnergy));
       final double exitAngle = SpectrumUtils.getExitAngle(props);
       final double takeOff = SpectrumUtils.getTakeOffAngle(props);
-      final boolean res = (!comp.equals(mComposition)) || (!mShell.equals(shell) || (!mProperties.equals(props)));
+      final boolean newComp = !comp.equals(mComposition);
+      final boolean res = newComp || (!mShell.equals(shell) || (!mProperties.equals(props)));
       if (res) {
          mComposition = comp;
          mBeamEnergy = e0;
@@ -162,10 +186,292 @@ abstract public class CorrectionAlgorithm extends AlgorithmClass implements Comp
                   + mShell.getElement().toAbbrev() + " represented by " + shell.toString());
          if (shell.getEdgeEnergy() > e0)
             throw new IllegalArgumentException("The beam energy is less than the shell excitation energy for" + shell.toString() + ".");
+         if (newComp)
+            initializeComposition();
       }
       return res;
    }
 
+   /**
+    * Called by initialize(...) when the composition has changed (but not when
+    * only the shell or properties have changed.) Override this in derived
+    * classes to precompute quantities like mean atomic numbers which depend
+    * only upon mComposition.
+    */
+   protected void initializeComposition() {
+   }
+
+   /**
+    * Returns a normalized copy of comp. Repeated calls with the result of a
+    * previous call return the argument rather than normalizing again so
+    * derived classes may call this before calling super.initialize(...)
+    * without renormalizing at each level.
+    * 
+    * @param comp
+    * @return Composition
+    */
+   protected Composition normalized(Composition comp) {
+      if (comp != mNormalized)
+         mNormalized = comp.normalize();
+      return mNormalized;
+   }
+
+   /**
+    * <p>
+    * Computes the quantity of x-rays generated and the ZAF correction for each
+    * of a set of x-ray transitions in a single composition. The results are
+    * identical to those from calling initialize(comp, shells[i], props)
+    * followed by generated(xrts[i]) and computeZAFCorrection(xrts[i]) but the
+    * composition is only normalized once, each ionized shell is only
+    * initialized once and the composition-dependent terms are shared between
+    * shells.
+    * </p>
+    * <p>
+    * The calculation is performed on a private copy of this algorithm so
+    * this instance is not modified and computeBatch(...) may be called
+    * concurrently on the shared static instances.
+    * </p>
+    * 
+    * @param comp
+    *           The material's Composition (as best known)
+    * @param props
+    *           A SpectrumProperties object containing at least
+    *           SpectrumProperties.BeamEnergy and
+    *           SpectrumProperties.TakeOffAngle
+    * @param shells
+    *           The ionized shell associated with each transition. Usually
+    *           xrts[i].getDestination() but may differ when the vacancy
+    *           results from a Coster-Kronig transition.
+    * @param xrts
+    *           The transitions
+    * @param generated
+    *           On return, generated[i] = generated(xrts[i]) (or null if not
+    *           required)
+    * @param emitted
+    *           On return, emitted[i] = computeZAFCorrection(xrts[i]) (or null
+    *           if not required)
+    * @throws EPQException
+    */
+   public void computeBatch(Composition comp, SpectrumProperties props, AtomicShell[] shells, XRayTransition[] xrts, double[] generated,
+         double[] emitted) throws EPQException {
+      assert shells.length == xrts.length;
+      assert (generated == null) || (generated.length >= xrts.length);
+      assert (emitted == null) || (emitted.length >= xrts.length);
+      final CorrectionAlgorithm ca = clone();
+      final Composition norm = ca.normalized(comp);
+      if (emitted != null) {
+         // Tabulate the MACs for this set of lines and elements
+         final List<XRayTransition> lines = Arrays.asList(xrts);
+         ca.mMACs = MACMatrix.get((MassAbsorptionCoefficient) getAlgorithm(MassAbsorptionCoefficient.class), norm.getElementSet(), lines);
+         final Fluorescence fl = (Fluorescence) getAlgorithm(Fluorescence.class);
+         if (fl != null)
+            ca.mFluorescenceMACs = fl.createMACMatrix(norm, lines, ToSI.keV(props.getNumericProperty(SpectrumProperties.BeamEnergy)));
+      }
+      // Visit the transitions shell-by-shell
+      final Integer[] order = new Integer[xrts.length];
+      for (int i = 0; i < order.length; ++i)
+         order[i] = Integer.valueOf(i);
+      Arrays.sort(order, (i1, i2) -> shells[i1.intValue()].compareTo(shells[i2.intValue()]));
+      AtomicShell prev = null;
+      for (final Integer idx : order) {
+         final int i = idx.intValue();
+         final AtomicShell shell = shells[i];
+         if (!shell.equals(prev)) {
+            ca.initialize(norm, shell, props);
+            prev = shell;
+         }
+         if (generated != null)
+            generated[i] = ca.generated(xrts[i]);
+         if (emitted != null)
+            emitted[i] = ca.computeZAFCorrection(xrts[i]);
+      }
+   }
+
+   /**
+    * Equivalent to computeBatch(comp, props, shells, xrts, generated,
+    * emitted) where shells[i] = xrts[i].getDestination().
+    * 
+    * @param comp
+    * @param props
+    * @param xrts
+    * @param generated
+    *           On return, generated[i] = generated(xrts[i]) (or null if not
+    *           required)
+    * @param emitted
+    *           On return, emitted[i] = computeZAFCorrection(xrts[i]) (or null
+    *           if not required)
+    * @throws EPQException
+    */
+   public void computeBatch(Composition comp, SpectrumProperties props, XRayTransition[] xrts, double[] generated, double[] emitted)
+         throws EPQException {
+      final AtomicShell[] shells = new AtomicShell[xrts.length];
+      for (int i = 0; i < shells.length; ++i)
+         shells[i] = xrts[i].getDestination();
+      computeBatch(comp, props, shells, xrts, generated, emitted);
+   }
+
+   /**
+    * <p>
+    * An initialized, immutable view of a CorrectionAlgorithm for one
+    * composition, shell and set of properties. The context holds a private,
+    * initialized copy of the algorithm (and thus the precomputed
+    * &phi;(&rho;z) parameters) which is never re-initialized. As a result the
+    * compute methods always return the same result for the same argument.
+    * </p>
+    * <p>
+    * The copy is a clone(), so some algorithms (the particle corrections, for
+    * example) keep per-transition scratch values in it. A context must
+    * therefore be used by one thread at a time. Create one context per thread
+    * rather than sharing a context between threads.
+    * </p>
+    * <p>
+    * Contexts are created with CorrectionAlgorithm.createContext(...), which
+    * may be called concurrently on the shared static instances.
+    * </p>
+    */
+   public static final class Context {
+      private final CorrectionAlgorithm mSource;
+      private final CorrectionAlgorithm mInitialized;
+
+      private Context(CorrectionAlgorithm source, CorrectionAlgorithm initialized) {
+         mSource = source;
+         mInitialized = initialized;
+      }
+
+      /**
+       * The CorrectionAlgorithm from which this context was created.
+       * 
+       * @return CorrectionAlgorithm
+       */
+      public CorrectionAlgorithm getCorrectionAlgorithm() {
+         return mSource;
+      }
+
+      /**
+       * The (normalized) composition for which this context was initialized.
+       * 
+       * @return Composition
+       */
+      public Composition getComposition() {
+         return mInitialized.mComposition;
+      }
+
+      public AtomicShell getShell() {
+         return mInitialized.mShell;
+      }
+
+      /**
+       * @return The beam energy in Joules
+       */
+      public double getBeamEnergy() {
+         return mInitialized.mBeamEnergy;
+      }
+
+      /**
+       * @return The take-off angle in radians
+       */
+      public double getTakeOffAngle() {
+         return mInitialized.mTakeOffAngle;
+      }
+
+      /**
+       * @return The exit angle in radians
+       */
+      public double getExitAngle() {
+         return mInitialized.mExitAngle;
+      }
+
+      /**
+       * @see CorrectionAlgorithm#computeZACorrection(XRayTransition)
+       */
+      public double computeZACorrection(XRayTransition xrt) throws EPQException {
+         return mInitialized.computeZACorrection(xrt);
+      }
+
+      /**
+       * @see CorrectionAlgorithm#computeZAFCorrection(XRayTransition)
+       */
+      public double computeZAFCorrection(XRayTransition xrt) throws EPQException {
+         return mInitialized.computeZAFCorrection(xrt);
+      }
+
+      /**
+       * @see CorrectionAlgorithm#generated(XRayTransition)
+       */
+      public double generated(XRayTransition xrt) {
+         return mInitialized.generated(xrt);
+      }
+
+      /**
+       * @see CorrectionAlgorithm#chi(XRayTransition)
+       */
+      public double chi(XRayTransition xrt) throws EPQException {
+         return mInitialized.chi(xrt);
+      }
+
+      /**
+       * @see CorrectionAlgorithm#chiU(XRayTransition)
+       */
+      public UncertainValue2 chiU(XRayTransition xrt) throws EPQException {
+         return mInitialized.chiU(xrt);
+      }
+
+      @Override
+      public String toString() {
+         return mSource.getName() + "[" + mInitialized.mComposition + "," + mInitialized.mShell + "]";
+      }
+   }
+
+   /**
+    * Creates an evaluation context for the specified composition, shell and
+    * properties. Unlike initialize(...), this method does not modify this
+    * CorrectionAlgorithm so it may be called concurrently on the shared static
+    * instances. The resulting context should be confined to one thread.
+    * 
+    * @param comp
+    *           The material's Composition (as best known)
+    * @param shell
+    *           The AtomicShell for which to compute the correction
+    * @param props
+    *           A SpectrumProperties object containing at least
+    *           SpectrumProperties.BeamEnergy and
+    *           SpectrumProperties.TakeOffAngle
+    * @return Context
+    * @throws EPQException
+    */
+   public Context createContext(Composition comp, AtomicShell shell, SpectrumProperties props) throws EPQException {
+      final CorrectionAlgorithm ca = clone();
+      ca.initialize(comp, shell, props);
+      return new Context(this, ca);
+   }
+
+   /**
+    * Creates an uninitialized copy of this CorrectionAlgorithm which shares
+    * this instance's Strategy. The copy must not share mutable state with
+    * this instance, since the copy and this instance may be used on different
+    * threads. Derived classes which hold mutable helper objects must override
+    * this to copy them. Scratch values written during computeZAFCorrection(...)
+    * may remain in member data because a copy is confined to one thread.
+    * 
+    * @return CorrectionAlgorithm
+    */
+   @Override
+   protected CorrectionAlgorithm clone() {
+      try {
+         final CorrectionAlgorithm res = (CorrectionAlgorithm) super.clone();
+         // Force a full initialize(...) on the copy
+         res.mComposition = null;
+         res.mShell = null;
+         res.mProperties = null;
+         res.mNormalized = null;
+         res.mMACs = null;
+         res.mFluorescenceMACs = null;
+         return res;
+      } catch (final CloneNotSupportedException e) {
+         throw new EPQFatalException(e);
+      }
+   }
+
    /**
     * computeTilt - Computes the sample tilt relative to the electron beam axis.
     * If the SampleSurfaceNormal property is available it is used otherwise,
@@ -381,7 +687,7 @@ abstract public class CorrectionAlgorithm extends AlgorithmClass implements Comp
    public double computeZAFCorrection(XRayTransition xrt) throws EPQException {
       assert mComposition != null;
       final Fluorescence fl = (Fluorescence) getAlgorithm(Fluorescence.class);
-      return (fl != null ? fl.compute(mComposition, xrt, mBeamEnergy, mExitAngle) : 1.0) * computeZACorrection(xrt);
+      return (fl != null ? fl.compute(mComposition, xrt, mBeamEnergy, mExitAngle, mFluorescenceMACs) : 1.0) * computeZACorrection(xrt);
    }
 
    /**
@@ -493,7 +799,7 @@ abstract public class CorrectionAlgorithm extends AlgorithmClass implements Comp
       if (Math.abs(mExitAngle) > ((Math.PI * 89.99) / 180.0))
          throw new EPQException("The take-off angle is outside the range [-89.99\u00B0), 89.99\u00B0].");
       final MassAbsorptionCoefficient mac = (MassAbsorptionCoefficient) getAlgorithm(MassAbsorptionCoefficient.class);
-      final double v = mac.compute(mComposition, xrt);
+      final double v = (mMACs != null) && (mMACs.getAlgorithm() == mac) ? mMACs.compute(mComposition, xrt) : mac.compute(mComposition, xrt);
       return v / Math.sin(mExitAngle);
    }
 
@@ -550,7 +856,7 @@ abstract public class CorrectionAlgorithm extends AlgorithmClass implements Comp
 
       @Override
       public boolean initialize(Composition comp, AtomicShell shell, SpectrumProperties prop) throws EPQException {
-         comp = comp.normalize();
+         comp = normalized(comp);
          final boolean res = super.initialize(comp, shell, prop);
          if (res) {
             mPureElement = new Composition(new Element[]{shell.getElement()}, new double[]{1.0});
@@ -654,7 +960,7 @@ abstract public class CorrectionAlgorithm extends AlgorithmClass implements Comp
     * algorithm.
     */
    static public class DiagnosticCorrectionAlgorithm extends CorrectionAlgorithm {
-      private final CorrectionAlgorithm mBase;
+      private CorrectionAlgorithm mBase;
       private final Writer mWriter;
 
       /**
@@ -720,6 +1026,13 @@ abstract public class CorrectionAlgorithm extends AlgorithmClass implements Comp
          if (mBase != null)
             mBase.initializeDefaultStrategy();
       }
+
+      @Override
+      protected DiagnosticCorrectionAlgorithm clone() {
+         final DiagnosticCorrectionAlgorithm res = (DiagnosticCorrectionAlgorithm) super.clone();
+         res.mBase = mBase.clone();
+         return res;
+      }
    }
 
    /**
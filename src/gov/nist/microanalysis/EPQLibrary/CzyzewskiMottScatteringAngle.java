@@ -2,6 +2,8 @@ package gov.nist.microanalysis.EPQLibrary;
 
 import java.util.Arrays;
 
+import gov.nist.microanalysis.Utility.Math2;
+
 /**
  * <p>
  * A class to compute a randomized scattering angle for an electron with a
@@ -174,7 +176,7 @@ public class CzyzewskiMottScatteringAngle extends RandomizedScatter {
    @Override
    public double randomScatteringAngle(double energy) {
       if (energy < MAX_CZYZEWSKI)
-         return randomScatteringAngle(energy, Math.random());
+         return randomScatteringAngle(energy, Math2.rgen.nextDouble());
       else {
          if (mRutherford == null)
             mRutherford = new ScreenedRutherfordScatteringAngle(mElement);
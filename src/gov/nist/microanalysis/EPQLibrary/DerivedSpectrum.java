@@ -41,8 +41,136 @@ abstract public class DerivedSpectrum extends BaseSpectrum {
          return mData[i];
       }
 
+      @Override
+      public void fill(double[] dst, int from, int to) {
+         System.arraycopy(mData, from, dst, from, to - from);
+      }
+
+      @Override
+      double[] backingArray() {
+         return mData;
+      }
+
+   }
+
+   /**
+    * <p>
+    * A DerivedSpectrum in which each channel is a linear function of the
+    * source spectrum's channel within a window of channels and zero outside.
+    * Chains of Linear spectra are fused as they are constructed so that
+    * evaluating a channel touches only the first non-Linear spectrum in the
+    * chain. When every spectrum in the chain tracks its modifications (see
+    * isModificationTracked()), the full set of channel data is cached until the
+    * chain is modified. Otherwise the channel data is recomputed on each
+    * request so that the spectrum remains a live view of its source.
+    * </p>
+    */
+   public static class Linear extends DerivedSpectrum {
+
+      private static class Cache {
+         private final long mToken;
+         private final double[] mData;
+
+         private Cache(long token, double[] data) {
+            mToken = token;
+            mData = data;
+         }
+      }
+
+      private final ISpectrumData mRoot;
+      private final double mGain;
+      private final double mOffset;
+      private final int mLowCh;
+      private final int mHighCh;
+      private transient volatile Cache mCache;
+
+      /**
+       * Constructs a spectrum in which channel i is
+       * <code>gain*src.getCounts(i)+offset</code> for lowCh &le; i &lt; highCh
+       * and zero otherwise.
+       *
+       * @param src
+       * @param gain
+       * @param offset
+       * @param lowCh
+       * @param highCh
+       */
+      public Linear(ISpectrumData src, double gain, double offset, int lowCh, int highCh) {
+         super(src);
+         final int lo = Math.max(0, lowCh), hi = Math.min(src.getChannelCount(), highCh);
+         if (src instanceof Linear) {
+            final Linear ls = (Linear) src;
+            // Outside the inner window the inner spectrum is zero so the
+            // outer offset only fuses if the windows nest.
+            if ((offset == 0.0) || ((lo >= ls.mLowCh) && (hi <= ls.mHighCh))) {
+               mRoot = ls.mRoot;
+               mGain = gain * ls.mGain;
+               mOffset = (gain * ls.mOffset) + offset;
+               mLowCh = Math.max(lo, ls.mLowCh);
+               mHighCh = Math.max(mLowCh, Math.min(hi, ls.mHighCh));
+               return;
+            }
+         }
+         mRoot = src;
+         mGain = gain;
+         mOffset = offset;
+         mLowCh = lo;
+         mHighCh = Math.max(lo, hi);
+      }
+
+      @Override
+      public double getCounts(int i) {
+         return (i >= mLowCh) && (i < mHighCh) ? (mGain * mRoot.getCounts(i)) + mOffset : 0.0;
+      }
+
+      private double[] data() {
+         if (!isModificationTracked())
+            return compute();
+         final long token = getModificationToken();
+         Cache c = mCache;
+         if ((c == null) || (c.mToken != token)) {
+            c = new Cache(token, compute());
+            mCache = c;
+         }
+         return c.mData;
+      }
+
+      private double[] compute() {
+         final double[] data = new double[getChannelCount()];
+         SpectrumUtils.fill(mRoot, data, mLowCh, mHighCh);
+         for (int i = mLowCh; i < mHighCh; ++i)
+            data[i] = (mGain * data[i]) + mOffset;
+         return data;
+      }
+
+      @Override
+      public void fill(double[] dst, int from, int to) {
+         System.arraycopy(data(), from, dst, from, to - from);
+      }
+
+      @Override
+      public double[] toDoubleArray() {
+         return isModificationTracked() ? data().clone() : compute();
+      }
+
+      @Override
+      double[] backingArray() {
+         return data();
+      }
+
+      /**
+       * The first spectrum in the chain of derivation that is not a Linear
+       * spectrum.
+       *
+       * @return ISpectrumData
+       */
+      public ISpectrumData getRoot() {
+         return mRoot;
+      }
    }
 
+   private transient long mLocalModifications = 0;
+
    final protected ISpectrumData mSource;
    protected SpectrumProperties mProperties = new SpectrumProperties();
 
@@ -104,6 +232,103 @@ abstract public class DerivedSpectrum extends BaseSpectrum {
       return mSource.getCounts(ch);
    }
 
+   /**
+    * Copies the counts in channels <code>from</code> (inclusive) to
+    * <code>to</code> (exclusive) into the same channels in <code>dst</code>.
+    * Derived classes which hold their channel data in an array should
+    * override this with a bulk copy.
+    *
+    * @param dst
+    * @param from
+    * @param to
+    */
+   public void fill(double[] dst, int from, int to) {
+      for (int i = from; i < to; ++i)
+         dst[i] = getCounts(i);
+   }
+
+   /**
+    * Returns a new array containing the channel data.
+    *
+    * @return double[]
+    */
+   public double[] toDoubleArray() {
+      final double[] res = new double[getChannelCount()];
+      fill(res, 0, res.length);
+      return res;
+   }
+
+   /**
+    * Returns the array holding this spectrum's getChannelCount() channels
+    * for implementations which have one or null otherwise. Used to pass the
+    * data directly to ArrayKernels. The result must not be modified.
+    *
+    * @return double[]
+    */
+   double[] backingArray() {
+      return null;
+   }
+
+   /**
+    * Returns a number which changes whenever the channel data in this spectrum
+    * or any spectrum in its chain of derivation is modified through
+    * EditableSpectrum or invalidate().
+    *
+    * @return long
+    */
+   public long getModificationToken() {
+      return modificationToken(mSource) + mLocalModifications;
+   }
+
+   /**
+    * Is every spectrum in the chain of derivation one whose modifications are
+    * reflected in getModificationToken()? The chain must end in an
+    * EditableSpectrum. Other spectra (AverageSpectrum, for example) may change
+    * without notice, so channel data derived from them must not be cached.
+    *
+    * @return boolean
+    */
+   public boolean isModificationTracked() {
+      return isModificationTracked(mSource);
+   }
+
+   /**
+    * Is spec an EditableSpectrum or a DerivedSpectrum whose chain of
+    * derivation ends in an EditableSpectrum?
+    *
+    * @param spec
+    * @return boolean
+    */
+   public static boolean isModificationTracked(ISpectrumData spec) {
+      if (spec instanceof DerivedSpectrum)
+         return ((DerivedSpectrum) spec).isModificationTracked();
+      return spec instanceof EditableSpectrum;
+   }
+
+   /**
+    * Returns the modification token for an arbitrary spectrum. Spectra which
+    * are neither EditableSpectrum nor DerivedSpectrum are not tracked and
+    * contribute zero (see isModificationTracked(...)).
+    *
+    * @param spec
+    * @return long
+    */
+   public static long modificationToken(ISpectrumData spec) {
+      if (spec instanceof DerivedSpectrum)
+         return ((DerivedSpectrum) spec).getModificationToken();
+      if (spec instanceof EditableSpectrum)
+         return ((EditableSpectrum) spec).getModificationCount();
+      return 0;
+   }
+
+   /**
+    * Derived classes should call this when their channel data changes for
+    * some reason other than a modification of the source spectrum.
+    */
+   protected void invalidate() {
+      ++mLocalModifications;
+   }
+
    /**
     * isDerivedFrom - Is this spectrum derived from the argument spectrum?
     * (Recursively checks the whole chain of derivation if this derived spectrum
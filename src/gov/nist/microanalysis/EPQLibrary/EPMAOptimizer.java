@@ -2,13 +2,18 @@ package gov.nist.microanalysis.EPQLibrary;
 
 import java.text.NumberFormat;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.List;
 import java.util.Map;
+import java.util.PriorityQueue;
 import java.util.Set;
 import java.util.TreeMap;
 import java.util.TreeSet;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.IntConsumer;
+import java.util.stream.IntStream;
 
 import gov.nist.microanalysis.EPQLibrary.RegionOfInterestSet.RegionOfInterest;
 import gov.nist.microanalysis.EPQLibrary.SpectrumSimulator.BasicSpectrumSimulator;
@@ -211,6 +216,34 @@ abstract public class EPMAOptimizer {
 
    }
 
+   /**
+    * Scores the candidate standards considered by
+    * getOptimizedStandards(...). Implementations may be called concurrently
+    * from multiple threads.
+    */
+   protected interface CandidateEvaluator {
+      /**
+       * An upper bound on the score of any OptimizedStandard based on the
+       * standard <code>std</code> which is cheaper to compute than the score
+       * itself. Return Double.POSITIVE_INFINITY if no such bound is available.
+       *
+       * @param std
+       * @return double
+       */
+      double bound(Composition std);
+
+      /**
+       * Scores the candidate standard <code>std</code> measured using the
+       * region of interest <code>roi</code>.
+       *
+       * @param std
+       * @param roi
+       * @return OptimizedStandard
+       * @throws EPQException
+       */
+      OptimizedStandard evaluate(Composition std, RegionOfInterest roi) throws EPQException;
+   }
+
    /**
     * The estimated composition of the unknown.
     */
@@ -250,6 +283,10 @@ abstract public class EPMAOptimizer {
     */
    protected transient TreeMap<RegionOfInterest, Composition> mOptReferences = new TreeMap<RegionOfInterestSet.RegionOfInterest, Composition>();
 
+   private volatile boolean mCancelled = false;
+   private boolean mParallel = true;
+   private int mMaxCandidates = Integer.MAX_VALUE;
+
    /**
     * Constructs a EPMAOptimizer to optimize the measurement of a mateial with
     * the estimated composition on the specified detector.
@@ -303,7 +340,7 @@ abstract public class EPMAOptimizer {
     */
    /**
     * Returns a sorted List of OptimizedStandard objects for the specified
-    * element.
+    * element. Implementations should call startOptimization() first.
     * 
     * @param elm
     *           The Element to get standards for
@@ -378,6 +415,133 @@ abstract public class EPMAOptimizer {
       return getOptimizedStandards(elm, sp);
    }
 
+   /**
+    * Requests that the call to getOptimizedStandards(...) in progress on
+    * another thread stop as soon as possible. The interrupted call throws an
+    * EPQException. The request is honoured at whatever stage the call has
+    * reached and is only cleared when the next call starts.
+    */
+   public void cancel() {
+      mCancelled = true;
+   }
+
+   /**
+    * Clears any earlier cancel() request. Implementations of
+    * getOptimizedStandards(Element, SpectrumProperties) call this first so
+    * that a cancel() which arrives while they are finding candidates is
+    * honoured by evaluateCandidates(...).
+    */
+   protected void startOptimization() {
+      mCancelled = false;
+   }
+
+   /**
+    * Was the last call to getOptimizedStandards(...) cancelled?
+    *
+    * @return boolean
+    */
+   public boolean isCancelled() {
+      return mCancelled;
+   }
+
+   public boolean isParallel() {
+      return mParallel;
+   }
+
+   /**
+    * Evaluate the candidate standards in parallel on the common ForkJoinPool.
+    * (Default true)
+    *
+    * @param parallel
+    */
+   public void setParallel(boolean parallel) {
+      mParallel = parallel;
+   }
+
+   public int getMaxCandidates() {
+      return mMaxCandidates;
+   }
+
+   /**
+    * Limits the number of OptimizedStandard objects returned by
+    * getOptimizedStandards(...) to the best <code>max</code>. Candidate
+    * standards which can not make the list are pruned without being fully
+    * evaluated. (Default Integer.MAX_VALUE)
+    *
+    * @param max
+    */
+   public void setMaxCandidates(int max) {
+      mMaxCandidates = Math.max(1, max);
+   }
+
+   /**
+    * Evaluates each standard in <code>stds</code> with each region of interest
+    * in <code>rois</code> and returns the best getMaxCandidates() sorted from
+    * best to worst. The standards are considered in order of decreasing bound
+    * and once the list is full, standards whose bound is less than the score
+    * of the worst candidate on the list are skipped. The standards are
+    * evaluated in parallel when isParallel() and each worker thread is bound
+    * to the caller's SimulationContext.
+    *
+    * @param stds
+    * @param rois
+    * @param ce
+    * @return List&lt;OptimizedStandard&gt;
+    * @throws EPQException
+    */
+   protected List<OptimizedStandard> evaluateCandidates(List<Composition> stds, RegionOfInterestSet rois, CandidateEvaluator ce)
+         throws EPQException {
+      final int n = stds.size();
+      final double[] bounds = new double[n];
+      final Integer[] order = new Integer[n];
+      for (int i = 0; i < n; ++i) {
+         bounds[i] = ce.bound(stds.get(i));
+         order[i] = Integer.valueOf(i);
+      }
+      // Most promising first so the list fills with good candidates early
+      Arrays.sort(order, (a, b) -> Double.compare(bounds[b.intValue()], bounds[a.intValue()]));
+      final int max = mMaxCandidates;
+      // The worst of the candidates retained so far is at the head
+      final PriorityQueue<OptimizedStandard> best = new PriorityQueue<OptimizedStandard>(Collections.reverseOrder());
+      final AtomicReference<EPQException> error = new AtomicReference<EPQException>();
+      final SimulationContext ctx = SimulationContext.current();
+      final IntConsumer task = idx -> {
+         final int i = order[idx].intValue();
+         final SimulationContext prev = SimulationContext.setCurrent(ctx);
+         try {
+            for (final RegionOfInterest roi : rois) {
+               if (mCancelled || (error.get() != null))
+                  return;
+               synchronized (best) {
+                  if ((best.size() >= max) && (bounds[i] < best.peek().getScore()))
+                     return;
+               }
+               final OptimizedStandard os = ce.evaluate(stds.get(i), roi);
+               synchronized (best) {
+                  best.add(os);
+                  if (best.size() > max)
+                     best.poll();
+               }
+            }
+         } catch (final EPQException e) {
+            error.compareAndSet(null, e);
+         } finally {
+            SimulationContext.setCurrent(prev);
+         }
+      };
+      IntStream tasks = IntStream.range(0, n);
+      if (mParallel)
+         tasks = tasks.parallel();
+      tasks.forEach(task);
+      if (mCancelled)
+         throw new EPQException("The evaluation of candidate standards was cancelled.");
+      if (error.get() != null)
+         throw error.get();
+      final ArrayList<OptimizedStandard> res = new ArrayList<OptimizedStandard>(best);
+      Collections.sort(res);
+      return res;
+   }
+
    /**
     * After running getOptimizedStandards(...) to suggest and rank
     * OptimizedStandard objects, the user can select an OptimizedStandard to use
@@ -967,18 +1131,23 @@ abstract public class EPMAOptimizer {
 
       @Override
       public List<OptimizedStandard> getOptimizedStandards(Element elm, SpectrumProperties sp) throws EPQException {
-         final ArrayList<OptimizedStandard> res = new ArrayList<EPMAOptimizer.OptimizedStandard>();
+         startOptimization();
          final List<Composition> comps = mDatabase.findStandards(elm, 0.01, mExclude);
          final double e0 = sp.getNumericProperty(SpectrumProperties.BeamEnergy);
          final RegionOfInterestSet rois = LinearSpectrumFit.createElementROIS(elm, mDetector, ToSI.keV(e0));
-         for (final Composition comp : comps)
-            for (final RegionOfInterest roi : rois) {
-               final double score = (1.0 / Math.max(1.0e-3, comp.difference(mEstimatedUnknown)))
+         return evaluateCandidates(comps, rois, new CandidateEvaluator() {
+            @Override
+            public double bound(Composition std) {
+               return Double.POSITIVE_INFINITY;
+            }
+
+            @Override
+            public OptimizedStandard evaluate(Composition std, RegionOfInterest roi) throws EPQException {
+               final double score = (1.0 / Math.max(1.0e-3, std.difference(mEstimatedUnknown)))
                      * roi.getXRayTransitionSet(elm).getWeighiestTransition().getNormalizedWeight();
-               res.add(new OptimizedStandard(comp, roi, score, sp));
+               return new OptimizedStandard(std, roi, score, sp);
             }
-         Collections.sort(res);
-         return res;
+         });
       }
 
       private class RefComparitor implements Comparator<Composition> {
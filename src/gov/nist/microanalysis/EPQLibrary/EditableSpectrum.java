@@ -23,6 +23,7 @@ public class EditableSpectrum extends BaseSpectrum {
    private double mChannelWidth = Double.NaN;
    private double mZeroOffset = Double.NaN;
    private SpectrumProperties mProperties;
+   private transient long mModificationCount = 0;
 
    /**
     * EditableSpectrum - Create a blank editable spectrum.
@@ -173,11 +174,23 @@ public class EditableSpectrum extends BaseSpectrum {
 
    /**
     * getCounts - Get the channel data as a raw double array. Can be edited
-    * directly.
+    * directly. Since the caller may modify the array, each call counts as a
+    * modification so that spectra derived from this one discard cached channel
+    * data. If the array is retained and modified later, call modified()
+    * afterwards.
     * 
     * @return double[]
     */
    public double[] getCounts() {
+      ++mModificationCount;
+      return mChannels;
+   }
+
+   /**
+    * The channel data for read-only use within the library. Unlike
+    * getCounts(), this is not counted as a modification.
+    */
+   double[] channels() {
       return mChannels;
    }
 
@@ -191,6 +204,7 @@ public class EditableSpectrum extends BaseSpectrum {
     */
    public void setCounts(int i, double counts) {
       mChannels[i] = counts;
+      ++mModificationCount;
    }
 
    /**
@@ -203,32 +217,55 @@ public class EditableSpectrum extends BaseSpectrum {
       return mProperties;
    }
 
+   /**
+    * Returns a count which is incremented each time the channel data is
+    * modified.
+    *
+    * @return long
+    */
+   public long getModificationCount() {
+      return mModificationCount;
+   }
+
+   /**
+    * Signals that the channel data was modified directly through the array
+    * returned by getCounts().
+    */
+   public void modified() {
+      ++mModificationCount;
+   }
+
    /**
     * clearChannels - Set all channel data to 0.0
     */
    final public void clearChannels() {
       Arrays.fill(mChannels, 0.0);
+      ++mModificationCount;
    }
 
    final public void add(double[] channels) {
       for (int i = 0; (i < channels.length) && (i < mChannels.length); ++i)
          mChannels[i] += channels[i];
+      ++mModificationCount;
    }
 
    final public void subtract(double[] channels) {
       for (int i = 0; (i < channels.length) && (i < mChannels.length); ++i)
          mChannels[i] -= channels[i];
+      ++mModificationCount;
    }
 
    final public void increment(int ch) {
       if ((ch >= 0) && (ch < mChannels.length))
          ++mChannels[ch];
+      ++mModificationCount;
    }
 
    final public void increment(double energy) {
       final int ch = (int) ((energy - mZeroOffset) / mChannelWidth);
       if ((ch >= 0) && (ch < mChannels.length))
          ++mChannels[ch];
+      ++mModificationCount;
    }
 
 }
\ No newline at end of file
@@ -1,9 +1,12 @@
 package gov.nist.microanalysis.EPQLibrary;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
@@ -18,6 +21,9 @@ import gov.nist.microanalysis.EPQLibrary.Detector.EDSDetector;
 import gov.nist.microanalysis.Utility.Interval;
 import gov.nist.microanalysis.Utility.UncertainValue2;
 
+import Jama.Matrix;
+import Jama.SingularValueDecomposition;
+
 /**
  * <p>
  * Specializes the LinearLeastSquares algorithm for filter fitting EDS spectra.
@@ -84,6 +90,8 @@ public class FilterFit extends LinearSpectrumFit {
    // Temporary storage for the reference data while the fit is being
    // performed...
    private double[][] mTmpFitData;
+   // The number of factorizations performed by the last block fit
+   private int mBatchFactorizations = 0;
 
    private final Set<Element> mExplicitlyZero = new TreeSet<Element>();
 
@@ -438,6 +446,10 @@ public class FilterFit extends LinearSpectrumFit {
    @Override
    public KRatioSet getKRatios(final ISpectrumData unk) throws EPQException {
       updateUnknown(unk);
+      return buildKRatioSet();
+   }
+
+   private KRatioSet buildKRatioSet() {
       final KRatioSet res = new KRatioSet();
       for (final FilteredPacket raf : mFilteredPackets)
          if (raf.mFiltered.getElement() != Element.None) {
@@ -451,6 +463,221 @@ public class FilterFit extends LinearSpectrumFit {
       return res;
    }
 
+   /**
+    * Fits a block of unknown spectra (typically a tile of pixels from a
+    * spectrum image) against the current references. Rather than repeating
+    * the full fit for each spectrum, the weighted design matrix is factored
+    * once for each distinct set of active references and each spectrum is then
+    * solved by a matrix-vector product. A new factorization is required only
+    * when negative k-ratios or the culling strategy change the active set.
+    * <p>
+    * To share the factorization, the channel weights are taken from the mean
+    * variance over the block and the covariance for each spectrum is scaled by
+    * the ratio of its variance to the mean variance. This reproduces the single
+    * spectrum fit exactly when the spectra in the block differ only in
+    * intensity and closely otherwise. When strip-unlikely is enabled the
+    * likely elements are determined once from the sum of the block. The
+    * CullByChiSquared strategy depends upon the state of the single spectrum
+    * fit and so with it each spectrum is fit individually.
+    * </p>
+    *
+    * @param block The unknown spectra
+    * @return The results for each spectrum in the same order as block
+    * @throws EPQException
+    */
+   public KRatioSet[] getKRatios(final List<ISpectrumData> block) throws EPQException {
+      final KRatioSet[] res = new KRatioSet[block.size()];
+      mBatchFactorizations = 0;
+      if (mCullingStrategy instanceof CullByChiSquared) {
+         for (int p = 0; p < res.length; ++p)
+            res[p] = getKRatios(block.get(p));
+         return res;
+      }
+      if (res.length == 0)
+         return res;
+      // Filter the unknowns and compute the mean variance in each channel
+      final double[][] data = new double[res.length][];
+      final double[][] variance = new double[res.length][];
+      double[] meanVar = null;
+      for (int p = 0; p < res.length; ++p) {
+         final FilteredSpectrum fs = mVarFF != null ? new FilteredSpectrum(block.get(p), mVarFF) : new FilteredSpectrum(block.get(p), mConstFF);
+         data[p] = checkNotNaN(fs.getFilteredData().clone());
+         final double[] var = checkNotNaNZero(fs.getErrors().clone());
+         if (meanVar == null)
+            meanVar = new double[var.length];
+         for (int i = 0; i < var.length; ++i) {
+            var[i] *= var[i];
+            meanVar[i] += var[i] / res.length;
+         }
+         variance[p] = var;
+      }
+      final Set<Element> initialRemove = new TreeSet<Element>(mExplicitlyZero);
+      if (mStripUnlikely) {
+         final ISpectrumData sum = res.length > 1 ? SpectrumUtils.sum(block) : block.get(0);
+         final Set<Element> likely = PeakROISearch.PeakStrippingSearch.likelyElements(sum, mBeamEnergy, 3.0);
+         for (final FilteredPacket raf : mFilteredPackets)
+            if (!likely.contains(raf.getElement()))
+               initialRemove.add(raf.getElement());
+      }
+      final int nRefs = mFilteredPackets.size();
+      final double vcf = mVarFF != null ? mVarFF.varianceCorrectionFactor() : mConstFF.mVarCorrection;
+      final Map<BitSet, BlockSolver> solvers = new HashMap<BitSet, BlockSolver>();
+      final UncertainValue2 zero = new UncertainValue2(0.0, "K", 0.0);
+      try {
+         for (int p = 0; p < res.length; ++p) {
+            final Set<Element> removeElms = new TreeSet<Element>(initialRemove), removedElms = new TreeSet<Element>();
+            final BitSet active = new BitSet(nRefs);
+            active.set(0, nRefs);
+            for (final FilteredPacket raf : mFilteredPackets)
+               raf.mKRatio = zero;
+            boolean repeat = true;
+            while (repeat) {
+               repeat = false;
+               removedElms.addAll(removeElms);
+               for (int i = 0; i < nRefs; ++i)
+                  if (removedElms.contains(mFilteredPackets.get(i).getElement()))
+                     active.clear(i);
+               removeElms.clear();
+               final UncertainValue2[] fitParams = new UncertainValue2[nRefs];
+               Arrays.fill(fitParams, UncertainValue2.ZERO);
+               if (!active.isEmpty()) {
+                  BlockSolver bs = solvers.get(active);
+                  if (bs == null) {
+                     bs = new BlockSolver((BitSet) active.clone(), meanVar);
+                     solvers.put(bs.mKey, bs);
+                     ++mBatchFactorizations;
+                  }
+                  bs.solve(data[p], variance[p], fitParams);
+               }
+               for (int j = 0; j < nRefs; ++j)
+                  if (active.get(j)) {
+                     final UncertainValue2 uv = fitParams[j];
+                     final FilteredPacket fpj = mFilteredPackets.get(j);
+                     fpj.mKRatio = new UncertainValue2(uv.doubleValue(), "K", Math.sqrt(vcf * uv.variance()));
+                     if (uv.doubleValue() < 0.0) {
+                        active.clear(j);
+                        repeat = true;
+                     }
+                  }
+               if (mCullingStrategy != null)
+                  removeElms.addAll(mCullingStrategy.compute(this, fitParams));
+               for (final FilteredPacket fp : mFilteredPackets)
+                  if (removeElms.contains(fp.getElement()) || removedElms.contains(fp.getElement()))
+                     fp.mKRatio = new UncertainValue2(0.0, fp.mKRatio.getComponents());
+               for (final FilteredPacket fp : mFilteredPackets)
+                  fp.mKRatio = UncertainValue2.nonNegative(fp.mKRatio);
+               repeat |= !removedElms.containsAll(removeElms);
+               if (active.isEmpty())
+                  break;
+            }
+            res[p] = buildKRatioSet();
+         }
+      }
+      finally {
+         // The packets now hold the results for the last spectrum in the block
+         markDirty();
+      }
+      return res;
+   }
+
+   /**
+    * Returns the number of times the weighted design matrix was factored
+    * during the most recent call to <code>getKRatios(List&lt;ISpectrumData&gt;)</code>.
+    *
+    * @return int
+    */
+   public int getBatchFactorizationCount() {
+      return mBatchFactorizations;
+   }
+
+   // A factorization of the weighted design matrix for one set of active
+   // references.
+   private class BlockSolver {
+      private final BitSet mKey;
+      private final int[] mActive;
+      private final int[] mChannels;
+      // Maps the unknown's filtered data directly to the fit coefficients
+      private final double[][] mProjection;
+      // The diagonal of the covariance matrix for the mean variance
+      private final double[] mCovariance;
+      private final double mSumVariance;
+
+      private BlockSolver(final BitSet active, final double[] meanVar) {
+         mKey = active;
+         mActive = active.stream().toArray();
+         SortedSet<Interval> intervals = new TreeSet<Interval>();
+         for (final int j : mActive)
+            intervals = Interval.add(intervals, mFilteredPackets.get(j).getFiltered().getNonZeroInterval());
+         Interval.validate(intervals);
+         int len = 0;
+         for (final Interval interval : intervals)
+            len += interval.max() - interval.min();
+         mChannels = new int[len];
+         {
+            int k = 0;
+            for (final Interval interval : intervals)
+               for (int i = interval.min(); i < interval.max(); ++i)
+                  mChannels[k++] = i;
+         }
+         final int nFit = mActive.length;
+         final double[] weight = new double[len];
+         double sumVar = 0.0;
+         for (int i = 0; i < len; ++i) {
+            final double v = meanVar[mChannels[i]];
+            if (!Double.isInfinite(v)) {
+               weight[i] = 1.0 / Math.max(Math.sqrt(v), 1.0e-20);
+               sumVar += v;
+            }
+         }
+         mSumVariance = sumVar;
+         final Matrix a = new Matrix(len, nFit);
+         for (int j = 0; j < nFit; ++j) {
+            final double[] ref = checkNotNaN(Interval.extract(mFilteredPackets.get(mActive[j]).getFiltered().getFilteredData(), intervals));
+            for (int i = 0; i < len; ++i)
+               a.set(i, j, ref[i] * weight[i]);
+         }
+         final SingularValueDecomposition svd = a.svd();
+         final double[][] u = svd.getU().getArray(), v = svd.getV().getArray();
+         final double[] w = new double[nFit];
+         {
+            double[] wi = new double[mFilteredPackets.size()];
+            for (int k = 0; k < nFit; ++k)
+               wi[mActive[k]] = svd.getSingularValues()[k];
+            wi = editSingularValues(wi);
+            for (int k = 0; k < nFit; ++k)
+               w[k] = wi[mActive[k]];
+         }
+         mProjection = new double[nFit][len];
+         mCovariance = new double[nFit];
+         for (int k = 0; k < nFit; ++k)
+            if (w[k] != 0.0) {
+               final double wk = 1.0 / w[k];
+               for (int j = 0; j < nFit; ++j) {
+                  final double vjk = v[j][k];
+                  mCovariance[j] += vjk * vjk * wk * wk;
+                  final double[] proj = mProjection[j];
+                  for (int i = 0; i < len; ++i)
+                     proj[i] += vjk * wk * u[i][k] * weight[i];
+               }
+            }
+      }
+
+      private void solve(final double[] data, final double[] variance, final UncertainValue2[] result) {
+         double sumVar = 0.0;
+         for (final int ch : mChannels)
+            if (!Double.isInfinite(variance[ch]))
+               sumVar += variance[ch];
+         final double scale = mSumVariance > 0.0 ? sumVar / mSumVariance : 1.0;
+         for (int j = 0; j < mActive.length; ++j) {
+            final double[] proj = mProjection[j];
+            double fc = 0.0;
+            for (int i = 0; i < proj.length; ++i)
+               fc += proj[i] * data[mChannels[i]];
+            result[mActive[j]] = new UncertainValue2(fc, "LLS", Math.sqrt(scale * mCovariance[j]));
+         }
+      }
+   }
+
    /**
     * Returns 0.0 for perfect fit, 1.0 for terrible fit. Based on the fraction
     * of peak counts that are actually fit by the element set.
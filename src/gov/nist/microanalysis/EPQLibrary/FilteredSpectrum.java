@@ -3,6 +3,7 @@ package gov.nist.microanalysis.EPQLibrary;
 import java.util.Arrays;
 
 import gov.nist.microanalysis.EPQLibrary.RegionOfInterestSet.RegionOfInterest;
+import gov.nist.microanalysis.Utility.ArrayKernels;
 import gov.nist.microanalysis.Utility.Interval;
 import gov.nist.microanalysis.Utility.Math2;
 
@@ -70,17 +71,34 @@ public class FilteredSpectrum extends DerivedSpectrum {
       if (mFilter != null) {
          assert mFilter.zeroSum();
          final double[] filter = mFilter.getFilter();
+         final double[] filter2 = new double[filter.length];
+         for (int fi = 0; fi < filter.length; ++fi)
+            filter2[fi] = filter[fi] * filter[fi];
          // Perform filter
          final int hl = filter.length / 2, ol = filter.length - hl;
+         // Where the filter lies entirely within the data, filter in bulk
+         final int inLow = Math.max(hl, -lowCh);
+         final int inHigh = Math.min((roiData.length - filter.length) + hl + 1, chCount - lowCh);
+         final int inLen = Math.max(0, inHigh - inLow);
+         final double[] inSum = new double[inLen], inErrs = new double[inLen];
+         if (inLen > 0) {
+            final ArrayKernels kernels = ArrayKernels.get();
+            kernels.correlate(filter, roiData, inLow - hl, inSum, 0, inLen);
+            kernels.correlate(filter2, roiData, inLow - hl, inErrs, 0, inLen);
+         }
          for (int si = -hl; si < (roiData.length + ol); ++si) {
             final int ch = si + lowCh;
             if ((ch >= 0) && (ch < chCount)) {
                double sum = 0.0, errs = 0.0;
-               for (int fi = 0; fi < filter.length; ++fi) {
-                  final double fr = filter[fi] * roiData[Math2.bound((si - hl) + fi, 0, roiData.length)];
-                  sum += fr;
-                  errs += filter[fi] * fr;
-               }
+               if ((si >= inLow) && (si < inHigh)) {
+                  sum = inSum[si - inLow];
+                  errs = inErrs[si - inLow];
+               } else
+                  for (int fi = 0; fi < filter.length; ++fi) {
+                     final double fr = filter[fi] * roiData[Math2.bound((si - hl) + fi, 0, roiData.length)];
+                     sum += fr;
+                     errs += filter[fi] * fr;
+                  }
                tmp[ch] = mNormalization * sum;
                err[ch] = errs > 0.0 ? mNormalization * Math.sqrt(errs) : Double.MAX_VALUE;
             }
@@ -251,6 +269,17 @@ public class FilteredSpectrum extends DerivedSpectrum {
       return i < mFilteredData.length ? mFilteredData[i] : 0.0;
    }
 
+   @Override
+   public void fill(double[] dst, int from, int to) {
+      if (mFilteredData == null)
+         computeFilteredSpectrum();
+      final int max = Math.min(to, mFilteredData.length);
+      if (max > from)
+         System.arraycopy(mFilteredData, from, dst, from, max - from);
+      for (int i = Math.max(from, max); i < to; ++i)
+         dst[i] = 0.0;
+   }
+
    @Override
    public int compareTo(ISpectrumData obj) {
       if (obj instanceof FilteredSpectrum) {
@@ -1,8 +1,12 @@
 package gov.nist.microanalysis.EPQLibrary;
 
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.List;
+import java.util.Objects;
 import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
 
 import gov.nist.microanalysis.Utility.Math2;
 
@@ -27,6 +31,59 @@ abstract public class Fluorescence extends AlgorithmClass {
 
    private static final AlgorithmClass[] mAllImplementations = {Fluorescence.Reed, Fluorescence.Null};
 
+   /**
+    * The line of an element which fluoresces a secondary transition along with
+    * the fraction of the line family which contributes. This depends upon the
+    * element, the secondary transition, the beam energy and the atomic data
+    * but not upon the composition.
+    */
+   private static final class ExcitingLine {
+      private final XRayTransition mPrimary;
+      private final double mWeight;
+
+      private ExcitingLine(XRayTransition primary, double weight) {
+         mPrimary = primary;
+         mWeight = weight;
+      }
+   }
+
+   private static final ExcitingLine NO_EXCITING_LINE = new ExcitingLine(null, 0.0);
+
+   private static final class ExcitingLineKey {
+      private final EdgeEnergy mEdgeEnergy;
+      private final TransitionEnergy mTransitionEnergy;
+      private final Element mElement;
+      private final XRayTransition mSecondary;
+      private final double mBeamEnergy;
+
+      private ExcitingLineKey(EdgeEnergy eea, Element el, XRayTransition secondary, double e0) {
+         mEdgeEnergy = eea;
+         mTransitionEnergy = AlgorithmUser.getDefaultTransitionEnergy();
+         mElement = el;
+         mSecondary = secondary;
+         mBeamEnergy = e0;
+      }
+
+      @Override
+      public int hashCode() {
+         return Objects.hash(System.identityHashCode(mEdgeEnergy), System.identityHashCode(mTransitionEnergy), mElement, mSecondary, mBeamEnergy);
+      }
+
+      @Override
+      public boolean equals(Object obj) {
+         if (!(obj instanceof ExcitingLineKey))
+            return false;
+         final ExcitingLineKey other = (ExcitingLineKey) obj;
+         return (mEdgeEnergy == other.mEdgeEnergy) && (mTransitionEnergy == other.mTransitionEnergy) && mElement.equals(other.mElement)
+               && mSecondary.equals(other.mSecondary) && (Double.compare(mBeamEnergy, other.mBeamEnergy) == 0);
+      }
+   }
+
+   // Memoises excitingLine(...) which is otherwise recomputed for every
+   // iteration of every quantification
+   private static final ConcurrentHashMap<ExcitingLineKey, ExcitingLine> sExcitingLines = new ConcurrentHashMap<>();
+   private static final int MAX_EXCITING_LINES = 100000;
+
    protected Fluorescence(String name, String reference) {
       super("Fluorescence", name, reference);
    }
@@ -144,44 +201,111 @@ abstract public class Fluorescence extends AlgorithmClass {
     * @return double - The F factor &gt;= 1.0
     */
    public double compute(Composition comp, XRayTransition secondary, double e0, double takeOff) {
+      return compute(comp, secondary, e0, takeOff, null);
+   }
+
+   /**
+    * As compute(comp, secondary, e0, takeOff) but the mass absorption
+    * coefficients are taken from <code>macs</code> when it was built from
+    * this algorithm's MassAbsorptionCoefficient. See createMACMatrix(...).
+    * 
+    * @param comp
+    *           Composition - The bulk material
+    * @param secondary
+    *           XRayTransition - The transition under consideration.
+    * @param e0
+    *           double - The beam energy (in Joules)
+    * @param takeOff
+    *           double - Take off angle (in Radians)
+    * @param macs
+    *           MACMatrix - Tabulated MACs (may be null)
+    * @return double - The F factor &gt;= 1.0
+    */
+   public double compute(Composition comp, XRayTransition secondary, double e0, double takeOff, MACMatrix macs) {
       final EdgeEnergy eea = (EdgeEnergy) getAlgorithm(EdgeEnergy.class);
       double fSum = 0.0;
       for (final Element el : comp.getElementSet()) {
-         final int prim = primaryExcitingLine(el, secondary.getDestination());
-         if (prim != XRayTransition.None) {
-            final XRayTransition primXrt = new XRayTransition(el, prim);
-            if (eea.compute(primXrt) < e0)
-               // Ignore prim if it is more than 5.0 keV (or 3.5 keV for L&M
-               // lines) above edge
-               try {
-                  final double shEE = eea.compute(secondary);
-                  final double delta = (secondary.getFamily() == AtomicShell.KFamily ? ToSI.keV(5.0) : ToSI.keV(3.5));
-                  if (primXrt.getEnergy() < (shEE + delta))
-                     try {
-                        double w = 0.0;
-                        final int primFam = primXrt.getFamily();
-                        for (int tr = XRayTransition.KA1; tr <= XRayTransition.MZ2; ++tr)
-                           // same family and above ionization edge and less
-                           // than the beam energy
-                           if (XRayTransition.exists(el, tr) && (XRayTransition.getFamily(tr) == primFam)
-                                 && (XRayTransition.getEnergy(el, tr) >= shEE) && (eea.compute(new XRayTransition(el, tr)) < e0))
-                              w += XRayTransition.getWeight(el, tr, XRayTransition.NormalizeFamily);
-                        if (w > 0.0)
-                           // System.out.println(xrt.toString() + " is excited
-                           // by "+ primXrt.toString() + ": w =
-                           // "+Double.toString(w));
-                           fSum += compute(comp, primXrt, secondary, e0, takeOff) * w;
-                     } catch (final EPQException ex) {
-                        // Just ignore it...
-                     }
-               } catch (final EPQException ex1) {
-                  // Just ignore it...
-               }
-         }
+         final ExcitingLine el2 = cachedExcitingLine(eea, el, secondary, e0);
+         if (el2.mWeight > 0.0)
+            fSum += compute(comp, el2.mPrimary, secondary, e0, takeOff, macs) * el2.mWeight;
       }
       return 1.0 + fSum;
    }
 
+   /**
+    * Builds (or fetches from the shared cache) a MACMatrix containing the
+    * MACs required to compute the fluorescence of each of the secondary
+    * transitions in a material containing the elements in comp. The matrix
+    * holds the secondary lines and the primary lines which excite them.
+    * 
+    * @param comp
+    *           Composition - The bulk material
+    * @param secondaries
+    *           The transitions for which the fluorescence will be computed
+    * @param e0
+    *           double - The beam energy (in Joules)
+    * @return MACMatrix
+    */
+   public MACMatrix createMACMatrix(Composition comp, Collection<XRayTransition> secondaries, double e0) {
+      final EdgeEnergy eea = (EdgeEnergy) getAlgorithm(EdgeEnergy.class);
+      final TreeSet<XRayTransition> xrts = new TreeSet<XRayTransition>(secondaries);
+      for (final XRayTransition secondary : secondaries)
+         for (final Element el : comp.getElementSet()) {
+            final ExcitingLine el2 = cachedExcitingLine(eea, el, secondary, e0);
+            if (el2.mWeight > 0.0)
+               xrts.add(el2.mPrimary);
+         }
+      return MACMatrix.get((MassAbsorptionCoefficient) getAlgorithm(MassAbsorptionCoefficient.class), comp.getElementSet(), xrts);
+   }
+
+   private ExcitingLine cachedExcitingLine(EdgeEnergy eea, Element el, XRayTransition secondary, double e0) {
+      final ExcitingLineKey key = new ExcitingLineKey(eea, el, secondary, e0);
+      ExcitingLine res = sExcitingLines.get(key);
+      if (res == null) {
+         res = excitingLine(eea, el, secondary, e0);
+         if (sExcitingLines.size() > MAX_EXCITING_LINES)
+            sExcitingLines.clear();
+         sExcitingLines.put(key, res);
+      }
+      return res;
+   }
+
+   /**
+    * Determines which line of el fluoresces secondary and what fraction of
+    * the line family contributes.
+    */
+   private ExcitingLine excitingLine(EdgeEnergy eea, Element el, XRayTransition secondary, double e0) {
+      final int prim = primaryExcitingLine(el, secondary.getDestination());
+      if (prim != XRayTransition.None) {
+         final XRayTransition primXrt = new XRayTransition(el, prim);
+         if (eea.compute(primXrt) < e0)
+            // Ignore prim if it is more than 5.0 keV (or 3.5 keV for L&M
+            // lines) above edge
+            try {
+               final double shEE = eea.compute(secondary);
+               final double delta = (secondary.getFamily() == AtomicShell.KFamily ? ToSI.keV(5.0) : ToSI.keV(3.5));
+               if (primXrt.getEnergy() < (shEE + delta))
+                  try {
+                     double w = 0.0;
+                     final int primFam = primXrt.getFamily();
+                     for (int tr = XRayTransition.KA1; tr <= XRayTransition.MZ2; ++tr)
+                        // same family and above ionization edge and less
+                        // than the beam energy
+                        if (XRayTransition.exists(el, tr) && (XRayTransition.getFamily(tr) == primFam)
+                              && (XRayTransition.getEnergy(el, tr) >= shEE) && (eea.compute(new XRayTransition(el, tr)) < e0))
+                           w += XRayTransition.getWeight(el, tr, XRayTransition.NormalizeFamily);
+                     if (w > 0.0)
+                        return new ExcitingLine(primXrt, w);
+                  } catch (final EPQException ex) {
+                     // Just ignore it...
+                  }
+            } catch (final EPQException ex1) {
+               // Just ignore it...
+            }
+      }
+      return NO_EXCITING_LINE;
+   }
+
    /**
     * Implement this method to compute the intensity of the fluorescence due to
     * the specified XRayTransition on a specific AtomicShell (Element + shell)
@@ -203,6 +327,24 @@ abstract public class Fluorescence extends AlgorithmClass {
     */
    abstract public double compute(Composition comp, XRayTransition primary, XRayTransition secondary, double e0, double takeOff);
 
+   /**
+    * As compute(comp, primary, secondary, e0, takeOff) but implementations
+    * may take the mass absorption coefficients from <code>macs</code>. The
+    * default implementation ignores <code>macs</code>.
+    * 
+    * @param comp
+    * @param primary
+    * @param secondary
+    * @param e0
+    * @param takeOff
+    * @param macs
+    *           MACMatrix - Tabulated MACs (may be null)
+    * @return double
+    */
+   public double compute(Composition comp, XRayTransition primary, XRayTransition secondary, double e0, double takeOff, MACMatrix macs) {
+      return compute(comp, primary, secondary, e0, takeOff);
+   }
+
    /**
     * Null - Performs no fluorescence correction.
     */
@@ -335,10 +477,17 @@ abstract public class Fluorescence extends AlgorithmClass {
        */
       @Override
       public double compute(Composition comp, XRayTransition primary, XRayTransition secondary, double e0, double takeOff) {
+         return compute(comp, primary, secondary, e0, takeOff, null);
+      }
+
+      @Override
+      public double compute(Composition comp, XRayTransition primary, XRayTransition secondary, double e0, double takeOff, MACMatrix macs) {
          try {
             final double eeA = secondary.getEdgeEnergy();
             if (primary.getEnergy() >= eeA) {
                final MassAbsorptionCoefficient mac = (MassAbsorptionCoefficient) getAlgorithm(MassAbsorptionCoefficient.class);
+               if ((macs != null) && (macs.getAlgorithm() != mac))
+                  macs = null;
                final JumpRatio jr = (JumpRatio) getAlgorithm(JumpRatio.class);
                final FluorescenceYieldMean fym = (FluorescenceYieldMean) getAlgorithm(FluorescenceYieldMean.class);
                final LenardCoefficient lc = (LenardCoefficient) getAlgorithm(LenardCoefficient.class);
@@ -352,15 +501,16 @@ abstract public class Fluorescence extends AlgorithmClass {
                final double cB = comp.weightFraction(bElm, true);
                // Mass absorption coefficient for primary in pure
                // secondary.getElement()
-               final double muB_A = MassAbsorptionCoefficient.toCmSqrPerGram(mac.compute(aElm, primary));
+               final double muB_A = MassAbsorptionCoefficient.toCmSqrPerGram(macs != null ? macs.compute(aElm, primary) : mac.compute(aElm, primary));
                // Mass absorption coefficient for xrtB in comp
-               final double muB = MassAbsorptionCoefficient.toCmSqrPerGram(mac.compute(comp, primary));
+               final double muB = MassAbsorptionCoefficient.toCmSqrPerGram(macs != null ? macs.compute(comp, primary) : mac.compute(comp, primary));
                // How much of the absorption is due to this edge???
                final double ionizeF = jr.ionizationFraction(secondary.getDestination());
                final double fluorB = fym.compute(primary.getDestination());
                final double Aa = aElm.getAtomicWeight();
                final double Ab = bElm.getAtomicWeight();
-               final double u = MassAbsorptionCoefficient.toCmSqrPerGram(mac.compute(comp, secondary)) / (Math.sin(takeOff) * muB);
+               final double muA = macs != null ? macs.compute(comp, secondary) : mac.compute(comp, secondary);
+               final double u = MassAbsorptionCoefficient.toCmSqrPerGram(muA) / (Math.sin(takeOff) * muB);
                final double v = lc.compute(e0, secondary) / muB; // keV
                double ss = idr.compute(primary, secondary, e0);
                // correct
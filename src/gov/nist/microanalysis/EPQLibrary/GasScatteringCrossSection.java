@@ -144,7 +144,7 @@ public class GasScatteringCrossSection extends RandomizedScatter {
     */
    @Override
    public double randomScatteringAngle(double energy) {
-      if ((Math.random() * (1.0 + ratioInelasticOverElastic())) < 1.0)
+      if ((Math2.rgen.nextDouble() * (1.0 + ratioInelasticOverElastic())) < 1.0)
          return mElastic.randomScatteringAngle(energy);
       else {
          // Electron velocity from energy
@@ -160,7 +160,7 @@ public class GasScatteringCrossSection extends RandomizedScatter {
          final double siInt = Math.log((((Math.PI * Math.PI) + thE2) * (th02 + thE2)) / (thE2 * ((Math.PI * Math.PI) + th02 + thE2)));
          assert siInt > 0.0 : Double.toString(siInt);
          // Select a random integrated cross section
-         final double exp_si = Math.exp(Math.random() * siInt);
+         final double exp_si = Math.exp(Math2.rgen.nextDouble() * siInt);
          assert exp_si >= 1.0;
          // Solve for the angle that give us this (via Egerton 3.16)
          final double beta = Math.sqrt(((1 - exp_si) * thE2 * (th02 + thE2)) / (((exp_si - 1) * thE2) - th02));
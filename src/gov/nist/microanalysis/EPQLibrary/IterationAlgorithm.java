@@ -11,6 +11,9 @@ import java.util.Map;
 
 import gov.nist.microanalysis.Utility.Math2;
 
+import Jama.LUDecomposition;
+import Jama.Matrix;
+
 /**
  * <p>
  * An abstract base class and a few implementations of a class designed to
@@ -28,7 +31,7 @@ import gov.nist.microanalysis.Utility.Math2;
  * @author Nicholas W. M. Ritchie
  * @version 1.0
  */
-abstract public class IterationAlgorithm extends AlgorithmClass {
+abstract public class IterationAlgorithm extends AlgorithmClass implements Cloneable {
    protected KRatioSet mDesired = null;
    protected ArrayList<Composition> mHistory = new ArrayList<Composition>();
 
@@ -65,6 +68,25 @@ abstract public class IterationAlgorithm extends AlgorithmClass {
       mHistory.add(estComp);
    }
 
+   /**
+    * Creates an uninitialized copy of this IterationAlgorithm with its own
+    * iteration history. CompositionFromKRatios iterates using a copy so that
+    * the shared static instances may be used by multiple threads.
+    * 
+    * @return IterationAlgorithm
+    */
+   @Override
+   protected IterationAlgorithm clone() {
+      try {
+         final IterationAlgorithm res = (IterationAlgorithm) super.clone();
+         res.mDesired = null;
+         res.mHistory = new ArrayList<Composition>();
+         return res;
+      } catch (final CloneNotSupportedException e) {
+         throw new EPQFatalException(e);
+      }
+   }
+
    protected Composition previousEstimate() {
       return mHistory.get(mHistory.size() - 1);
    }
@@ -190,7 +212,7 @@ abstract public class IterationAlgorithm extends AlgorithmClass {
     */
    static public class DiagnosticIterationAlgorithm extends IterationAlgorithm {
       private final PrintWriter mOutput;
-      private final IterationAlgorithm mBase;
+      private IterationAlgorithm mBase;
 
       public DiagnosticIterationAlgorithm(IterationAlgorithm base, OutputStream os) {
          super("Diag[" + base.getName() + "]", base.getReference());
@@ -214,6 +236,13 @@ abstract public class IterationAlgorithm extends AlgorithmClass {
          mBase.initialize(desiredKrs, estComp);
       }
 
+      @Override
+      protected DiagnosticIterationAlgorithm clone() {
+         final DiagnosticIterationAlgorithm res = (DiagnosticIterationAlgorithm) super.clone();
+         res.mBase = mBase.clone();
+         return res;
+      }
+
       @Override
       protected Composition perform(Map<XRayTransitionSet, Double> zafMap) {
          final Composition next = mBase.compute(zafMap);
@@ -238,7 +267,141 @@ abstract public class IterationAlgorithm extends AlgorithmClass {
       }
    }
 
+   /**
+    * <p>
+    * A quasi-Newton iteration which solves k<sub>i</sub> =
+    * C<sub>i</sub>&middot;ZAF<sub>i</sub>(C) for all the measured elements
+    * simultaneously. The Jacobian d(C<sub>i</sub>&middot;ZAF<sub>i</sub>)/
+    * dC<sub>j</sub> starts out as diag(ZAF) (so the first step is a simple
+    * iteration step) and is refined using Broyden's rank-one secant update
+    * from each successive ZAF evaluation. Unlike the Wegstein method, the
+    * secant update captures the cross-element terms (for example the effect of
+    * a heavy element's concentration on the absorption of a light element's
+    * line) which otherwise slow convergence on oxide and light-element
+    * samples.
+    * </p>
+    * <p>
+    * A step which increases the k-ratio residual is damped. When the Jacobian
+    * estimate is ill-conditioned, it is discarded and a simple iteration step
+    * is taken instead.
+    * </p>
+    */
+   static public class BroydenIterationAlgorithm extends IterationAlgorithm {
+
+      private static final double MAX_CONDITION = 1.0e8;
+
+      private XRayTransitionSet[] mTransitions;
+      private double[] mPrevC;
+      private double[] mPrevF;
+      private Matrix mJacobian;
+      private double mPrevResidual;
+      private double mDamping;
+
+      BroydenIterationAlgorithm() {
+         super("Broyden iteration", "Broyden, C.G. (1965) Math. Comp. 19, 577-593");
+      }
+
+      @Override
+      public void initialize(KRatioSet desiredKrs, Composition estComp) {
+         super.initialize(desiredKrs, estComp);
+         mTransitions = null;
+         mPrevC = null;
+         mPrevF = null;
+         mJacobian = null;
+         mPrevResidual = Double.MAX_VALUE;
+         mDamping = 1.0;
+      }
+
+      @Override
+      protected BroydenIterationAlgorithm clone() {
+         final BroydenIterationAlgorithm res = (BroydenIterationAlgorithm) super.clone();
+         res.mTransitions = null;
+         res.mPrevC = null;
+         res.mPrevF = null;
+         res.mJacobian = null;
+         return res;
+      }
+
+      private Composition simpleStep(Map<XRayTransitionSet, Double> zafMap) {
+         final Composition res = new Composition();
+         for (final XRayTransitionSet xrts : mDesired.keySet())
+            if (zafMap.containsKey(xrts))
+               res.addElement(xrts.getElement(), Math2.bound(mDesired.getKRatio(xrts) / zafMap.get(xrts), TINY, HUGE));
+         return res;
+      }
+
+      @Override
+      protected Composition perform(Map<XRayTransitionSet, Double> zafMap) {
+         final ArrayList<XRayTransitionSet> xrtss = new ArrayList<XRayTransitionSet>();
+         for (final XRayTransitionSet xrts : mDesired.keySet())
+            if (zafMap.containsKey(xrts))
+               xrtss.add(xrts);
+         final int n = xrtss.size();
+         final XRayTransitionSet[] trs = xrtss.toArray(new XRayTransitionSet[n]);
+         if ((mTransitions != null) && (!Arrays.equals(trs, mTransitions)))
+            mJacobian = null;
+         mTransitions = trs;
+         // The ZAFs were evaluated at the previous estimate
+         final Composition est = previousEstimate();
+         final double[] c = new double[n], f = new double[n], r = new double[n];
+         double residual = 0.0;
+         for (int i = 0; i < n; ++i) {
+            final double zaf = zafMap.get(trs[i]).doubleValue();
+            c[i] = est.weightFraction(trs[i].getElement(), false);
+            f[i] = c[i] * zaf;
+            r[i] = mDesired.getKRatio(trs[i]) - f[i];
+            residual += r[i] * r[i];
+         }
+         if (mJacobian == null) {
+            mJacobian = new Matrix(n, n);
+            for (int i = 0; i < n; ++i)
+               mJacobian.set(i, i, zafMap.get(trs[i]).doubleValue());
+         } else {
+            // Broyden's rank-one update: J += (df - J dc) dc' / (dc' dc)
+            final double[] dc = new double[n];
+            double dc2 = 0.0;
+            for (int i = 0; i < n; ++i) {
+               dc[i] = c[i] - mPrevC[i];
+               dc2 += dc[i] * dc[i];
+            }
+            if (dc2 > (TINY * TINY)) {
+               final double[] jdc = mJacobian.times(new Matrix(dc, n)).getColumnPackedCopy();
+               for (int i = 0; i < n; ++i) {
+                  final double u = ((f[i] - mPrevF[i]) - jdc[i]) / dc2;
+                  for (int j = 0; j < n; ++j)
+                     mJacobian.set(i, j, mJacobian.get(i, j) + (u * dc[j]));
+               }
+            }
+            // Damp steps which made matters worse, relax otherwise
+            mDamping = residual > mPrevResidual ? Math.max(0.125, 0.5 * mDamping) : Math.min(1.0, 2.0 * mDamping);
+         }
+         mPrevC = c;
+         mPrevF = f;
+         mPrevResidual = residual;
+         final LUDecomposition lu = new LUDecomposition(mJacobian);
+         if ((!lu.isNonsingular()) || (mJacobian.cond() > MAX_CONDITION)) {
+            // Fall back to simple iteration and start over with diag(ZAF)
+            mJacobian = null;
+            return simpleStep(zafMap);
+         }
+         final double[] step = lu.solve(new Matrix(r, n)).getColumnPackedCopy();
+         final Composition res = new Composition();
+         for (int i = 0; i < n; ++i) {
+            if (Double.isNaN(step[i])) {
+               mJacobian = null;
+               return simpleStep(zafMap);
+            }
+            // Don't allow a step to reduce a concentration by more than 90%
+            res.addElement(trs[i].getElement(), Math2.bound(c[i] + (mDamping * step[i]), Math.max(TINY, 0.1 * c[i]), HUGE));
+         }
+         return res;
+      }
+   }
+
+   public static final IterationAlgorithm BroydenIteration = new BroydenIterationAlgorithm();
+
    static public final IterationAlgorithm Default = IterationAlgorithm.WegsteinIteration;
 
-   static private final AlgorithmClass[] mAllImplementations = {IterationAlgorithm.SimpleIteration, IterationAlgorithm.WegsteinIteration};
+   static private final AlgorithmClass[] mAllImplementations = {IterationAlgorithm.SimpleIteration, IterationAlgorithm.WegsteinIteration,
+         IterationAlgorithm.BroydenIteration};
 }
@@ -0,0 +1,297 @@
+package gov.nist.microanalysis.EPQLibrary;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Objects;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * <p>
+ * An immutable table of the mass absorption coefficients computed by one
+ * MassAbsorptionCoefficient algorithm for each of a fixed set of x-ray
+ * transitions in each of a fixed set of absorbing elements. Once built, the
+ * MAC for an element and a transition is an array look-up and the MAC for a
+ * composition is a dot product with the weight fractions.
+ * </p>
+ * <p>
+ * Quantification and simulation evaluate the same small set of lines in the
+ * same small set of elements over and over. Use MACMatrix.get(...) to obtain
+ * a shared instance for a (algorithm, elements, transitions) triplet. Since a
+ * MACMatrix is never modified after construction it may be shared freely
+ * between threads.
+ * </p>
+ * <p>
+ * Pairs which are not in the table (or for which the algorithm failed when
+ * the table was built) are passed through to the underlying algorithm so the
+ * compute(...) methods always return exactly what the algorithm would.
+ * </p>
+ * <p>
+ * Copyright: Pursuant to title 17 Section 105 of the United States Code this
+ * software is not subject to copyright protection and is in the public domain
+ * </p>
+ * <p>
+ * Institution: National Institute of Standards and Technology
+ * </p>
+ *
+ * @author Nicholas
+ * @version 1.0
+ */
+public final class MACMatrix {
+
+   private final MassAbsorptionCoefficient mAlgorithm;
+   private final Element[] mElements;
+   private final XRayTransition[] mTransitions;
+   // Index into mElements by atomic number or -1
+   private final int[] mElementIndex;
+   private final HashMap<XRayTransition, Integer> mTransitionIndex;
+   // mMAC[line * mElements.length + elm] in SI or NaN if not available
+   private final double[] mMAC;
+
+   private static final class Key {
+      private final MassAbsorptionCoefficient mAlgorithm;
+      private final long mModificationCount;
+      private final EdgeEnergy mEdgeEnergy;
+      private final TransitionEnergy mTransitionEnergy;
+      private final Element[] mElements;
+      private final XRayTransition[] mTransitions;
+      private final int mHashCode;
+
+      private Key(MassAbsorptionCoefficient mac, Element[] elms, XRayTransition[] xrts) {
+         mAlgorithm = mac;
+         mModificationCount = mac.getModificationCount();
+         // The MACs may depend upon the default edge and transition energies
+         mEdgeEnergy = AlgorithmUser.getDefaultEdgeEnergy();
+         mTransitionEnergy = AlgorithmUser.getDefaultTransitionEnergy();
+         mElements = elms;
+         mTransitions = xrts;
+         mHashCode = Objects.hash(System.identityHashCode(mac), mModificationCount, System.identityHashCode(mEdgeEnergy),
+               System.identityHashCode(mTransitionEnergy), Arrays.hashCode(elms), Arrays.hashCode(xrts));
+      }
+
+      @Override
+      public int hashCode() {
+         return mHashCode;
+      }
+
+      @Override
+      public boolean equals(Object obj) {
+         if (!(obj instanceof Key))
+            return false;
+         final Key other = (Key) obj;
+         return (mAlgorithm == other.mAlgorithm) && (mModificationCount == other.mModificationCount) && (mEdgeEnergy == other.mEdgeEnergy)
+               && (mTransitionEnergy == other.mTransitionEnergy) && Arrays.equals(mElements, other.mElements)
+               && Arrays.equals(mTransitions, other.mTransitions);
+      }
+   }
+
+   private static final ConcurrentHashMap<Key, MACMatrix> sCache = new ConcurrentHashMap<>();
+   private static final int MAX_MATRICES = 1000;
+
+   private MACMatrix(MassAbsorptionCoefficient mac, Element[] elms, XRayTransition[] xrts) {
+      mAlgorithm = mac;
+      mElements = elms;
+      mTransitions = xrts;
+      mElementIndex = new int[Element.elmEndOfElements];
+      Arrays.fill(mElementIndex, -1);
+      for (int e = 0; e < elms.length; ++e)
+         mElementIndex[elms[e].getAtomicNumber()] = e;
+      mTransitionIndex = new HashMap<XRayTransition, Integer>();
+      mMAC = new double[xrts.length * elms.length];
+      for (int t = 0; t < xrts.length; ++t) {
+         mTransitionIndex.put(xrts[t], Integer.valueOf(t));
+         for (int e = 0; e < elms.length; ++e)
+            try {
+               mMAC[(t * elms.length) + e] = mac.compute(elms[e], xrts[t]);
+            } catch (final EPQException ex) {
+               // Defer to mAlgorithm which will throw again when required
+               mMAC[(t * elms.length) + e] = Double.NaN;
+            }
+      }
+   }
+
+   /**
+    * Constructs a MACMatrix for the specified algorithm, absorbing elements
+    * and transitions. Consider using get(...) instead which shares instances.
+    *
+    * @param mac
+    *           The MassAbsorptionCoefficient algorithm
+    * @param elms
+    *           The absorbing elements
+    * @param xrts
+    *           The absorbed x-ray transitions
+    */
+   public MACMatrix(MassAbsorptionCoefficient mac, Collection<Element> elms, Collection<XRayTransition> xrts) {
+      this(mac, new TreeSet<Element>(elms).toArray(new Element[0]), new TreeSet<XRayTransition>(xrts).toArray(new XRayTransition[0]));
+   }
+
+   /**
+    * Returns a MACMatrix for the specified algorithm, absorbing elements and
+    * transitions. Matrices are cached so repeated requests for the same
+    * algorithm, elements and transitions return the same instance.
+    *
+    * @param mac
+    *           The MassAbsorptionCoefficient algorithm
+    * @param elms
+    *           The absorbing elements
+    * @param xrts
+    *           The absorbed x-ray transitions
+    * @return MACMatrix
+    */
+   public static MACMatrix get(MassAbsorptionCoefficient mac, Collection<Element> elms, Collection<XRayTransition> xrts) {
+      final Key key = new Key(mac, new TreeSet<Element>(elms).toArray(new Element[0]),
+            new TreeSet<XRayTransition>(xrts).toArray(new XRayTransition[0]));
+      MACMatrix res = sCache.get(key);
+      if (res == null) {
+         res = new MACMatrix(mac, key.mElements, key.mTransitions);
+         if (sCache.size() > MAX_MATRICES)
+            sCache.clear();
+         sCache.put(key, res);
+      }
+      return res;
+   }
+
+   /**
+    * Empties the cache of shared matrices.
+    */
+   public static void clearCache() {
+      sCache.clear();
+   }
+
+   /**
+    * The algorithm used to compute the tabulated values.
+    *
+    * @return MassAbsorptionCoefficient
+    */
+   public MassAbsorptionCoefficient getAlgorithm() {
+      return mAlgorithm;
+   }
+
+   /**
+    * The absorbing elements in order of atomic number.
+    *
+    * @return List&lt;Element&gt;
+    */
+   public List<Element> getElements() {
+      return Collections.unmodifiableList(Arrays.asList(mElements));
+   }
+
+   /**
+    * The tabulated transitions in their natural order.
+    *
+    * @return List&lt;XRayTransition&gt;
+    */
+   public List<XRayTransition> getTransitions() {
+      return Collections.unmodifiableList(Arrays.asList(mTransitions));
+   }
+
+   /**
+    * The index of elm in getElements() or -1 if elm is not tabulated.
+    *
+    * @param elm
+    * @return int
+    */
+   public int indexOf(Element elm) {
+      final int z = elm.getAtomicNumber();
+      return (z >= 0) && (z < mElementIndex.length) ? mElementIndex[z] : -1;
+   }
+
+   /**
+    * The index of xrt in getTransitions() or -1 if xrt is not tabulated.
+    *
+    * @param xrt
+    * @return int
+    */
+   public int indexOf(XRayTransition xrt) {
+      final Integer res = mTransitionIndex.get(xrt);
+      return res != null ? res.intValue() : -1;
+   }
+
+   /**
+    * The mass absorption coefficient of xrt in pure elm.
+    *
+    * @param elm
+    * @param xrt
+    * @return The MAC in SI (m<sup>2</sup>/kg)
+    * @throws EPQException
+    * @see MassAbsorptionCoefficient#compute(Element, XRayTransition)
+    */
+   public double compute(Element elm, XRayTransition xrt) throws EPQException {
+      final int e = indexOf(elm), t = indexOf(xrt);
+      if ((e >= 0) && (t >= 0)) {
+         final double res = mMAC[(t * mElements.length) + e];
+         if (!Double.isNaN(res))
+            return res;
+      }
+      return mAlgorithm.compute(elm, xrt);
+   }
+
+   /**
+    * The mass absorption coefficient of xrt in the material comp. Sums the
+    * elemental contributions in the same order as the underlying algorithm so
+    * the result is identical.
+    *
+    * @param comp
+    * @param xrt
+    * @return The MAC in SI (m<sup>2</sup>/kg)
+    * @throws EPQException
+    * @see MassAbsorptionCoefficient#compute(Composition, XRayTransition)
+    */
+   public double compute(Composition comp, XRayTransition xrt) throws EPQException {
+      final int t = indexOf(xrt);
+      if (t < 0)
+         return mAlgorithm.compute(comp, xrt);
+      final int offset = t * mElements.length;
+      double mac = 0.0;
+      for (final Element el : comp.getElementSet()) {
+         final int e = indexOf(el);
+         final double mu = e >= 0 ? mMAC[offset + e] : Double.NaN;
+         mac += (Double.isNaN(mu) ? mAlgorithm.compute(el, xrt) : mu) * comp.weightFraction(el, false);
+      }
+      return mac;
+   }
+
+   /**
+    * Returns the weight fractions of comp aligned with getElements() for use
+    * with compute(double[], int). Elements in comp which are not tabulated are
+    * ignored.
+    *
+    * @param comp
+    * @return double[]
+    */
+   public double[] weightFractions(Composition comp) {
+      final double[] res = new double[mElements.length];
+      for (final Element el : comp.getElementSet()) {
+         final int e = indexOf(el);
+         if (e >= 0)
+            res[e] = comp.weightFraction(el, false);
+      }
+      return res;
+   }
+
+   /**
+    * Computes the MAC of the transition at index <code>line</code> in the
+    * material described by the weight fractions <code>wf</code> (as returned
+    * by weightFractions(...)). Untabulated pairs contribute NaN.
+    *
+    * @param wf
+    * @param line
+    * @return The MAC in SI (m<sup>2</sup>/kg)
+    */
+   public double compute(double[] wf, int line) {
+      final int offset = line * mElements.length;
+      double mac = 0.0;
+      for (int e = 0; e < mElements.length; ++e)
+         if (wf[e] != 0.0)
+            mac += mMAC[offset + e] * wf[e];
+      return mac;
+   }
+
+   @Override
+   public String toString() {
+      return "MACMatrix[" + mAlgorithm.getName() + "," + mElements.length + " elements," + mTransitions.length + " transitions]";
+   }
+}
@@ -11,9 +11,24 @@ import java.io.BufferedWriter;
 import java.io.File;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.io.RandomAccessFile;
 import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.text.NumberFormat;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
 import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.IntConsumer;
+import java.util.function.Supplier;
+import java.util.stream.IntStream;
 
 import javax.imageio.ImageIO;
 
@@ -28,6 +43,13 @@ import gov.nist.microanalysis.Utility.Math2;
  * A class for translating x-ray map double matrices into a grey-scale images.
  * </p>
  * <p>
+ * Each plane is stored as a flat row-major array in one of the formats
+ * enumerated by Storage. The minimum, maximum and sum of each plane are
+ * maintained as the data is modified through set(...) and inc(...). MapImage
+ * objects are not thread safe. A MapImage using Storage.DISK holds a temporary
+ * file which is released by close().
+ * </p>
+ * <p>
  * Copyright: Pursuant to title 17 Section 105 of the United States Code this
  * software is not subject to copyright protection and is in the public domain
  * </p>
@@ -38,7 +60,7 @@ import gov.nist.microanalysis.Utility.Math2;
  * @author nicholas
  * @version 1.0
  */
-public class MapImage {
+public class MapImage implements AutoCloseable {
 
    private double mSumThresh = 0.1;
 
@@ -46,11 +68,171 @@ public class MapImage {
       K_RATIOS, PEAK_INTEGRALS, COMPOSITION
    };
 
-   private final double[][][] mData; // [ROI or ELM], X, Y
+   /**
+    * The mechanisms available for storing the plane data.
+    */
+   public enum Storage {
+      /**
+       * 8-byte doubles on the Java heap
+       */
+      DOUBLE,
+      /**
+       * 4-byte floats on the Java heap
+       */
+      FLOAT,
+      /**
+       * 4-byte floats in direct (off-heap) buffers
+       */
+      OFF_HEAP,
+      /**
+       * 4-byte floats arranged in square tiles within a memory mapped
+       * temporary file. For maps too large to hold in memory.
+       */
+      DISK
+   };
+
+   /**
+    * Stores the planes. Offsets are row-major (y * width + x) within a plane.
+    */
+   private static abstract class Backing {
+      abstract double get(int plane, int offset);
+
+      abstract void set(int plane, int offset, double val);
+
+      void close() throws IOException {
+      }
+   }
+
+   private static class DoubleBacking extends Backing {
+      private final double[][] mPlanes;
+
+      private DoubleBacking(int depth, int size) {
+         mPlanes = new double[depth][size];
+      }
+
+      @Override
+      double get(int plane, int offset) {
+         return mPlanes[plane][offset];
+      }
+
+      @Override
+      void set(int plane, int offset, double val) {
+         mPlanes[plane][offset] = val;
+      }
+   }
+
+   private static class FloatBacking extends Backing {
+      private final float[][] mPlanes;
+
+      private FloatBacking(int depth, int size) {
+         mPlanes = new float[depth][size];
+      }
+
+      @Override
+      double get(int plane, int offset) {
+         return mPlanes[plane][offset];
+      }
+
+      @Override
+      void set(int plane, int offset, double val) {
+         mPlanes[plane][offset] = (float) val;
+      }
+   }
+
+   /**
+    * 4-byte floats in a sequence of ByteBuffers which are either allocated
+    * directly or mapped from a temporary file. When tiled, each plane is
+    * divided into TILE x TILE blocks stored contiguously so that neighboring
+    * pixels in both directions tend to share pages.
+    */
+   private static class BufferBacking extends Backing {
+      private static final int SEGMENT_SHIFT = 28;
+      private static final int TILE_SHIFT = 6;
+      private static final int TILE = 1 << TILE_SHIFT;
+
+      private final ByteBuffer[] mSegments;
+      private final int mWidth;
+      private final int mTilesX;
+      private final long mPlaneSize;
+      private final boolean mTiled;
+      private final File mFile;
+      private final RandomAccessFile mRAF;
+
+      private BufferBacking(int depth, int width, int height, boolean onDisk) throws IOException {
+         mWidth = width;
+         mTiled = onDisk;
+         mTilesX = (width + TILE - 1) >> TILE_SHIFT;
+         final int tilesY = (height + TILE - 1) >> TILE_SHIFT;
+         mPlaneSize = mTiled ? (long) mTilesX * tilesY * TILE * TILE : (long) width * height;
+         final long bytes = 4L * depth * mPlaneSize;
+         final int nSeg = (int) ((bytes + (1L << SEGMENT_SHIFT) - 1) >> SEGMENT_SHIFT);
+         mSegments = new ByteBuffer[nSeg];
+         if (onDisk) {
+            mFile = File.createTempFile("mapimage", ".tmp");
+            mFile.deleteOnExit();
+            mRAF = new RandomAccessFile(mFile, "rw");
+            mRAF.setLength(bytes);
+            final FileChannel fc = mRAF.getChannel();
+            for (int i = 0; i < nSeg; ++i) {
+               final long start = (long) i << SEGMENT_SHIFT;
+               mSegments[i] = fc.map(FileChannel.MapMode.READ_WRITE, start, Math.min(1L << SEGMENT_SHIFT, bytes - start));
+            }
+         } else {
+            mFile = null;
+            mRAF = null;
+            for (int i = 0; i < nSeg; ++i) {
+               final long start = (long) i << SEGMENT_SHIFT;
+               mSegments[i] = ByteBuffer.allocateDirect((int) Math.min(1L << SEGMENT_SHIFT, bytes - start));
+            }
+         }
+      }
+
+      private long position(int plane, int offset) {
+         long idx;
+         if (mTiled) {
+            final int y = offset / mWidth, x = offset - (y * mWidth);
+            final long tile = ((long) (y >> TILE_SHIFT) * mTilesX) + (x >> TILE_SHIFT);
+            idx = (tile << (2 * TILE_SHIFT)) + (((y & (TILE - 1)) << TILE_SHIFT) | (x & (TILE - 1)));
+         } else
+            idx = offset;
+         return 4L * ((plane * mPlaneSize) + idx);
+      }
+
+      @Override
+      double get(int plane, int offset) {
+         final long pos = position(plane, offset);
+         return mSegments[(int) (pos >> SEGMENT_SHIFT)].getFloat((int) (pos & ((1L << SEGMENT_SHIFT) - 1)));
+      }
+
+      @Override
+      void set(int plane, int offset, double val) {
+         final long pos = position(plane, offset);
+         mSegments[(int) (pos >> SEGMENT_SHIFT)].putFloat((int) (pos & ((1L << SEGMENT_SHIFT) - 1)), (float) val);
+      }
+
+      @Override
+      void close() throws IOException {
+         if (mRAF != null) {
+            mRAF.close();
+            mFile.delete();
+         }
+      }
+   }
+
+   private final Backing mData;
+   private final Storage mStorage;
+   private final int mWidth;
+   private final int mHeight;
+   private final int mDepth;
    private final String mDescription;
    private final RegionOfInterest[] mROIS;
    private final DataType mType;
-   private double[][] mSum;
+   // Per plane statistics maintained by set(...)
+   private final double[] mPlaneSum;
+   private final double[] mPlaneMin;
+   private final double[] mPlaneMax;
+   private final boolean[] mExtremaValid;
+   private double[] mSum; // Row-major sum of planes
    private DescriptiveStatistics mSumStats;
 
    private static void validateROIS(RegionOfInterest[] rois) {
@@ -61,12 +243,63 @@ public class MapImage {
       }
    }
 
+   /**
+    * Constructs a MapImage using the specified storage mechanism.
+    *
+    * @param width
+    * @param height
+    * @param rois One plane per ROI
+    * @param desc
+    * @param dt
+    * @param storage
+    * @throws IOException When the DISK storage can not be created
+    */
+   public MapImage(int width, int height, RegionOfInterest[] rois, String desc, DataType dt, Storage storage) throws IOException {
+      validateROIS(rois);
+      mWidth = width;
+      mHeight = height;
+      mDepth = rois.length;
+      mStorage = storage;
+      switch (storage) {
+         case FLOAT :
+            mData = new FloatBacking(mDepth, width * height);
+            break;
+         case OFF_HEAP :
+            mData = new BufferBacking(mDepth, width, height, false);
+            break;
+         case DISK :
+            mData = new BufferBacking(mDepth, width, height, true);
+            break;
+         case DOUBLE :
+         default :
+            mData = new DoubleBacking(mDepth, width * height);
+            break;
+      }
+      mROIS = rois.clone();
+      mDescription = desc;
+      mType = dt;
+      mPlaneSum = new double[mDepth];
+      mPlaneMin = new double[mDepth];
+      mPlaneMax = new double[mDepth];
+      mExtremaValid = new boolean[mDepth];
+      Arrays.fill(mExtremaValid, true);
+   }
+
    public MapImage(int width, int height, RegionOfInterest[] rois, String desc, DataType dt) {
       validateROIS(rois);
-      mData = new double[rois.length][width][height];
+      mWidth = width;
+      mHeight = height;
+      mDepth = rois.length;
+      mStorage = Storage.DOUBLE;
+      mData = new DoubleBacking(mDepth, width * height);
       mROIS = rois.clone();
       mDescription = desc;
       mType = dt;
+      mPlaneSum = new double[mDepth];
+      mPlaneMin = new double[mDepth];
+      mPlaneMax = new double[mDepth];
+      mExtremaValid = new boolean[mDepth];
+      Arrays.fill(mExtremaValid, true);
    }
 
    public MapImage(int width, int height, Set<RegionOfInterest> rois, String desc, DataType dt) {
@@ -74,19 +307,80 @@ public class MapImage {
    }
 
    public int depth() {
-      return mData.length;
+      return mDepth;
    }
 
    public int width() {
-      return mData[0].length;
+      return mWidth;
    }
 
    public int height() {
-      return mData[0][0].length;
+      return mHeight;
+   }
+
+   /**
+    * Returns the mechanism used to store the plane data.
+    *
+    * @return Storage
+    */
+   public Storage getStorage() {
+      return mStorage;
+   }
+
+   private void updateExtrema(int index) {
+      if (!mExtremaValid[index]) {
+         double min = Double.MAX_VALUE, max = -Double.MAX_VALUE;
+         for (int off = 0, size = mWidth * mHeight; off < size; ++off) {
+            final double v = mData.get(index, off);
+            if (v < min)
+               min = v;
+            if (v > max)
+               max = v;
+         }
+         mPlaneMin[index] = min;
+         mPlaneMax[index] = max;
+         mExtremaValid[index] = true;
+      }
    }
 
    public double maxValue(int index) {
-      return Math2.max(mData[index]);
+      updateExtrema(index);
+      return mPlaneMax[index];
+   }
+
+   /**
+    * Returns the minimum value in the specified plane.
+    *
+    * @param index
+    * @return double
+    */
+   public double minValue(int index) {
+      updateExtrema(index);
+      return mPlaneMin[index];
+   }
+
+   /**
+    * Returns the sum of the values in the specified plane.
+    *
+    * @param index
+    * @return double
+    */
+   public double sum(int index) {
+      return mPlaneSum[index];
+   }
+
+   /**
+    * Returns a copy of the specified plane as a row-major array (index y *
+    * width() + x).
+    *
+    * @param index
+    * @return double[]
+    */
+   public double[] getPlane(int index) {
+      final double[] res = new double[mWidth * mHeight];
+      for (int off = 0; off < res.length; ++off)
+         res[off] = mData.get(index, off);
+      return res;
    }
 
    public RegionOfInterest getROI(int idx) {
@@ -104,45 +398,371 @@ public class MapImage {
     */
    public MapImage quantify(CompositionFromKRatios ckr, SpectrumProperties props, boolean normalize) {
       if (mType == DataType.K_RATIOS) {
-         final int width = width(), height = height();
-         final MapImage res = new MapImage(width, height, mROIS, "Quantified[" + mDescription + "]", DataType.COMPOSITION);
-         final XRayTransitionSet[] xrtss = new XRayTransitionSet[mROIS.length];
+         final Quantifier q = new Quantifier(() -> ckr, props, normalize);
+         q.setThreadCount(1);
+         q.setCacheSize(0);
+         return q.quantify(this);
+      } else
+         return null;
+   }
+
+   /**
+    * <p>
+    * Quantifies a K_RATIOS MapImage by splitting the rows over a ForkJoinPool.
+    * Each worker thread uses its own CompositionFromKRatios obtained from the
+    * factory. The CompositionFromKRatios instances evaluate the matrix
+    * correction through their own CorrectionAlgorithm.Context objects so they
+    * may share a single CorrectionAlgorithm.
+    * </p>
+    * <p>
+    * Converged Compositions are memoised in a bounded least-recently-used cache
+    * keyed by the k-ratio vector quantised in steps of getQuantum(). A pixel
+    * looks in its own bin and in the bins one quantum away along any single
+    * k-ratio. Of the entries it finds, the one with the smallest largest
+    * k-ratio difference is the pixel's neighbour. The neighbour's Composition
+    * is reused outright when all k-ratios agree to within getReuseTolerance()
+    * and otherwise it seeds the iteration. Looking in the adjacent bins means
+    * that pixels which straddle a bin boundary still find each other. Real
+    * maps tend to consist of a handful of phases so most pixels find a
+    * neighbour and converge in fewer iterations.
+    * </p>
+    */
+   public static class Quantifier {
+
+      private static final class Key {
+         private final long[] mBins;
+         private final int mHash;
+
+         private Key(long[] bins) {
+            mBins = bins;
+            mHash = Arrays.hashCode(mBins);
+         }
+
+         private Key(double[] krs, double quantum) {
+            this(bins(krs, quantum));
+         }
+
+         private static long[] bins(double[] krs, double quantum) {
+            final long[] res = new long[krs.length];
+            for (int i = 0; i < krs.length; ++i)
+               res[i] = Math.round(krs[i] / quantum);
+            return res;
+         }
+
+         @Override
+         public int hashCode() {
+            return mHash;
+         }
+
+         @Override
+         public boolean equals(Object obj) {
+            return (obj instanceof Key) && Arrays.equals(mBins, ((Key) obj).mBins);
+         }
+      }
+
+      private static final class Entry {
+         private final double[] mKRatios;
+         private final Composition mComposition;
+
+         private Entry(double[] krs, Composition comp) {
+            mKRatios = krs;
+            mComposition = comp;
+         }
+
+         /**
+          * The largest absolute difference between krs and this entry's
+          * k-ratios.
+          */
+         private double distance(double[] krs) {
+            double res = 0.0;
+            for (int i = 0; i < krs.length; ++i)
+               res = Math.max(res, Math.abs(krs[i] - mKRatios[i]));
+            return res;
+         }
+      }
+
+      /**
+       * Finds the cached entry nearest to krs in the bin <code>key</code> and
+       * in the bins adjacent to it along a single k-ratio. Returns null if
+       * all these bins are empty.
+       */
+      private static Entry nearest(Map<Key, Entry> cache, Key key, double[] krs) {
+         Entry res = cache.get(key);
+         double best = res != null ? res.distance(krs) : Double.MAX_VALUE;
+         for (int i = 0; i < key.mBins.length; ++i)
+            for (int d = -1; d <= 1; d += 2) {
+               final long[] bins = key.mBins.clone();
+               bins[i] += d;
+               final Entry e = cache.get(new Key(bins));
+               if (e != null) {
+                  final double dist = e.distance(krs);
+                  if (dist < best) {
+                     res = e;
+                     best = dist;
+                  }
+               }
+            }
+         return res;
+      }
+
+      private final Supplier<CompositionFromKRatios> mFactory;
+      private final SpectrumProperties mProperties;
+      private final boolean mNormalize;
+      private double mQuantum = 0.002;
+      private double mReuseTolerance = 0.0;
+      private int mCacheSize = 4096;
+      private int mThreadCount = Runtime.getRuntime().availableProcessors();
+
+      private final AtomicLong mHits = new AtomicLong();
+      private final AtomicLong mMisses = new AtomicLong();
+      private final AtomicLong mReuses = new AtomicLong();
+      private final AtomicLong mFailures = new AtomicLong();
+      private final TreeMap<Integer, Long> mIterations = new TreeMap<>();
+
+      /**
+       * Constructs a Quantifier.
+       *
+       * @param factory Builds a configured CompositionFromKRatios for each
+       *           worker thread
+       * @param props The properties of the unknown
+       * @param normalize Report normalized or as-computed mass fractions
+       */
+      public Quantifier(Supplier<CompositionFromKRatios> factory, SpectrumProperties props, boolean normalize) {
+         mFactory = factory;
+         mProperties = props;
+         mNormalize = normalize;
+      }
+
+      /**
+       * The bin width used to quantise k-ratios when forming cache keys.
+       *
+       * @param quantum &gt; 0.0
+       */
+      public void setQuantum(double quantum) {
+         if (!(quantum > 0.0))
+            throw new EPQFatalException("The quantum must be larger than zero.");
+         mQuantum = quantum;
+      }
+
+      public double getQuantum() {
+         return mQuantum;
+      }
+
+      /**
+       * A cached Composition is reused without iterating when every k-ratio
+       * differs from the cached k-ratio by no more than this amount. The
+       * default of 0.0 reuses only exact matches; otherwise the cached
+       * Composition is just a starting point.
+       *
+       * @param tol &gt;= 0.0
+       */
+      public void setReuseTolerance(double tol) {
+         mReuseTolerance = Math.max(0.0, tol);
+      }
+
+      public double getReuseTolerance() {
+         return mReuseTolerance;
+      }
+
+      /**
+       * The maximum number of Compositions retained in the cache. Zero disables
+       * the cache.
+       *
+       * @param size
+       */
+      public void setCacheSize(int size) {
+         mCacheSize = Math.max(0, size);
+      }
+
+      public int getCacheSize() {
+         return mCacheSize;
+      }
+
+      public void setThreadCount(int threads) {
+         mThreadCount = Math.max(1, threads);
+      }
+
+      public int getThreadCount() {
+         return mThreadCount;
+      }
+
+      /**
+       * The number of pixels in the last call to quantify(...) which found a
+       * cached neighbour.
+       *
+       * @return long
+       */
+      public long getHitCount() {
+         return mHits.get();
+      }
+
+      /**
+       * The number of pixels in the last call to quantify(...) which did not
+       * find a cached neighbour.
+       *
+       * @return long
+       */
+      public long getMissCount() {
+         return mMisses.get();
+      }
+
+      /**
+       * The number of pixels in the last call to quantify(...) for which a
+       * cached Composition was reused without iterating.
+       *
+       * @return long
+       */
+      public long getReuseCount() {
+         return mReuses.get();
+      }
+
+      /**
+       * The number of pixels in the last call to quantify(...) which failed to
+       * quantify and were set to zero.
+       *
+       * @return long
+       */
+      public long getFailureCount() {
+         return mFailures.get();
+      }
+
+      /**
+       * The fraction of cache look-ups in the last call to quantify(...) which
+       * found a neighbour.
+       *
+       * @return double in [0,1]
+       */
+      public double getHitRate() {
+         final long hits = mHits.get(), total = hits + mMisses.get();
+         return total > 0 ? (double) hits / (double) total : 0.0;
+      }
+
+      /**
+       * A histogram of the number of iterations required to quantify each pixel
+       * in the last call to quantify(...). Pixels which reused a cached
+       * Composition are not included.
+       *
+       * @return Map&lt;Integer, Long&gt; from iteration count to number of
+       *         pixels
+       */
+      public SortedMap<Integer, Long> getIterationHistogram() {
+         synchronized (mIterations) {
+            return new TreeMap<>(mIterations);
+         }
+      }
+
+      /**
+       * Quantifies the K_RATIOS MapImage <code>kratios</code> and returns a new
+       * COMPOSITION MapImage using the same Storage.
+       *
+       * @param kratios
+       * @return MapImage
+       */
+      public MapImage quantify(MapImage kratios) {
+         if (kratios.mType != DataType.K_RATIOS)
+            throw new EPQFatalException("quantify(...) requires a K_RATIOS map.");
+         final int width = kratios.width(), height = kratios.height();
+         final RegionOfInterest[] rois = kratios.mROIS;
+         final MapImage res;
+         try {
+            res = new MapImage(width, height, rois, "Quantified[" + kratios.mDescription + "]", DataType.COMPOSITION, kratios.mStorage);
+         } catch (final IOException e) {
+            throw new EPQFatalException(e);
+         }
+         final XRayTransitionSet[] xrtss = new XRayTransitionSet[rois.length];
          for (int i = 0; i < xrtss.length; ++i)
-            xrtss[i] = new XRayTransitionSet(mROIS[i].getXRayTransitionSet(mROIS[i].getElementSet().first()).getWeighiestTransition());
-         for (int y = 0; y < height; ++y)
+            xrtss[i] = new XRayTransitionSet(rois[i].getXRayTransitionSet(rois[i].getElementSet().first()).getWeighiestTransition());
+         mHits.set(0);
+         mMisses.set(0);
+         mReuses.set(0);
+         mFailures.set(0);
+         synchronized (mIterations) {
+            mIterations.clear();
+         }
+         final int cacheSize = mCacheSize;
+         final Map<Key, Entry> cache = cacheSize > 0 ? Collections.synchronizedMap(new LinkedHashMap<Key, Entry>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Key, Entry> eldest) {
+               return size() > cacheSize;
+            }
+         }) : null;
+         final ThreadLocal<CompositionFromKRatios> cfks = ThreadLocal.withInitial(mFactory);
+         final IntConsumer doRow = y -> {
+            final CompositionFromKRatios cfk = cfks.get();
+            final double[][] row = new double[xrtss.length][width];
+            final TreeMap<Integer, Long> iters = new TreeMap<>();
             for (int x = 0; x < width; ++x) {
+               final double[] k = new double[xrtss.length];
                final KRatioSet krs = new KRatioSet();
                for (int i = 0; i < xrtss.length; ++i)
-                  krs.addKRatio(xrtss[i], Math.max(0.0, mData[i][x][y]), 0.0);
-               Composition comp;
-               try {
-                  comp = ckr.compute(krs, props);
-                  for (int i = 0; i < xrtss.length; ++i)
-                     res.mData[i][x][y] = Math.max(0.0, comp.weightFraction(xrtss[i].getElement(), normalize));
-               } catch (final EPQException e) {
-                  for (int i = 0; i < xrtss.length; ++i)
-                     res.mData[i][x][y] = 0.0;
-               }
+                  k[i] = Math.max(0.0, kratios.get(x, y, i));
+               for (int i = 0; i < xrtss.length; ++i)
+                  krs.addKRatio(xrtss[i], k[i], 0.0);
+               final Key key = cache != null ? new Key(k, mQuantum) : null;
+               final Entry prev = cache != null ? nearest(cache, key, k) : null;
+               Composition comp = null;
+               if (prev != null) {
+                  mHits.incrementAndGet();
+                  if (prev.distance(k) <= mReuseTolerance) {
+                     comp = prev.mComposition;
+                     mReuses.incrementAndGet();
+                  }
+               } else if (cache != null)
+                  mMisses.incrementAndGet();
+               if (comp == null)
+                  try {
+                     comp = cfk.compute(krs, mProperties, prev != null ? prev.mComposition : null);
+                     final int it = cfk.getIterationCount();
+                     iters.merge(Integer.valueOf(it), Long.valueOf(1), Long::sum);
+                     if (cache != null)
+                        cache.put(key, new Entry(k, comp));
+                  } catch (final EPQException e) {
+                     mFailures.incrementAndGet();
+                  }
+               for (int i = 0; i < xrtss.length; ++i)
+                  row[i][x] = comp != null ? Math.max(0.0, comp.weightFraction(xrtss[i].getElement(), mNormalize)) : 0.0;
+            }
+            synchronized (res) {
+               for (int i = 0; i < xrtss.length; ++i)
+                  for (int x = 0; x < width; ++x)
+                     res.set(x, y, i, row[i][x]);
             }
+            synchronized (mIterations) {
+               for (final Map.Entry<Integer, Long> me : iters.entrySet())
+                  mIterations.merge(me.getKey(), me.getValue(), Long::sum);
+            }
+         };
+         if (mThreadCount == 1)
+            for (int y = 0; y < height; ++y)
+               doRow.accept(y);
+         else {
+            final ForkJoinPool pool = new ForkJoinPool(mThreadCount);
+            try {
+               pool.submit(() -> IntStream.range(0, height).parallel().forEach(doRow)).get();
+            } catch (final InterruptedException | ExecutionException e) {
+               throw new EPQFatalException(e);
+            } finally {
+               pool.shutdown();
+            }
+         }
          return res;
-      } else
-         return null;
+      }
    }
 
    private void calculateSumMap() {
       if (mSum == null) {
-         final int width = width(), height = height(), depth = depth();
-         mSum = new double[width][height];
+         final int size = mWidth * mHeight;
+         final double[] sum = new double[size];
+         for (int idx = 0; idx < mDepth; ++idx)
+            for (int off = 0; off < size; ++off)
+               sum[off] += Math.max(mData.get(idx, off), 0.0);
          mSumStats = new DescriptiveStatistics();
-         for (int x = 0; x < width; ++x)
-            for (int y = 0; y < height; ++y) {
-               double sum = 0.0;
-               for (int idx = 0; idx < depth; ++idx)
-                  sum += Math.max(mData[idx][x][y], 0.0);
-               mSum[x][y] = sum;
-               if (sum > 0.0)
-                  mSumStats.add(sum);
-            }
+         for (final double s : sum)
+            if (s > 0.0)
+               mSumStats.add(s);
+         mSum = sum;
       }
    }
 
@@ -170,8 +790,8 @@ public class MapImage {
       final double sumThresh = mSumThresh * mSumStats.average();
       for (int y = 0, off = 0; y < height; ++y)
          for (int x = 0; x < width; ++x, ++off)
-            if (mSum[x][y] > sumThresh)
-               data[off] = (byte) (mData[index][x][y] >= scaledThresh ? Math2.bound((int) Math.round(mData[index][x][y] * scale), 0, 256) : 0x0);
+            if (mSum[off] > sumThresh)
+               data[off] = (byte) (mData.get(index, off) >= scaledThresh ? Math2.bound((int) Math.round(mData.get(index, off) * scale), 0, 256) : 0x0);
       if (label)
          return labelImage(bi, mROIS[index].getElementSet().first().toAbbrev(), Color.YELLOW);
       else
@@ -179,6 +799,7 @@ public class MapImage {
    }
 
    public BufferedImage getImage(int index, double maxI) {
+      calculateSumMap();
       final BufferedImage bi = new BufferedImage(width(), height(), BufferedImage.TYPE_BYTE_GRAY);
       final DataBufferByte db = (DataBufferByte) bi.getRaster().getDataBuffer();
       final byte[] data = db.getData();
@@ -187,8 +808,8 @@ public class MapImage {
       final double sumThresh = mSumThresh * mSumStats.average();
       for (int y = 0, off = 0; y < height; ++y)
          for (int x = 0; x < width; ++x, ++off)
-            if (mSum[x][y] > sumThresh)
-               data[off] = (byte) Math2.bound((int) Math.round(mData[index][x][y] * scale), 0, 256);
+            if (mSum[off] > sumThresh)
+               data[off] = (byte) Math2.bound((int) Math.round(mData.get(index, off) * scale), 0, 256);
       return bi;
    }
 
@@ -233,9 +854,9 @@ public class MapImage {
       final double sumThresh = mSumThresh * mSumStats.average();
       for (int y = 0, off = 0; y < height; ++y)
          for (int x = 0; x < width; ++x, ++off)
-            if (mSum[x][y] > sumThresh)
+            if (mSum[off] > sumThresh)
                data[off] = (byte) (254
-                     + Math2.bound((int) ((254.0 / 3.0) * Math.log10(Math2.bound(mData[index][x][y] / mSum[x][y], 1.0e-6, 1.0))), -254, 0));
+                     + Math2.bound((int) ((254.0 / 3.0) * Math.log10(Math2.bound(mData.get(index, off) / mSum[off], 1.0e-6, 1.0))), -254, 0));
             else
                data[off] = (byte) 0xFF;
       if (label)
@@ -253,9 +874,9 @@ public class MapImage {
       final double sumThresh = mSumThresh * mSumStats.average();
       for (int y = 0, off = 0; y < height; ++y)
          for (int x = 0; x < width; ++x, ++off)
-            if (mSum[x][y] > sumThresh)
+            if (mSum[off] > sumThresh)
                data[off] = (byte) (254
-                     + Math2.bound((int) ((254.0 / 3.0) * Math.log10(Math2.bound(mData[index][x][y] / mSum[x][y], 1.0e-6, 1.0))), -254, 0));
+                     + Math2.bound((int) ((254.0 / 3.0) * Math.log10(Math2.bound(mData.get(index, off) / mSum[off], 1.0e-6, 1.0))), -254, 0));
             else
                data[off] = (byte) 0;
       if (label)
@@ -272,9 +893,9 @@ public class MapImage {
       final int width = width(), height = height();
       for (int y = 0, off = 0; y < height; ++y)
          for (int x = 0; x < width; ++x, ++off) {
-            final double d = mData[index][x][y] / mSum[x][y];
+            final double d = mData.get(index, off) / mSum[off];
             if ((!Double.isNaN(d)) && (d >= (1.0 / 255.0)))
-               data[off] = (byte) Math2.bound((int) Math.round((255.0 * mData[index][x][y]) / mSum[x][y]), 0, 256);
+               data[off] = (byte) Math2.bound((int) Math.round((255.0 * mData.get(index, off)) / mSum[off]), 0, 256);
             else
                data[off] = (byte) 0;
          }
@@ -293,28 +914,48 @@ public class MapImage {
       final double scale = 255.0 / Math2.max(mSum);
       for (int y = 0, off = 0; y < height; ++y)
          for (int x = 0; x < width; ++x, ++off)
-            data[off] = (byte) Math2.bound((int) Math.round(mSum[x][y] * scale), 0, 256);
+            data[off] = (byte) Math2.bound((int) Math.round(mSum[off] * scale), 0, 256);
       return bi;
    }
 
    public double get(int x, int y, int index) {
-      return mData[index][x][y];
+      return mData.get(index, (y * mWidth) + x);
+   }
+
+   private void update(int index, int off, double val) {
+      final double old = mData.get(index, off);
+      mData.set(index, off, val);
+      // Read back to account for the precision of the storage
+      val = mData.get(index, off);
+      mPlaneSum[index] += val - old;
+      if (mExtremaValid[index]) {
+         if (val >= mPlaneMax[index])
+            mPlaneMax[index] = val;
+         else if (old == mPlaneMax[index])
+            mExtremaValid[index] = false;
+         if (val <= mPlaneMin[index])
+            mPlaneMin[index] = val;
+         else if (old == mPlaneMin[index])
+            mExtremaValid[index] = false;
+      }
    }
 
    public void set(int x, int y, int index, double val) {
-      mData[index][x][y] = val;
+      update(index, (y * mWidth) + x, val);
       mSum = null;
    }
 
    public void inc(int x, int y, int index, double inc) {
-      mData[index][x][y] += inc;
+      final int off = (y * mWidth) + x;
+      update(index, off, mData.get(index, off) + inc);
       mSum = null;
    }
 
    public void inc(int x, int y, double[] inc) {
       assert inc.length == depth();
+      final int off = (y * mWidth) + x;
       for (int index = 0; index < inc.length; ++index)
-         mData[index][x][y] += inc[index];
+         update(index, off, mData.get(index, off) + inc[index]);
       mSum = null;
    }
 
@@ -358,7 +999,7 @@ public class MapImage {
       final int width = width(), height = height();
       for (int y = 0, off = 0; y < height; ++y)
          for (int x = 0; x < width; ++x, ++off) {
-            final double v = mSum[x][y] / avg;
+            final double v = mSum[off] / avg;
             data[off] = (byte) Math2.bound((int) Math.round(128.0 + (k * (v <= 0.0 ? -4 : Math.log(v)))), 0, 256);
          }
       return bi;
@@ -369,8 +1010,18 @@ public class MapImage {
       return "MapImage[" + mDescription + "]";
    }
 
+   /**
+    * Releases the resources associated with the backing store. Only required
+    * for Storage.DISK.
+    */
+   @Override
+   public void close() throws IOException {
+      mData.close();
+   }
+
    /**
     * Writes the raw MapImage data to a Ripple/Raw file in 8-byte double format.
+    * The data is written a row at a time directly from the backing store.
     *
     * @param rplFilename
     *           The name and path of file into which to save the RPL file.
@@ -382,14 +1033,14 @@ public class MapImage {
       final String rawFilename = rplFilename.replaceAll(".[rR][pP][lL]$", ".raw");
       try (final RippleFile rf = new RippleFile(width(), height(), depth(), RippleFile.FLOAT, 8, RippleFile.DONT_CARE_ENDIAN, rplFilename,
             rawFilename)) {
-         final double[] strip = new double[depth()];
-         for (int y = 0; y < height(); ++y)
-            for (int x = 0; x < width(); ++x) {
-               for (int l = 0; l < depth(); ++l)
-                  strip[l] = mData[l][x][y];
-               rf.seek(y, x);
-               rf.write(strip);
-            }
+         final double[] row = new double[mWidth * mDepth];
+         for (int y = 0; y < mHeight; ++y) {
+            for (int l = 0; l < mDepth; ++l)
+               for (int x = 0, off = y * mWidth; x < mWidth; ++x, ++off)
+                  row[(x * mDepth) + l] = mData.get(l, off);
+            rf.seek(y, 0);
+            rf.write(row);
+         }
       }
    }
 
@@ -397,12 +1048,13 @@ public class MapImage {
       fw.write("Plane, ROI, width, height\n");
       fw.write(Integer.toString(plane) + ", " + mROIS[plane].shortName() + "," + //
             Integer.toString(width()) + ", " + Integer.toString(height()) + "\n\n");
+      calculateSumMap();
       final double sumThresh = mSumThresh * mSumStats.average();
-      for (int y = 0; y < height(); ++y) {
-         for (int x = 0; x < width(); ++x) {
+      for (int y = 0, off = 0; y < height(); ++y) {
+         for (int x = 0; x < width(); ++x, ++off) {
             if (x > 0)
                fw.write(", ");
-            double val = mSum[x][y] > sumThresh ? mData[plane][x][y] / mSum[x][y] : 0.0;
+            double val = mSum[off] > sumThresh ? mData.get(plane, off) / mSum[off] : 0.0;
             fw.write(nf.format(Math.max(0.0, val)));
          }
          fw.write("\n");
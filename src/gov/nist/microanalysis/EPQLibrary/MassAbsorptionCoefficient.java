@@ -609,6 +609,17 @@ abstract public class MassAbsorptionCoefficient extends AlgorithmClass {
 
    }
 
+   /**
+    * A count which changes whenever the values returned by this algorithm are
+    * modified. Most algorithms are immutable and return zero. MACMatrix uses
+    * this to avoid serving stale tables.
+    * 
+    * @return long
+    */
+   public long getModificationCount() {
+      return 0;
+   }
+
    /**
     * compute - Computes the mass absorption coefficient for the specified
     * transition. When ever possible, use this method rather than the
@@ -1858,6 +1869,7 @@ abstract public class MassAbsorptionCoefficient extends AlgorithmClass {
 
       final private MassAbsorptionCoefficient mBaseModel;
       private final TreeMap<MACDatum, Double> mCache = new TreeMap<MACDatum, Double>();
+      private long mModificationCount = 0;
 
       /**
        * Constructs a UserSpecifiedCoefficient which overrides the specified
@@ -1879,6 +1891,7 @@ abstract public class MassAbsorptionCoefficient extends AlgorithmClass {
        */
       public void put(Element elm, double energy, double mac) {
          mCache.put(new MACDatum(elm, energy), Double.valueOf(mac));
+         ++mModificationCount;
       }
 
       /**
@@ -1892,6 +1905,12 @@ abstract public class MassAbsorptionCoefficient extends AlgorithmClass {
        */
       public void put(Element elm, XRayTransition xrt, double mac) throws EPQException {
          mCache.put(new MACDatum(elm, Double.valueOf(xrt.getEnergy())), mac);
+         ++mModificationCount;
+      }
+
+      @Override
+      public long getModificationCount() {
+         return mModificationCount + mBaseModel.getModificationCount();
       }
 
       /**
@@ -2180,6 +2199,14 @@ abstract public class MassAbsorptionCoefficient extends AlgorithmClass {
          return false;
       }
 
+      @Override
+      public long getModificationCount() {
+         long res = 0;
+         for (MassAbsorptionCoefficient mac : mAlgorithms)
+            res += mac.getModificationCount();
+         return res;
+      }
+
    }
 
    public final static MassAbsorptionCoefficient Sabbatucci2016 = new SabbatucciMACs();
@@ -69,6 +69,16 @@ public class NoisySpectrum extends DerivedSpectrum {
       return mChannels[i];
    }
 
+   @Override
+   public void fill(double[] dst, int from, int to) {
+      System.arraycopy(mChannels, from, dst, from, to - from);
+   }
+
+   @Override
+   double[] backingArray() {
+      return mChannels;
+   }
+
    @Override
    public String toString() {
       final NumberFormat nf = NumberFormat.getInstance();
@@ -56,6 +56,12 @@ public class PAP1991 extends CorrectionAlgorithm.PhiRhoZAlgorithm {
     * Surface ionization
     */
    private double mPhi0;
+   /**
+    * Weight averaged and log averaged atomic numbers (depend only on
+    * mComposition)
+    */
+   private double mZBar;
+   private double mZBarN;
 
    @Override
    protected void initializeDefaultStrategy() {
@@ -129,9 +135,16 @@ public class PAP1991 extends CorrectionAlgorithm.PhiRhoZAlgorithm {
       return CaveatBase.format(this, res);
    }
 
+   @Override
+   protected void initializeComposition() {
+      super.initializeComposition();
+      mZBar = mComposition.weightAvgAtomicNumber();
+      mZBarN = logMeanAtomicNumber(mComposition);
+   }
+
    @Override
    public boolean initialize(Composition comp, AtomicShell shell, SpectrumProperties props) throws EPQException {
-      comp = comp.normalize();
+      comp = normalized(comp);
       final boolean res = super.initialize(comp, shell, props);
       if (res) {
          final ElectronRange er = (ElectronRange) getAlgorithm(ElectronRange.class);
@@ -142,9 +155,9 @@ public class PAP1991 extends CorrectionAlgorithm.PhiRhoZAlgorithm {
          final double u0 = mBeamEnergy / mShell.getEdgeEnergy(); // units ok
          {
             // weight average atomic number is correct here... (see pg 60)
-            final double zBar = mComposition.weightAvgAtomicNumber();
+            final double zBar = mZBar;
             {
-               final double zBarN = logMeanAtomicNumber(mComposition);
+               final double zBarN = mZBarN;
                final double beta = 40.0 / zBar;
                final double q0 = 1.0 - (0.535 * Math.exp(-Math.pow(21.0 / zBarN, 1.2))) - (2.5e-4 * Math.pow(zBarN / 20.0, 3.5));
                final double q = q0 + ((1.0 - q0) * Math.exp((1.0 - u0) / beta));
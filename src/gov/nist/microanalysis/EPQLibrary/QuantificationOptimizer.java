@@ -20,10 +20,62 @@ abstract public class QuantificationOptimizer {
 
    protected final QuantificationOutline mOutline;
 
+   private volatile boolean mCancelled = false;
+   private boolean mParallel = true;
+
    protected QuantificationOptimizer(final QuantificationOutline qo) {
       mOutline = qo;
    }
 
+   /**
+    * Requests that a call to compute(...) in progress on another thread stop
+    * as soon as possible. The interrupted call throws an EPQException.
+    */
+   public void cancel() {
+      mCancelled = true;
+   }
+
+   /**
+    * Was the last call to compute(...) cancelled?
+    *
+    * @return boolean
+    */
+   public boolean isCancelled() {
+      return mCancelled;
+   }
+
+   /**
+    * Called at the start of compute(...) to clear any earlier cancellation.
+    */
+   protected void resetCancelled() {
+      mCancelled = false;
+   }
+
+   /**
+    * Throws an EPQException if cancel() has been called since
+    * resetCancelled().
+    *
+    * @throws EPQException
+    */
+   protected void checkCancelled() throws EPQException {
+      if (mCancelled)
+         throw new EPQException("The quantification optimization was cancelled.");
+   }
+
+   public boolean isParallel() {
+      return mParallel;
+   }
+
+   /**
+    * Evaluate independent candidates in parallel on the common ForkJoinPool.
+    * (Default true)
+    *
+    * @param parallel
+    */
+   public void setParallel(boolean parallel) {
+      mParallel = parallel;
+   }
+
    /**
     * Takes a {@link QuantificationOutline} and returns a
     * {@link QuantificationPlan} object describing how to optimally implement
@@ -3,12 +3,21 @@ package gov.nist.microanalysis.EPQLibrary;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Objects;
 import java.util.Set;
 import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.stream.IntStream;
 
 import gov.nist.microanalysis.EPQLibrary.CompositionFromKRatios.UnmeasuredElementRule;
+import gov.nist.microanalysis.EPQLibrary.Detector.EDSDetector;
+import gov.nist.microanalysis.EPQLibrary.Detector.IXRayDetector;
 import gov.nist.microanalysis.EPQLibrary.QuantificationOutline.ReferenceMaterial;
 import gov.nist.microanalysis.EPQLibrary.QuantificationPlan.Acquisition;
 import gov.nist.microanalysis.EPQLibrary.QuantifyUsingStandards.Result;
@@ -16,10 +25,83 @@ import gov.nist.microanalysis.EPQLibrary.RegionOfInterestSet.RegionOfInterest;
 import gov.nist.microanalysis.EPQTools.WriteSpectrumAsEMSA1_0;
 import gov.nist.microanalysis.Utility.UncertainValue2;
 
+/**
+ * <p>
+ * Determines the doses required to implement a QuantificationOutline by
+ * simulating and fitting spectra from the unknown, standards and references.
+ * </p>
+ * <p>
+ * The noise-free simulated spectra are memoised in a cache shared by all
+ * QuantificationOptimizer2 instances so repeated optimizations in a session
+ * only simulate each material once. The cache is keyed on a copy of the
+ * detector's properties (including those of its calibration) so modifying the
+ * detector's window, calibration or line shape forces the spectra to be
+ * simulated again. The spectra are simulated on the calling thread (the
+ * simulator accumulates events in the detector) but the standards are fit in
+ * parallel when isParallel().
+ * </p>
+ * <p>
+ * Copyright: Pursuant to title 17 Section 105 of the United States Code this
+ * software is not subject to copyright protection and is in the public domain
+ * </p>
+ * <p>
+ * Institution: National Institute of Standards and Technology
+ * </p>
+ *
+ * @author nritchie
+ * @version 1.0
+ */
 public class QuantificationOptimizer2 extends QuantificationOptimizer {
 
+   private static final class SpectrumKey {
+      private final SpectrumSimulator mSimulator;
+      private final Object mDetector;
+      // The detector is mutable so the key holds a copy of its properties
+      private final SpectrumProperties mDetectorProperties;
+      private final double mFudgeFactor;
+      private final Composition mComposition;
+      private final double mBeamEnergy;
+      // The algorithms used by the simulator depend upon the SimulationContext
+      private final MassAbsorptionCoefficient mMAC;
+      private final Strategy mOverride;
+      private final int mHashCode;
+
+      private SpectrumKey(SpectrumSimulator sim, Composition comp, SpectrumProperties props) {
+         mSimulator = sim;
+         final IXRayDetector det = props.getDetector();
+         mDetector = det;
+         mDetectorProperties = det != null ? det.getProperties() : null;
+         mFudgeFactor = det instanceof EDSDetector ? ((EDSDetector) det).getCalibration().getFudgeFactor() : 1.0;
+         mComposition = comp;
+         mBeamEnergy = props.getNumericWithDefault(SpectrumProperties.BeamEnergy, Double.NaN);
+         mMAC = AlgorithmUser.getDefaultMAC();
+         mOverride = SimulationContext.current().getStrategyOverride();
+         mHashCode = Objects.hash(System.identityHashCode(sim), System.identityHashCode(mDetector), comp, mBeamEnergy,
+               System.identityHashCode(mMAC), System.identityHashCode(mOverride));
+      }
+
+      @Override
+      public int hashCode() {
+         return mHashCode;
+      }
+
+      @Override
+      public boolean equals(Object obj) {
+         if (!(obj instanceof SpectrumKey))
+            return false;
+         final SpectrumKey other = (SpectrumKey) obj;
+         return (mSimulator == other.mSimulator) && (mDetector == other.mDetector)
+               && Objects.equals(mDetectorProperties, other.mDetectorProperties)
+               && (Double.compare(mFudgeFactor, other.mFudgeFactor) == 0)
+               && mComposition.equals(other.mComposition)
+               && (Double.compare(mBeamEnergy, other.mBeamEnergy) == 0) && (mMAC == other.mMAC) && (mOverride == other.mOverride);
+      }
+   }
+
+   private static final ConcurrentHashMap<SpectrumKey, ISpectrumData> sSpectra = new ConcurrentHashMap<SpectrumKey, ISpectrumData>();
+   private static final int MAX_SPECTRA = 1000;
+
    private final SpectrumSimulator mSimulator;
-   private final Map<Composition, ISpectrumData> mSpectra = new TreeMap<Composition, ISpectrumData>();
    private final Map<Composition, ISpectrumData> mNoisySpectra = new TreeMap<Composition, ISpectrumData>();
    private Result mResult;
 
@@ -49,7 +131,7 @@ public class QuantificationOptimizer2 extends QuantificationOptimizer {
 
    /**
     * Gets a simulated spectrum for the specified material with no Poisson
-    * statistical noise.
+    * statistical noise. Cached spectra are also passed to write(...).
     * 
     * @param comp
     * @param props
@@ -57,11 +139,23 @@ public class QuantificationOptimizer2 extends QuantificationOptimizer {
     * @throws EPQException
     */
    private ISpectrumData getSpectrum(final Composition comp, final SpectrumProperties props) throws EPQException {
-      if (!mSpectra.containsKey(comp)) {
-         mSpectra.put(comp, mSimulator.generateSpectrum(comp, props, true));
-         write(mSpectra.get(comp));
+      final SpectrumKey key = new SpectrumKey(mSimulator, comp, props);
+      ISpectrumData res = sSpectra.get(key);
+      if (res == null) {
+         res = mSimulator.generateSpectrum(comp, props, true);
+         if (sSpectra.size() > MAX_SPECTRA)
+            sSpectra.clear();
+         sSpectra.put(key, res);
       }
-      return mSpectra.get(comp);
+      return write(res);
+   }
+
+   /**
+    * Empties the cache of noise-free simulated spectra shared by all
+    * QuantificationOptimizer2 instances.
+    */
+   public static void clearCache() {
+      sSpectra.clear();
    }
 
    /**
@@ -126,8 +220,44 @@ public class QuantificationOptimizer2 extends QuantificationOptimizer {
       return NOMINAL_DOSE * Math.pow(kr.fractionalUncertainty() / prec, 2.0);
    }
 
+   /**
+    * Fits each spectrum in <code>specs</code> using the references in the
+    * corresponding entry in <code>refs</code>. The fits are independent and are
+    * performed in parallel when isParallel().
+    */
+   private List<KRatioSet> fitAll(final List<Map<RegionOfInterest, ISpectrumData>> refs, final List<ISpectrumData> specs) throws EPQException {
+      final KRatioSet[] res = new KRatioSet[specs.size()];
+      final AtomicReference<EPQException> error = new AtomicReference<EPQException>();
+      final SimulationContext ctx = SimulationContext.current();
+      IntStream tasks = IntStream.range(0, specs.size());
+      if (isParallel())
+         tasks = tasks.parallel();
+      tasks.forEach(i -> {
+         if (isCancelled() || (error.get() != null))
+            return;
+         final SimulationContext prev = SimulationContext.setCurrent(ctx);
+         try {
+            final FilterFit ff = new FilterFit(mOutline.getDetector(), mOutline.getBeamEnergy(), VARIABLE_FF);
+            for (final Map.Entry<RegionOfInterest, ISpectrumData> me : refs.get(i).entrySet())
+               ff.addReference(me.getKey(), me.getValue());
+            res[i] = ff.getKRatios(specs.get(i));
+         } catch (final EPQException e) {
+            error.compareAndSet(null, e);
+         } finally {
+            SimulationContext.setCurrent(prev);
+         }
+      });
+      checkCancelled();
+      if (error.get() != null)
+         throw error.get();
+      final List<KRatioSet> krss = new ArrayList<KRatioSet>();
+      Collections.addAll(krss, res);
+      return krss;
+   }
+
    @Override
    public QuantificationPlan compute(final Composition unk) throws EPQException {
+      resetCancelled();
       final QuantificationPlan res = new QuantificationPlan(mOutline);
       final Set<Element> unkElms = unk.getElementSet();
       // Verify that this outline is capable of measuring all the elements in
@@ -164,6 +294,7 @@ public class QuantificationOptimizer2 extends QuantificationOptimizer {
                }
          }
       }
+      checkCancelled();
       final KRatioSet krsUnk = ffUnk.getKRatios(getNoisySpectrum(unk, props));
       // 1b. Determine the doses necessary to get the desired precisions
       // relative to the unknown
@@ -197,23 +328,33 @@ public class QuantificationOptimizer2 extends QuantificationOptimizer {
          }
       }
 
-      // 2a. Fit the standards with the requisite references
-      final Map<Element, KRatioSet> krsStds = new TreeMap<Element, KRatioSet>();
+      // 2a. Fit the standards with the requisite references. The spectra are
+      // simulated here and the fits performed in parallel.
+      final List<Element> stdElms = new ArrayList<Element>();
+      final List<Map<RegionOfInterest, ISpectrumData>> stdRefs = new ArrayList<Map<RegionOfInterest, ISpectrumData>>();
+      final List<ISpectrumData> stdSpecs = new ArrayList<ISpectrumData>();
       for (final Element elm : unkElms)
          if (!mOutline.isUnmeasuredElementRule(elm)) {
-            final FilterFit ffStd = new FilterFit(mOutline.getDetector(), mOutline.getBeamEnergy(), VARIABLE_FF);
+            checkCancelled();
             final Composition std = mOutline.getStandard(elm);
             if (std == null)
                throw new EPQException("No standard has been assigned for the element " + elm + ".");
+            final Map<RegionOfInterest, ISpectrumData> refs = new LinkedHashMap<RegionOfInterest, ISpectrumData>();
             final Map<RegionOfInterest, Set<RegionOfInterest>> rr = mOutline.getRequiredReferences(elm, std, Collections.emptySet());
             final RegionOfInterest prefRoi = prefRois.get(elm);
             if (mOutline.standardCanBeUsedAsReference(prefRoi))
-               ffStd.addReference(prefRoi, getSpectrum(std, props));
+               refs.put(prefRoi, getSpectrum(std, props));
             for (final Map.Entry<RegionOfInterest, Set<RegionOfInterest>> me : rr.entrySet())
                for (final RegionOfInterest refRoi : me.getValue())
-                  ffStd.addReference(refRoi, getSpectrum(mOutline.getReference(refRoi).getComposition(), props));
-            krsStds.put(elm, ffStd.getKRatios(getNoisySpectrum(std, props)));
+                  refs.put(refRoi, getSpectrum(mOutline.getReference(refRoi).getComposition(), props));
+            stdElms.add(elm);
+            stdRefs.add(refs);
+            stdSpecs.add(getNoisySpectrum(std, props));
          }
+      final List<KRatioSet> stdKrs = fitAll(stdRefs, stdSpecs);
+      final Map<Element, KRatioSet> krsStds = new TreeMap<Element, KRatioSet>();
+      for (int i = 0; i < stdElms.size(); ++i)
+         krsStds.put(stdElms.get(i), stdKrs.get(i));
       // 2b. Compute the dose for each standard
       for (final Element elm : unkElms)
          if (!mOutline.isUnmeasuredElementRule(elm)) {
@@ -184,6 +184,7 @@ public class ROISpectrum extends DerivedSpectrum {
          mLowChannel = lowChannel;
          mHighChannel = highChannel;
          mData = null;
+         invalidate();
       }
    }
 
@@ -239,6 +240,19 @@ public class ROISpectrum extends DerivedSpectrum {
       return ((i < mLowChannel) || (i >= mHighChannel)) ? 0.0 : mData[i - mLowChannel];
    }
 
+   @Override
+   public void fill(double[] dst, int from, int to) {
+      if (mData == null)
+         computeData();
+      final int lo = Math.max(from, mLowChannel), hi = Math.min(to, mHighChannel);
+      for (int i = from; i < Math.min(to, lo); ++i)
+         dst[i] = 0.0;
+      if (hi > lo)
+         System.arraycopy(mData, lo - mLowChannel, dst, lo, hi - lo);
+      for (int i = Math.max(from, Math.max(lo, hi)); i < to; ++i)
+         dst[i] = 0.0;
+   }
+
    /**
     * Returns the sum counts in the ROI
     * 
@@ -272,6 +286,7 @@ public class ROISpectrum extends DerivedSpectrum {
       if (mModelThreshold != modelThreshold) {
          mModelThreshold = modelThreshold;
          mData = null;
+         invalidate();
       }
    }
 }
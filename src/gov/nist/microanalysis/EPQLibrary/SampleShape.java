@@ -842,6 +842,11 @@ abstract public class SampleShape {
          return ss.getClass().equals(getClass());
       }
 
+      @Override
+      public int hashCode() {
+         return getClass().hashCode();
+      }
+
       /**
        * Create a bulk sample normal to the electron beam.
        */
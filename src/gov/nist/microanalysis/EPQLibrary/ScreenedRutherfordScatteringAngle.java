@@ -16,6 +16,8 @@
  */
 package gov.nist.microanalysis.EPQLibrary;
 
+import gov.nist.microanalysis.Utility.Math2;
+
 /**
  * Implements the IElasticCrossSection interface for the screened Rutherford
  * model of elastic scattered from a screened nucleus.
@@ -98,7 +100,7 @@ public class ScreenedRutherfordScatteringAngle extends RandomizedScatter {
       // This method for calculating the scattering angle is taken from
       // NBSMONTE.FOR
       final double alpha = (5.44968e-19 * Math.pow(mElement.getAtomicNumber(), 2.0 / 3.0)) / energy;
-      final double r = Math.random();
+      final double r = Math2.rgen.nextDouble();
       return Math.acos(1 - ((2.0 * alpha * r) / ((1 + alpha) - r)));
    }
 }
@@ -0,0 +1,217 @@
+package gov.nist.microanalysis.EPQLibrary;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * <p>
+ * A SimulationContext holds the state that was historically stored in static
+ * fields and shared by every simulation in the JVM: the simulation clock, the
+ * counter used to number electrons, the registry of interpolation tables and
+ * the global algorithm Strategy override (see AlgorithmUser).
+ * </p>
+ * <p>
+ * A context is bound to a thread using <code>setCurrent(...)</code>. The code
+ * that used to consult the static fields now consults
+ * <code>SimulationContext.current()</code> which returns the context bound to
+ * the calling thread or, when none is bound, the global context. Single
+ * threaded scripts therefore behave exactly as before. MonteCarloSS captures
+ * the current context when it is constructed and binds it while it runs
+ * trajectories, so independent simulations each built under their own context
+ * may run concurrently in one JVM.
+ * </p>
+ * <p>
+ * Copyright: Pursuant to title 17 Section 105 of the United States Code this
+ * software is not subject to copyright protection and is in the public domain
+ * </p>
+ * <p>
+ * Institution: National Institute of Standards and Technology
+ * </p>
+ *
+ * @author Nicholas
+ * @version 1.0
+ */
+public class SimulationContext {
+
+   private static final SimulationContext sGlobal = new SimulationContext();
+
+   private static final ThreadLocal<SimulationContext> sCurrent = new ThreadLocal<SimulationContext>();
+
+   private double mTime = 0.0;
+
+   private final AtomicLong mLastElectronID = new AtomicLong();
+
+   private final ConcurrentMap<Class<?>, ConcurrentMap<String, Object>> mResources;
+
+   // Accessed by AlgorithmUser
+   Strategy mGlobalOverride = null;
+   EdgeEnergy mDefaultEdgeEnergy = null;
+   TransitionEnergy mDefaultTransitionEnergy = null;
+   MassAbsorptionCoefficient mDefaultMAC = null;
+   FluorescenceYieldMean mDefaultFluorescenceYieldMean = null;
+   FluorescenceYield mDefaultFluorescenceYield = null;
+   BetheElectronEnergyLoss mDefaultBetheEnergyLoss = null;
+   BremsstrahlungAngularDistribution mDefaultAngularDistribution = null;
+   CorrectionAlgorithm mDefaultCorrectionAlgorithm = null;
+
+   private SimulationContext(ConcurrentMap<Class<?>, ConcurrentMap<String, Object>> resources) {
+      mResources = resources;
+   }
+
+   /**
+    * Constructs an independent SimulationContext with time zero, a fresh
+    * electron counter, an empty resource registry and no algorithm override.
+    */
+   public SimulationContext() {
+      this(new ConcurrentHashMap<Class<?>, ConcurrentMap<String, Object>>());
+   }
+
+   /**
+    * Returns a new SimulationContext with its own clock and electron counter
+    * but which shares this context's resource registry (so interpolation
+    * tables are only read once) and starts with a copy of this context's
+    * algorithm override.
+    *
+    * @return SimulationContext
+    */
+   public SimulationContext derive() {
+      final SimulationContext res = new SimulationContext(mResources);
+      synchronized (this) {
+         res.mGlobalOverride = mGlobalOverride;
+         res.mDefaultEdgeEnergy = mDefaultEdgeEnergy;
+         res.mDefaultTransitionEnergy = mDefaultTransitionEnergy;
+         res.mDefaultMAC = mDefaultMAC;
+         res.mDefaultFluorescenceYieldMean = mDefaultFluorescenceYieldMean;
+         res.mDefaultFluorescenceYield = mDefaultFluorescenceYield;
+         res.mDefaultBetheEnergyLoss = mDefaultBetheEnergyLoss;
+         res.mDefaultAngularDistribution = mDefaultAngularDistribution;
+         res.mDefaultCorrectionAlgorithm = mDefaultCorrectionAlgorithm;
+      }
+      return res;
+   }
+
+   /**
+    * Returns the context used when no context has been bound to the calling
+    * thread.
+    *
+    * @return SimulationContext
+    */
+   public static SimulationContext getGlobal() {
+      return sGlobal;
+   }
+
+   /**
+    * Returns the context bound to the calling thread or the global context if
+    * none has been bound.
+    *
+    * @return SimulationContext
+    */
+   public static SimulationContext current() {
+      final SimulationContext res = sCurrent.get();
+      return res != null ? res : sGlobal;
+   }
+
+   /**
+    * Binds the specified context to the calling thread. A null argument
+    * unbinds the current context so that <code>current()</code> returns the
+    * global context. Returns the previously bound context (possibly null) so
+    * that it can be restored in a finally block.
+    *
+    * @param ctx
+    * @return SimulationContext The previous binding or null
+    */
+   public static SimulationContext setCurrent(SimulationContext ctx) {
+      final SimulationContext prev = sCurrent.get();
+      if (ctx == null)
+         sCurrent.remove();
+      else
+         sCurrent.set(ctx);
+      return prev;
+   }
+
+   /**
+    * Returns the simulation time in seconds.
+    *
+    * @return double
+    */
+   public double getTime() {
+      return mTime;
+   }
+
+   /**
+    * Sets the simulation time in seconds.
+    *
+    * @param time
+    */
+   public void setTime(double time) {
+      mTime = time;
+   }
+
+   /**
+    * Increments the simulation time by deltat seconds.
+    *
+    * @param deltat
+    */
+   public void incrementTime(double deltat) {
+      mTime += deltat;
+   }
+
+   /**
+    * Allocates the next electron identifier. Identifiers are unique within
+    * this context.
+    *
+    * @return long
+    */
+   public long nextElectronID() {
+      return mLastElectronID.incrementAndGet();
+   }
+
+   /**
+    * Returns the most recently allocated electron identifier.
+    *
+    * @return long
+    */
+   public long getLastElectronID() {
+      return mLastElectronID.get();
+   }
+
+   /**
+    * Returns the resource of the specified class registered under the
+    * specified name or null if there is none.
+    *
+    * @param cls
+    * @param name
+    * @return T or null
+    */
+   public <T> T getResource(Class<T> cls, String name) {
+      final ConcurrentMap<String, Object> m = mResources.get(cls);
+      return m != null ? cls.cast(m.get(name)) : null;
+   }
+
+   /**
+    * Registers a resource under the specified class and name unless one is
+    * already registered. Returns the registered resource which will differ
+    * from <code>value</code> if another thread registered a resource first.
+    *
+    * @param cls
+    * @param name
+    * @param value
+    * @return T
+    */
+   public <T> T putResourceIfAbsent(Class<T> cls, String name, T value) {
+      final ConcurrentMap<String, Object> m = mResources.computeIfAbsent(cls, k -> new ConcurrentHashMap<String, Object>());
+      final Object prev = m.putIfAbsent(name, value);
+      return prev != null ? cls.cast(prev) : value;
+   }
+
+   /**
+    * Returns the Strategy applied as an override to all AlgorithmUser objects
+    * in this context. May be null.
+    *
+    * @return Strategy
+    */
+   public synchronized Strategy getStrategyOverride() {
+      return mGlobalOverride;
+   }
+}
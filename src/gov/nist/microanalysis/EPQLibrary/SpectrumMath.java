@@ -1,6 +1,7 @@
 package gov.nist.microanalysis.EPQLibrary;
 
 import gov.nist.microanalysis.EPQLibrary.SpectrumProperties.PropertyId;
+import gov.nist.microanalysis.Utility.ArrayKernels;
 
 /**
  * <p>
@@ -55,8 +56,9 @@ public class SpectrumMath extends DerivedSpectrum {
       final int min = Math.max(0, -offset);
       final int max = Math.min(getChannelCount(), src.getChannelCount() + offset);
       assert (max - min) <= getChannelCount();
-      for (int i = min; i < max; ++i)
-         mData[i] = mData[i] + (k * src.getCounts(i + offset));
+      if (max > min)
+         ArrayKernels.get().axpy(k, SpectrumUtils.counts(src), min + offset, mData, min, max - min);
+      invalidate();
       SpectrumProperties sp = getProperties();
       final SpectrumProperties ssp = src.getProperties();
       String name = sp.getTextWithDefault(SpectrumProperties.SpecimenDesc, "Base");
@@ -122,6 +124,16 @@ public class SpectrumMath extends DerivedSpectrum {
       return mData[i];
    }
 
+   @Override
+   public void fill(double[] dst, int from, int to) {
+      System.arraycopy(mData, from, dst, from, to - from);
+   }
+
+   @Override
+   double[] backingArray() {
+      return mData;
+   }
+
    public int getSpectrumCount() {
       return mNSpectra;
    }
@@ -1,5 +1,6 @@
 package gov.nist.microanalysis.EPQLibrary;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.List;
@@ -27,7 +28,7 @@ import gov.nist.microanalysis.Utility.Math2;
  * @version 1.0
  */
 abstract public class SpectrumSimulator extends AlgorithmClass {
-   private static final double DEFAULT_DET_DISTANCE = 0.05;
+   static final double DEFAULT_DET_DISTANCE = 0.05;
 
    protected SpectrumProperties mResultProperties;
 
@@ -109,9 +110,11 @@ abstract public class SpectrumSimulator extends AlgorithmClass {
          final AbsoluteIonizationCrossSection ic = (AbsoluteIonizationCrossSection) getAlgorithm(AbsoluteIonizationCrossSection.class);
          // For each shell to be ionized...
          final double MIN_WEIGHT = 1.0e-5;
+         final ArrayList<AtomicShell> ionized = new ArrayList<AtomicShell>();
+         final ArrayList<XRayTransition> xrts = new ArrayList<XRayTransition>();
+         final ArrayList<Double> scales = new ArrayList<Double>();
          for (final AtomicShell shell : shells)
             if (shell.exists() && (shell.getEnergy() < e0)) {
-               ca.initialize(comp, shell, mResultProperties);
                /*
                 * (ionizations m^2 / (atomelectron)) electrons (atom/m^3) /
                 * (kg/m^3) -> (ionizations (m^2 / kg))
@@ -124,22 +127,29 @@ abstract public class SpectrumSimulator extends AlgorithmClass {
                   final XRayTransition xrt = me.getKey();
                   final double wgt = me.getValue().doubleValue();
                   if (xrt.energyIsAvailable() && (wgt >= MIN_WEIGHT) && xrt.isWellKnown()) {
-                     final Double prev = res.get(xrt);
-                     double s = (prev != null ? prev.doubleValue() : 0.0);
-                     /*
-                      * Apply the ZAF correction here as the phi-rho-z curve is
-                      * determined by the shell but the absorption by the xrt.
-                      * Subtle, n'est-ce pas?
-                      * (x-rays/ionization)(ionizations(m^2/kg))(kg/m^2)
-                      */
-                     s += wgt * icx * ca.computeZAFCorrection(xrt);
-                     if (!Double.isNaN(s)) {
-                        assert (s >= 0.0) : "I[" + xrt.toString() + "]=" + Double.toString(s);
-                        res.put(xrt, Double.valueOf(s));
-                     }
+                     ionized.add(shell);
+                     xrts.add(xrt);
+                     scales.add(Double.valueOf(wgt * icx));
                   }
                }
             }
+         /*
+          * Apply the ZAF correction here as the phi-rho-z curve is determined
+          * by the shell but the absorption by the xrt. Subtle, n'est-ce pas?
+          * (x-rays/ionization)(ionizations(m^2/kg))(kg/m^2)
+          */
+         final double[] zaf = new double[xrts.size()];
+         ca.computeBatch(comp, mResultProperties, ionized.toArray(new AtomicShell[ionized.size()]), xrts.toArray(new XRayTransition[xrts.size()]),
+               null, zaf);
+         for (int i = 0; i < zaf.length; ++i) {
+            final XRayTransition xrt = xrts.get(i);
+            final Double prev = res.get(xrt);
+            final double s = (prev != null ? prev.doubleValue() : 0.0) + (scales.get(i).doubleValue() * zaf[i]);
+            if (!Double.isNaN(s)) {
+               assert (s >= 0.0) : "I[" + xrt.toString() + "]=" + Double.toString(s);
+               res.put(xrt, Double.valueOf(s));
+            }
+         }
          return res;
       }
    }
@@ -21,6 +21,7 @@ import java.util.TreeMap;
 import java.util.TreeSet;
 
 import gov.nist.microanalysis.EPQLibrary.Detector.EDSDetector;
+import gov.nist.microanalysis.Utility.ArrayKernels;
 import gov.nist.microanalysis.Utility.DescriptiveStatistics;
 import gov.nist.microanalysis.Utility.HalfUpFormat;
 import gov.nist.microanalysis.Utility.Interval;
@@ -396,6 +397,9 @@ final public class SpectrumUtils {
     * @return double
     */
    public static double sumCounts(ISpectrumData sd, int minCh, int maxCh) {
+      final double[] arr = backingArray(sd);
+      if ((arr != null) && (minCh >= 0) && (maxCh <= arr.length))
+         return minCh < maxCh ? ArrayKernels.get().sum(arr, minCh, maxCh) : 0.0;
       double sum = 0;
       for (int i = minCh; i < maxCh; ++i)
          sum += sd.getCounts(i);
@@ -531,10 +535,49 @@ final public class SpectrumUtils {
     */
    public static double dotProduct(ISpectrumData spec1, ISpectrumData spec2) {
       assert (spec1.getChannelCount() == spec2.getChannelCount());
-      double res = 0.0;
-      for (int i = spec1.getChannelCount() - 1; i >= 0; --i)
-         res += spec1.getCounts(i) * spec2.getCounts(i);
-      return res;
+      return ArrayKernels.get().dot(counts(spec1), 0, counts(spec2), 0, spec1.getChannelCount());
+   }
+
+   /**
+    * Returns the array holding the channel data for spectra which store their
+    * data in an array of getChannelCount() channels or null otherwise. The
+    * result must not be modified.
+    */
+   static double[] backingArray(ISpectrumData spec) {
+      if (spec instanceof EditableSpectrum)
+         return ((EditableSpectrum) spec).channels();
+      if (spec instanceof DerivedSpectrum)
+         return ((DerivedSpectrum) spec).backingArray();
+      return null;
+   }
+
+   /**
+    * Returns the channel data without copying it when the spectrum is backed
+    * by an array. The result must not be modified.
+    */
+   static double[] counts(ISpectrumData spec) {
+      final double[] res = backingArray(spec);
+      return res != null ? res : toDoubleArray(spec);
+   }
+
+   /**
+    * Copies the counts in channels <code>from</code> (inclusive) to
+    * <code>to</code> (exclusive) into the same channels in <code>dst</code>.
+    * Uses bulk copies where the spectrum implementation supports them.
+    *
+    * @param spec
+    * @param dst
+    * @param from
+    * @param to
+    */
+   public static void fill(ISpectrumData spec, double[] dst, int from, int to) {
+      if (spec instanceof DerivedSpectrum)
+         ((DerivedSpectrum) spec).fill(dst, from, to);
+      else if (spec instanceof EditableSpectrum)
+         System.arraycopy(((EditableSpectrum) spec).channels(), from, dst, from, to - from);
+      else
+         for (int i = from; i < to; ++i)
+            dst[i] = spec.getCounts(i);
    }
 
    /**
@@ -544,9 +587,10 @@ final public class SpectrumUtils {
     * @return double[]
     */
    final static public double[] toDoubleArray(ISpectrumData spec) {
+      if (spec instanceof DerivedSpectrum)
+         return ((DerivedSpectrum) spec).toDoubleArray();
       final double[] res = new double[spec.getChannelCount()];
-      for (int i = 0; i < res.length; ++i)
-         res[i] = spec.getCounts(i);
+      fill(spec, res, 0, res.length);
       return res;
    }
 
@@ -1307,9 +1351,7 @@ final public class SpectrumUtils {
          a = 0.5 * (low[0] + high[0]) * ((max - min) + 1);
          da = (low[0] + high[0]) != 0.0 ? (Math.sqrt((low[1] * low[1]) + (high[1] * high[1])) / (low[0] + high[0])) * a : 1.0;
       }
-      double i = 0.0;
-      for (int ch = min; ch <= max; ++ch)
-         i += spec.getCounts(ch);
+      final double i = sumCounts(spec, min, max + 1);
       final double[] res = new double[]{i - a, Math.sqrt((da * da) + i), i, a};
       if (Double.isNaN(res[1]))
          res[1] = Math.sqrt(Math.max(1.0, i - a));
@@ -1416,9 +1458,7 @@ final public class SpectrumUtils {
          }
          chPeakLow = SpectrumUtils.bound(spec, chPeakLow);
          chPeakHigh = SpectrumUtils.bound(spec, chPeakHigh);
-         double tmp = 0.0;
-         for (int ch = chPeakLow; ch <= chPeakHigh; ++ch)
-            tmp += spec.getCounts(ch);
+         final double tmp = sumCounts(spec, chPeakLow, chPeakHigh + 1);
          i = new UncertainValue2(tmp, "C", Math.sqrt(tmp));
       }
       UncertainValue2 bLow = null;
@@ -1431,9 +1471,7 @@ final public class SpectrumUtils {
          }
          chLowBkgLow = SpectrumUtils.bound(spec, chLowBkgLow);
          chLowBkgHigh = SpectrumUtils.bound(spec, chLowBkgHigh);
-         double tmp = 0.0;
-         for (int ch = chLowBkgLow; ch <= chLowBkgHigh; ++ch)
-            tmp += spec.getCounts(ch);
+         final double tmp = sumCounts(spec, chLowBkgLow, chLowBkgHigh + 1);
          bLow = UncertainValue2.divide(new UncertainValue2(tmp, "Cl", Math.sqrt(tmp)), (chLowBkgHigh - chLowBkgLow) + 1);
       }
       UncertainValue2 bHigh = null;
@@ -1446,9 +1484,7 @@ final public class SpectrumUtils {
          }
          chHighBkgLow = SpectrumUtils.bound(spec, chHighBkgLow);
          chHighBkgHigh = SpectrumUtils.bound(spec, chHighBkgHigh);
-         double tmp = 0.0;
-         for (int ch = chHighBkgLow; ch <= chHighBkgHigh; ++ch)
-            tmp += spec.getCounts(ch);
+         final double tmp = sumCounts(spec, chHighBkgLow, chHighBkgHigh + 1);
          bHigh = UncertainValue2.divide(new UncertainValue2(tmp, "Ch", Math.sqrt(tmp)), (chHighBkgHigh - chHighBkgLow) + 1);
       }
       final double cLow = 0.5 * (chLowBkgLow + chLowBkgHigh), cHigh = 0.5 * (chHighBkgLow + chHighBkgHigh), cPeak = 0.5 * (chPeakLow + chPeakHigh);
@@ -1563,9 +1599,8 @@ final public class SpectrumUtils {
 
          ScaledSpectrum(ISpectrumData spec, double offset, double scale) {
             super();
-            mChannels = new double[spec.getChannelCount()];
-            for (int i = 0; i < mChannels.length; ++i)
-               mChannels[i] = (scale * spec.getCounts(i)) + offset;
+            mChannels = toDoubleArray(spec);
+            ArrayKernels.get().scale(scale, offset, mChannels, 0, mChannels.length);
             final String name = (scale != 1.0 ? Double.toString(scale) + '\u00D7' : "") + spec.toString()
                   + (offset != 0.0 ? "+" + Double.toString(offset) : "");
             mProperties = spec.getProperties().clone();
@@ -1840,23 +1875,17 @@ final public class SpectrumUtils {
       return res;
    }
 
+   /**
+    * Returns a spectrum which is equal to <code>spec</code> in the channels
+    * lowCh (inclusive) to highCh (exclusive) and zero elsewhere.
+    *
+    * @param spec
+    * @param lowCh
+    * @param highCh
+    * @return DerivedSpectrum
+    */
    static public DerivedSpectrum getSlice(ISpectrumData spec, int lowCh, int highCh) {
-      class Slice extends DerivedSpectrum {
-         private final int mLowCh;
-         private final int mHighCh;
-
-         Slice(ISpectrumData spec, int lowCh, int highCh) {
-            super(spec);
-            mLowCh = lowCh;
-            mHighCh = highCh;
-         }
-
-         @Override
-         public double getCounts(int i) {
-            return (i >= mLowCh) && (i < mHighCh) ? getBaseSpectrum().getCounts(i) : 0.0;
-         }
-      }
-      return new Slice(spec, lowCh, highCh);
+      return new DerivedSpectrum.Linear(spec, 1.0, 0.0, lowCh, highCh);
    }
 
    /**
@@ -2219,6 +2248,16 @@ final public class SpectrumUtils {
          public double getCounts(int i) {
             return mData[i];
          }
+
+         @Override
+         public void fill(double[] dst, int from, int to) {
+            System.arraycopy(mData, from, dst, from, to - from);
+         }
+
+         @Override
+         double[] backingArray() {
+            return mData;
+         }
       }
       return spec.getChannelCount() == nChannels ? spec : new RemapSpectrum(spec, nChannels);
    }
@@ -87,9 +87,18 @@ public class XPP1989Ext extends XPP1991 {
       super("XPP - Pouchou & Pichoir Simplified (Non-normal)", PAP_IXCOM12);
    }
 
+   // Weight averaged atomic number (depends only on mComposition)
+   private double mZBar;
+
+   @Override
+   protected void initializeComposition() {
+      super.initializeComposition();
+      mZBar = mComposition.weightAvgAtomicNumber();
+   }
+
    @Override
    public boolean initialize(Composition comp, AtomicShell shell, SpectrumProperties props) throws EPQException {
-      comp = comp.normalize();
+      comp = normalized(comp);
       final boolean res = super.initialize(comp, shell, props);
       if (res) {
          final double beta = getTilt(props);
@@ -105,7 +114,7 @@ public class XPP1989Ext extends XPP1991 {
             mF = (cosBeta * TiltedBackscatterFactor.compute(mComposition, mShell, mBeamEnergy)
                   * StoppingPower.invToGramPerkeVcmSqr(sp.computeInv(mComposition, mShell, mBeamEnergy))) / icx.computeFamily(mShell, mBeamEnergy);
             assert mF > 0.0 : "The integral must be larger than zero.";
-            final double zBar = mComposition.weightAvgAtomicNumber();
+            final double zBar = mZBar;
             { // Modify the mPhi0 computed in super.initialize(...)
                final double h = 0.2 + (2.3 / Math.sqrt(zBar));
                final double q = 1.0 + (h * (1.0 - Math.exp(-Math.pow(u0 - 1.0, 0.3))));
@@ -113,7 +122,7 @@ public class XPP1989Ext extends XPP1991 {
                mPhi0 = q * Math.pow(mPhi0 / q, p);
             }
             double rBar;
-            final double meanZb = PAP1991.papMeanAtomicNumber(mComposition);
+            final double meanZb = mMeanZb;
             {
                // Compute the mean depth of ionization (rBar)
                final double x = 1.0 + (1.3 * Math.log(meanZb));
@@ -42,6 +42,8 @@ public class XPP1991 extends CorrectionAlgorithm.PhiRhoZAlgorithm implements Cor
    // Integral of the area under the phi(rho z) curve
    protected double mF;
    protected double mEps;
+   // Pouchou &amp; Pichoir's mean atomic number (depends only on mComposition)
+   protected double mMeanZb;
 
    /**
     * Constructs an object implementing the XPP correction algorithm.
@@ -71,9 +73,15 @@ public class XPP1991 extends CorrectionAlgorithm.PhiRhoZAlgorithm implements Cor
       addDefaultAlgorithm(ProportionalIonizationCrossSection.class, ProportionalIonizationCrossSection.Pouchou86);
    }
 
+   @Override
+   protected void initializeComposition() {
+      super.initializeComposition();
+      mMeanZb = PAP1991.papMeanAtomicNumber(mComposition);
+   }
+
    @Override
    public boolean initialize(Composition comp, AtomicShell shell, SpectrumProperties props) throws EPQException {
-      comp = comp.normalize();
+      comp = normalized(comp);
       final boolean res = super.initialize(comp, shell, props);
       if (res) {
          final SurfaceIonization si = (SurfaceIonization) getAlgorithm(SurfaceIonization.class);
@@ -87,7 +95,7 @@ public class XPP1991 extends CorrectionAlgorithm.PhiRhoZAlgorithm implements Cor
                / icx.computeFamily(mShell, mBeamEnergy);
          assert mF > 0.0 : "The integral must be larger than zero.";
          mPhi0 = si.compute(mComposition, mShell, mBeamEnergy);
-         final double meanZb = PAP1991.papMeanAtomicNumber(mComposition);
+         final double meanZb = mMeanZb;
          final double u0 = mBeamEnergy / shell.getEdgeEnergy();
          // Compute the mean depth of ionization (rBar)
          double rBar;
@@ -394,7 +402,7 @@ public class XPP1991 extends CorrectionAlgorithm.PhiRhoZAlgorithm implements Cor
          final double corr = unkXpp.computeZAFCorrection(xrt) / (stdXpp.computeZAFCorrection(xrt) * std.weightFraction(xrt.getElement(), false));
          final double w = xrt.getWeight(XRayTransition.NormalizeFamily);
          wSum += w;
-         res = UncertainValue2.add(res, UncertainValue2.multiply(w * corr, mf));
+         res = UncertainValue2.add(1.0, res, w * corr, mf);
       }
       return UncertainValue2.divide(res, wSum);
    }
@@ -870,7 +870,8 @@ final public class XRayTransition implements Comparable<XRayTransition>, Cloneab
 
    @Override
    public int hashCode() {
-      return mSource.hashCode() ^ mDestination.hashCode();
+      // Not mSource ^ mDestination as the element cancels
+      return (31 * mSource.hashCode()) + mDestination.hashCode();
    }
 
    @Override
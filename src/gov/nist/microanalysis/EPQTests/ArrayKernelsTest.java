@@ -0,0 +1,87 @@
+package gov.nist.microanalysis.EPQTests;
+
+import java.util.Random;
+
+import gov.nist.microanalysis.Utility.ArrayKernels;
+
+import junit.framework.TestCase;
+
+/**
+ * <p>
+ * Tests the ArrayKernels against straightforward loops. The Vector API kernels
+ * are tested when they have been built (mvn -P vector) and the JVM has been
+ * started with --add-modules jdk.incubator.vector.
+ * </p>
+ * <p>
+ * Copyright: Pursuant to title 17 Section 105 of the United States Code this
+ * software is not subject to copyright protection and is in the public domain
+ * </p>
+ * <p>
+ * Institution: National Institute of Standards and Technology
+ * </p>
+ *
+ * @author Nicholas
+ * @version 1.0
+ */
+public class ArrayKernelsTest extends TestCase {
+
+   private static double[] random(Random r, int len) {
+      final double[] res = new double[len];
+      for (int i = 0; i < len; ++i)
+         res[i] = 1000.0 * r.nextDouble() - 100.0;
+      return res;
+   }
+
+   private static void check(ArrayKernels ak) {
+      final Random r = new Random(0x1234);
+      // Lengths which exercise the vector loop and the scalar tail
+      for (final int len : new int[]{0, 1, 3, 7, 8, 13, 64, 1023}) {
+         final double[] a = random(r, len + 5), b = random(r, len + 9);
+         double dot = 0.0, sum = 0.0;
+         for (int i = 0; i < len; ++i) {
+            dot += a[i + 2] * b[i + 7];
+            sum += a[i + 3];
+         }
+         final double tol = 1.0e-12 * (1.0 + (len * 1.0e6));
+         assertEquals(dot, ak.dot(a, 2, b, 7, len), tol);
+         assertEquals(sum, ak.sum(a, 3, len + 3), tol);
+         final double[] x = a.clone();
+         ak.scale(2.5, -1.0, x, 1, len + 1);
+         assertEquals(a[0], x[0], 0.0);
+         assertEquals(a[len + 1], x[len + 1], 0.0);
+         for (int i = 1; i < len + 1; ++i)
+            assertEquals((2.5 * a[i]) - 1.0, x[i], 1.0e-9);
+         final double[] y = b.clone();
+         ak.axpy(-0.5, a, 4, y, 3, len);
+         for (int i = 0; i < b.length; ++i)
+            assertEquals((i >= 3) && (i < len + 3) ? b[i] - (0.5 * a[i + 1]) : b[i], y[i], 1.0e-9);
+         final double[] f = random(r, 1 + (len % 61)), xc = random(r, len + f.length + 2), dst = new double[len + 4];
+         ak.correlate(f, xc, 3, dst, 2, len);
+         assertEquals(0.0, dst[1], 0.0);
+         assertEquals(0.0, dst[len + 2], 0.0);
+         for (int j = 0; j < len; ++j) {
+            double sf = 0.0;
+            for (int i = 0; i < f.length; ++i)
+               sf += f[i] * xc[3 + j + i];
+            assertEquals(sf, dst[2 + j], 1.0e-8);
+         }
+         final double[] s1 = random(r, len), s2 = random(r, len), xs = random(r, len);
+         final double[] t1 = s1.clone(), t2 = s2.clone();
+         ak.accumulate(xs, t1, t2);
+         for (int i = 0; i < len; ++i) {
+            assertEquals(s1[i] + xs[i], t1[i], 1.0e-9);
+            assertEquals(s2[i] + (xs[i] * xs[i]), t2[i], 1.0e-6);
+         }
+      }
+   }
+
+   public void testScalar() {
+      check(ArrayKernels.scalar());
+   }
+
+   public void testSelected() {
+      check(ArrayKernels.get());
+      if (ArrayKernels.vector() != null)
+         check(ArrayKernels.vector());
+   }
+}
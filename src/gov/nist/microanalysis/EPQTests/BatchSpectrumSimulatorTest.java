@@ -0,0 +1,106 @@
+package gov.nist.microanalysis.EPQTests;
+
+import gov.nist.microanalysis.EPQLibrary.BatchSpectrumSimulator;
+import gov.nist.microanalysis.EPQLibrary.Composition;
+import gov.nist.microanalysis.EPQLibrary.EPQException;
+import gov.nist.microanalysis.EPQLibrary.Element;
+import gov.nist.microanalysis.EPQLibrary.ISpectrumData;
+import gov.nist.microanalysis.EPQLibrary.MaterialFactory;
+import gov.nist.microanalysis.EPQLibrary.SpectrumProperties;
+import gov.nist.microanalysis.EPQLibrary.SpectrumSimulator;
+import gov.nist.microanalysis.EPQLibrary.Detector.EDSDetector;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.TreeSet;
+
+import junit.framework.TestCase;
+
+/**
+ * <p>
+ * Compares BatchSpectrumSimulator with SpectrumSimulator.generateSpectrum(...).
+ * </p>
+ * <p>
+ * Copyright: Pursuant to title 17 Section 105 of the United States Code this
+ * software is not subject to copyright protection and is in the public domain
+ * </p>
+ * <p>
+ * Institution: National Institute of Standards and Technology
+ * </p>
+ *
+ * @author Nicholas
+ * @version 1.0
+ */
+public class BatchSpectrumSimulatorTest extends TestCase {
+
+   private static SpectrumProperties buildProperties(EDSDetector det) {
+      final SpectrumProperties props = new SpectrumProperties();
+      props.setDetector(det);
+      props.setNumericProperty(SpectrumProperties.BeamEnergy, 20.0);
+      props.setNumericProperty(SpectrumProperties.ProbeCurrent, 1.0);
+      props.setNumericProperty(SpectrumProperties.LiveTime, 60.0);
+      props.setNumericProperty(SpectrumProperties.WorkingDistance, 17.0);
+      return props;
+   }
+
+   private static void assertSimilar(ISpectrumData expected, ISpectrumData actual) {
+      assertEquals(expected.getChannelCount(), actual.getChannelCount());
+      double max = 0.0;
+      for (int ch = 0; ch < expected.getChannelCount(); ++ch)
+         max = Math.max(max, expected.getCounts(ch));
+      assertTrue(max > 0.0);
+      for (int ch = 0; ch < expected.getChannelCount(); ++ch)
+         assertEquals(expected.getCounts(ch), actual.getCounts(ch), 1.0e-9 * max);
+   }
+
+   public void testAgainstSimulator() throws EPQException {
+      final EDSDetector det = EDSDetector.createSiLiDetector(2048, 10.0, 135.0);
+      final SpectrumProperties props = buildProperties(det);
+      final Composition k411 = MaterialFactory.createMaterial(MaterialFactory.K411);
+      final Composition k412 = MaterialFactory.createMaterial(MaterialFactory.K412);
+      final TreeSet<Element> elms = new TreeSet<Element>(k411.getElementSet());
+      elms.addAll(k412.getElementSet());
+      final BatchSpectrumSimulator bss = new BatchSpectrumSimulator((SpectrumSimulator.BasicSpectrumSimulator) SpectrumSimulator.Basic, props,
+            elms, true);
+      for (final Composition comp : Arrays.asList(k411, k412, new Composition(Element.Fe))) {
+         final ISpectrumData expected = SpectrumSimulator.Basic.generateSpectrum(comp, props, true);
+         assertSimilar(expected, bss.simulate(comp));
+      }
+      // Characteristic lines only
+      final BatchSpectrumSimulator lines = new BatchSpectrumSimulator((SpectrumSimulator.BasicSpectrumSimulator) SpectrumSimulator.Basic, props,
+            elms, false);
+      assertSimilar(SpectrumSimulator.Basic.generateSpectrum(k412, props, false), lines.simulate(k412));
+      // Elements must be declared
+      try {
+         bss.simulate(new Composition(Element.Au));
+         fail("Au is not in the element set.");
+      } catch (final EPQException e) {
+         // Expected
+      }
+   }
+
+   public void testColumns() throws EPQException {
+      final EDSDetector det = EDSDetector.createSiLiDetector(2048, 10.0, 135.0);
+      final SpectrumProperties props = buildProperties(det);
+      final Element[] elms = new Element[]{Element.Si, Element.Fe, Element.O};
+      final BatchSpectrumSimulator bss = new BatchSpectrumSimulator((SpectrumSimulator.BasicSpectrumSimulator) SpectrumSimulator.Basic, props,
+            Arrays.asList(elms), true);
+      final List<Composition> grid = new ArrayList<Composition>();
+      for (int i = 0; i <= 10; ++i) {
+         final double fe = 0.05 * i;
+         grid.add(new Composition(elms, new double[]{0.4 - (0.5 * fe), fe, 0.6 - (0.5 * fe)}));
+      }
+      final float[][] cols = bss.simulate(grid);
+      assertEquals(bss.getChannelCount(), cols.length);
+      for (int i = 0; i < grid.size(); ++i) {
+         final ISpectrumData spec = bss.simulate(grid.get(i));
+         for (int ch = 0; ch < cols.length; ++ch)
+            assertEquals((float) spec.getCounts(ch), cols[ch][i], 0.0f);
+      }
+      // Fe Ka grows with Fe
+      final int feKa = 640;
+      assertTrue(cols[feKa][10] > cols[feKa][5]);
+      assertTrue(cols[feKa][5] > cols[feKa][0]);
+   }
+}
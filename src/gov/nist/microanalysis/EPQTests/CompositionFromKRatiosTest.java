@@ -12,8 +12,10 @@ import gov.nist.microanalysis.EPQLibrary.IterationAlgorithm;
 import gov.nist.microanalysis.EPQLibrary.KRatioSet;
 import gov.nist.microanalysis.EPQLibrary.CompositionFromKRatios;
 import gov.nist.microanalysis.EPQLibrary.MaterialFactory;
+import gov.nist.microanalysis.EPQLibrary.SampleShape;
 import gov.nist.microanalysis.EPQLibrary.SpectrumProperties;
 import gov.nist.microanalysis.EPQLibrary.Strategy;
+import gov.nist.microanalysis.EPQLibrary.XRayTransition;
 import gov.nist.microanalysis.EPQLibrary.XRayTransitionSet;
 
 /**
@@ -357,6 +359,41 @@ public class CompositionFromKRatiosTest extends TestCase {
       assertEquals(redux.difference(mat), 0.0, 3.0e-4);
    }
 
+   public void testBroyden() throws EPQException {
+      final Composition mat = MaterialFactory.createMaterial(MaterialFactory.K3189);
+      final KRatioSet result = new KRatioSet();
+      final SpectrumProperties props = new SpectrumProperties();
+      props.setNumericProperty(SpectrumProperties.BeamEnergy, 20.0); // keV
+      props.setNumericProperty(SpectrumProperties.TakeOffAngle, 40.0); // degrees
+
+      final ComputeZAF cz = new ComputeZAF();
+      final CompositionFromKRatios czc = new CompositionFromKRatios();
+      czc.setConvergenceCriterion(1.0e-6);
+      for (final Element el : mat.getElementSet()) {
+         final Composition ref = el.equals(Element.O)
+               ? MaterialFactory.createMaterial(MaterialFactory.MagnesiumOxide)
+               : MaterialFactory.createPureElement(el);
+         final XRayTransitionSet xrts = new XRayTransitionSet(el, XRayTransitionSet.K_FAMILY);
+         cz.addStandard(xrts, ref, props);
+         result.addKRatio(xrts, mat.weightFraction(el, true) * cz.compute(xrts, mat, props), 0.0);
+         czc.addStandard(xrts, ref, props);
+      }
+      int[] counts = new int[2];
+      Composition[] redux = new Composition[2];
+      final IterationAlgorithm[] algs = new IterationAlgorithm[]{IterationAlgorithm.BroydenIteration, IterationAlgorithm.WegsteinIteration};
+      for (int i = 0; i < algs.length; ++i) {
+         final Strategy strategy = new Strategy();
+         strategy.addAlgorithm(IterationAlgorithm.class, algs[i]);
+         AlgorithmUser.applyGlobalOverride(strategy);
+         redux[i] = czc.compute(result, props);
+         counts[i] = czc.getIterationCount();
+         assertEquals(czc.getQuantifiedKRatios().difference(result), 0.0, czc.getConvergenceCriterion());
+      }
+      assertTrue(counts[0] <= counts[1]);
+      assertEquals(redux[0].difference(redux[1]), 0.0, 1.0e-5);
+      assertEquals(redux[0].difference(mat), 0.0, 3.0e-4);
+   }
+
    public void testCompoundsSimple() throws EPQException {
       final Strategy strategy = new Strategy();
       strategy.addAlgorithm(IterationAlgorithm.class, IterationAlgorithm.SimpleIteration);
@@ -701,4 +738,73 @@ public class CompositionFromKRatiosTest extends TestCase {
          assertEquals(redux.difference(mat), 0.0, 1.0e-4);
       }
    }
+
+   /**
+    * Checks that a shared StandardZAFCache reproduces the unshared result and
+    * is reused across CompositionFromKRatios instances.
+    */
+   public void testStandardZAFCache() throws EPQException {
+      final Composition mat = MaterialFactory.createCompound("Fe2SiO4");
+      final SpectrumProperties props = new SpectrumProperties();
+      props.setNumericProperty(SpectrumProperties.BeamEnergy, 15.0); // keV
+      props.setNumericProperty(SpectrumProperties.TakeOffAngle, 40.0); // degrees
+      final Element[] elms = new Element[]{Element.Fe, Element.Si, Element.O};
+      final Composition[] refs = new Composition[]{MaterialFactory.createPureElement(Element.Fe),
+            MaterialFactory.createPureElement(Element.Si), MaterialFactory.createCompound("MgO")};
+      final ComputeZAF cz = new ComputeZAF();
+      final KRatioSet krs = new KRatioSet();
+      for (int i = 0; i < elms.length; ++i) {
+         final XRayTransitionSet xrts = new XRayTransitionSet(elms[i], XRayTransitionSet.K_FAMILY);
+         cz.addStandard(xrts, refs[i], props);
+         krs.addKRatio(xrts, cz.compute(xrts, mat, props) * mat.weightFraction(elms[i], true));
+      }
+      final CompositionFromKRatios.StandardZAFCache cache = new CompositionFromKRatios.StandardZAFCache(100);
+      Composition shared = null;
+      for (int rep = 0; rep < 3; ++rep) {
+         final CompositionFromKRatios czc = new CompositionFromKRatios();
+         czc.setStandardZAFCache(cache);
+         for (int i = 0; i < elms.length; ++i)
+            czc.addStandard(new XRayTransitionSet(elms[i], XRayTransitionSet.K_FAMILY), refs[i], props);
+         shared = czc.compute(krs, props);
+      }
+      assertTrue(cache.getHitCount() > 0);
+      assertEquals(cache.size(), cache.getMissCount());
+      final CompositionFromKRatios czc = new CompositionFromKRatios();
+      czc.setStandardZAFCache(null);
+      for (int i = 0; i < elms.length; ++i)
+         czc.addStandard(new XRayTransitionSet(elms[i], XRayTransitionSet.K_FAMILY), refs[i], props);
+      final Composition unshared = czc.compute(krs, props);
+      for (final Element elm : elms)
+         assertEquals(unshared.weightFraction(elm, false), shared.weightFraction(elm, false), 1.0e-12);
+      assertEquals(shared.difference(mat), 0.0, 1.0e-3);
+   }
+
+   /**
+    * Checks that the StandardZAFCache distinguishes sample tilts and detects
+    * standards modified after use.
+    */
+   public void testStandardZAFCacheKey() throws EPQException {
+      final CorrectionAlgorithm ca = CorrectionAlgorithm.XPPExtended;
+      final XRayTransition xrt = new XRayTransition(Element.Fe, XRayTransition.KA1);
+      final SpectrumProperties flat = new SpectrumProperties();
+      flat.setNumericProperty(SpectrumProperties.BeamEnergy, 15.0); // keV
+      flat.setNumericProperty(SpectrumProperties.TakeOffAngle, 40.0); // degrees
+      final SpectrumProperties tilted = flat.clone();
+      final double t = Math.toRadians(30.0);
+      tilted.setSampleShape(SpectrumProperties.SampleShape, new SampleShape.Bulk(new double[]{0.0, Math.sin(t), -Math.cos(t)}));
+      final Composition std = MaterialFactory.createCompound("Fe2SiO4");
+      final CompositionFromKRatios.StandardZAFCache cache = new CompositionFromKRatios.StandardZAFCache(100);
+      final double zFlat = cache.get(ca, std, xrt, flat);
+      final double zTilted = cache.get(ca, std, xrt, tilted);
+      assertEquals(2, cache.getMissCount());
+      assertEquals(ca.createContext(std, xrt.getDestination(), tilted).computeZAFCorrection(xrt), zTilted, 1.0e-12 * zTilted);
+      assertTrue(Math.abs(zFlat - zTilted) > 1.0e-6 * zFlat);
+      assertEquals(zFlat, cache.get(ca, std, xrt, flat), 0.0);
+      assertEquals(1, cache.getHitCount());
+      // Modifying the standard in place is detected
+      std.addElement(Element.Mg, 0.1);
+      final double zMod = cache.get(ca, std, xrt, flat);
+      assertEquals(3, cache.getMissCount());
+      assertEquals(ca.createContext(std, xrt.getDestination(), flat).computeZAFCorrection(xrt), zMod, 1.0e-12 * zMod);
+   }
 }
@@ -1,24 +1,35 @@
 package gov.nist.microanalysis.EPQTests;
 
 import gov.nist.microanalysis.EPQLibrary.AlgorithmUser;
+import gov.nist.microanalysis.EPQLibrary.Armstrong1982ParticleMC;
+import gov.nist.microanalysis.EPQLibrary.AtomicShell;
+import gov.nist.microanalysis.EPQLibrary.BackscatterFactor;
 import gov.nist.microanalysis.EPQLibrary.Composition;
 import gov.nist.microanalysis.EPQLibrary.CompositionFromKRatios;
 import gov.nist.microanalysis.EPQLibrary.CorrectionAlgorithm;
 import gov.nist.microanalysis.EPQLibrary.EPQException;
+import gov.nist.microanalysis.EPQLibrary.Element;
 import gov.nist.microanalysis.EPQLibrary.Fluorescence;
 import gov.nist.microanalysis.EPQLibrary.FromSI;
 import gov.nist.microanalysis.EPQLibrary.IterationAlgorithm;
 import gov.nist.microanalysis.EPQLibrary.KRatioSet;
 import gov.nist.microanalysis.EPQLibrary.MassAbsorptionCoefficient;
 import gov.nist.microanalysis.EPQLibrary.Material;
+import gov.nist.microanalysis.EPQLibrary.MaterialFactory;
 import gov.nist.microanalysis.EPQLibrary.PandPDatabase;
+import gov.nist.microanalysis.EPQLibrary.SampleShape;
+import gov.nist.microanalysis.EPQLibrary.SimulationContext;
 import gov.nist.microanalysis.EPQLibrary.SpectrumProperties;
+import gov.nist.microanalysis.EPQLibrary.StoppingPower;
 import gov.nist.microanalysis.EPQLibrary.Strategy;
+import gov.nist.microanalysis.EPQLibrary.ToSI;
 import gov.nist.microanalysis.EPQLibrary.XRayTransition;
 import gov.nist.microanalysis.EPQLibrary.XRayTransitionSet;
 import gov.nist.microanalysis.Utility.DescriptiveStatistics;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.stream.IntStream;
 
 import junit.framework.TestCase;
 
@@ -248,4 +259,128 @@ public class CorrectionAlgorithmTest extends TestCase {
       // assertEquals(ds.average(), 0.9944, 0.0001);
       // assertEquals(ds.standardDeviation(), 0.0688, 0.0001);
    }
+
+   /**
+    * Checks that contexts created concurrently from the shared static
+    * instances reproduce the serial initialize(...)/computeZAFCorrection(...)
+    * results.
+    */
+   public void testContexts() throws Exception {
+      final PandPDatabase papd = getDatabase();
+      final int n = Math.min(200, papd.getSize());
+      for (final CorrectionAlgorithm ca : new CorrectionAlgorithm[]{CorrectionAlgorithm.XPP, CorrectionAlgorithm.PouchouAndPichoir,
+            CorrectionAlgorithm.XPPExtended, CorrectionAlgorithm.ZAFCorrection}) {
+         final Material[] mats = new Material[n];
+         final SpectrumProperties[] props = new SpectrumProperties[n];
+         final double[] serial = new double[n];
+         for (int ii = 0; ii < n; ++ii) {
+            mats[ii] = papd.createMaterial(ii);
+            props[ii] = new SpectrumProperties();
+            props[ii].setNumericProperty(SpectrumProperties.BeamEnergy, FromSI.keV(papd.beamEnergy(ii)));
+            props[ii].setNumericProperty(SpectrumProperties.TakeOffAngle, Math.toDegrees(papd.takeOffAngle(ii)));
+            final XRayTransition xrt = papd.transition(ii);
+            ca.initialize(mats[ii], xrt.getDestination(), props[ii]);
+            serial[ii] = ca.computeZAFCorrection(xrt);
+         }
+         final CorrectionAlgorithm.Context[] ctxs = new CorrectionAlgorithm.Context[n];
+         final double[] parallel = new double[n];
+         IntStream.range(0, 4 * n).parallel().forEach(i -> {
+            final int ii = i % n;
+            final XRayTransition xrt = papd.transition(ii);
+            try {
+               final CorrectionAlgorithm.Context ctx = ca.createContext(mats[ii], xrt.getDestination(), props[ii]);
+               ctxs[ii] = ctx;
+               parallel[ii] = ctx.computeZAFCorrection(xrt);
+            } catch (final EPQException e) {
+               parallel[ii] = Double.NaN;
+            }
+         });
+         for (int ii = 0; ii < n; ++ii) {
+            assertEquals(serial[ii], parallel[ii], 1.0e-12 * Math.abs(serial[ii]));
+            assertSame(ca, ctxs[ii].getCorrectionAlgorithm());
+         }
+         // Re-initializing the source doesn't alter an existing context
+         ca.initialize(mats[1], papd.transition(1).getDestination(), props[1]);
+         assertEquals(serial[0], ctxs[0].computeZAFCorrection(papd.transition(0)), 1.0e-12 * Math.abs(serial[0]));
+      }
+   }
+
+   private static double particleMC(Composition mat, XRayTransition xrt, SpectrumProperties sp) throws EPQException {
+      final Armstrong1982ParticleMC pmc = new Armstrong1982ParticleMC();
+      pmc.initialize(mat, xrt.getDestination(), sp);
+      return pmc.particleAbsorptionCorrection(xrt);
+   }
+
+   /**
+    * Armstrong1982ParticleMC caches its absorption integrals. A cached integral
+    * is returned exactly whereas each new evaluation uses a different random
+    * shift, so a change to the algorithms in force must change the result.
+    */
+   public void testParticleMCCache() throws Exception {
+      final Material mat = MaterialFactory.createCompound("NaAlSi3O8", ToSI.gPerCC(2.61));
+      final XRayTransition xrt = new XRayTransition(Element.Na, XRayTransition.KA1);
+      final SpectrumProperties sp = new SpectrumProperties();
+      sp.setNumericProperty(SpectrumProperties.BeamEnergy, 20.0);
+      sp.setNumericProperty(SpectrumProperties.TakeOffAngle, 40.0);
+      sp.setSampleShape(SpectrumProperties.SampleShape, new SampleShape.Sphere(1.0e-6));
+      final SimulationContext prev = SimulationContext.setCurrent(new SimulationContext());
+      try {
+         Armstrong1982ParticleMC.clearCache();
+         final double def = particleMC(mat, xrt, sp);
+         assertEquals(def, particleMC(mat, xrt, sp), 0.0);
+         // The algorithms used to compute phi(rho z)
+         final Strategy strat = new Strategy();
+         strat.addAlgorithm(BackscatterFactor.class, BackscatterFactor.Pouchou1991);
+         strat.addAlgorithm(StoppingPower.class, StoppingPower.Thomas1963);
+         AlgorithmUser.applyGlobalOverride(strat);
+         final double over = particleMC(mat, xrt, sp);
+         assertTrue(over != def);
+         assertEquals(over, particleMC(mat, xrt, sp), 0.0);
+         // The mass absorption coefficient
+         strat.addAlgorithm(MassAbsorptionCoefficient.class, MassAbsorptionCoefficient.Heinrich86);
+         AlgorithmUser.applyGlobalOverride(strat);
+         final double mac = particleMC(mat, xrt, sp);
+         assertTrue(mac != over);
+         assertEquals(mac, particleMC(mat, xrt, sp), 0.0);
+      } finally {
+         SimulationContext.setCurrent(prev);
+      }
+   }
+
+   public void testBatch() throws Exception {
+      final PandPDatabase papd = getDatabase();
+      for (final int ii : new int[]{0, 57, 311, 604}) {
+         final Material mat = papd.createMaterial(ii);
+         final double e0 = papd.beamEnergy(ii);
+         final SpectrumProperties props = new SpectrumProperties();
+         props.setNumericProperty(SpectrumProperties.BeamEnergy, FromSI.keV(e0));
+         props.setNumericProperty(SpectrumProperties.TakeOffAngle, Math.toDegrees(papd.takeOffAngle(ii)));
+         // All the K, L and M lines of all the elements excited at e0
+         final ArrayList<XRayTransition> all = new ArrayList<XRayTransition>();
+         for (final Element elm : mat.getElementSet())
+            for (final XRayTransition xrt : new XRayTransitionSet(elm, ToSI.keV(0.1), e0).getTransitions())
+               if ((xrt.getEdgeEnergy() < e0) && (xrt.getDestination().getShell() <= AtomicShell.MV))
+                  all.add(xrt);
+         final XRayTransition[] xrts = all.toArray(new XRayTransition[all.size()]);
+         assertTrue(xrts.length > 1);
+         // The ionized shell needn't be the destination shell
+         final AtomicShell[] shells = new AtomicShell[xrts.length];
+         for (int i = 0; i < shells.length; ++i)
+            shells[i] = i % 3 == 0 ? xrts[(i + 1) % xrts.length].getDestination() : xrts[i].getDestination();
+         for (final CorrectionAlgorithm ca : new CorrectionAlgorithm[]{CorrectionAlgorithm.XPP, CorrectionAlgorithm.PouchouAndPichoir,
+               CorrectionAlgorithm.XPPExtended}) {
+            final double[] gen = new double[xrts.length], emit = new double[xrts.length];
+            ca.computeBatch(mat, props, xrts, gen, emit);
+            final double[] emit2 = new double[xrts.length];
+            ca.computeBatch(mat, props, shells, xrts, null, emit2);
+            for (int i = 0; i < xrts.length; ++i) {
+               ca.initialize(mat, xrts[i].getDestination(), props);
+               assertEquals(ca.generated(xrts[i]), gen[i], 1.0e-12 * gen[i]);
+               assertEquals(ca.computeZAFCorrection(xrts[i]), emit[i], 1.0e-12 * emit[i]);
+               ca.initialize(mat, shells[i], props);
+               assertEquals(ca.computeZAFCorrection(xrts[i]), emit2[i], 1.0e-12 * emit2[i]);
+            }
+         }
+      }
+   }
 }
@@ -0,0 +1,119 @@
+package gov.nist.microanalysis.EPQTests;
+
+import gov.nist.microanalysis.EPQLibrary.AverageSpectrum;
+import gov.nist.microanalysis.EPQLibrary.DerivedSpectrum;
+import gov.nist.microanalysis.EPQLibrary.EPQException;
+import gov.nist.microanalysis.EPQLibrary.EditableSpectrum;
+import gov.nist.microanalysis.EPQLibrary.ISpectrumData;
+import gov.nist.microanalysis.EPQLibrary.SpectrumMath;
+import gov.nist.microanalysis.EPQLibrary.SpectrumUtils;
+
+import junit.framework.TestCase;
+
+/**
+ * <p>
+ * Tests bulk evaluation, fusion and caching of DerivedSpectrum chains.
+ * </p>
+ * <p>
+ * Copyright: Pursuant to title 17 Section 105 of the United States Code this
+ * software is not subject to copyright protection and is in the public domain
+ * </p>
+ * <p>
+ * Institution: National Institute of Standards and Technology
+ * </p>
+ *
+ * @author Nicholas
+ * @version 1.0
+ */
+public class DerivedSpectrumTest extends TestCase {
+
+   private static EditableSpectrum build() {
+      final double[] data = new double[256];
+      for (int i = 0; i < data.length; ++i)
+         data[i] = (i * 37) % 101;
+      return new EditableSpectrum(10.0, 0.0, data);
+   }
+
+   private static void assertConsistent(ISpectrumData spec) {
+      final double[] arr = SpectrumUtils.toDoubleArray(spec);
+      assertEquals(spec.getChannelCount(), arr.length);
+      for (int i = 0; i < arr.length; ++i)
+         assertEquals(spec.getCounts(i), arr[i], 0.0);
+   }
+
+   public void testLinear() {
+      final EditableSpectrum es = build();
+      final DerivedSpectrum slice = SpectrumUtils.getSlice(es, 20, 200);
+      final DerivedSpectrum.Linear scaled = new DerivedSpectrum.Linear(slice, 2.0, 0.0, 0, 256);
+      final DerivedSpectrum.Linear shifted = new DerivedSpectrum.Linear(scaled, 0.5, 3.0, 50, 100);
+      // Fused chains evaluate directly against the editable spectrum
+      assertSame(es, scaled.getRoot());
+      assertSame(es, shifted.getRoot());
+      assertTrue(shifted.isDerivedFrom(slice));
+      for (int i = 0; i < es.getChannelCount(); ++i) {
+         final double s = (i >= 20) && (i < 200) ? es.getCounts(i) : 0.0;
+         assertEquals(2.0 * s, scaled.getCounts(i), 0.0);
+         assertEquals((i >= 50) && (i < 100) ? s + 3.0 : 0.0, shifted.getCounts(i), 0.0);
+      }
+      assertConsistent(scaled);
+      assertConsistent(shifted);
+      // An offset applied outside the inner window does not fuse
+      final DerivedSpectrum.Linear wide = new DerivedSpectrum.Linear(slice, 1.0, 1.0, 0, 256);
+      assertSame(slice, wide.getRoot());
+      assertEquals(1.0, wide.getCounts(5), 0.0);
+      assertEquals(es.getCounts(30) + 1.0, wide.getCounts(30), 0.0);
+      assertConsistent(wide);
+      final double[] part = new double[256];
+      shifted.fill(part, 40, 60);
+      for (int i = 40; i < 60; ++i)
+         assertEquals(shifted.getCounts(i), part[i], 0.0);
+      assertEquals(0.0, part[39], 0.0);
+      assertEquals(SpectrumUtils.dotProduct(shifted, es), SpectrumUtils.dotProduct(es, SpectrumUtils.scale(1.0, shifted)), 1.0e-9);
+   }
+
+   public void testInvalidation() {
+      final EditableSpectrum es = build();
+      final SpectrumMath sm = new SpectrumMath(es);
+      final DerivedSpectrum.Linear scaled = new DerivedSpectrum.Linear(sm, 3.0, 0.0, 0, 256);
+      assertEquals(3.0 * es.getCounts(10), SpectrumUtils.toDoubleArray(scaled)[10], 0.0);
+      final long token = scaled.getModificationToken();
+      sm.add(es, 1.0);
+      assertTrue(scaled.getModificationToken() != token);
+      assertEquals(6.0 * es.getCounts(10), SpectrumUtils.toDoubleArray(scaled)[10], 0.0);
+      final DerivedSpectrum.Linear direct = new DerivedSpectrum.Linear(es, 1.0, 0.0, 0, 256);
+      assertConsistent(direct);
+      es.setCounts(10, 1234.0);
+      assertEquals(1234.0, SpectrumUtils.toDoubleArray(direct)[10], 0.0);
+      es.getCounts()[11] = 4321.0;
+      assertEquals(4321.0, SpectrumUtils.toDoubleArray(direct)[11], 0.0);
+      // A retained array requires modified()
+      final double[] counts = es.getCounts();
+      SpectrumUtils.toDoubleArray(direct);
+      counts[13] = 5678.0;
+      es.modified();
+      assertEquals(5678.0, SpectrumUtils.toDoubleArray(direct)[13], 0.0);
+      // toDoubleArray returns a copy
+      SpectrumUtils.toDoubleArray(direct)[12] = -1.0;
+      assertEquals(es.getCounts(12), direct.getCounts(12), 0.0);
+      assertConsistent(direct);
+   }
+
+   public void testUntracked() throws EPQException {
+      final EditableSpectrum es = build();
+      final AverageSpectrum avg = new AverageSpectrum();
+      avg.include(es);
+      final DerivedSpectrum slice = SpectrumUtils.getSlice(avg, 20, 200);
+      assertFalse(slice.isModificationTracked());
+      assertTrue(SpectrumUtils.getSlice(es, 20, 200).isModificationTracked());
+      assertEquals(es.getCounts(30), SpectrumUtils.toDoubleArray(slice)[30], 0.0);
+      // The average changes without a modification token so the slice must
+      // not be cached
+      final EditableSpectrum twice = build();
+      for (int i = 0; i < twice.getChannelCount(); ++i)
+         twice.setCounts(i, 3.0 * es.getCounts(i));
+      avg.include(twice);
+      assertEquals(avg.getCounts(30), SpectrumUtils.toDoubleArray(slice)[30], 0.0);
+      assertEquals(2.0 * es.getCounts(30), slice.getCounts(30), 1.0e-9);
+      assertConsistent(slice);
+   }
+}
@@ -0,0 +1,88 @@
+package gov.nist.microanalysis.EPQTests;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+
+import gov.nist.microanalysis.EPQLibrary.ISpectrumData;
+import gov.nist.microanalysis.EPQLibrary.SpectrumProperties;
+import gov.nist.microanalysis.EPQLibrary.SpectrumUtils;
+import gov.nist.microanalysis.EPQTools.EMSAFile;
+import gov.nist.microanalysis.EPQTools.SpectrumFile;
+import gov.nist.microanalysis.EPQTools.WriteSpectrumAsEMSA1_0;
+
+import junit.framework.TestCase;
+
+/**
+ * <p>
+ * Tests reading and writing EMSA files.
+ * </p>
+ * <p>
+ * Copyright: Pursuant to title 17 Section 105 of the United States Code this
+ * software is not subject to copyright protection and is in the public domain
+ * </p>
+ * <p>
+ * Institution: National Institute of Standards and Technology
+ * </p>
+ *
+ * @author Nicholas
+ * @version 1.0
+ */
+public class EMSAFileTest extends TestCase {
+
+   private static EMSAFile read(String text) throws Exception {
+      final EMSAFile res = new EMSAFile();
+      res.read(new ByteArrayInputStream(text.getBytes(StandardCharsets.US_ASCII)));
+      return res;
+   }
+
+   private static EMSAFile roundTrip(ISpectrumData spec) throws Exception {
+      final ByteArrayOutputStream os = new ByteArrayOutputStream();
+      WriteSpectrumAsEMSA1_0.write(spec, os, WriteSpectrumAsEMSA1_0.Mode.COMPATIBLE);
+      final EMSAFile res = new EMSAFile();
+      res.read(new ByteArrayInputStream(os.toByteArray()));
+      return res;
+   }
+
+   public void testRoundTrip() throws Exception {
+      for (final String name : new String[]{"K3189_1.msa", "Gold.tif", "Albite.spc"}) {
+         final ISpectrumData spec = SpectrumFile.open(new File(EMSAFileTest.class.getResource("TestData/" + name).toURI()))[0];
+         final EMSAFile res = roundTrip(spec);
+         assertEquals(Integer.highestOneBit(spec.getChannelCount() - 1) * 2, res.getChannelCount());
+         for (int i = 0; i < spec.getChannelCount(); ++i)
+            assertEquals(spec.getCounts(i), res.getCounts(i), 5.0e-6);
+         assertEquals(spec.getChannelWidth(), res.getChannelWidth(), 1.0e-5);
+         assertEquals(spec.getZeroOffset(), res.getZeroOffset(), 1.0e-5);
+         assertEquals(SpectrumUtils.getBeamEnergy(spec), SpectrumUtils.getBeamEnergy(res), 1.0e-5);
+         final SpectrumProperties sp = spec.getProperties(), rp = res.getProperties();
+         assertEquals(sp.getNumericWithDefault(SpectrumProperties.LiveTime, -1.0), rp.getNumericWithDefault(SpectrumProperties.LiveTime, -1.0), 1.0e-5);
+         // Reading the same bytes twice gives identical properties
+         assertTrue(SpectrumProperties.difference(rp, roundTrip(spec).getProperties()).getPropertySet().isEmpty());
+      }
+      // Fractional and negative counts
+      final ISpectrumData frac = SpectrumUtils.toSpectrum(10.0, 0.0, new double[]{0.0, -3.0, 2.5, 1.0e-7, 123456.78901, -0.125, 1.0e12, 7.0});
+      final EMSAFile res = roundTrip(frac);
+      for (int i = 0; i < frac.getChannelCount(); ++i)
+         assertEquals(frac.getCounts(i), res.getCounts(i), 1.0e-5);
+   }
+
+   public void testParse() throws Exception {
+      final String header = "\r\n#FORMAT      : EMSA/MAS Spectral Data File\r\n#VERSION     : 1.0\r\n#NPOINTS     : +6\r\n#XUNITS      : keV\r\n"
+            + "#YUNITS      : cps\r\n#LIVETIME    : 2.5\r\n#DATATYPE    : XY\r\n#XPERCHAN    : 0.01\r\n#OFFSET      : -0.1\r\n#SPECTRUM    :\r\n";
+      final String data = "0.0, 1.5e+2\n0.01, +3.25E1, 0.02, 7\r0.03,   -2.5 , 0.04, 1.0e-3,\r\n0.05, 12345678901234567890123";
+      // No #ENDOFDATA and mixed line terminators
+      final EMSAFile xy = read(header + data);
+      assertEquals(6, xy.getChannelCount());
+      assertEquals(10.0, xy.getChannelWidth(), 1.0e-9);
+      assertEquals(-100.0, xy.getZeroOffset(), 1.0e-9);
+      final double[] expected = {150.0, 32.5, 7.0, -2.5, 1.0e-3, 12345678901234567890123.0};
+      for (int i = 0; i < expected.length; ++i)
+         assertEquals(2.5 * expected[i], xy.getCounts(i), Math.abs(expected[i]) * 1.0e-15);
+      assertEquals("Counts", xy.getProperties().getTextWithDefault(SpectrumProperties.YUnits, null));
+      // Garbage items are skipped
+      final EMSAFile y = read(header.replace("XY", "Y").replace("cps", "counts") + "1, x, 2,\r\n3,4, 5,6\r\n#ENDOFDATA   :\r\n");
+      for (int i = 0; i < 6; ++i)
+         assertEquals(i + 1.0, y.getCounts(i), 0.0);
+   }
+}
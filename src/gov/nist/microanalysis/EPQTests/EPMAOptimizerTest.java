@@ -0,0 +1,135 @@
+package gov.nist.microanalysis.EPQTests;
+
+import gov.nist.microanalysis.EPQLibrary.Composition;
+import gov.nist.microanalysis.EPQLibrary.CompositionOptimizer;
+import gov.nist.microanalysis.EPQLibrary.EPMAOptimizer.OptimizedStandard;
+import gov.nist.microanalysis.EPQLibrary.EPQException;
+import gov.nist.microanalysis.EPQLibrary.Element;
+import gov.nist.microanalysis.EPQLibrary.MaterialFactory;
+import gov.nist.microanalysis.EPQLibrary.StandardsDatabase2;
+import gov.nist.microanalysis.EPQLibrary.StandardsDatabase2.StandardBlock2;
+import gov.nist.microanalysis.EPQLibrary.SpectrumProperties;
+import gov.nist.microanalysis.EPQLibrary.ToSI;
+import gov.nist.microanalysis.EPQLibrary.Detector.EDSDetector;
+import gov.nist.microanalysis.Utility.UncertainValue2;
+
+import java.util.Collection;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+/**
+ * <p>
+ * Tests the candidate evaluation in EPMAOptimizer using CompositionOptimizer.
+ * </p>
+ * <p>
+ * Copyright: Pursuant to title 17 Section 105 of the United States Code this
+ * software is not subject to copyright protection and is in the public domain
+ * </p>
+ * <p>
+ * Institution: National Institute of Standards and Technology
+ * </p>
+ *
+ * @author Nicholas
+ * @version 1.0
+ */
+public class EPMAOptimizerTest extends TestCase {
+
+   private static StandardsDatabase2 buildDatabase() throws EPQException {
+      final StandardsDatabase2 sdb = new StandardsDatabase2("Test");
+      final StandardBlock2 block = sdb.addBlock("Block 1");
+      for (final String name : new String[]{MaterialFactory.K411, MaterialFactory.K412, MaterialFactory.K3189, MaterialFactory.SiliconDioxide,
+            MaterialFactory.MagnesiumOxide, MaterialFactory.Al2O3, MaterialFactory.CaCO3})
+         block.addStandard(MaterialFactory.createMaterial(name));
+      for (final Element elm : new Element[]{Element.Mg, Element.Si, Element.Ca, Element.Fe})
+         block.addStandard(new Composition(elm));
+      // Standards with uncertain compositions can be pruned
+      final Composition uSi = new Composition();
+      uSi.defineByWeightFraction(new Element[]{Element.Si, Element.O},
+            new UncertainValue2[]{new UncertainValue2(0.4674, "dSi", 0.05), new UncertainValue2(0.5326, "dO", 0.05)});
+      uSi.setName("Uncertain SiO2");
+      block.addStandard(uSi);
+      final Composition uFe = new Composition();
+      uFe.defineByWeightFraction(new Element[]{Element.Fe, Element.Si},
+            new UncertainValue2[]{new UncertainValue2(0.9, "dFe", 0.1), new UncertainValue2(0.1, "dSi2", 0.02)});
+      uFe.setName("Uncertain FeSi");
+      block.addStandard(uFe);
+      return sdb;
+   }
+
+   private static void assertSameList(List<OptimizedStandard> expected, List<OptimizedStandard> actual, int n) {
+      for (int i = 0; i < n; ++i) {
+         assertEquals(expected.get(i).getComposition(), actual.get(i).getComposition());
+         assertEquals(expected.get(i).getROI(), actual.get(i).getROI());
+         assertEquals(expected.get(i).getScore(), actual.get(i).getScore(), 0.0);
+      }
+   }
+
+   public void testCandidates() throws EPQException {
+      final EDSDetector det = EDSDetector.createSiLiDetector(2048, 10.0, 135.0);
+      final Composition unk = MaterialFactory.createMaterial(MaterialFactory.K412);
+      final StandardsDatabase2 sdb = buildDatabase();
+      final double e0 = ToSI.keV(15.0);
+      for (final Element elm : new Element[]{Element.Si, Element.Fe}) {
+         final CompositionOptimizer serial = new CompositionOptimizer(det, unk, sdb);
+         serial.setParallel(false);
+         final List<OptimizedStandard> expected = serial.getOptimizedStandards(elm, e0, 6.0e-8);
+         assertTrue(expected.size() > 3);
+         assertFalse(serial.isCancelled());
+         // Parallel evaluation (using the memoised uncertainties)
+         final CompositionOptimizer parallel = new CompositionOptimizer(det, unk, sdb);
+         final List<OptimizedStandard> par = parallel.getOptimizedStandards(elm, e0, 6.0e-8);
+         assertEquals(expected.size(), par.size());
+         assertSameList(expected, par, expected.size());
+         // Limited to the best three
+         parallel.setMaxCandidates(3);
+         final List<OptimizedStandard> best = parallel.getOptimizedStandards(elm, e0, 6.0e-8);
+         assertEquals(3, best.size());
+         assertSameList(expected, best, 3);
+         // From scratch
+         CompositionOptimizer.clearCache();
+         serial.setMaxCandidates(1);
+         assertSameList(expected, serial.getOptimizedStandards(elm, e0, 6.0e-8), 1);
+      }
+   }
+
+   public void testCancel() throws EPQException {
+      final EDSDetector det = EDSDetector.createSiLiDetector(2048, 10.0, 135.0);
+      final Composition unk = MaterialFactory.createMaterial(MaterialFactory.K412);
+      final CompositionOptimizer[] opt = new CompositionOptimizer[1];
+      // Cancelled while the candidates are found, before they are evaluated
+      final StandardsDatabase2 sdb = new StandardsDatabase2("Cancel") {
+         @Override
+         public List<Composition> findStandards(Element elm, double min, Collection<StandardBlock2> exclude) {
+            opt[0].cancel();
+            return super.findStandards(elm, min, exclude);
+         }
+      };
+      sdb.addBlock("Block 1").addStandard(new Composition(Element.Si));
+      opt[0] = new CompositionOptimizer(det, unk, sdb);
+      try {
+         opt[0].getOptimizedStandards(Element.Si, ToSI.keV(15.0), 6.0e-8);
+         fail("The cancel request was lost.");
+      } catch (final EPQException e) {
+         assertTrue(opt[0].isCancelled());
+      }
+   }
+
+   public void testEstimateModified() throws EPQException {
+      final EDSDetector det = EDSDetector.createSiLiDetector(2048, 10.0, 135.0);
+      final Composition unk = MaterialFactory.createMaterial(MaterialFactory.K412);
+      final StandardsDatabase2 sdb = buildDatabase();
+      final SpectrumProperties sp = new SpectrumProperties();
+      sp.setNumericProperty(SpectrumProperties.BeamEnergy, 15.0);
+      sp.setDetector(det);
+      CompositionOptimizer.clearCache();
+      new CompositionOptimizer(det, unk, sdb).getOptimizedStandards(Element.Si, sp);
+      // The cache must not follow later changes to the estimate
+      unk.defineByWeightFraction(new Element[]{Element.Si, Element.Fe, Element.O}, new double[]{0.1, 0.6, 0.3});
+      final List<OptimizedStandard> cached = new CompositionOptimizer(det, unk, sdb).getOptimizedStandards(Element.Si, sp);
+      CompositionOptimizer.clearCache();
+      final List<OptimizedStandard> fresh = new CompositionOptimizer(det, unk, sdb).getOptimizedStandards(Element.Si, sp);
+      assertEquals(fresh.size(), cached.size());
+      assertSameList(fresh, cached, fresh.size());
+   }
+}
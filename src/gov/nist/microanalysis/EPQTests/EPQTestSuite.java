@@ -29,31 +29,39 @@ public class EPQTestSuite extends TestSuite {
       super();
       // gov.nist.microanalysis.Utility
       addTest(new TestSuite(AdaptiveRungeKuttaTest.class));
+      addTest(new TestSuite(ArrayKernelsTest.class));
       addTest(new TestSuite(DescriptiveStatisticsTest.class));
       addTest(new TestSuite(FindRootTest.class));
       addTest(new TestSuite(Math2Test.class));
+      addTest(new TestSuite(MCIntegratorTest.class));
       addTest(new TestSuite(PoissonDeviateTest.class));
       addTest(new TestSuite(LinearRegressionTest.class));
       addTest(new TestSuite(HistogramTest.class));
       addTest(new TestSuite(MemberSetTest.class));
+      addTest(new TestSuite(UncertainValue2Test.class));
       // gov.nist.microanalysis.EPQLibrary
       addTest(new TestSuite(AtomicShellTest.class));
       addTest(new TestSuite(BackscatterCoefficientTest.class));
       addTest(new TestSuite(BackscatterFactorTest.class));
+      addTest(new TestSuite(BatchSpectrumSimulatorTest.class));
       addTest(new TestSuite(BetheElectronEnergyLossTest.class));
       addTest(new TestSuite(CompositionFromKRatiosTest.class));
       addTest(new TestSuite(ComputeZAFTest.class));
       addTest(new TestSuite(CorrectionAlgorithmTest.class));
+      addTest(new TestSuite(DerivedSpectrumTest.class));
       addTest(new TestSuite(EdgeEnergyTest.class));
+      addTest(new TestSuite(EPMAOptimizerTest.class));
       addTest(new TestSuite(ElectronRangeTest.class));
       addTest(new TestSuite(ElementTest.class));
       addTest(new TestSuite(FilterFitTest.class));
       addTest(new TestSuite(FluorescenceTest.class));
       addTest(new TestSuite(IonizationCrossSectionTest.class));
+      addTest(new TestSuite(MapImageTest.class));
       addTest(new TestSuite(MassAbsorptionCoefficientTest.class));
       addTest(new TestSuite(MaterialTest.class));
       addTest(new TestSuite(MaterialFactoryTest.class));
       addTest(new TestSuite(MeanIonizationPotentialTest.class));
+      addTest(new TestSuite(SimulationContextTest.class));
       addTest(new TestSuite(StoppingPowerTest.class));
       addTest(new TestSuite(StrategyTest.class));
       addTest(new TestSuite(SurfaceIonizationTest.class));
@@ -65,8 +73,18 @@ public class EPQTestSuite extends TestSuite {
       addTest(new TestSuite(MonteCarloSSTest.class));
       addTest(new TestSuite(SphereTest.class));
       addTest(new TestSuite(SumShapeTest.class));
+      // gov.nist.nanoscalemetrology.JMONSEL
+      addTest(new TestSuite(GmshMeshTest.class));
+      addTest(new TestSuite(NormalHeightFieldShapeTest.class));
+      addTest(new TestSuite(MONSELMaterialScatterModelTest.class));
+      addTest(new TestSuite(ImageSynthesizerTest.class));
       // gov.nist.microanalysis.EPQTools
+      addTest(new TestSuite(EMSAFileTest.class));
+      addTest(new TestSuite(RippleFileTest.class));
       addTest(new TestSuite(SerializableSpectrumTest.class));
+      addTest(new TestSuite(SpectrumArchiveTest.class));
+      addTest(new TestSuite(SpectrumFileTest.class));
+      addTest(new TestSuite(SpectrumImagePipelineTest.class));
    }
 
    public void testOne() {
@@ -21,6 +21,8 @@ import gov.nist.microanalysis.Utility.DescriptiveStatistics;
 import java.io.File;
 import java.io.IOException;
 import java.net.URISyntaxException;
+import java.util.ArrayList;
+import java.util.List;
 
 import junit.framework.TestCase;
 
@@ -207,4 +209,31 @@ public class FilterFitTest extends TestCase {
       assertEquals(rs[5].average(), 0.0185, 0.01);
       assertEquals(rs[6].average(), 0.2573, 0.01);
    }
+
+   public void testBatch() throws EPQException {
+      final EDSDetector det = EDSDetector.createSiLiDetector(mAuSpec.getChannelCount(), mAuSpec.getChannelWidth(),
+            SpectrumUtils.getFWHMAtMnKA(mAuSpec, 135.0));
+      final FilterFit ff = new FilterFit(det, ToSI.eV(SpectrumUtils.getBeamEnergy(mAuSpec)), false);
+      ff.addReference(Element.Au, mAuSpec);
+      ff.addReference(Element.Ag, mAgSpec);
+      // A block of noisy pixels with a range of compositions. The uncertainties
+      // are approximate as the weights are shared across the block.
+      final List<ISpectrumData> block = new ArrayList<ISpectrumData>();
+      for (int p = 0; p < 8; ++p) {
+         final SpectrumMath mix = new SpectrumMath(mAuSpec);
+         mix.add(mAgSpec, 0.6 + (0.1 * p));
+         block.add(new NoisySpectrum(mix, 0.5, 1234 + p));
+      }
+      final KRatioSet[] batch = ff.getKRatios(block);
+      assertEquals(block.size(), batch.length);
+      assertEquals(1, ff.getBatchFactorizationCount());
+      for (int p = 0; p < block.size(); ++p) {
+         final KRatioSet single = ff.getKRatios(block.get(p));
+         for (final Element elm : new Element[]{Element.Au, Element.Ag}) {
+            final XRayTransitionSet xrts = single.optimalDatum(elm);
+            assertEquals(single.getKRatio(xrts), batch[p].getKRatio(xrts), 0.001 * single.getKRatio(xrts));
+            assertEquals(single.getError(xrts), batch[p].getError(xrts), 0.15 * single.getError(xrts));
+         }
+      }
+   }
 }
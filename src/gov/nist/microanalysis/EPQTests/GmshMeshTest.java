@@ -0,0 +1,202 @@
+package gov.nist.microanalysis.EPQTests;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import gov.nist.nanoscalemetrology.JMONSEL.GmshMesh;
+
+import junit.framework.TestCase;
+
+/**
+ * <p>
+ * Tests the ASCII, binary and cached import paths of GmshMesh against one
+ * another using a small mesh of three tetrahedra and one triangle.
+ * </p>
+ * <p>
+ * Copyright: Pursuant to title 17 Section 105 of the United States Code this
+ * software is not subject to copyright protection and is in the public domain
+ * </p>
+ * <p>
+ * Institution: National Institute of Standards and Technology
+ * </p>
+ *
+ * @author Nicholas
+ * @version 1.0
+ */
+public class GmshMeshTest extends TestCase {
+
+   private static final double[][] NODES = {
+      {
+         0.0,
+         0.0,
+         0.0
+      },
+      {
+         1.0,
+         0.0,
+         0.0
+      },
+      {
+         0.0,
+         1.0,
+         0.0
+      },
+      {
+         0.0,
+         0.0,
+         1.0
+      },
+      {
+         1.0,
+         1.0,
+         1.0
+      },
+      {
+         -1.0,
+         -1.0,
+         -1.0
+      }
+   };
+
+   /* type, node indices */
+   private static final int[][] ELEMENTS = {
+      {
+         2,
+         1,
+         2,
+         3
+      },
+      {
+         4,
+         1,
+         2,
+         3,
+         4
+      },
+      {
+         4,
+         2,
+         3,
+         4,
+         5
+      },
+      {
+         4,
+         1,
+         3,
+         2,
+         6
+      }
+   };
+
+   private File writeText() throws IOException {
+      final File f = File.createTempFile("mesh", ".msh");
+      f.deleteOnExit();
+      try (final PrintWriter pw = new PrintWriter(f, "US-ASCII")) {
+         pw.print("$MeshFormat\n2.2 0 8\n$EndMeshFormat\n$Nodes\n" + NODES.length + "\n");
+         for(int i = 0; i < NODES.length; i++)
+            pw.print((i + 1) + " " + NODES[i][0] + " " + NODES[i][1] + " " + NODES[i][2] + "\n");
+         pw.print("$EndNodes\n$Elements\n" + ELEMENTS.length + "\n");
+         for(int i = 0; i < ELEMENTS.length; i++) {
+            pw.print((i + 1) + " " + ELEMENTS[i][0] + " 2 " + (i + 10) + " " + (i + 20));
+            for(int j = 1; j < ELEMENTS[i].length; j++)
+               pw.print(" " + ELEMENTS[i][j]);
+            pw.print("\n");
+         }
+         pw.print("$EndElements\n");
+      }
+      return f;
+   }
+
+   private File writeBinary() throws IOException {
+      final File f = File.createTempFile("mesh", ".msh");
+      f.deleteOnExit();
+      try (final DataOutputStream dos = new DataOutputStream(new FileOutputStream(f))) {
+         dos.write("$MeshFormat\n2.2 1 8\n".getBytes(StandardCharsets.US_ASCII));
+         dos.writeInt(1); // big-endian
+         dos.write(("\n$EndMeshFormat\n$Nodes\n" + NODES.length + "\n").getBytes(StandardCharsets.US_ASCII));
+         for(int i = 0; i < NODES.length; i++) {
+            dos.writeInt(i + 1);
+            for(final double x : NODES[i])
+               dos.writeDouble(x);
+         }
+         dos.write(("\n$EndNodes\n$Elements\n" + ELEMENTS.length + "\n").getBytes(StandardCharsets.US_ASCII));
+         // One block per element keeps the element numbers in order
+         for(int i = 0; i < ELEMENTS.length; i++) {
+            dos.writeInt(ELEMENTS[i][0]);
+            dos.writeInt(1);
+            dos.writeInt(2);
+            dos.writeInt(i + 1);
+            dos.writeInt(i + 10);
+            dos.writeInt(i + 20);
+            for(int j = 1; j < ELEMENTS[i].length; j++)
+               dos.writeInt(ELEMENTS[i][j]);
+         }
+         dos.write("\n$EndElements\n".getBytes(StandardCharsets.US_ASCII));
+      }
+      return f;
+   }
+
+   private static void assertSameMesh(GmshMesh a, GmshMesh b) {
+      assertEquals(a.getNumberOfNodes(), b.getNumberOfNodes());
+      assertEquals(a.getNumberOfElements(), b.getNumberOfElements());
+      assertEquals(a.getNumberOfVolumeElements(), b.getNumberOfVolumeElements());
+      for(int i = 1; i <= a.getNumberOfNodes(); i++) {
+         assertTrue(Arrays.equals(a.getNodeCoordinates(i), b.getNodeCoordinates(i)));
+         assertTrue(Arrays.equals(a.getNodeAdjacentVolumes(i), b.getNodeAdjacentVolumes(i)));
+      }
+      for(int i = 1; i <= a.getNumberOfElements(); i++) {
+         assertEquals(a.getElementType(i), b.getElementType(i));
+         assertTrue(Arrays.equals(a.getTags(i), b.getTags(i)));
+         assertTrue(Arrays.equals(a.getNodeIndices(i), b.getNodeIndices(i)));
+         assertEquals(a.getVolume(i), b.getVolume(i), 1.0e-15);
+         if(a.getElementType(i) == 4)
+            for(int f = 0; f < 4; f++)
+               assertEquals(a.getAdjacentVolumeIndex(i, f), b.getAdjacentVolumeIndex(i, f));
+      }
+      assertTrue(Arrays.deepEquals(a.getBoundaryFaces(), b.getBoundaryFaces()));
+   }
+
+   public void testAdjacency() throws IOException {
+      final GmshMesh mesh = new GmshMesh(writeText().getPath());
+      assertEquals(6, mesh.getNumberOfNodes());
+      assertEquals(3, mesh.getNumberOfVolumeElements());
+      // Element 2 shares face 0 (nodes 2,3,4) with element 3 and face 3
+      // (nodes 1,3,2) with element 4
+      assertEquals(3, mesh.getAdjacentVolumeIndex(2, 0));
+      assertEquals(4, mesh.getAdjacentVolumeIndex(2, 3));
+      assertEquals(0, mesh.getAdjacentVolumeIndex(2, 1));
+      assertEquals(2, mesh.getAdjacentVolumeIndex(3, 3));
+      assertEquals(2, mesh.getAdjacentVolumeIndex(4, 3));
+      // 3 tets x 4 faces less 2 shared faces x 2 sides
+      assertEquals(8, mesh.getBoundaryFaces().length);
+      assertTrue(Arrays.equals(new int[] {
+         2,
+         3,
+         4
+      }, mesh.getNodeAdjacentVolumes(3)));
+      assertTrue(Arrays.equals(new long[] {
+         11,
+         21,
+         0
+      }, mesh.getTags(2)));
+      assertEquals(1.0 / 6.0, mesh.getVolume(2), 1.0e-12);
+   }
+
+   public void testBinary() throws IOException {
+      assertSameMesh(new GmshMesh(writeText().getPath()), new GmshMesh(writeBinary().getPath()));
+   }
+
+   public void testCache() throws IOException {
+      final GmshMesh mesh = new GmshMesh(writeText().getPath());
+      final File cache = File.createTempFile("mesh", ".epqmesh");
+      cache.deleteOnExit();
+      mesh.writeCache(cache.getPath());
+      assertSameMesh(mesh, new GmshMesh(cache.getPath()));
+   }
+}
@@ -0,0 +1,110 @@
+package gov.nist.microanalysis.EPQTests;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import gov.nist.microanalysis.EPQLibrary.Element;
+import gov.nist.microanalysis.EPQLibrary.EPQException;
+import gov.nist.microanalysis.EPQLibrary.MaterialFactory;
+import gov.nist.microanalysis.EPQLibrary.ToSI;
+import gov.nist.microanalysis.NISTMonte.MonteCarloSS;
+import gov.nist.microanalysis.NISTMonte.SimpleBlock;
+import gov.nist.nanoscalemetrology.JMONSEL.ImageSynthesizer;
+import gov.nist.nanoscalemetrology.JMONSEL.SimpleRasterScanGenerator;
+
+import junit.framework.TestCase;
+
+/**
+ * <p>
+ * Tests ImageSynthesizer by imaging the boundary between a copper and a carbon
+ * block.
+ * </p>
+ * <p>
+ * Copyright: Pursuant to title 17 Section 105 of the United States Code this
+ * software is not subject to copyright protection and is in the public domain
+ * </p>
+ * <p>
+ * Institution: National Institute of Standards and Technology
+ * </p>
+ *
+ * @author Nicholas
+ * @version 1.0
+ */
+public class ImageSynthesizerTest extends TestCase {
+
+   private static final int WIDTH = 8;
+   private static final int HEIGHT = 5;
+   private static final double PIXEL = 1.0e-6;
+
+   private static MonteCarloSS createSample() throws EPQException {
+      final MonteCarloSS mcss = new MonteCarloSS();
+      mcss.setBeamEnergy(ToSI.keV(15.0));
+      mcss.addSubRegion(mcss.getChamber(), MaterialFactory.createPureElement(Element.Cu), new SimpleBlock(new double[]{-1.0e-3, -1.0e-3, 0.0},
+            new double[]{0.0, 1.0e-3, 1.0e-3}));
+      mcss.addSubRegion(mcss.getChamber(), MaterialFactory.createPureElement(Element.C), new SimpleBlock(new double[]{0.0, -1.0e-3, 0.0},
+            new double[]{1.0e-3, 1.0e-3, 1.0e-3}));
+      return mcss;
+   }
+
+   private static ImageSynthesizer createSynthesizer(int threads) {
+      // Pixel columns 0 to 3 are over copper and 4 to 7 over carbon
+      final SimpleRasterScanGenerator scan = new SimpleRasterScanGenerator(-3.5 * PIXEL, 0.0, -0.01, PIXEL, PIXEL, WIDTH, HEIGHT, 0.0, 1.0e-6, 0.0,
+            0.0);
+      final ImageSynthesizer is = new ImageSynthesizer(ImageSynthesizerTest::createSample, scan, WIDTH, HEIGHT, 100);
+      is.addDetector(ImageSynthesizer.backscatterFraction());
+      is.addDetector(ImageSynthesizer.energyWindow("All", 0.0, ToSI.keV(20.0)));
+      is.setCoarseStride(4);
+      is.setThreadCount(threads);
+      is.setSeed(0x5EED);
+      return is;
+   }
+
+   public void testBoundary() {
+      final ImageSynthesizer is = createSynthesizer(4);
+      final List<Integer> strides = new ArrayList<Integer>();
+      is.addImageListener((src, stride) -> {
+         strides.add(Integer.valueOf(stride));
+         // After every pass each pixel has a value
+         for (final float v : src.getImage(0))
+            assertTrue(v > 0.0f);
+      });
+      is.run();
+      assertEquals(3, strides.size());
+      assertEquals(1, strides.get(2).intValue());
+      final float[] bse = is.getImage(0);
+      final float[] all = is.getImage(1);
+      double cu = 0.0, c = 0.0;
+      for (int y = 0; y < HEIGHT; ++y)
+         for (int x = 0; x < WIDTH; ++x) {
+            final int p = (y * WIDTH) + x;
+            if (x < 3)
+               cu += bse[p];
+            else if (x > 4)
+               c += bse[p];
+            // No secondaries are generated so every escaping electron is a BSE
+            assertEquals(bse[p], all[p], 1.0e-6);
+         }
+      // Each region averages 15 pixels of 100 trajectories. The binomial
+      // standard error of a backscatter fraction eta over 1500 trajectories is
+      // sqrt(eta (1 - eta) / 1500), which is 0.012 for copper (eta ~ 0.31) and
+      // 0.008 for carbon (eta ~ 0.095 with this scatter model, even in the
+      // columns furthest from the copper). Both tolerances exceed four
+      // standard errors.
+      assertEquals(0.31, cu / (3 * HEIGHT), 0.05);
+      assertEquals(0.095, c / (3 * HEIGHT), 0.035);
+   }
+
+   /**
+    * The pixels are seeded individually so the number of threads does not
+    * change the image.
+    */
+   public void testReproducible() {
+      final ImageSynthesizer serial = createSynthesizer(1);
+      serial.run();
+      final ImageSynthesizer parallel = createSynthesizer(4);
+      parallel.run();
+      for (int d = 0; d < 2; ++d)
+         assertTrue(Arrays.equals(serial.getImage(d), parallel.getImage(d)));
+   }
+}
@@ -1,6 +1,7 @@
 package gov.nist.microanalysis.EPQTests;
 
 import gov.nist.microanalysis.Utility.MCIntegrator;
+import gov.nist.microanalysis.Utility.Math2;
 import junit.framework.TestCase;
 
 public class MCIntegratorTest extends TestCase {
@@ -42,4 +43,34 @@ public class MCIntegratorTest extends TestCase {
       final double res = ((4.0 * Math.PI) / 3.0) * Math.pow(radius, 3.0);
       assertEquals(integrator.compute(10000)[0], res, 0.02 * res);
    }
+
+   public void testHalton() {
+      final double radius = 4.0;
+      final double[] pt1 = new double[]{-radius, -radius, -radius};
+      final double[] pt2 = new double[]{radius, radius, radius};
+      final MCIntegrator integrator = new MCIntegrator(pt1, pt2) {
+
+         @Override
+         public double[] function(double[] args) {
+            return new double[]{1.0, args[2] * args[2]};
+         }
+
+         @Override
+         public boolean inside(double[] args) {
+            return ((args[0] * args[0]) + (args[1] * args[1]) + (args[2] * args[2])) < (radius * radius);
+         }
+      };
+      integrator.setSampling(MCIntegrator.Sampling.HALTON);
+      integrator.setParallel(true);
+      final double vol = ((4.0 * Math.PI) / 3.0) * Math.pow(radius, 3.0);
+      final double z2 = ((4.0 * Math.PI) / 15.0) * Math.pow(radius, 5.0);
+      final double[] res = integrator.compute(1.0e-3, 1000000);
+      assertTrue(Math2.max(integrator.getRelativeErrors()) <= 1.0e-3);
+      assertTrue(integrator.getEvaluationCount() < 1000000);
+      assertEquals(res[0], vol, 0.005 * vol);
+      assertEquals(res[1], z2, 0.005 * z2);
+      // Fixed number of points
+      assertEquals(integrator.compute(100000)[0], vol, 0.005 * vol);
+      assertEquals(100000, integrator.getEvaluationCount());
+   }
 }
\ No newline at end of file
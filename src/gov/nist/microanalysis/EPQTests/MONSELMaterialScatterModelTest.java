@@ -0,0 +1,97 @@
+package gov.nist.microanalysis.EPQTests;
+
+import gov.nist.microanalysis.EPQLibrary.Element;
+import gov.nist.microanalysis.EPQLibrary.ToSI;
+import gov.nist.microanalysis.NISTMonte.Electron;
+import gov.nist.microanalysis.Utility.Math2;
+import gov.nist.nanoscalemetrology.JMONSEL.BrowningMottElasticSM;
+import gov.nist.nanoscalemetrology.JMONSEL.GanachaudMokraniPolaronTrapSM;
+import gov.nist.nanoscalemetrology.JMONSEL.MONSEL_MaterialScatterModel;
+import gov.nist.nanoscalemetrology.JMONSEL.MollerInelasticSM;
+import gov.nist.nanoscalemetrology.JMONSEL.SEmaterial;
+
+import junit.framework.TestCase;
+
+/**
+ * <p>
+ * Tests the tabulated scatter rates in MONSEL_MaterialScatterModel against the
+ * rates computed directly by the scatter mechanisms.
+ * </p>
+ * <p>
+ * Copyright: Pursuant to title 17 Section 105 of the United States Code this
+ * software is not subject to copyright protection and is in the public domain
+ * </p>
+ * <p>
+ * Institution: National Institute of Standards and Technology
+ * </p>
+ *
+ * @author Nicholas
+ * @version 1.0
+ */
+public class MONSELMaterialScatterModelTest extends TestCase {
+
+   private MONSEL_MaterialScatterModel makeModel() throws CloneNotSupportedException {
+      final SEmaterial si = new SEmaterial(new Element[] {
+         Element.Si
+      }, new double[] {
+         1.0
+      }, ToSI.gPerCC(2.33), "Silicon");
+      si.setWorkfunction(ToSI.eV(4.85));
+      si.setEnergyCBbottom(ToSI.eV(-4.05));
+      final MONSEL_MaterialScatterModel msm = new MONSEL_MaterialScatterModel(si);
+      msm.addScatterMechanism(new BrowningMottElasticSM(si));
+      msm.addScatterMechanism(new MollerInelasticSM(si));
+      msm.addScatterMechanism(new GanachaudMokraniPolaronTrapSM(2.0e7, 1.0 / ToSI.eV(1.0)));
+      return msm;
+   }
+
+   public void testValidation() throws CloneNotSupportedException {
+      final MONSEL_MaterialScatterModel msm = makeModel();
+      assertFalse(msm.hasRateTable());
+      msm.tabulateScatterRates(ToSI.eV(1.0), ToSI.keV(20.0), 400);
+      assertTrue(msm.hasRateTable());
+      final double[] err = msm.validateRateTable(3);
+      assertTrue(err[0] < 1.0e-3);
+      assertTrue(err[1] < 1.0e-3);
+   }
+
+   public void testMeanPathLength() throws CloneNotSupportedException {
+      final MONSEL_MaterialScatterModel exact = makeModel();
+      final MONSEL_MaterialScatterModel tabulated = makeModel();
+      tabulated.tabulateScatterRates(ToSI.eV(100.0), ToSI.keV(20.0), 400);
+      final Electron pe = new Electron(new double[] {
+         0.0,
+         0.0,
+         0.0
+      }, ToSI.keV(5.0));
+      for (final double e : new double[] {
+         ToSI.eV(150.0),
+         ToSI.keV(1.234),
+         ToSI.keV(5.0),
+         ToSI.keV(19.5)
+      }) {
+         pe.setEnergy(e);
+         final long seed = 0x12345678L;
+         Math2.initializeRandom(seed);
+         final double mpExact = exact.randomMeanPathLength(pe);
+         Math2.initializeRandom(seed);
+         final double mpTab = tabulated.randomMeanPathLength(pe);
+         assertEquals(mpExact, mpTab, 1.0e-3 * mpExact);
+      }
+      // Outside the table the exact rates are used
+      for (final double e : new double[] {
+         ToSI.eV(50.0),
+         ToSI.keV(25.0)
+      }) {
+         pe.setEnergy(e);
+         final long seed = 0x9abcdefL;
+         Math2.initializeRandom(seed);
+         final double mpExact = exact.randomMeanPathLength(pe);
+         Math2.initializeRandom(seed);
+         final double mpTab = tabulated.randomMeanPathLength(pe);
+         assertEquals(mpExact, mpTab, 0.0);
+      }
+      tabulated.clearRateTable();
+      assertFalse(tabulated.hasRateTable());
+   }
+}
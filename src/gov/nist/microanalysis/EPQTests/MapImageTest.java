@@ -0,0 +1,211 @@
+package gov.nist.microanalysis.EPQTests;
+
+import java.io.File;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import gov.nist.microanalysis.EPQLibrary.CompositionFromKRatios;
+import gov.nist.microanalysis.EPQLibrary.CorrectionAlgorithm;
+import gov.nist.microanalysis.EPQLibrary.Element;
+import gov.nist.microanalysis.EPQLibrary.LinearSpectrumFit;
+import gov.nist.microanalysis.EPQLibrary.MapImage;
+import gov.nist.microanalysis.EPQLibrary.MaterialFactory;
+import gov.nist.microanalysis.EPQLibrary.SpectrumProperties;
+import gov.nist.microanalysis.EPQLibrary.RegionOfInterestSet;
+import gov.nist.microanalysis.EPQLibrary.RegionOfInterestSet.RegionOfInterest;
+import gov.nist.microanalysis.EPQLibrary.XRayTransitionSet;
+import gov.nist.microanalysis.EPQLibrary.XRayTransition;
+import gov.nist.microanalysis.EPQLibrary.Detector.EDSDetector;
+import gov.nist.microanalysis.EPQTools.RippleFile;
+
+import junit.framework.TestCase;
+
+/**
+ * <p>
+ * Tests the storage mechanisms, plane statistics and quantification of
+ * MapImage.
+ * </p>
+ * <p>
+ * Copyright: Pursuant to title 17 Section 105 of the United States Code this
+ * software is not subject to copyright protection and is in the public domain
+ * </p>
+ * <p>
+ * Institution: National Institute of Standards and Technology
+ * </p>
+ *
+ * @author Nicholas
+ * @version 1.0
+ */
+public class MapImageTest extends TestCase {
+
+   // Larger than one 64x64 tile in each direction
+   private static final int WIDTH = 131;
+   private static final int HEIGHT = 70;
+
+   private static RegionOfInterest[] buildROIs() {
+      final EDSDetector det = EDSDetector.createSDDDetector(2048, 10.0, 130.0);
+      final RegionOfInterest[] res = new RegionOfInterest[2];
+      final Element[] elms = {Element.Fe, Element.Cu};
+      for (int i = 0; i < res.length; ++i) {
+         final RegionOfInterestSet rois = LinearSpectrumFit.createEmptyROI(det);
+         rois.add(new XRayTransitionSet(elms[i], XRayTransitionSet.K_ALPHA));
+         res[i] = rois.iterator().next();
+      }
+      return res;
+   }
+
+   private static double datum(int x, int y, int i) {
+      // Exactly representable as a float
+      return ((x * 3 + y * 7 + i * 11) % 97) * 0.25;
+   }
+
+   private static void checkStorage(MapImage.Storage storage) throws Exception {
+      try (final MapImage mi = new MapImage(WIDTH, HEIGHT, buildROIs(), "Test", MapImage.DataType.K_RATIOS, storage)) {
+         assertEquals(storage, mi.getStorage());
+         assertEquals(0.0, mi.maxValue(0), 0.0);
+         double sum0 = 0.0, max0 = 0.0;
+         for (int y = 0; y < HEIGHT; ++y)
+            for (int x = 0; x < WIDTH; ++x) {
+               mi.set(x, y, 0, datum(x, y, 0));
+               mi.inc(x, y, new double[]{1.0, datum(x, y, 1)});
+               sum0 += datum(x, y, 0) + 1.0;
+               max0 = Math.max(max0, datum(x, y, 0) + 1.0);
+            }
+         assertEquals(sum0, mi.sum(0), 1.0e-6 * sum0);
+         assertEquals(max0, mi.maxValue(0), 0.0);
+         assertEquals(1.0, mi.minValue(0), 0.0);
+         // Replacing the maximum forces the statistics to be recomputed
+         for (int y = 0; y < HEIGHT; ++y)
+            for (int x = 0; x < WIDTH; ++x)
+               if (mi.get(x, y, 0) == max0)
+                  mi.set(x, y, 0, -2.0);
+         assertEquals(max0 - 0.25, mi.maxValue(0), 0.0);
+         assertEquals(-2.0, mi.minValue(0), 0.0);
+         final double[] plane = mi.getPlane(1);
+         for (int y = 0; y < HEIGHT; ++y)
+            for (int x = 0; x < WIDTH; ++x) {
+               assertEquals(datum(x, y, 1), mi.get(x, y, 1), 0.0);
+               assertEquals(datum(x, y, 1), plane[(y * WIDTH) + x], 0.0);
+            }
+         final File rpl = File.createTempFile("mapimage", ".rpl");
+         final File raw = new File(rpl.getPath().replaceAll(".rpl$", ".raw"));
+         rpl.deleteOnExit();
+         raw.deleteOnExit();
+         mi.writeToRpl(rpl.getPath());
+         try (final RippleFile rf = new RippleFile(rpl.getPath(), raw.getPath(), true)) {
+            final double[] pix = new double[2];
+            for (int y = 0; y < HEIGHT; y += 3)
+               for (int x = 0; x < WIDTH; x += 5) {
+                  rf.readPixel(y, x, pix);
+                  assertEquals(mi.get(x, y, 0), pix[0], 0.0);
+                  assertEquals(mi.get(x, y, 1), pix[1], 0.0);
+               }
+         }
+         assertTrue(mi.getKRatioStats().count() > 0);
+      }
+   }
+
+   public void testDouble() throws Exception {
+      checkStorage(MapImage.Storage.DOUBLE);
+   }
+
+   public void testFloat() throws Exception {
+      checkStorage(MapImage.Storage.FLOAT);
+   }
+
+   public void testOffHeap() throws Exception {
+      checkStorage(MapImage.Storage.OFF_HEAP);
+   }
+
+   public void testDisk() throws Exception {
+      checkStorage(MapImage.Storage.DISK);
+   }
+
+   private static SpectrumProperties quantProperties() {
+      final SpectrumProperties sp = new SpectrumProperties();
+      sp.setNumericProperty(SpectrumProperties.BeamEnergy, 20.0);
+      sp.setNumericProperty(SpectrumProperties.TakeOffAngle, 40.0);
+      return sp;
+   }
+
+   private static CompositionFromKRatios buildQuant(RegionOfInterest[] rois) {
+      final SpectrumProperties sp = quantProperties();
+      final CompositionFromKRatios cfk = new CompositionFromKRatios();
+      // Every instance shares one CorrectionAlgorithm
+      cfk.setCorrectionAlgorithm(CorrectionAlgorithm.XPP);
+      for (final RegionOfInterest roi : rois) {
+         final Element elm = roi.getElementSet().first();
+         final XRayTransition xrt = roi.getXRayTransitionSet(elm).getWeighiestTransition();
+         try {
+            cfk.addStandard(new XRayTransitionSet(xrt), MaterialFactory.createPureElement(elm), sp);
+         } catch (final Exception e) {
+            fail(e.getMessage());
+         }
+      }
+      return cfk;
+   }
+
+   public void testQuantify() throws Exception {
+      final RegionOfInterest[] rois = buildROIs();
+      final int width = 24, height = 18;
+      final MapImage kr = new MapImage(width, height, rois, "Test", MapImage.DataType.K_RATIOS);
+      for (int y = 0; y < height; ++y)
+         for (int x = 0; x < width; ++x) {
+            // Three phases with a little noise
+            final int phase = (x / 8 + y / 6) % 3;
+            final double noise = ((x * 7 + y * 13) % 5) * 2.0e-4;
+            kr.set(x, y, 0, 0.15 + (0.3 * phase) + noise);
+            kr.set(x, y, 1, 0.75 - (0.3 * phase) - noise);
+         }
+      final MapImage serial = kr.quantify(buildQuant(rois), quantProperties(), false);
+      final Set<Thread> workers = ConcurrentHashMap.newKeySet();
+      final MapImage.Quantifier q = new MapImage.Quantifier(() -> {
+         workers.add(Thread.currentThread());
+         return buildQuant(rois);
+      }, quantProperties(), false);
+      q.setThreadCount(4);
+      final MapImage parallel = q.quantify(kr);
+      // The rows really were quantified concurrently
+      assertTrue(workers.size() > 1);
+      assertEquals(0, q.getFailureCount());
+      assertEquals(width * height, q.getHitCount() + q.getMissCount());
+      assertTrue(q.getHitRate() > 0.5);
+      long pixels = q.getReuseCount();
+      for (final Long n : q.getIterationHistogram().values())
+         pixels += n.longValue();
+      assertEquals(width * height, pixels);
+      for (int y = 0; y < height; ++y)
+         for (int x = 0; x < width; ++x)
+            for (int i = 0; i < rois.length; ++i) {
+               assertTrue(serial.get(x, y, i) > 0.1);
+               assertEquals(serial.get(x, y, i), parallel.get(x, y, i), 1.0e-3);
+            }
+      // Reusing near matches trades accuracy for speed
+      q.setReuseTolerance(0.001);
+      final MapImage reused = q.quantify(kr);
+      assertTrue(q.getReuseCount() > 0);
+      for (int y = 0; y < height; ++y)
+         for (int x = 0; x < width; ++x)
+            for (int i = 0; i < rois.length; ++i)
+               assertEquals(serial.get(x, y, i), reused.get(x, y, i), 5.0e-3);
+   }
+
+   public void testNeighbouringBins() throws Exception {
+      final RegionOfInterest[] rois = buildROIs();
+      final MapImage kr = new MapImage(2, 1, rois, "Test", MapImage.DataType.K_RATIOS);
+      // With a quantum of 0.002 the two pixels fall in adjacent bins
+      kr.set(0, 0, 0, 0.1509);
+      kr.set(0, 0, 1, 0.75);
+      kr.set(1, 0, 0, 0.1511);
+      kr.set(1, 0, 1, 0.75);
+      final MapImage.Quantifier q = new MapImage.Quantifier(() -> buildQuant(rois), quantProperties(), false);
+      q.setThreadCount(1);
+      q.setReuseTolerance(0.001);
+      final MapImage res = q.quantify(kr);
+      assertEquals(1, q.getMissCount());
+      assertEquals(1, q.getHitCount());
+      assertEquals(1, q.getReuseCount());
+      for (int i = 0; i < rois.length; ++i)
+         assertEquals(res.get(0, 0, i), res.get(1, 0, i), 0.0);
+   }
+}
@@ -1,8 +1,17 @@
 package gov.nist.microanalysis.EPQTests;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import gov.nist.microanalysis.EPQLibrary.Composition;
 import gov.nist.microanalysis.EPQLibrary.EPQException;
 import gov.nist.microanalysis.EPQLibrary.Element;
+import gov.nist.microanalysis.EPQLibrary.Fluorescence;
+import gov.nist.microanalysis.EPQLibrary.MACMatrix;
 import gov.nist.microanalysis.EPQLibrary.MassAbsorptionCoefficient;
+import gov.nist.microanalysis.EPQLibrary.MaterialFactory;
 import gov.nist.microanalysis.EPQLibrary.ToSI;
 import gov.nist.microanalysis.EPQLibrary.XRayTransition;
 import junit.framework.TestCase;
@@ -66,4 +75,48 @@ public class MassAbsorptionCoefficientTest extends TestCase {
       assertEquals(MassAbsorptionCoefficient.BastinHeijligers89.compute(Element.Ta, new XRayTransition(Element.C, XRayTransition.KA1)) / kConvert,
             15350.0, 1.0);
    }
+
+   public void testMatrix() throws EPQException {
+      final Composition k411 = MaterialFactory.createMaterial(MaterialFactory.K411);
+      final List<XRayTransition> xrts = Arrays.asList(new XRayTransition(Element.Mg, XRayTransition.KA1),
+            new XRayTransition(Element.Si, XRayTransition.KA1), new XRayTransition(Element.Ca, XRayTransition.KA1),
+            new XRayTransition(Element.Fe, XRayTransition.KA1), new XRayTransition(Element.Fe, XRayTransition.LA1),
+            new XRayTransition(Element.O, XRayTransition.KA1));
+      for (final MassAbsorptionCoefficient mac : new MassAbsorptionCoefficient[]{MassAbsorptionCoefficient.Chantler2005,
+            MassAbsorptionCoefficient.HeinrichDtsa, MassAbsorptionCoefficient.Default}) {
+         final MACMatrix mm = MACMatrix.get(mac, k411.getElementSet(), xrts);
+         // The order of the transitions is immaterial
+         final List<XRayTransition> rev = new ArrayList<XRayTransition>(xrts);
+         Collections.reverse(rev);
+         assertSame(mm, MACMatrix.get(mac, k411.getElementSet(), rev));
+         assertSame(mac, mm.getAlgorithm());
+         final double[] wf = mm.weightFractions(k411);
+         for (final XRayTransition xrt : xrts) {
+            for (final Element elm : k411.getElementSet())
+               assertEquals(mac.compute(elm, xrt), mm.compute(elm, xrt), 0.0);
+            assertEquals(mac.compute(k411, xrt), mm.compute(k411, xrt), 0.0);
+            assertEquals(mac.compute(k411, xrt), mm.compute(wf, mm.indexOf(xrt)), 1.0e-12 * mac.compute(k411, xrt));
+         }
+         // Untabulated elements and lines defer to the algorithm
+         final XRayTransition cuKa = new XRayTransition(Element.Cu, XRayTransition.KA1);
+         assertEquals(-1, mm.indexOf(cuKa));
+         assertEquals(-1, mm.indexOf(Element.Cu));
+         assertEquals(mac.compute(Element.Cu, xrts.get(0)), mm.compute(Element.Cu, xrts.get(0)), 0.0);
+         assertEquals(mac.compute(k411, cuKa), mm.compute(k411, cuKa), 0.0);
+      }
+      // Modifying a user specified MAC invalidates the shared matrix
+      final MassAbsorptionCoefficient.UserSpecifiedCoefficient usc = new MassAbsorptionCoefficient.UserSpecifiedCoefficient(
+            MassAbsorptionCoefficient.Chantler2005);
+      final MACMatrix before = MACMatrix.get(usc, k411.getElementSet(), xrts);
+      usc.put(Element.Fe, xrts.get(0), 1234.0);
+      final MACMatrix after = MACMatrix.get(usc, k411.getElementSet(), xrts);
+      assertNotSame(before, after);
+      assertEquals(1234.0, after.compute(Element.Fe, xrts.get(0)), 0.0);
+      // Fluorescence computed with and without a matrix agree
+      final double e0 = ToSI.keV(20.0);
+      final MACMatrix fm = Fluorescence.Reed.createMACMatrix(k411, xrts, e0);
+      for (final XRayTransition xrt : xrts)
+         assertEquals(Fluorescence.Reed.compute(k411, xrt, e0, Math.toRadians(40.0)),
+               Fluorescence.Reed.compute(k411, xrt, e0, Math.toRadians(40.0), fm), 0.0);
+   }
 }
@@ -0,0 +1,91 @@
+package gov.nist.microanalysis.EPQTests;
+
+import java.util.Random;
+
+import gov.nist.nanoscalemetrology.JMONSEL.NormalHeightFieldShape;
+import gov.nist.nanoscalemetrology.JMONSEL.NormalHeightMapShape;
+
+import junit.framework.TestCase;
+
+/**
+ * <p>
+ * Tests NormalHeightFieldShape against NormalHeightMapShape, which describes
+ * the same surface, using random line segments that start and end both on and
+ * off the map.
+ * </p>
+ * <p>
+ * Copyright: Pursuant to title 17 Section 105 of the United States Code this
+ * software is not subject to copyright protection and is in the public domain
+ * </p>
+ * <p>
+ * Institution: National Institute of Standards and Technology
+ * </p>
+ *
+ * @author Nicholas
+ * @version 1.0
+ */
+public class NormalHeightFieldShapeTest extends TestCase {
+
+   private static final int NX = 23;
+   private static final int NY = 17;
+   // Powers of two so that the heights are exactly representable as floats
+   private static final double DXY = Math.scalb(1.0, -27);
+   private static final double DZ = Math.scalb(1.0, -30);
+
+   private final Random mRandom = new Random(0x12345678L);
+
+   private double[][] makeData() {
+      final double[][] data = new double[NX][NY];
+      for (int i = 0; i < NX; i++)
+         for (int j = 0; j < NY; j++)
+            data[i][j] = (mRandom.nextInt(64) - 32) * DZ;
+      return data;
+   }
+
+   private double[] randomPoint() {
+      return new double[]{((mRandom.nextDouble() * (NX + 4)) - 2) * DXY, ((mRandom.nextDouble() * (NY + 4)) - 2) * DXY,
+            ((mRandom.nextDouble() * 80) - 40) * DZ};
+   }
+
+   private void compare(boolean below) {
+      final double[][] data = makeData();
+      final NormalHeightMapShape hm = new NormalHeightMapShape(0.0, 0.0, DXY, DXY, data, below);
+      final NormalHeightFieldShape hf = new NormalHeightFieldShape(0.0, 0.0, DXY, DXY, data, below);
+      for (int k = 0; k < 5000; k++) {
+         final double[] pos0 = randomPoint();
+         final double[] pos1 = randomPoint();
+         assertEquals(hm.contains(pos0, pos1), hf.contains(pos0, pos1));
+         final double[] rm = hm.getFirstNormal(pos0, pos1);
+         final double[] rf = hf.getFirstNormal(pos0, pos1);
+         final boolean hitM = (rm[3] > 0.0) && (rm[3] <= 1.0);
+         assertEquals(hitM, (rf[3] > 0.0) && (rf[3] <= 1.0));
+         if (hitM) {
+            assertEquals(rm[3], rf[3], 1.0e-6);
+            for (int i = 0; i < 3; i++)
+               assertEquals(rm[i], rf[i], 1.0e-4);
+         }
+      }
+   }
+
+   public void testBelow() {
+      compare(true);
+   }
+
+   public void testAbove() {
+      compare(false);
+   }
+
+   public void testContains() {
+      final double[][] data = makeData();
+      final NormalHeightFieldShape hf = new NormalHeightFieldShape(0.0, 0.0, DXY, DXY, data, true);
+      for (int i = 0; i < NX; i++)
+         for (int j = 0; j < NY; j++) {
+            assertEquals(data[i][j], hf.getHeight(i * DXY, j * DXY), 1.0e-20);
+            assertTrue(hf.contains(new double[]{i * DXY, j * DXY, data[i][j] - DZ}));
+            assertFalse(hf.contains(new double[]{i * DXY, j * DXY, data[i][j] + DZ}));
+         }
+      // The edge profiles extend to infinity
+      assertEquals(data[0][3], hf.getHeight(-1.0e-3, 3 * DXY), 1.0e-20);
+      assertEquals(data[NX - 1][NY - 1], hf.getHeight(1.0e-3, 1.0e-3), 1.0e-20);
+   }
+}
@@ -0,0 +1,213 @@
+package gov.nist.microanalysis.EPQTests;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.stream.IntStream;
+
+import gov.nist.microanalysis.EPQLibrary.ISpectrumData;
+import gov.nist.microanalysis.EPQLibrary.SpectrumProperties;
+import gov.nist.microanalysis.EPQTools.RippleFile;
+import gov.nist.microanalysis.EPQTools.RippleSpectrum;
+
+import junit.framework.TestCase;
+
+/**
+ * <p>
+ * Tests the item-by-item and memory mapped bulk read methods of RippleFile
+ * against one another for vector and image ordered files.
+ * </p>
+ * <p>
+ * Copyright: Pursuant to title 17 Section 105 of the United States Code this
+ * software is not subject to copyright protection and is in the public domain
+ * </p>
+ * <p>
+ * Institution: National Institute of Standards and Technology
+ * </p>
+ *
+ * @author Nicholas
+ * @version 1.0
+ */
+public class RippleFileTest extends TestCase {
+
+   private static final int WIDTH = 5;
+   private static final int HEIGHT = 3;
+   private static final int DEPTH = 7;
+
+   /**
+    * Includes values above Short.MAX_VALUE to check unsigned decoding.
+    */
+   private static int datum(int row, int col, int item) {
+      return (((row * WIDTH) + col) * 2003 + (item * 4099)) % 65536;
+   }
+
+   private static File tempFile(String ext) throws IOException {
+      final File f = File.createTempFile("ripple", ext);
+      f.deleteOnExit();
+      return f;
+   }
+
+   private static String writeVector() throws IOException {
+      final File rpl = tempFile(".rpl");
+      final File raw = tempFile(".raw");
+      try (final RippleFile rf = new RippleFile(WIDTH, HEIGHT, DEPTH, RippleFile.UNSIGNED, 2, RippleFile.LITTLE_ENDIAN, rpl.getPath(),
+            raw.getPath())) {
+         final int[] vec = new int[DEPTH];
+         for (int r = 0; r < HEIGHT; ++r)
+            for (int c = 0; c < WIDTH; ++c) {
+               for (int i = 0; i < DEPTH; ++i)
+                  vec[i] = datum(r, c, i);
+               rf.seek(r, c);
+               rf.write(vec);
+            }
+      }
+      return rpl.getPath() + "\t" + raw.getPath();
+   }
+
+   private static String writeImage() throws IOException {
+      final File rpl = tempFile(".rpl");
+      final File raw = tempFile(".raw");
+      try (final PrintWriter pw = new PrintWriter(rpl)) {
+         pw.println("key\tvalue");
+         pw.println("width\t" + WIDTH);
+         pw.println("height\t" + HEIGHT);
+         pw.println("depth\t" + DEPTH);
+         pw.println("offset\t0");
+         pw.println("data-length\t2");
+         pw.println("data-type\tunsigned");
+         pw.println("byte-order\tbig-endian");
+         pw.println("record-by\timage");
+      }
+      try (final DataOutputStream dos = new DataOutputStream(new FileOutputStream(raw))) {
+         for (int i = 0; i < DEPTH; ++i)
+            for (int r = 0; r < HEIGHT; ++r)
+               for (int c = 0; c < WIDTH; ++c)
+                  dos.writeShort(datum(r, c, i));
+      }
+      return rpl.getPath() + "\t" + raw.getPath();
+   }
+
+   private static RippleFile open(String files) throws Exception {
+      final String[] fs = files.split("\t");
+      return new RippleFile(fs[0], fs[1], true);
+   }
+
+   private static void checkBulk(RippleFile rf) throws IOException {
+      final double[] dv = new double[DEPTH];
+      final float[] fv = new float[DEPTH];
+      final int[] iv = new int[DEPTH];
+      for (int r = 0; r < HEIGHT; ++r)
+         for (int c = 0; c < WIDTH; ++c) {
+            rf.readPixel(r, c, dv);
+            rf.readPixel(r, c, fv);
+            rf.readPixel(r, c, iv);
+            for (int i = 0; i < DEPTH; ++i) {
+               assertEquals(datum(r, c, i), dv[i], 0.0);
+               assertEquals(datum(r, c, i), fv[i], 0.0f);
+               assertEquals(datum(r, c, i), iv[i]);
+               assertEquals(datum(r, c, i), rf.get(r, c, i), 0.0);
+            }
+         }
+      final double[] plane = new double[WIDTH * HEIGHT];
+      final int[] iplane = new int[WIDTH * HEIGHT];
+      for (int i = 0; i < DEPTH; ++i) {
+         rf.readPlane(i, plane);
+         rf.readPlane(i, iplane);
+         for (int r = 0; r < HEIGHT; ++r)
+            for (int c = 0; c < WIDTH; ++c) {
+               assertEquals(datum(r, c, i), plane[(r * WIDTH) + c], 0.0);
+               assertEquals(datum(r, c, i), iplane[(r * WIDTH) + c]);
+            }
+      }
+      final double[] slice = new double[WIDTH * HEIGHT];
+      final int[] islice = new int[WIDTH * HEIGHT];
+      rf.readSlice(2, 6, slice);
+      rf.readSlice(2, 6, islice);
+      for (int r = 0; r < HEIGHT; ++r)
+         for (int c = 0; c < WIDTH; ++c) {
+            int sum = 0;
+            for (int i = 2; i < 6; ++i)
+               sum += datum(r, c, i);
+            assertEquals(sum, slice[(r * WIDTH) + c], 0.0);
+            assertEquals(sum, islice[(r * WIDTH) + c]);
+         }
+   }
+
+   public void testVector() throws Exception {
+      try (final RippleFile rf = open(writeVector())) {
+         assertEquals(RippleFile.VECTOR_ORDER, rf.getRecordBy());
+         // Item-by-item
+         for (int r = 0; r < HEIGHT; ++r)
+            for (int c = 0; c < WIDTH; ++c) {
+               rf.seek(r, c);
+               final double[] vec = rf.readDoubleItem();
+               for (int i = 0; i < DEPTH; ++i)
+                  assertEquals(datum(r, c, i), vec[i], 0.0);
+            }
+         checkBulk(rf);
+         // Force many small segments
+         rf.setSegmentShift(3);
+         checkBulk(rf);
+      }
+   }
+
+   public void testImage() throws Exception {
+      try (final RippleFile rf = open(writeImage())) {
+         assertEquals(RippleFile.IMAGE_ORDER, rf.getRecordBy());
+         checkBulk(rf);
+         rf.setSegmentShift(4);
+         checkBulk(rf);
+         try {
+            rf.seek(0, 0);
+            fail();
+         }
+         catch (final IOException e) {
+            // Expected
+         }
+      }
+   }
+
+   public void testConcurrentFirstRead() throws Exception {
+      try (final RippleFile rf = open(writeVector())) {
+         rf.setSegmentShift(3);
+         // Every thread races to map the file on its first bulk read
+         final boolean ok = IntStream.range(0, WIDTH * HEIGHT).parallel().allMatch(p -> {
+            final int r = p / WIDTH, c = p % WIDTH;
+            final int[] iv = new int[DEPTH];
+            try {
+               rf.readPixel(r, c, iv);
+               for (int i = 0; i < DEPTH; ++i)
+                  if ((iv[i] != datum(r, c, i)) || (rf.get(r, c, i) != datum(r, c, i)))
+                     return false;
+               return true;
+            }
+            catch (final IOException e) {
+               return false;
+            }
+         });
+         assertTrue(ok);
+      }
+   }
+
+   public void testView() throws Exception {
+      final String[] fs = writeVector().split("\t");
+      final SpectrumProperties sp = new SpectrumProperties();
+      sp.setNumericProperty(SpectrumProperties.EnergyOffset, 0.0);
+      sp.setNumericProperty(SpectrumProperties.EnergyScale, 10.0);
+      // RippleSpectrum expects the raw file to be named after the header
+      final File raw = new File(fs[0].replace(".rpl", ".raw"));
+      raw.deleteOnExit();
+      assertTrue(new File(fs[1]).renameTo(raw));
+      final RippleSpectrum rs = new RippleSpectrum(fs[0], sp);
+      final ISpectrumData view = rs.getView(2, 3);
+      rs.setPosition(3, 2);
+      assertEquals(DEPTH, view.getChannelCount());
+      assertEquals(10.0, view.getChannelWidth(), 0.0);
+      for (int i = 0; i < DEPTH; ++i) {
+         assertEquals(datum(2, 3, i), view.getCounts(i), 0.0);
+         assertEquals(rs.getCounts(i), view.getCounts(i), 0.0);
+      }
+   }
+}
@@ -0,0 +1,106 @@
+package gov.nist.microanalysis.EPQTests;
+
+import gov.nist.microanalysis.EPQLibrary.AlgorithmUser;
+import gov.nist.microanalysis.EPQLibrary.MassAbsorptionCoefficient;
+import gov.nist.microanalysis.EPQLibrary.SimulationContext;
+import gov.nist.microanalysis.EPQLibrary.Strategy;
+import gov.nist.microanalysis.EPQLibrary.ToSI;
+import gov.nist.microanalysis.NISTMonte.Electron;
+import gov.nist.microanalysis.NISTMonte.MonteCarloSS;
+import gov.nist.nanoscalemetrology.JMONSEL.TimeKeeper;
+
+import junit.framework.TestCase;
+
+/**
+ * <p>
+ * Tests that the state held by a SimulationContext is independent of the
+ * state held by other contexts.
+ * </p>
+ * <p>
+ * Copyright: Pursuant to title 17 Section 105 of the United States Code this
+ * software is not subject to copyright protection and is in the public domain
+ * </p>
+ * <p>
+ * Institution: National Institute of Standards and Technology
+ * </p>
+ *
+ * @author Nicholas
+ * @version 1.0
+ */
+public class SimulationContextTest extends TestCase {
+
+   public void testBinding() {
+      final SimulationContext ctx = new SimulationContext();
+      assertSame(SimulationContext.getGlobal(), SimulationContext.current());
+      final SimulationContext prev = SimulationContext.setCurrent(ctx);
+      try {
+         assertNull(prev);
+         assertSame(ctx, SimulationContext.current());
+         TimeKeeper.getTimeKeeper().setTime(1.5);
+         assertEquals(1.5, ctx.getTime(), 0.0);
+         final Electron e1 = new Electron(new double[3], ToSI.keV(1.0));
+         final Electron e2 = new Electron(new double[3], ToSI.keV(1.0));
+         assertEquals(1, e1.getIdent());
+         assertEquals(2, e2.getIdent());
+         assertEquals(2, Electron.getlastIdent());
+      }
+      finally {
+         SimulationContext.setCurrent(prev);
+      }
+      assertSame(SimulationContext.getGlobal(), SimulationContext.current());
+      assertEquals(2, ctx.getLastElectronID());
+   }
+
+   public void testStrategy() {
+      final SimulationContext ctx = new SimulationContext();
+      final MassAbsorptionCoefficient global = AlgorithmUser.getDefaultMAC();
+      final MassAbsorptionCoefficient other = global == MassAbsorptionCoefficient.Henke82 ? MassAbsorptionCoefficient.Heinrich86
+            : MassAbsorptionCoefficient.Henke82;
+      final SimulationContext prev = SimulationContext.setCurrent(ctx);
+      try {
+         final Strategy strat = new Strategy();
+         strat.addAlgorithm(MassAbsorptionCoefficient.class, other);
+         AlgorithmUser.applyGlobalOverride(strat);
+         assertSame(other, AlgorithmUser.getDefaultMAC());
+         // A derived context starts with the same override...
+         final SimulationContext derived = ctx.derive();
+         SimulationContext.setCurrent(derived);
+         assertSame(other, AlgorithmUser.getDefaultMAC());
+         AlgorithmUser.clearGlobalOverride();
+         assertSame(MassAbsorptionCoefficient.Default, AlgorithmUser.getDefaultMAC());
+         // ...but is independent of it
+         SimulationContext.setCurrent(ctx);
+         assertSame(other, AlgorithmUser.getDefaultMAC());
+      }
+      finally {
+         SimulationContext.setCurrent(prev);
+      }
+      assertSame(global, AlgorithmUser.getDefaultMAC());
+   }
+
+   public void testResources() {
+      final SimulationContext ctx = new SimulationContext();
+      assertNull(ctx.getResource(String.class, "a"));
+      assertEquals("x", ctx.putResourceIfAbsent(String.class, "a", "x"));
+      assertEquals("x", ctx.putResourceIfAbsent(String.class, "a", "y"));
+      assertEquals("x", ctx.derive().getResource(String.class, "a"));
+      assertNull(new SimulationContext().getResource(String.class, "a"));
+   }
+
+   public void testMonteCarloSS() throws Exception {
+      final SimulationContext ctx = new SimulationContext();
+      final SimulationContext prev = SimulationContext.setCurrent(ctx);
+      final MonteCarloSS mcss;
+      try {
+         mcss = new MonteCarloSS();
+      }
+      finally {
+         SimulationContext.setCurrent(prev);
+      }
+      assertSame(ctx, mcss.getContext());
+      final long globalID = SimulationContext.getGlobal().getLastElectronID();
+      mcss.runMultipleTrajectories(10);
+      assertEquals(10, ctx.getLastElectronID());
+      assertEquals(globalID, SimulationContext.getGlobal().getLastElectronID());
+   }
+}
@@ -0,0 +1,174 @@
+package gov.nist.microanalysis.EPQTests;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import gov.nist.microanalysis.EPQLibrary.EPQException;
+import gov.nist.microanalysis.EPQLibrary.Element;
+import gov.nist.microanalysis.EPQLibrary.ISpectrumData;
+import gov.nist.microanalysis.EPQLibrary.ParticleSignature;
+import gov.nist.microanalysis.EPQLibrary.SpectrumProperties;
+import gov.nist.microanalysis.EPQLibrary.SpectrumUtils;
+import gov.nist.microanalysis.EPQLibrary.StageCoordinate;
+import gov.nist.microanalysis.EPQLibrary.StageCoordinate.Axis;
+import gov.nist.microanalysis.EPQTools.RippleFile;
+import gov.nist.microanalysis.EPQTools.SpectrumArchive;
+import gov.nist.microanalysis.EPQTools.SpectrumFile;
+
+import junit.framework.TestCase;
+
+/**
+ * <p>
+ * Tests writing, reading, selecting and converting spectra using
+ * SpectrumArchive.
+ * </p>
+ * <p>
+ * Copyright: Pursuant to title 17 Section 105 of the United States Code this
+ * software is not subject to copyright protection and is in the public domain
+ * </p>
+ * <p>
+ * Institution: National Institute of Standards and Technology
+ * </p>
+ *
+ * @author Nicholas
+ * @version 1.0
+ */
+public class SpectrumArchiveTest extends TestCase {
+
+   private static File testData(String name) throws Exception {
+      return new File(SpectrumArchiveTest.class.getResource("TestData/" + name).toURI());
+   }
+
+   private static File tempFile() throws Exception {
+      final File res = File.createTempFile("archive", ".sarc");
+      res.deleteOnExit();
+      return res;
+   }
+
+   private static void assertSameCounts(ISpectrumData expected, ISpectrumData actual) {
+      assertEquals(expected.getChannelCount(), actual.getChannelCount());
+      for (int i = 0; i < expected.getChannelCount(); ++i)
+         assertEquals(expected.getCounts(i), actual.getCounts(i), 0.0);
+      assertEquals(expected.getChannelWidth(), actual.getChannelWidth(), 0.0);
+      assertEquals(expected.getZeroOffset(), actual.getZeroOffset(), 0.0);
+   }
+
+   private static ISpectrumData particle(int i) {
+      final double[] counts = new double[512];
+      for (int ch = 0; ch < counts.length; ++ch)
+         counts[ch] = ((ch * 31 + i * 17) % 101) + (i % 3 == 2 ? 0.5 : 0.0);
+      final ISpectrumData res = SpectrumUtils.toSpectrum(10.0, 0.0, counts);
+      final SpectrumProperties sp = res.getProperties();
+      sp.setTextProperty(SpectrumProperties.SpectrumDisplayName, "Particle " + i);
+      sp.setNumericProperty(SpectrumProperties.BeamEnergy, i < 10 ? 20.0 : 15.0);
+      sp.setNumericProperty(SpectrumProperties.LiveTime, 1.0 + i);
+      final StageCoordinate sc = new StageCoordinate();
+      sc.set(Axis.X, i * 0.5);
+      sc.set(Axis.Y, -i);
+      sp.setObjectProperty(SpectrumProperties.StagePosition, sc);
+      final ParticleSignature ps = new ParticleSignature();
+      ps.add(Element.Fe, 0.05 * i);
+      ps.add(Element.Si, 1.0 - (0.05 * i));
+      sp.setParticleSignatureProperty(SpectrumProperties.ParticleSignature, ps);
+      return res;
+   }
+
+   public void testReadWrite() throws Exception {
+      final List<ISpectrumData> specs = new ArrayList<>();
+      for (final String name : new String[]{"K3189_1.msa", "Gold.tif", "Albite.spc"})
+         specs.add(SpectrumFile.open(testData(name))[0]);
+      for (int i = 0; i < 20; ++i)
+         specs.add(particle(i));
+      final File f = tempFile();
+      try (final SpectrumArchive.Writer wr = new SpectrumArchive.Writer(f)) {
+         for (final ISpectrumData spec : specs)
+            wr.add(spec, Collections.singletonMap("Index", Double.valueOf(wr.getSpectrumCount())));
+      }
+      try (final SpectrumArchive sa = new SpectrumArchive(f)) {
+         assertEquals(specs.size(), sa.getSpectrumCount());
+         for (int i = 0; i < specs.size(); ++i) {
+            final ISpectrumData spec = specs.get(i), res = sa.read(i);
+            assertSameCounts(spec, res);
+            assertEquals(spec.toString(), sa.getName(i));
+            assertEquals(i, sa.getValue("Index", i), 0.0);
+            assertEquals(spec.getProperties().getNumericWithDefault(SpectrumProperties.LiveTime, -1.0),
+                  res.getProperties().getNumericWithDefault(SpectrumProperties.LiveTime, -1.0), 0.0);
+         }
+         assertTrue(sa.getColumnNames().contains(SpectrumArchive.signatureColumn(Element.Fe)));
+         // The TestData spectra have no signature
+         assertTrue(Double.isNaN(sa.getValue(SpectrumArchive.signatureColumn(Element.Fe), 0)));
+         final int[] at20 = sa.select(SpectrumArchive.BEAM_ENERGY, e0 -> e0 == 20.0);
+         final int[] rich = sa.select(at20, SpectrumArchive.signatureColumn(Element.Fe), fe -> fe > 0.22);
+         final int[] si = sa.select(rich, SpectrumArchive.signatureColumn(Element.Si), s -> s > 0.67);
+         // Particles 5 to 9 at 20 keV and Fe > 0.22, of which 5 and 6 have Si > 0.67
+         assertEquals(5, rich.length);
+         assertEquals(2, si.length);
+         final List<ISpectrumData> sel = sa.read(si);
+         assertEquals("Particle 5", sel.get(0).toString());
+         final StageCoordinate sc = (StageCoordinate) sel.get(1).getProperties().getObjectWithDefault(SpectrumProperties.StagePosition, null);
+         assertEquals(3.0, sc.get(Axis.X), 0.0);
+         assertEquals(-6.0, sa.getValue(SpectrumArchive.STAGE_Y, si[1]), 0.0);
+         final ParticleSignature ps = sel.get(1).getProperties().getParticleSignatureWithDefault(SpectrumProperties.ParticleSignature, null);
+         assertEquals(0.3, ps.get(Element.Fe), 1.0e-12);
+      }
+   }
+
+   public void testConvert() throws Exception {
+      final File rpl = File.createTempFile("archive", ".rpl");
+      final File raw = new File(rpl.getPath().replaceAll(".rpl$", ".raw"));
+      rpl.deleteOnExit();
+      raw.deleteOnExit();
+      final int width = 7, height = 5, depth = 64;
+      try (final RippleFile rf = new RippleFile(width, height, depth, RippleFile.UNSIGNED, 2, RippleFile.BIG_ENDIAN, rpl.getPath(), raw.getPath())) {
+         final int[] data = new int[depth];
+         for (int r = 0; r < height; ++r)
+            for (int c = 0; c < width; ++c) {
+               for (int i = 0; i < depth; ++i)
+                  data[i] = (r * 1000) + (c * 10) + i;
+               rf.seek(r, c);
+               rf.write(data);
+            }
+      }
+      final SpectrumProperties props = new SpectrumProperties();
+      props.setNumericProperty(SpectrumProperties.EnergyScale, 10.0);
+      props.setNumericProperty(SpectrumProperties.EnergyOffset, 0.0);
+      props.setNumericProperty(SpectrumProperties.BeamEnergy, 20.0);
+      final File f = tempFile();
+      try (final RippleFile rf = new RippleFile(rpl.getPath(), raw.getPath(), true)) {
+         assertEquals(width * height, SpectrumArchive.convert(rf, props, f));
+      }
+      try (final SpectrumArchive sa = new SpectrumArchive(f)) {
+         final int[] sel = sa.select(sa.select("Row", r -> r == 3.0), "Column", c -> c == 4.0);
+         assertEquals(1, sel.length);
+         final ISpectrumData spec = sa.read(sel[0]);
+         assertEquals(depth, spec.getChannelCount());
+         assertEquals(3042.0, spec.getCounts(2), 0.0);
+         assertEquals(10.0, spec.getChannelWidth(), 0.0);
+      }
+      final File g = tempFile();
+      final List<File> files = new ArrayList<>();
+      for (final String name : new String[]{"Al_ref1.msa", "Gold.tif", "gel01.spc"})
+         files.add(testData(name));
+      assertEquals(3, SpectrumArchive.convert(files, g));
+      // Unreadable files are reported
+      files.add(rpl);
+      final Map<File, EPQException> errors = new HashMap<>();
+      assertEquals(3, SpectrumArchive.convert(files, g, errors));
+      assertEquals(1, errors.size());
+      assertTrue(errors.containsKey(rpl));
+      try (final SpectrumArchive sa = new SpectrumArchive(g)) {
+         assertSameCounts(SpectrumFile.open(files.get(1))[0], sa.read(1));
+      }
+      try {
+         SpectrumArchive.convert(files, tempFile());
+         fail("The unreadable file was not reported.");
+      } catch (final IOException e) {
+         assertTrue(e.getMessage().contains(rpl.getName()));
+      }
+   }
+}
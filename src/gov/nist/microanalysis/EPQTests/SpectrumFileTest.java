@@ -0,0 +1,100 @@
+package gov.nist.microanalysis.EPQTests;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+
+import gov.nist.microanalysis.EPQLibrary.EPQException;
+import gov.nist.microanalysis.EPQLibrary.ISpectrumData;
+import gov.nist.microanalysis.EPQTools.ASPEXSpectrum;
+import gov.nist.microanalysis.EPQTools.EMSAFile;
+import gov.nist.microanalysis.EPQTools.SpectrumFile;
+
+import junit.framework.TestCase;
+
+/**
+ * <p>
+ * Tests format identification and batch import in SpectrumFile.
+ * </p>
+ * <p>
+ * Copyright: Pursuant to title 17 Section 105 of the United States Code this
+ * software is not subject to copyright protection and is in the public domain
+ * </p>
+ * <p>
+ * Institution: National Institute of Standards and Technology
+ * </p>
+ *
+ * @author Nicholas
+ * @version 1.0
+ */
+public class SpectrumFileTest extends TestCase {
+
+   private static File testData(String name) throws Exception {
+      return new File(SpectrumFileTest.class.getResource("TestData/" + name).toURI());
+   }
+
+   private static void assertSameCounts(ISpectrumData expected, ISpectrumData actual) {
+      assertEquals(expected.getChannelCount(), actual.getChannelCount());
+      for (int i = 0; i < expected.getChannelCount(); ++i)
+         assertEquals(expected.getCounts(i), actual.getCounts(i), 0.0);
+   }
+
+   public void testIdentify() throws Exception {
+      assertEquals("EMSA", SpectrumFile.identify(testData("Al_ref1.msa")).getName());
+      assertEquals("ASPEX TIFF", SpectrumFile.identify(testData("Gold.tif")).getName());
+      assertEquals("EDAX", SpectrumFile.identify(testData("Albite.spc")).getName());
+      // A misleading extension falls back to the other formats
+      final File renamed = File.createTempFile("emsa", ".spx");
+      renamed.deleteOnExit();
+      Files.copy(testData("Fe_ref1.msa").toPath(), renamed.toPath(), StandardCopyOption.REPLACE_EXISTING);
+      assertEquals("EMSA", SpectrumFile.identify(renamed).getName());
+      assertTrue(SpectrumFile.isInstanceOf(renamed));
+      final File junk = File.createTempFile("junk", ".msa");
+      junk.deleteOnExit();
+      assertNull(SpectrumFile.identify(junk));
+      assertFalse(SpectrumFile.isInstanceOf(new File(junk.getPath() + ".missing")));
+   }
+
+   public void testOpen() throws Exception {
+      final File msa = testData("K3189_1.msa");
+      final ISpectrumData[] specs = SpectrumFile.open(msa);
+      assertEquals(1, specs.length);
+      assertSameCounts(new EMSAFile(msa), specs[0]);
+      assertSameCounts(new EMSAFile(msa), SpectrumFile.open(msa, 0));
+      final File tif = testData("Silver.tif");
+      assertSameCounts(new ASPEXSpectrum(tif), SpectrumFile.open(tif)[0]);
+      try {
+         SpectrumFile.open(msa, 1);
+         fail();
+      } catch (final EPQException e) {
+         // Expected
+      }
+   }
+
+   public void testOpenAll() throws Exception {
+      final List<File> files = new ArrayList<>();
+      for (final String name : new String[]{"Al_ref1.msa", "Ca_ref1.msa", "Gold.tif", "Fe_ref1.msa", "gel01.spc", "Silver.tif"})
+         files.add(testData(name));
+      final File junk = File.createTempFile("junk", ".msa");
+      junk.deleteOnExit();
+      try (final FileOutputStream fos = new FileOutputStream(junk)) {
+         fos.write("Not a spectrum".getBytes());
+      }
+      files.add(2, junk);
+      final SpectrumFile.ImportResult res = SpectrumFile.openAll(files, 3);
+      assertEquals(files.size() - 1, res.getSpectraByFile().size());
+      assertEquals(1, res.getErrors().size());
+      assertTrue(res.getErrors().containsKey(junk));
+      final List<ISpectrumData> specs = res.getSpectra();
+      assertEquals(files.size() - 1, specs.size());
+      // Results are reported in the order specified
+      assertSameCounts(SpectrumFile.open(files.get(3))[0], specs.get(2));
+      assertEquals(3, res.getTiming().get("EMSA").count());
+      assertEquals(2, res.getTiming().get("ASPEX TIFF").count());
+      assertEquals(1, res.getTiming().get("EDAX").count());
+      assertEquals(1, res.getTiming().get("Unknown").count());
+   }
+}
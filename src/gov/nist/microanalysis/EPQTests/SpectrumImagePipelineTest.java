@@ -0,0 +1,196 @@
+package gov.nist.microanalysis.EPQTests;
+
+import java.io.File;
+import java.io.IOException;
+
+import gov.nist.microanalysis.EPQLibrary.Composition;
+import gov.nist.microanalysis.EPQLibrary.CompositionFromKRatios;
+import gov.nist.microanalysis.EPQLibrary.EPQException;
+import gov.nist.microanalysis.EPQLibrary.EPQFatalException;
+import gov.nist.microanalysis.EPQLibrary.Element;
+import gov.nist.microanalysis.EPQLibrary.FilterFit;
+import gov.nist.microanalysis.EPQLibrary.ISpectrumData;
+import gov.nist.microanalysis.EPQLibrary.KRatioSet;
+import gov.nist.microanalysis.EPQLibrary.LinearSpectrumFit;
+import gov.nist.microanalysis.EPQLibrary.MapImage;
+import gov.nist.microanalysis.EPQLibrary.MaterialFactory;
+import gov.nist.microanalysis.EPQLibrary.NoisySpectrum;
+import gov.nist.microanalysis.EPQLibrary.RegionOfInterestSet;
+import gov.nist.microanalysis.EPQLibrary.RegionOfInterestSet.RegionOfInterest;
+import gov.nist.microanalysis.EPQLibrary.SpectrumMath;
+import gov.nist.microanalysis.EPQLibrary.SpectrumProperties;
+import gov.nist.microanalysis.EPQLibrary.SpectrumUtils;
+import gov.nist.microanalysis.EPQLibrary.ToSI;
+import gov.nist.microanalysis.EPQLibrary.XRayTransitionSet;
+import gov.nist.microanalysis.EPQLibrary.Detector.EDSDetector;
+import gov.nist.microanalysis.EPQTools.ASPEXSpectrum;
+import gov.nist.microanalysis.EPQTools.RippleFile;
+import gov.nist.microanalysis.EPQTools.SpectrumImagePipeline;
+
+import junit.framework.TestCase;
+
+/**
+ * <p>
+ * Tests SpectrumImagePipeline by fitting and quantifying a small synthetic
+ * spectrum image of gold-silver mixtures.
+ * </p>
+ * <p>
+ * Copyright: Pursuant to title 17 Section 105 of the United States Code this
+ * software is not subject to copyright protection and is in the public domain
+ * </p>
+ * <p>
+ * Institution: National Institute of Standards and Technology
+ * </p>
+ *
+ * @author Nicholas
+ * @version 1.0
+ */
+public class SpectrumImagePipelineTest extends TestCase {
+
+   private static final int WIDTH = 6;
+   private static final int HEIGHT = 5;
+
+   private ISpectrumData mAuSpec;
+   private ISpectrumData mAgSpec;
+   private ISpectrumData[] mPixels;
+   private RippleFile mSource;
+   private EDSDetector mDetector;
+   private SpectrumProperties mProperties;
+
+   @Override
+   protected void setUp() throws Exception {
+      mAuSpec = new ASPEXSpectrum(new File(FilterFitTest.class.getResource("TestData/Gold.tif").toURI()));
+      mAuSpec.getProperties().setCompositionProperty(SpectrumProperties.StandardComposition, MaterialFactory.createPureElement(Element.Au));
+      mAgSpec = new ASPEXSpectrum(new File(FilterFitTest.class.getResource("TestData/Silver.tif").toURI()));
+      mAgSpec.getProperties().setCompositionProperty(SpectrumProperties.StandardComposition, MaterialFactory.createPureElement(Element.Ag));
+      mDetector = EDSDetector.createSiLiDetector(mAuSpec.getChannelCount(), mAuSpec.getChannelWidth(), SpectrumUtils.getFWHMAtMnKA(mAuSpec, 135.0));
+      // Properties shared by the pixel spectra
+      mProperties = new SpectrumProperties();
+      mProperties.addAll(mAuSpec.getProperties());
+      mProperties.setNumericProperty(SpectrumProperties.EnergyOffset, mAuSpec.getZeroOffset());
+      mProperties.setNumericProperty(SpectrumProperties.EnergyScale, mAuSpec.getChannelWidth());
+      final File rpl = File.createTempFile("pipeline", ".rpl");
+      final File raw = File.createTempFile("pipeline", ".raw");
+      rpl.deleteOnExit();
+      raw.deleteOnExit();
+      final int depth = mAuSpec.getChannelCount();
+      mPixels = new ISpectrumData[WIDTH * HEIGHT];
+      try (final RippleFile rf = new RippleFile(WIDTH, HEIGHT, depth, RippleFile.SIGNED, 4, RippleFile.LITTLE_ENDIAN, rpl.getPath(), raw.getPath())) {
+         final int[] data = new int[depth];
+         for (int r = 0; r < HEIGHT; ++r)
+            for (int c = 0; c < WIDTH; ++c) {
+               // Silver increases from left to right
+               final SpectrumMath mix = new SpectrumMath(mAuSpec);
+               mix.add(mAgSpec, 0.25 + (0.25 * c));
+               final ISpectrumData noisy = new NoisySpectrum(mix, 0.25, 100 * r + c);
+               for (int i = 0; i < depth; ++i)
+                  data[i] = (int) Math.round(noisy.getCounts(i));
+               rf.seek(r, c);
+               rf.write(data);
+               final ISpectrumData pixel = SpectrumUtils.toSpectrum(mAuSpec.getChannelWidth(), mAuSpec.getZeroOffset(), SpectrumUtils.toDoubleArray(noisy));
+               pixel.getProperties().addAll(mProperties);
+               mPixels[(r * WIDTH) + c] = pixel;
+            }
+      }
+      mSource = new RippleFile(rpl.getPath(), raw.getPath(), true);
+   }
+
+   @Override
+   protected void tearDown() throws IOException {
+      mSource.close();
+   }
+
+   private FilterFit buildFilterFit() {
+      try {
+         final FilterFit ff = new FilterFit(mDetector, ToSI.eV(SpectrumUtils.getBeamEnergy(mAuSpec)), false);
+         ff.addReference(Element.Au, mAuSpec);
+         ff.addReference(Element.Ag, mAgSpec);
+         return ff;
+      }
+      catch (final EPQException e) {
+         throw new EPQFatalException(e);
+      }
+   }
+
+   private SpectrumImagePipeline buildPipeline(XRayTransitionSet[] planes) {
+      final SpectrumImagePipeline sip = new SpectrumImagePipeline(mSource, mProperties, planes);
+      sip.setTileRows(2);
+      sip.setThreadCount(3);
+      sip.setMaxTilesInFlight(2);
+      sip.addStage(SpectrumImagePipeline.zeroPeakDiscriminator());
+      sip.addStage(sip.filterFit(this::buildFilterFit));
+      return sip;
+   }
+
+   private XRayTransitionSet[] planes(KRatioSet krs) {
+      return new XRayTransitionSet[]{krs.optimalDatum(Element.Au), krs.optimalDatum(Element.Ag)};
+   }
+
+   public void testKRatios() throws Exception {
+      final FilterFit ff = buildFilterFit();
+      final XRayTransitionSet[] planes = planes(ff.getKRatios(mPixels[0]));
+      final SpectrumImagePipeline sip = buildPipeline(planes);
+      final File rpl = File.createTempFile("kratios", ".rpl");
+      final File raw = File.createTempFile("kratios", ".raw");
+      rpl.deleteOnExit();
+      raw.deleteOnExit();
+      sip.run(rpl.getPath(), raw.getPath());
+      try (final RippleFile res = new RippleFile(rpl.getPath(), raw.getPath(), true)) {
+         assertEquals(WIDTH, res.getWidth());
+         assertEquals(HEIGHT, res.getHeight());
+         assertEquals(planes.length, res.getDepth());
+         final double[] kr = new double[planes.length];
+         for (int r = 0; r < HEIGHT; ++r)
+            for (int c = 0; c < WIDTH; ++c) {
+               final KRatioSet krs = ff.getKRatios(mPixels[(r * WIDTH) + c]);
+               res.readPixel(r, c, kr);
+               for (int i = 0; i < planes.length; ++i)
+                  assertEquals(krs.getKRatio(planes[i]), kr[i], 0.002 * krs.getKRatio(planes[i]));
+            }
+      }
+   }
+
+   public void testQuantify() throws Exception {
+      final XRayTransitionSet[] planes = planes(buildFilterFit().getKRatios(mPixels[0]));
+      final SpectrumImagePipeline sip = buildPipeline(planes);
+      final Composition au = MaterialFactory.createPureElement(Element.Au), ag = MaterialFactory.createPureElement(Element.Ag);
+      sip.addStage(sip.quantify(() -> {
+         final CompositionFromKRatios cfk = new CompositionFromKRatios();
+         cfk.addStandard(planes[0], au, mAuSpec.getProperties());
+         cfk.addStandard(planes[1], ag, mAgSpec.getProperties());
+         return cfk;
+      }, mProperties, true));
+      final RegionOfInterest[] roi = new RegionOfInterest[planes.length];
+      for (int i = 0; i < planes.length; ++i) {
+         final RegionOfInterestSet rois = LinearSpectrumFit.createEmptyROI(mDetector);
+         rois.add(planes[i]);
+         roi[i] = rois.iterator().next();
+      }
+      final MapImage mi = new MapImage(WIDTH, HEIGHT, roi, "Test", MapImage.DataType.COMPOSITION);
+      sip.run(SpectrumImagePipeline.mapImageSink(mi));
+      for (int r = 0; r < HEIGHT; ++r)
+         for (int c = 0; c < WIDTH; ++c) {
+            assertEquals(1.0, mi.get(c, r, 0) + mi.get(c, r, 1), 1.0e-6);
+            if (c > 0)
+               assertTrue(mi.get(c, r, 1) > mi.get(c - 1, r, 1));
+         }
+   }
+
+   public void testStageError() throws Exception {
+      final XRayTransitionSet[] planes = planes(buildFilterFit().getKRatios(mPixels[0]));
+      final SpectrumImagePipeline sip = buildPipeline(planes);
+      // An Error in a stage must not leave run(...) waiting for the tile
+      sip.addStage(tile -> {
+         if (tile.getRow() == 2)
+            throw new AssertionError("Stage failed");
+      });
+      try {
+         sip.run(tile -> {
+         });
+         fail("The stage error was not reported.");
+      }
+      catch (final AssertionError e) {
+         assertEquals("Stage failed", e.getMessage());
+      }
+   }
+}
@@ -1,6 +1,12 @@
 package gov.nist.microanalysis.EPQTests;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
 import java.text.DecimalFormat;
+import java.util.Arrays;
+import java.util.stream.IntStream;
 
 import gov.nist.microanalysis.Utility.MCUncertaintyEngine;
 import gov.nist.microanalysis.Utility.UncertainValue2;
@@ -215,6 +221,131 @@ public class UncertainValue2Test extends TestCase {
       assertEquals(UncertainValue2.atan2(b, a), UncertainValue2.atan(UncertainValue2.divide(b, a)), 1.0e-8);
    }
 
+   public void testFused() {
+      final UncertainValue2 a = new UncertainValue2(1.1, "A", 0.1);
+      final UncertainValue2 b = new UncertainValue2(2.3, "B", 0.2);
+      final UncertainValue2 c = new UncertainValue2(-3.6, "A", 0.15);
+      final UncertainValue2 fma = UncertainValue2.multiplyAdd(a, b, c);
+      final UncertainValue2 ref = UncertainValue2.add(UncertainValue2.multiply(a, b), c);
+      assertTrue(fma.equals(ref, 1.0e-12));
+      assertEquals(fma.getComponent("A"), ref.getComponent("A"), 1.0e-12);
+      final UncertainValue2 lc = UncertainValue2.linearCombination(new double[]{2.0, -1.0, 0.5}, new Number[]{a, b, c});
+      final UncertainValue2 ref2 = UncertainValue2.add(UncertainValue2.add(2.0, a, -1.0, b), UncertainValue2.multiply(0.5, c));
+      assertTrue(lc.equals(ref2, 1.0e-12));
+      assertEquals(lc.getComponents(), ref2.getComponents());
+      // Components which cancel are dropped
+      assertFalse(UncertainValue2.add(1.0, a, -1.0, a).isUncertain());
+   }
+
+   public void testComponents() throws Exception {
+      final UncertainValue2 d = new UncertainValue2(2.0, 0.5);
+      assertEquals(1, d.getComponentNames().size());
+      final String name = d.getComponentNames().iterator().next();
+      assertTrue(name.startsWith(UncertainValue2.DEFAULT));
+      assertEquals(0.5, d.getComponent(name), 0.0);
+      assertEquals(1.0, UncertainValue2.add(new UncertainValue2(1.0, name, 0.5), d).getComponent(name), 1.0e-12);
+      assertFalse(new UncertainValue2(3.0).isUncertain());
+      // Anonymous components created in parallel are distinct
+      final UncertainValue2[] anon = new UncertainValue2[1000];
+      IntStream.range(0, anon.length).parallel().forEach(i -> anon[i] = new UncertainValue2(1.0, 0.01));
+      final UncertainValue2 sum = UncertainValue2.add(anon);
+      assertEquals(anon.length, sum.getComponentNames().size());
+      assertEquals(0.01, sum.getComponent(anon[17].getComponentNames().iterator().next()), 1.0e-12);
+      final UncertainValue2 e = new UncertainValue2(1.0, "Z", 0.1);
+      e.assignComponent("M", 0.2);
+      e.assignComponent("Q", -0.3);
+      assertEquals("1.00±0.20(M)±0.30(Q)±0.10(Z)", e.formatLong(new DecimalFormat("0.00")));
+      e.assignComponent("M", 0.0);
+      assertFalse(e.hasComponent("M"));
+      e.renameComponent("Z", "Y");
+      assertEquals(0.1, e.getComponent("Y"), 0.0);
+      assertEquals(0.0, e.getComponent("Z"), 0.0);
+      assertEquals(0.0, e.getComponent("NotAComponent"), 0.0);
+      // Serialized form uses component names
+      final ByteArrayOutputStream bos = new ByteArrayOutputStream();
+      try (final ObjectOutputStream oos = new ObjectOutputStream(bos)) {
+         oos.writeObject(e);
+      }
+      try (final ObjectInputStream ois = new ObjectInputStream(new ByteArrayInputStream(bos.toByteArray()))) {
+         final UncertainValue2 e2 = (UncertainValue2) ois.readObject();
+         assertEquals(e, e2);
+         assertEquals(e.getComponents(), e2.getComponents());
+      }
+   }
+
+   /**
+    * Anonymous components read from another session must not collide with
+    * those allocated later in this one.
+    */
+   public void testForeignAnonymous() throws Exception {
+      final String local = new UncertainValue2(1.0, 0.1).getComponentNames().iterator().next();
+      final int n = Integer.parseInt(local.substring(UncertainValue2.DEFAULT.length())) + 1000;
+      // Write with a placeholder of the same length and patch the name in the
+      // stream so that "Default" + n is never created locally
+      final String placeholder = "Qefault" + n;
+      final ByteArrayOutputStream bos = new ByteArrayOutputStream();
+      try (final ObjectOutputStream oos = new ObjectOutputStream(bos)) {
+         oos.writeObject(new UncertainValue2(2.0, placeholder, 0.3));
+      }
+      final byte[] bytes = bos.toByteArray();
+      final byte[] from = placeholder.getBytes("UTF-8");
+      int pos = -1;
+      for (int i = 0; (pos < 0) && (i <= bytes.length - from.length); ++i)
+         if (Arrays.equals(bytes, i, i + from.length, from, 0, from.length))
+            pos = i;
+      assertTrue(pos >= 0);
+      bytes[pos] = (byte) 'D';
+      final UncertainValue2 foreign;
+      try (final ObjectInputStream ois = new ObjectInputStream(new ByteArrayInputStream(bytes))) {
+         foreign = (UncertainValue2) ois.readObject();
+      }
+      assertEquals(0.3, foreign.getComponent(UncertainValue2.DEFAULT + n), 0.0);
+      final UncertainValue2[] anon = new UncertainValue2[1001];
+      for (int i = 0; i < anon.length; ++i)
+         anon[i] = new UncertainValue2(1.0, 0.01);
+      final UncertainValue2 sum = UncertainValue2.add(anon);
+      assertFalse(sum.hasComponent(UncertainValue2.DEFAULT + n));
+      final UncertainValue2 all = UncertainValue2.add(foreign, sum);
+      assertEquals(anon.length + 1, all.getComponentNames().size());
+      assertEquals(Math.sqrt(0.09 + (anon.length * 1.0e-4)), all.uncertainty(), 1.0e-12);
+   }
+
+   public void testCorrelations() {
+      final UncertainValue2 v = new UncertainValue2(10.0);
+      final String[] names = new String[20];
+      for (int i = 0; i < names.length; ++i) {
+         names[i] = "Corr" + i;
+         v.assignComponent(names[i], 0.1 * (i + 1));
+      }
+      // An anonymous component
+      final UncertainValue2 d = new UncertainValue2(2.0, 0.5);
+      final String anon = d.getComponentNames().iterator().next();
+      final UncertainValue2 w = UncertainValue2.add(v, d);
+      final UncertainValue2.Correlations corr = new UncertainValue2.Correlations();
+      assertEquals(w.variance(), w.variance(corr), 1.0e-12);
+      corr.add(names[3], names[1], 0.5);
+      corr.add(names[1], names[3], 0.25);
+      corr.add(names[19], names[0], -0.75);
+      corr.add(names[7], names[7], 1.0);
+      corr.add(anon, names[5], 0.3);
+      corr.add("NotAComponent", names[2], 0.9);
+      assertEquals(5, corr.size());
+      assertEquals(0.25, corr.get(names[3], names[1]), 0.0);
+      assertEquals(0.25, corr.get(names[1], names[3]), 0.0);
+      assertEquals(0.0, corr.get(names[2], names[3]), 0.0);
+      assertEquals(0.0, corr.get("Unknown1", "Unknown2"), 0.0);
+      // Compare with the full pairwise sum
+      final String[] comps = w.getComponentNames().toArray(new String[0]);
+      double expected = 0.0;
+      for (int i = 0; i < comps.length; ++i) {
+         expected += Math.pow(w.getComponent(comps[i]), 2.0);
+         for (int j = i + 1; j < comps.length; ++j)
+            expected += 2.0 * w.getComponent(comps[i]) * w.getComponent(comps[j]) * corr.get(comps[i], comps[j]);
+      }
+      assertEquals(expected, w.variance(corr), 1.0e-12);
+      assertEquals(Math.sqrt(expected), w.uncertainty(corr), 1.0e-12);
+   }
+
    public void testAgainstMC() {
       final int iterations = 100000;
       // Addition
@@ -7,8 +7,8 @@ import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
-import java.io.Reader;
 import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
 import java.text.DateFormat;
 import java.text.NumberFormat;
 import java.text.ParseException;
@@ -95,12 +95,175 @@ public class EMSAFile extends BaseSpectrum {
 
    private double parseDouble(String value) throws ParseException {
       if (value.indexOf('+') != -1)
-         value = value.replaceAll("\\+", "");
+         value = value.replace("+", "");
       if (value.indexOf('e') != -1)
-         value = value.replaceAll("e", "E");
+         value = value.replace('e', 'E');
       return mDefaultFormat.parse(value).doubleValue();
    }
 
+   private static final double[] POW10 = {1.0e0, 1.0e1, 1.0e2, 1.0e3, 1.0e4, 1.0e5, 1.0e6, 1.0e7, 1.0e8, 1.0e9, 1.0e10, 1.0e11, 1.0e12,
+         1.0e13, 1.0e14, 1.0e15, 1.0e16, 1.0e17, 1.0e18, 1.0e19, 1.0e20, 1.0e21, 1.0e22};
+
+   private static final byte[] END_OF_DATA = "#ENDOFDATA".getBytes(StandardCharsets.US_ASCII);
+
+   private static boolean isDigit(byte b) {
+      return (b >= '0') && (b <= '9');
+   }
+
+   private static boolean isSpace(byte b) {
+      return (b & 0xFF) <= ' ';
+   }
+
+   private static boolean isEOL(byte b) {
+      return (b == '\n') || (b == '\r');
+   }
+
+   private static boolean startsWith(byte[] buf, int pos, byte[] prefix) {
+      if ((pos + prefix.length) > buf.length)
+         return false;
+      for (int i = 0; i < prefix.length; ++i)
+         if (buf[pos + i] != prefix[i])
+            return false;
+      return true;
+   }
+
+   /**
+    * Returns the offset of the first character of the line following the line
+    * containing <code>pos</code>. Lines may be terminated by "\n", "\r" or
+    * "\r\n".
+    */
+   private static int nextLine(byte[] buf, int pos) {
+      while ((pos < buf.length) && (!isEOL(buf[pos])))
+         ++pos;
+      if (pos < buf.length)
+         pos += ((buf[pos] == '\r') && ((pos + 1) < buf.length) && (buf[pos + 1] == '\n')) ? 2 : 1;
+      return pos;
+   }
+
+   /**
+    * Reads a line as readLine() would from a BufferedReader.
+    */
+   private static String readLine(byte[] buf, int pos) {
+      int end = pos;
+      while ((end < buf.length) && (!isEOL(buf[end])))
+         ++end;
+      return new String(buf, pos, end - pos, StandardCharsets.US_ASCII);
+   }
+
+   /**
+    * Returns the index of the first character at or after <code>i</code>
+    * which is not a '+'. parseDouble(...) ignores all '+' characters.
+    */
+   private static int skipPlus(byte[] buf, int i, int end) {
+      while ((i < end) && (buf[i] == '+'))
+         ++i;
+      return i;
+   }
+
+   /**
+    * Parses the number at the start of <code>buf[start, end)</code> in the
+    * same manner as parseDouble(...) without allocating a String except in
+    * unusual cases. Returns true and sets res[0] on success.
+    */
+   private static boolean parseNumber(byte[] buf, int start, int end, double[] res) {
+      int i = skipPlus(buf, start, end);
+      final boolean neg = (i < end) && (buf[i] == '-');
+      if (neg)
+         i = skipPlus(buf, i + 1, end);
+      if (((i + 3) <= end) && (buf[i] == 'N') && (buf[i + 1] == 'a') && (buf[i + 2] == 'N')) {
+         res[0] = Double.NaN;
+         return true;
+      }
+      final int numStart = i;
+      long mant = 0;
+      int digits = 0, exp10 = 0;
+      boolean any = false, exact = true;
+      for (; (i < end) && isDigit(buf[i]); i = skipPlus(buf, i + 1, end)) {
+         any = true;
+         if (digits < 18) {
+            mant = (10 * mant) + (buf[i] - '0');
+            if (mant != 0)
+               ++digits;
+         } else {
+            exact = false;
+            ++exp10;
+         }
+      }
+      if ((i < end) && (buf[i] == '.'))
+         for (i = skipPlus(buf, i + 1, end); (i < end) && isDigit(buf[i]); i = skipPlus(buf, i + 1, end)) {
+            any = true;
+            if (digits < 18) {
+               mant = (10 * mant) + (buf[i] - '0');
+               if (mant != 0)
+                  ++digits;
+               --exp10;
+            } else
+               exact = false;
+         }
+      if (!any)
+         return false;
+      if ((i < end) && ((buf[i] == 'e') || (buf[i] == 'E'))) {
+         int j = skipPlus(buf, i + 1, end);
+         final boolean eNeg = (j < end) && (buf[j] == '-');
+         if (eNeg)
+            j = skipPlus(buf, j + 1, end);
+         if ((j < end) && isDigit(buf[j])) {
+            int exp = 0;
+            for (; (j < end) && isDigit(buf[j]); j = skipPlus(buf, j + 1, end))
+               exp = Math.min((10 * exp) + (buf[j] - '0'), 10000);
+            exp10 += eNeg ? -exp : exp;
+            i = j;
+         }
+      }
+      double val;
+      if (exact && (digits <= 15) && (exp10 >= -22) && (exp10 <= 22))
+         // Both operands are exact so the result is correctly rounded
+         val = exp10 >= 0 ? mant * POW10[exp10] : mant / POW10[-exp10];
+      else {
+         final StringBuilder sb = new StringBuilder(i - numStart);
+         for (int k = numStart; k < i; ++k)
+            if (buf[k] != '+')
+               sb.append((char) buf[k]);
+         val = Double.parseDouble(sb.toString());
+      }
+      res[0] = neg ? -val : val;
+      return true;
+   }
+
+   /**
+    * Reads the comma separated channel data starting at <code>pos</code> into
+    * mChannels. Mirrors the historical behavior - an empty item ends the line,
+    * unparsable items are skipped and reading stops at #ENDOFDATA.
+    *
+    * @return The number of channels read
+    */
+   private int readData(byte[] buf, int pos, double scale) {
+      final double[] val = new double[1];
+      final int end = buf.length;
+      int dataCounter = 0, xyCounter = 0;
+      while ((pos < end) && (dataCounter < mChannels.length)) {
+         int itemEnd = pos;
+         while ((itemEnd < end) && (buf[itemEnd] != ',') && (!isEOL(buf[itemEnd])))
+            ++itemEnd;
+         int st = pos, en = itemEnd;
+         while ((st < en) && isSpace(buf[st]))
+            ++st;
+         while ((en > st) && isSpace(buf[en - 1]))
+            --en;
+         if (st == en) {
+            pos = nextLine(buf, itemEnd);
+            if ((pos >= end) || startsWith(buf, pos, END_OF_DATA))
+               break;
+            continue;
+         }
+         if (((!mIsXY) || ((xyCounter % 2) == 1)) && parseNumber(buf, st, en, val))
+            mChannels[dataCounter++] = scale * val[0];
+         ++xyCounter;
+         pos = (itemEnd < end) && (buf[itemEnd] == ',') ? itemEnd + 1 : itemEnd;
+      }
+      return dataCounter;
+   }
+
    private void reset() {
       mProperties.clear();
       setEnergyScale(0.0, 10.0);
@@ -116,70 +279,52 @@ public class EMSAFile extends BaseSpectrum {
 
    /**
     * read - reads the parsed file in EMSA format and converts it into the
-    * intermediate format, ISpectrumData. @param is FileReader - the EMSA
-    * file @throws IOException throws an IOException if there is an error
-    * reading the file
+    * intermediate format, ISpectrumData. The stream is read into memory and
+    * the channel data is scanned directly from the bytes. @param is
+    * InputStream - the EMSA file (closed on return) @throws IOException throws
+    * an IOException if there is an error reading the file
     */
    public void read(InputStream is) throws IOException {
       reset();
-      try (final Reader rd = new InputStreamReader(is, Charset.forName("US-ASCII"))) {
-         try (final BufferedReader br = new BufferedReader(rd)) {
-            // Number always use '.' as decimal separator
-            mDefaultFormat = NumberFormat.getInstance(Locale.US);
-            String Prefix, Data;
-            String line = br.readLine().trim();
-            // It seems that DTSA expects a blank line up front!?! and LISPIX
-            // obliges
-            if (line.length() == 0)
-               line = br.readLine().trim();
-            mStagePosition = new StageCoordinate();
-            do {
-               final int p = line.indexOf(':');
-               Prefix = p != -1 ? line.substring(0, p) : "";
-               Data = line.substring(p + 1);
-               line = br.readLine().trim();
-            } while (storeData(Prefix, Data));
-            if (mStagePosition.size() > 0)
-               mProperties.setObjectProperty(SpectrumProperties.StagePosition, mStagePosition);
-            mStagePosition = null;
-            final double scale = mIsCPS ? mProperties.getNumericWithDefault(SpectrumProperties.LiveTime, 1.0) : 1.0;
-            // Cases: nextDatum then "," or nextDatum then EOL or EOL
-            if (!line.startsWith("#ENDOFDATA")) {
-               int start = 0, dataCounter = 0;
-               int xyCounter = 0;
-               while (br.ready() && (dataCounter < mChannels.length)) {
-                  String item;
-                  final int end = line.indexOf(',', start);
-                  if (end == -1) { // no ","
-                     item = line.substring(start).trim();
-                     start = line.length();
-                  } else {
-                     item = line.substring(start, end).trim();
-                     start = end + 1;
-                  }
-                  if (item.length() == 0) {
-                     line = br.readLine();
-                     start = 0;
-                     if ((line == null) || line.startsWith("#ENDOFDATA"))
-                        break;
-                     continue;
-                  }
-                  if ((!mIsXY) || ((xyCounter % 2) == 1))
-                     try {
-                        mChannels[dataCounter] = scale * parseDouble(item);
-                        dataCounter++;
-                     } catch (final ParseException pe) {
-                        // just ignore it...
-                     }
-                  ++xyCounter;
-               }
-               if (dataCounter != mChannels.length)
-                  System.err.println("The number of data points was fewer than the reported number of channels.");
-            }
-            setEnergyScale(getZeroOffset() * mBaseXUnit, getChannelWidth() * mBaseXUnit);
-            mDefaultFormat = null;
-         }
+      final byte[] buf;
+      try {
+         buf = is.readAllBytes();
+      } finally {
+         is.close();
+      }
+      // Number always use '.' as decimal separator
+      mDefaultFormat = NumberFormat.getInstance(Locale.US);
+      String Prefix, Data;
+      int pos = 0;
+      String line = readLine(buf, pos).trim();
+      // It seems that DTSA expects a blank line up front!?! and LISPIX
+      // obliges
+      if (line.length() == 0) {
+         pos = nextLine(buf, pos);
+         line = readLine(buf, pos).trim();
       }
+      mStagePosition = new StageCoordinate();
+      do {
+         if (pos >= buf.length)
+            throw new IOException("Unexpected end of EMSA file.");
+         final int p = line.indexOf(':');
+         Prefix = p != -1 ? line.substring(0, p) : "";
+         Data = line.substring(p + 1);
+         pos = nextLine(buf, pos);
+         line = readLine(buf, pos).trim();
+      } while (storeData(Prefix, Data));
+      if (mStagePosition.size() > 0)
+         mProperties.setObjectProperty(SpectrumProperties.StagePosition, mStagePosition);
+      mStagePosition = null;
+      final double scale = mIsCPS ? mProperties.getNumericWithDefault(SpectrumProperties.LiveTime, 1.0) : 1.0;
+      if (!line.startsWith("#ENDOFDATA")) {
+         if (mChannels == null)
+            throw new IOException("The EMSA file does not specify #NPOINTS.");
+         if (readData(buf, pos, scale) != mChannels.length)
+            System.err.println("The number of data points was fewer than the reported number of channels.");
+      }
+      setEnergyScale(getZeroOffset() * mBaseXUnit, getChannelWidth() * mBaseXUnit);
+      mDefaultFormat = null;
    }
 
    // str="hh:mm" or "hh:mm:ss"
@@ -205,6 +350,7 @@ public class EMSAFile extends BaseSpectrum {
       } catch (final Exception e) {
       }
       c.set(year, month, day, hour, min, sec);
+      c.set(Calendar.MILLISECOND, 0);
       return c.getTime();
    }
 
@@ -251,6 +397,7 @@ public class EMSAFile extends BaseSpectrum {
          }
       }
       c.set(year, month, day, hour, min, sec);
+      c.set(Calendar.MILLISECOND, 0);
       return c.getTime();
    }
 
@@ -554,22 +701,41 @@ public class EMSAFile extends BaseSpectrum {
    public EMSAFile(File file, boolean withImgs) throws IOException {
       this();
       try (final InputStream is = new FileInputStream(file)) {
-         read(is);
-         setFilename(file.getCanonicalPath());
-         if (withImgs) {
-            try {
-               final String imgRef = getProperties().getTextWithDefault(SpectrumProperties.ImageRef, null);
-               if (imgRef != null) {
-                  final File fn = new File(file.getParentFile(), imgRef);
-                  final BufferedImage[] sis = ASPEXImage.read(fn);
-                  if (sis.length > 0)
-                     getProperties().setObjectProperty(SpectrumProperties.MicroImage, sis[0]);
-                  if (sis.length > 1)
-                     getProperties().setObjectProperty(SpectrumProperties.MicroImage2, sis[1]);
-               }
-            } catch (Exception e) {
-               e.printStackTrace();
+         read(is, file, withImgs);
+      }
+   }
+
+   /**
+    * Reads an EMSAFile from the specified stream containing the contents of
+    * <code>file</code>. The file is used to name the spectrum and to locate
+    * any referenced images.
+    *
+    * @param is
+    * @param file
+    * @param withImgs
+    * @throws IOException
+    */
+   public EMSAFile(InputStream is, File file, boolean withImgs) throws IOException {
+      this();
+      read(is, file, withImgs);
+   }
+
+   private void read(InputStream is, File file, boolean withImgs) throws IOException {
+      read(is);
+      setFilename(file.getCanonicalPath());
+      if (withImgs) {
+         try {
+            final String imgRef = getProperties().getTextWithDefault(SpectrumProperties.ImageRef, null);
+            if (imgRef != null) {
+               final File fn = new File(file.getParentFile(), imgRef);
+               final BufferedImage[] sis = ASPEXImage.read(fn);
+               if (sis.length > 0)
+                  getProperties().setObjectProperty(SpectrumProperties.MicroImage, sis[0]);
+               if (sis.length > 1)
+                  getProperties().setObjectProperty(SpectrumProperties.MicroImage2, sis[1]);
             }
+         } catch (Exception e) {
+            e.printStackTrace();
          }
       }
    }
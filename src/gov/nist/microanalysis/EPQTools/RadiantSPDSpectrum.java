@@ -37,7 +37,7 @@ public class RadiantSPDSpectrum extends BaseSpectrum {
       try {
          if (is instanceof FileInputStream) {
             final FileInputStream fis = (FileInputStream) is;
-            return fis.getChannel().size() == (is.read() + 1 + SKIP_LEN + (4 * 2048));
+            return isInstanceOf(is.read(), fis.getChannel().size());
          }
          return false;
       } catch (final IOException e) {
@@ -45,6 +45,18 @@ public class RadiantSPDSpectrum extends BaseSpectrum {
       }
    }
 
+   /**
+    * Is a file of the specified length with the specified first byte a Radiant
+    * spectrum file?
+    *
+    * @param firstByte The first byte in the file in [0,255]
+    * @param length The file length in bytes
+    * @return boolean
+    */
+   static boolean isInstanceOf(int firstByte, long length) {
+      return length == (firstByte + 1 + SKIP_LEN + (4 * 2048));
+   }
+
    private int toInt(byte[] bi) {
       return ((bi[3] & 0xFF) << 24) + ((bi[2] & 0xFF) << 16) + ((bi[1] & 0xFF) << 8) + (bi[0] & 0xFF);
    }
@@ -4,8 +4,16 @@
  * file is a three-dimensional cube of data consisting of rows x cols x nItems.
  * The items may be 1,2,4 byte signed, 1,2,4 byte unsigned or 4,8 byte floats.
  * The image is written either little-endian or big-endian. This class only
- * handles "vector" type Ripple files (not "image"). The Ripple file is never
- * read into memory by this class. Rather items are read as requested.
+ * handles "vector" type Ripple files (not "image") through the stream-like
+ * seek/read/write methods. The Ripple file is never read into memory by this
+ * class. Rather items are read as requested.
+ * </p>
+ * <p>
+ * The bulk read methods (readPixel, readPlane, readSlice and get) read both
+ * "vector" and "image" ordered files through read-only memory mapped segments
+ * of the raw file so that files larger than 2 GB may be accessed. They decode
+ * whole pixel vectors, image planes or energy slices directly into
+ * caller-provided arrays and are much faster than the item-by-item methods.
  * </p>
  * <p>
  * Reads and writes will convert integers into floats under the assumption that
@@ -34,6 +42,12 @@ import java.io.FileOutputStream;
 import java.io.FileReader;
 import java.io.IOException;
 import java.io.PrintWriter;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
 
 import javax.imageio.ImageIO;
 
@@ -60,6 +74,7 @@ public class RippleFile implements AutoCloseable {
    private long mOffset;
    private String mDataType;
    private String mOrder;
+   private String mRecordBy = VECTOR_ORDER;
    private final String mRplFilename;
    private String mRawFilename;
 
@@ -68,6 +83,34 @@ public class RippleFile implements AutoCloseable {
    transient long mCurCol;
    transient long mCurDepth;
 
+   /*
+    * The raw data is mapped in segments of 2^mSegmentShift bytes. Since the
+    * segment size is a multiple of 8 bytes no datum straddles two segments.
+    */
+   private static final int DEFAULT_SEGMENT_SHIFT = 30;
+   private static final int T_S8 = 0, T_U8 = 1, T_S16 = 2, T_U16 = 3, T_S32 = 4, T_U32 = 5, T_F32 = 6, T_F64 = 7;
+
+   /**
+    * The mapped segments together with the shift and the data type used to
+    * decode them. Published as a unit through the volatile field mMapping so
+    * that the bulk read methods may be called from several threads.
+    */
+   private static final class Mapping {
+      private final ByteBuffer[] mSegments;
+      private final int mShift;
+      private final int mType;
+
+      private Mapping(ByteBuffer[] segments, int shift, int type) {
+         mSegments = segments;
+         mShift = shift;
+         mType = type;
+      }
+   }
+
+   transient private FileChannel mChannel;
+   transient private volatile Mapping mMapping;
+   transient private int mSegmentShift = DEFAULT_SEGMENT_SHIFT;
+
    private void incrementPos(int elements) {
       mCurDepth += elements;
       if (mCurDepth >= mDepth) {
@@ -258,9 +301,14 @@ public class RippleFile implements AutoCloseable {
                         mOrder = DONT_CARE_ENDIAN;
                      else
                         throw new Exception("Unexpected ordering (" + value + ") in data-type key.");
-                  } else if (key.compareToIgnoreCase("record-by") == 0)
-                     if ((value.compareToIgnoreCase("vector") != 0) && (value.compareToIgnoreCase("dont-care") != 0))
-                        throw new Exception("The 'image' 'recorded-by' method is not currently supported.");
+                  } else if (key.compareToIgnoreCase("record-by") == 0) {
+                     if (value.compareToIgnoreCase("image") == 0)
+                        mRecordBy = IMAGE_ORDER;
+                     else if ((value.compareToIgnoreCase("vector") == 0) || (value.compareToIgnoreCase("dont-care") == 0))
+                        mRecordBy = VECTOR_ORDER;
+                     else
+                        throw new Exception("Unexpected ordering (" + value + ") in record-by key.");
+                  }
                }
             } while (str != null);
             if (mWidth < 0)
@@ -300,6 +348,13 @@ public class RippleFile implements AutoCloseable {
    public void close() throws IOException {
       mRawStream.close();
       mRawStream = null;
+      synchronized (this) {
+         if (mChannel != null) {
+            mChannel.close();
+            mChannel = null;
+            mMapping = null;
+         }
+      }
    }
 
    /**
@@ -324,6 +379,8 @@ public class RippleFile implements AutoCloseable {
     * @throws IOException
     */
    public void seek(long row, long col, long item) throws IOException {
+      if (mRecordBy != VECTOR_ORDER)
+         throw new IOException("Image-ordered Ripple files only support the bulk read methods.");
       assert row >= 0;
       assert row < mHeight;
       assert col >= 0;
@@ -384,7 +441,9 @@ public class RippleFile implements AutoCloseable {
                assert (false);
          }
          incrementPos(1);
-      } else
+      } else if (mDataType == UNSIGNED)
+         res = readUnsigned();
+      else
          res = readInt();
       return res;
    }
@@ -687,6 +746,383 @@ public class RippleFile implements AutoCloseable {
       return mOffset;
    }
 
+   /**
+    * getRecordBy - Returns the order in which the data is stored in the raw
+    * file.
+    * 
+    * @return RippleFile.VECTOR_ORDER or RippleFile.IMAGE_ORDER
+    */
+   public String getRecordBy() {
+      return mRecordBy;
+   }
+
+   /**
+    * Sets the size of the memory mapped segments used by the bulk read methods
+    * to 2^shift bytes. The default is 1 GB. Mainly useful for testing.
+    * 
+    * @param shift
+    *           Between 3 and 30
+    */
+   public synchronized void setSegmentShift(int shift) {
+      assert (shift >= 3) && (shift <= 30);
+      mSegmentShift = Math.max(3, Math.min(30, shift));
+      mMapping = null;
+   }
+
+   private Mapping mapFile() throws IOException {
+      if (mChannel == null)
+         mChannel = FileChannel.open(Paths.get(mRawFilename), StandardOpenOption.READ);
+      final long dataLen = mByteDepth * mWidth * mHeight * mDepth;
+      if (mChannel.size() < (mOffset + dataLen))
+         throw new IOException("The raw file " + mRawFilename + " is shorter than expected from the header.");
+      final long segSize = 1L << mSegmentShift;
+      final ByteOrder bo = mOrder == LITTLE_ENDIAN ? ByteOrder.LITTLE_ENDIAN : ByteOrder.BIG_ENDIAN;
+      final ByteBuffer[] segs = new ByteBuffer[(int) ((dataLen + segSize - 1) >> mSegmentShift)];
+      for (int i = 0; i < segs.length; ++i) {
+         final long start = i * segSize;
+         segs[i] = mChannel.map(FileChannel.MapMode.READ_ONLY, mOffset + start, Math.min(segSize, dataLen - start)).order(bo);
+      }
+      final boolean unsigned = mDataType == UNSIGNED;
+      final int type;
+      switch ((int) mByteDepth) {
+         case 1 :
+            type = unsigned ? T_U8 : T_S8;
+            break;
+         case 2 :
+            type = unsigned ? T_U16 : T_S16;
+            break;
+         case 4 :
+            type = mDataType == FLOAT ? T_F32 : (unsigned ? T_U32 : T_S32);
+            break;
+         default :
+            type = T_F64;
+      }
+      return new Mapping(segs, mSegmentShift, type);
+   }
+
+   /**
+    * Maps the file on first use. Only one thread maps the file and every
+    * thread sees the segments, shift and data type together.
+    */
+   private Mapping mapping() throws IOException {
+      Mapping res = mMapping;
+      if (res == null)
+         synchronized (this) {
+            res = mMapping;
+            if (res == null) {
+               res = mapFile();
+               mMapping = res;
+            }
+         }
+      return res;
+   }
+
+   /**
+    * Index of the datum at [row, col, item] in units of data items from the
+    * start of the data.
+    */
+   private long index(long row, long col, long item) {
+      return mRecordBy == VECTOR_ORDER ? (((row * mWidth) + col) * mDepth) + item : (((item * mHeight) + row) * mWidth) + col;
+   }
+
+   /**
+    * Distance between adjacent items at the same pixel in units of data items.
+    */
+   private long itemStride() {
+      return mRecordBy == VECTOR_ORDER ? 1 : mWidth * mHeight;
+   }
+
+   /**
+    * Distance between adjacent columns in the same row in units of data items.
+    */
+   private long pixelStride() {
+      return mRecordBy == VECTOR_ORDER ? mDepth : 1;
+   }
+
+   private double value(Mapping map, long idx) {
+      final long off = idx * mByteDepth;
+      final ByteBuffer bb = map.mSegments[(int) (off >>> map.mShift)];
+      final int pos = (int) (off & ((1L << map.mShift) - 1));
+      switch (map.mType) {
+         case T_S8 :
+            return bb.get(pos);
+         case T_U8 :
+            return bb.get(pos) & 0xFF;
+         case T_S16 :
+            return bb.getShort(pos);
+         case T_U16 :
+            return bb.getShort(pos) & 0xFFFF;
+         case T_S32 :
+            return bb.getInt(pos);
+         case T_U32 :
+            return bb.getInt(pos) & 0xFFFFFFFFL;
+         case T_F32 :
+            return bb.getFloat(pos);
+         default :
+            return bb.getDouble(pos);
+      }
+   }
+
+   private int intValue(Mapping map, long idx) {
+      final long off = idx * mByteDepth;
+      final ByteBuffer bb = map.mSegments[(int) (off >>> map.mShift)];
+      final int pos = (int) (off & ((1L << map.mShift) - 1));
+      switch (map.mType) {
+         case T_S8 :
+            return bb.get(pos);
+         case T_U8 :
+            return bb.get(pos) & 0xFF;
+         case T_S16 :
+            return bb.getShort(pos);
+         case T_U16 :
+            return bb.getShort(pos) & 0xFFFF;
+         default :
+            return bb.getInt(pos);
+      }
+   }
+
+   private void checkIntegral() throws IOException {
+      if (mDataType == FLOAT)
+         throw new IOException("ERROR: Attempting to read floats as integers.");
+   }
+
+   private void checkBounds(long row, long col, long item) {
+      if ((row < 0) || (row >= mHeight) || (col < 0) || (col >= mWidth) || (item < 0) || (item >= mDepth))
+         throw new IndexOutOfBoundsException("[" + row + ", " + col + ", " + item + "] is outside the Ripple file.");
+   }
+
+   /**
+    * Returns the single datum at [row, col, item] using the memory mapped
+    * file. Does not alter the current read/write position.
+    * 
+    * @param row
+    * @param col
+    * @param item
+    * @return double
+    * @throws IOException
+    */
+   public double get(int row, int col, int item) throws IOException {
+      checkBounds(row, col, item);
+      return value(mapping(), index(row, col, item));
+   }
+
+   /**
+    * Reads the full vector of getDepth() items at [row, col] into
+    * dest[0..getDepth()). Does not alter the current read/write position.
+    * 
+    * @param row
+    * @param col
+    * @param dest
+    * @throws IOException
+    */
+   public void readPixel(int row, int col, double[] dest) throws IOException {
+      checkBounds(row, col, 0);
+      final Mapping map = mapping();
+      final long stride = itemStride();
+      long idx = index(row, col, 0);
+      for (int i = 0; i < mDepth; ++i, idx += stride)
+         dest[i] = value(map, idx);
+   }
+
+   /**
+    * Reads the full vector of getDepth() items at [row, col] into
+    * dest[0..getDepth()). Does not alter the current read/write position.
+    * 
+    * @param row
+    * @param col
+    * @param dest
+    * @throws IOException
+    */
+   public void readPixel(int row, int col, float[] dest) throws IOException {
+      checkBounds(row, col, 0);
+      final Mapping map = mapping();
+      final long stride = itemStride();
+      long idx = index(row, col, 0);
+      for (int i = 0; i < mDepth; ++i, idx += stride)
+         dest[i] = (float) value(map, idx);
+   }
+
+   /**
+    * Reads the full vector of getDepth() items at [row, col] into
+    * dest[0..getDepth()). Only available for integer data. Unsigned 4-byte
+    * values larger than Integer.MAX_VALUE wrap around. Does not alter the
+    * current read/write position.
+    * 
+    * @param row
+    * @param col
+    * @param dest
+    * @throws IOException
+    */
+   public void readPixel(int row, int col, int[] dest) throws IOException {
+      checkIntegral();
+      checkBounds(row, col, 0);
+      final Mapping map = mapping();
+      final long stride = itemStride();
+      long idx = index(row, col, 0);
+      for (int i = 0; i < mDepth; ++i, idx += stride)
+         dest[i] = intValue(map, idx);
+   }
+
+   /**
+    * Reads the image plane associated with the specified item into dest in
+    * row-major order (dest[row*getWidth()+col]).
+    * 
+    * @param item
+    * @param dest
+    *           An array of at least getWidth()*getHeight() elements
+    * @throws IOException
+    */
+   public void readPlane(int item, double[] dest) throws IOException {
+      checkBounds(0, 0, item);
+      final Mapping map = mapping();
+      final long stride = pixelStride();
+      int j = 0;
+      for (int row = 0; row < mHeight; ++row) {
+         long idx = index(row, 0, item);
+         for (int col = 0; col < mWidth; ++col, idx += stride, ++j)
+            dest[j] = value(map, idx);
+      }
+   }
+
+   /**
+    * Reads the image plane associated with the specified item into dest in
+    * row-major order (dest[row*getWidth()+col]).
+    * 
+    * @param item
+    * @param dest
+    *           An array of at least getWidth()*getHeight() elements
+    * @throws IOException
+    */
+   public void readPlane(int item, float[] dest) throws IOException {
+      checkBounds(0, 0, item);
+      final Mapping map = mapping();
+      final long stride = pixelStride();
+      int j = 0;
+      for (int row = 0; row < mHeight; ++row) {
+         long idx = index(row, 0, item);
+         for (int col = 0; col < mWidth; ++col, idx += stride, ++j)
+            dest[j] = (float) value(map, idx);
+      }
+   }
+
+   /**
+    * Reads the image plane associated with the specified item into dest in
+    * row-major order (dest[row*getWidth()+col]). Only available for integer
+    * data.
+    * 
+    * @param item
+    * @param dest
+    *           An array of at least getWidth()*getHeight() elements
+    * @throws IOException
+    */
+   public void readPlane(int item, int[] dest) throws IOException {
+      checkIntegral();
+      checkBounds(0, 0, item);
+      final Mapping map = mapping();
+      final long stride = pixelStride();
+      int j = 0;
+      for (int row = 0; row < mHeight; ++row) {
+         long idx = index(row, 0, item);
+         for (int col = 0; col < mWidth; ++col, idx += stride, ++j)
+            dest[j] = intValue(map, idx);
+      }
+   }
+
+   /**
+    * Sums the items in the range [begin, end) at each pixel into dest in
+    * row-major order (dest[row*getWidth()+col]). This is an energy slice (an
+    * ROI image) when the items are spectrum channels.
+    * 
+    * @param begin
+    *           Inclusive
+    * @param end
+    *           Exclusive
+    * @param dest
+    *           An array of at least getWidth()*getHeight() elements
+    * @throws IOException
+    */
+   public void readSlice(int begin, int end, double[] dest) throws IOException {
+      checkBounds(0, 0, begin);
+      checkBounds(0, 0, end - 1);
+      final Mapping map = mapping();
+      final int nPix = (int) (mWidth * mHeight);
+      if (mRecordBy == VECTOR_ORDER) {
+         // Walk the file in order...
+         for (int j = 0; j < nPix; ++j) {
+            final long idx = (j * mDepth) + begin;
+            double sum = 0.0;
+            for (int i = 0; i < end - begin; ++i)
+               sum += value(map, idx + i);
+            dest[j] = sum;
+         }
+      } else {
+         // ... one plane at a time
+         Arrays.fill(dest, 0, nPix, 0.0);
+         for (int item = begin; item < end; ++item) {
+            final long idx = (long) item * nPix;
+            for (int j = 0; j < nPix; ++j)
+               dest[j] += value(map, idx + j);
+         }
+      }
+   }
+
+   /**
+    * Sums the items in the range [begin, end) at each pixel into dest in
+    * row-major order (dest[row*getWidth()+col]). This is an energy slice (an
+    * ROI image) when the items are spectrum channels.
+    * 
+    * @param begin
+    *           Inclusive
+    * @param end
+    *           Exclusive
+    * @param dest
+    *           An array of at least getWidth()*getHeight() elements
+    * @throws IOException
+    */
+   public void readSlice(int begin, int end, float[] dest) throws IOException {
+      final double[] tmp = new double[(int) (mWidth * mHeight)];
+      readSlice(begin, end, tmp);
+      for (int j = 0; j < tmp.length; ++j)
+         dest[j] = (float) tmp[j];
+   }
+
+   /**
+    * Sums the items in the range [begin, end) at each pixel into dest in
+    * row-major order (dest[row*getWidth()+col]). Only available for integer
+    * data.
+    * 
+    * @param begin
+    *           Inclusive
+    * @param end
+    *           Exclusive
+    * @param dest
+    *           An array of at least getWidth()*getHeight() elements
+    * @throws IOException
+    */
+   public void readSlice(int begin, int end, int[] dest) throws IOException {
+      checkIntegral();
+      checkBounds(0, 0, begin);
+      checkBounds(0, 0, end - 1);
+      final Mapping map = mapping();
+      final int nPix = (int) (mWidth * mHeight);
+      if (mRecordBy == VECTOR_ORDER)
+         for (int j = 0; j < nPix; ++j) {
+            final long idx = (j * mDepth) + begin;
+            int sum = 0;
+            for (int i = 0; i < end - begin; ++i)
+               sum += intValue(map, idx + i);
+            dest[j] = sum;
+         }
+      else {
+         Arrays.fill(dest, 0, nPix, 0);
+         for (int item = begin; item < end; ++item) {
+            final long idx = (long) item * nPix;
+            for (int j = 0; j < nPix; ++j)
+               dest[j] += intValue(map, idx + j);
+         }
+      }
+   }
+
    private static IndexColorModel createColorModel() {
       final byte[] r = new byte[256];
       final byte[] g = new byte[256];
@@ -701,16 +1137,12 @@ public class RippleFile implements AutoCloseable {
 
    public void layersToTIFF(String fn, long begin, long end, boolean fixZero) throws IOException {
       final double[][] layer = new double[getWidth()][getHeight()];
+      final double[] slice = new double[getWidth() * getHeight()];
+      readSlice((int) begin, (int) end, slice);
       double min = Double.MAX_VALUE, max = -Double.MAX_VALUE;
       for (int x = 0; x < getWidth(); ++x)
          for (int y = 0; y < getHeight(); ++y) {
-            double val = 0.0;
-            try {
-               seek(y, x, begin);
-               val = Math2.sum(readDouble((int) (end - begin)));
-            } catch (final Exception e) {
-               val = 0.0;
-            }
+            final double val = slice[(y * getWidth()) + x];
             if (val < min)
                min = val;
             if (val > max)
@@ -10,6 +10,8 @@ import java.io.IOException;
 
 import gov.nist.microanalysis.EPQLibrary.BaseSpectrum;
 import gov.nist.microanalysis.EPQLibrary.EPQException;
+import gov.nist.microanalysis.EPQLibrary.EPQFatalException;
+import gov.nist.microanalysis.EPQLibrary.ISpectrumData;
 import gov.nist.microanalysis.EPQLibrary.MapImage;
 import gov.nist.microanalysis.EPQLibrary.RegionOfInterestSet.RegionOfInterest;
 import gov.nist.microanalysis.EPQLibrary.SpectrumProperties;
@@ -147,11 +149,16 @@ public class RippleSpectrum extends BaseSpectrum {
       mData = new double[mDepth];
       final int maxRow = Math.min(mRow + mRowSpan, getRows());
       final int maxCol = Math.min(mCol + mColSpan, getColumns());
-      for (int r = mRow; r < maxRow; ++r)
-         for (int c = mCol; c < maxCol; ++c) {
-            mRipple.seek(r, c);
-            Math2.plusEquals(mData, mRipple.readDouble(mData.length));
-         }
+      if ((maxRow - mRow == 1) && (maxCol - mCol == 1))
+         mRipple.readPixel(mRow, mCol, mData);
+      else {
+         final double[] tmp = new double[mDepth];
+         for (int r = mRow; r < maxRow; ++r)
+            for (int c = mCol; c < maxCol; ++c) {
+               mRipple.readPixel(r, c, tmp);
+               Math2.plusEquals(mData, tmp);
+            }
+      }
       mProperties.setTextProperty(SpectrumProperties.SampleId, toString() + "[[" + Integer.toString(mRow) + ", " + Integer.toString(maxRow) + "),["
             + Integer.toString(mCol) + ", " + Integer.toString(maxCol) + ")]");
       if (!Double.isNaN(mBaseLiveTime))
@@ -207,6 +214,75 @@ public class RippleSpectrum extends BaseSpectrum {
       mBrukerOffset = off;
    }
 
+   /**
+    * <p>
+    * A zero-copy ISpectrumData view of the spectrum at a single pixel. The
+    * channel data is decoded from the memory mapped Ripple file each time
+    * getCounts(...) is called so creating a view is cheap and views of many
+    * pixels may be held at once.
+    * </p>
+    */
+   private static class PixelView extends BaseSpectrum {
+      private final RippleFile mFile;
+      private final int mViewRow;
+      private final int mViewCol;
+      private final int mViewDepth;
+      private final int mOffset;
+      private final SpectrumProperties mViewProperties;
+
+      private PixelView(RippleSpectrum rs, int row, int col) {
+         mFile = rs.mRipple;
+         mViewRow = row;
+         mViewCol = col;
+         mViewDepth = rs.mDepth;
+         mOffset = rs.mBrukerOffset;
+         mViewProperties = rs.mProperties.clone();
+         mViewProperties.setTextProperty(SpectrumProperties.SampleId, rs.toString() + "[" + Integer.toString(row) + "," + Integer.toString(col) + "]");
+         if (!Double.isNaN(rs.mBaseLiveTime))
+            mViewProperties.setNumericProperty(SpectrumProperties.LiveTime, rs.mBaseLiveTime);
+         setEnergyScale(rs.getZeroOffset(), rs.getChannelWidth());
+      }
+
+      @Override
+      public int getChannelCount() {
+         return mViewDepth;
+      }
+
+      @Override
+      public double getCounts(int i) {
+         i -= mOffset;
+         if ((i < 0) || (i >= mViewDepth))
+            return 0.0;
+         try {
+            return mFile.get(mViewRow, mViewCol, i);
+         }
+         catch (final IOException e) {
+            throw new EPQFatalException(e);
+         }
+      }
+
+      @Override
+      public SpectrumProperties getProperties() {
+         return mViewProperties;
+      }
+   }
+
+   /**
+    * Returns a zero-copy view of the spectrum at the specified pixel. Unlike
+    * setPosition(...), which changes the data in this object, the view is an
+    * independent ISpectrumData which reads its channel data from the memory
+    * mapped Ripple file on demand. The view ignores the span.
+    * 
+    * @param row
+    * @param col
+    * @return ISpectrumData
+    */
+   public ISpectrumData getView(int row, int col) {
+      if ((row < 0) || (row >= getRows()) || (col < 0) || (col >= getColumns()))
+         throw new IndexOutOfBoundsException("[" + row + ", " + col + "] is outside the Ripple file.");
+      return new PixelView(this, row, col);
+   }
+
    public MapImage process(VectorSet vecs, int binSize) throws IOException {
       Vector[] vs = vecs.getVectors().toArray(new Vector[vecs.getVectors().size()]);
       RegionOfInterest[] rois = new RegionOfInterest[vs.length];
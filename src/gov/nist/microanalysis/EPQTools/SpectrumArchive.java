@@ -0,0 +1,685 @@
+package gov.nist.microanalysis.EPQTools;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.DoublePredicate;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import gov.nist.microanalysis.EPQLibrary.BaseSpectrum;
+import gov.nist.microanalysis.EPQLibrary.EPQException;
+import gov.nist.microanalysis.EPQLibrary.Element;
+import gov.nist.microanalysis.EPQLibrary.ISpectrumData;
+import gov.nist.microanalysis.EPQLibrary.ParticleSignature;
+import gov.nist.microanalysis.EPQLibrary.SpectrumProperties;
+import gov.nist.microanalysis.EPQLibrary.SpectrumUtils;
+import gov.nist.microanalysis.EPQLibrary.StageCoordinate;
+import gov.nist.microanalysis.EPQLibrary.StageCoordinate.Axis;
+
+/**
+ * <p>
+ * A file format for storing many spectra in a single file. Intended for
+ * automated particle analysis runs and spectrum images which produce tens of
+ * thousands of small spectra.
+ * </p>
+ * <p>
+ * The file consists of a short header, one compressed block per spectrum and a
+ * footer. Each block holds the channel data (delta and variable length encoded
+ * when the counts are integral) and the SpectrumProperties as XML. The
+ * footer holds the offset of each block, the name of each spectrum and a
+ * columnar table of frequently queried properties - energy calibration, beam
+ * energy, live time, real time, probe current, stage position and the
+ * ParticleSignature. The table is read into memory when the archive is opened
+ * so spectra can be selected using select(...) without decoding any blocks.
+ * The blocks are read through memory mapped buffers.
+ * </p>
+ * <p>
+ * Micro- and macro-images are not archived.
+ * </p>
+ * <p>
+ * The properties are converted to and from XML by EPQXStream which uses
+ * reflection on java.util classes. On Java 17 and later the JVM must be
+ * started with <code>--add-opens java.base/java.util=ALL-UNNAMED</code> (as
+ * configured for the tests in pom.xml).
+ * </p>
+ * <p>
+ * Copyright: Pursuant to title 17 Section 105 of the United States Code this
+ * software is not subject to copyright protection and is in the public domain
+ * </p>
+ * <p>
+ * Institution: National Institute of Standards and Technology
+ * </p>
+ *
+ * @author Nicholas
+ * @version 1.0
+ */
+public class SpectrumArchive implements AutoCloseable {
+
+   private static final byte[] MAGIC = new byte[]{'E', 'P', 'Q', 'S', 'A', 'R', 'C', 'H'};
+   private static final int VERSION = 1;
+   private static final int TRAILER_LENGTH = 8 + MAGIC.length;
+   private static final int SEGMENT_SIZE = 1 << 30;
+
+   private static final byte INTEGRAL = 0;
+   private static final byte REAL = 1;
+
+   public static final String ZERO_OFFSET = "ZeroOffset";
+   public static final String CHANNEL_WIDTH = "ChannelWidth";
+   public static final String CHANNEL_COUNT = "ChannelCount";
+   public static final String BEAM_ENERGY = "BeamEnergy";
+   public static final String LIVE_TIME = "LiveTime";
+   public static final String REAL_TIME = "RealTime";
+   public static final String PROBE_CURRENT = "ProbeCurrent";
+   public static final String STAGE_X = "StageX";
+   public static final String STAGE_Y = "StageY";
+   public static final String STAGE_Z = "StageZ";
+
+   private static final SpectrumProperties.PropertyId[] NOT_ARCHIVED = {SpectrumProperties.MicroImage, SpectrumProperties.MicroImage2,
+         SpectrumProperties.MacroImage};
+
+   /**
+    * The name of the column containing the ParticleSignature value for the
+    * specified element.
+    *
+    * @param elm
+    * @return String
+    */
+   public static String signatureColumn(Element elm) {
+      return "Signature[" + elm.toAbbrev() + "]";
+   }
+
+   private final RandomAccessFile mFile;
+   private final ByteBuffer[] mSegments;
+   private final long[] mOffsets;
+   private final int[] mLengths;
+   private final String[] mNames;
+   private final Map<String, double[]> mColumns;
+
+   /**
+    * Opens an existing archive for reading.
+    *
+    * @param file
+    * @throws IOException
+    */
+   public SpectrumArchive(File file) throws IOException {
+      mFile = new RandomAccessFile(file, "r");
+      try {
+         final FileChannel fc = mFile.getChannel();
+         final long size = fc.size();
+         if (size < (MAGIC.length + 4 + TRAILER_LENGTH))
+            throw new IOException(file.getName() + " is not a spectrum archive.");
+         mSegments = new ByteBuffer[(int) ((size + SEGMENT_SIZE - 1) / SEGMENT_SIZE)];
+         for (int i = 0; i < mSegments.length; ++i) {
+            final long start = (long) i * SEGMENT_SIZE;
+            mSegments[i] = fc.map(MapMode.READ_ONLY, start, Math.min(SEGMENT_SIZE, size - start));
+         }
+         final byte[] magic = new byte[MAGIC.length];
+         read(0, magic);
+         if (!Arrays.equals(magic, MAGIC))
+            throw new IOException(file.getName() + " is not a spectrum archive.");
+         final byte[] trailer = new byte[TRAILER_LENGTH];
+         read(size - TRAILER_LENGTH, trailer);
+         if (!Arrays.equals(Arrays.copyOfRange(trailer, 8, TRAILER_LENGTH), MAGIC))
+            throw new IOException(file.getName() + " is incomplete or corrupt.");
+         final long footer = ByteBuffer.wrap(trailer).getLong();
+         final byte[] fb = new byte[(int) (size - TRAILER_LENGTH - footer)];
+         read(footer, fb);
+         try (final DataInputStream dis = new DataInputStream(new ByteArrayInputStream(fb))) {
+            final int n = dis.readInt();
+            mOffsets = new long[n];
+            mLengths = new int[n];
+            mNames = new String[n];
+            for (int i = 0; i < n; ++i) {
+               mOffsets[i] = dis.readLong();
+               mLengths[i] = dis.readInt();
+               mNames[i] = dis.readUTF();
+            }
+            final int nCols = dis.readInt();
+            mColumns = new LinkedHashMap<>();
+            for (int c = 0; c < nCols; ++c) {
+               final String name = dis.readUTF();
+               final double[] col = new double[n];
+               for (int i = 0; i < n; ++i)
+                  col[i] = dis.readDouble();
+               mColumns.put(name, col);
+            }
+         }
+      } catch (final IOException e) {
+         mFile.close();
+         throw e;
+      }
+   }
+
+   private void read(long offset, byte[] dest) {
+      int pos = 0;
+      while (pos < dest.length) {
+         final int seg = (int) (offset / SEGMENT_SIZE);
+         final int off = (int) (offset % SEGMENT_SIZE);
+         final int len = Math.min(dest.length - pos, mSegments[seg].capacity() - off);
+         // Absolute bulk get leaves the buffer position alone (thread safe)
+         mSegments[seg].get(off, dest, pos, len);
+         pos += len;
+         offset += len;
+      }
+   }
+
+   @Override
+   public void close() throws IOException {
+      mFile.close();
+   }
+
+   public int getSpectrumCount() {
+      return mOffsets.length;
+   }
+
+   /**
+    * The name of the idx-th spectrum (as returned by toString() when
+    * archived).
+    *
+    * @param idx
+    * @return String
+    */
+   public String getName(int idx) {
+      return mNames[idx];
+   }
+
+   /**
+    * The names of the columns in the property table.
+    *
+    * @return List&lt;String&gt;
+    */
+   public List<String> getColumnNames() {
+      return Collections.unmodifiableList(new ArrayList<>(mColumns.keySet()));
+   }
+
+   private double[] column(String column) {
+      final double[] col = mColumns.get(column);
+      if (col == null)
+         throw new IllegalArgumentException("The archive does not contain a column named " + column);
+      return col;
+   }
+
+   /**
+    * The value in the property table for the specified spectrum and column.
+    * Missing values are Double.NaN.
+    *
+    * @param column
+    * @param idx
+    * @return double
+    */
+   public double getValue(String column, int idx) {
+      return column(column)[idx];
+   }
+
+   /**
+    * A copy of the specified column in the property table.
+    *
+    * @param column
+    * @return double[]
+    */
+   public double[] getColumn(String column) {
+      return column(column).clone();
+   }
+
+   public boolean hasColumn(String column) {
+      return mColumns.containsKey(column);
+   }
+
+   /**
+    * Returns the indices of the spectra for which the value in the specified
+    * column satisfies the predicate. Only the property table is consulted.
+    *
+    * @param column
+    * @param pred
+    * @return int[] in increasing order
+    */
+   public int[] select(String column, DoublePredicate pred) {
+      final double[] col = column(column);
+      final int[] res = new int[col.length];
+      int n = 0;
+      for (int i = 0; i < col.length; ++i)
+         if (pred.test(col[i]))
+            res[n++] = i;
+      return Arrays.copyOf(res, n);
+   }
+
+   /**
+    * Returns the subset of <code>indices</code> for which the value in the
+    * specified column satisfies the predicate. Use to combine criteria.
+    *
+    * @param indices
+    * @param column
+    * @param pred
+    * @return int[]
+    */
+   public int[] select(int[] indices, String column, DoublePredicate pred) {
+      final double[] col = column(column);
+      final int[] res = new int[indices.length];
+      int n = 0;
+      for (final int idx : indices)
+         if (pred.test(col[idx]))
+            res[n++] = idx;
+      return Arrays.copyOf(res, n);
+   }
+
+   private static class ArchivedSpectrum extends BaseSpectrum {
+      private final double[] mChannels;
+      private final SpectrumProperties mProperties;
+
+      private ArchivedSpectrum(double[] channels, SpectrumProperties props) {
+         mChannels = channels;
+         mProperties = props;
+      }
+
+      @Override
+      public int getChannelCount() {
+         return mChannels.length;
+      }
+
+      @Override
+      public double getCounts(int i) {
+         return mChannels[i];
+      }
+
+      @Override
+      public SpectrumProperties getProperties() {
+         return mProperties;
+      }
+   }
+
+   /**
+    * Reads the idx-th spectrum. This method may be called from multiple
+    * threads.
+    *
+    * @param idx
+    * @return ISpectrumData
+    * @throws EPQException
+    */
+   public ISpectrumData read(int idx) throws EPQException {
+      final byte[] block = new byte[mLengths[idx]];
+      read(mOffsets[idx], block);
+      try {
+         final byte[] raw = inflate(block);
+         try (final DataInputStream dis = new DataInputStream(new ByteArrayInputStream(raw))) {
+            final byte enc = dis.readByte();
+            final double[] channels = new double[dis.readInt()];
+            if (enc == INTEGRAL) {
+               long prev = 0;
+               for (int i = 0; i < channels.length; ++i) {
+                  final long zz = readVarLong(dis);
+                  prev += (zz >>> 1) ^ -(zz & 1);
+                  channels[i] = prev;
+               }
+            } else
+               for (int i = 0; i < channels.length; ++i)
+                  channels[i] = dis.readDouble();
+            final byte[] pb = new byte[dis.readInt()];
+            dis.readFully(pb);
+            final SpectrumProperties props = (SpectrumProperties) EPQXStream.getInstance().fromXML(new String(pb, StandardCharsets.UTF_8));
+            return new ArchivedSpectrum(channels, props);
+         }
+      } catch (final IOException | DataFormatException e) {
+         throw new EPQException(e);
+      }
+   }
+
+   /**
+    * Reads the specified spectra.
+    *
+    * @param indices
+    * @return List&lt;ISpectrumData&gt;
+    * @throws EPQException
+    */
+   public List<ISpectrumData> read(int[] indices) throws EPQException {
+      final List<ISpectrumData> res = new ArrayList<>(indices.length);
+      for (final int idx : indices)
+         res.add(read(idx));
+      return res;
+   }
+
+   private static byte[] inflate(byte[] block) throws DataFormatException {
+      final Inflater inf = new Inflater();
+      try {
+         inf.setInput(block);
+         final ByteArrayOutputStream bos = new ByteArrayOutputStream(4 * block.length);
+         final byte[] buf = new byte[0x4000];
+         while (!inf.finished()) {
+            final int n = inf.inflate(buf);
+            if ((n == 0) && (inf.needsInput() || inf.needsDictionary()))
+               throw new DataFormatException("Truncated spectrum block.");
+            bos.write(buf, 0, n);
+         }
+         return bos.toByteArray();
+      } finally {
+         inf.end();
+      }
+   }
+
+   private static long readVarLong(DataInputStream dis) throws IOException {
+      long res = 0;
+      for (int shift = 0; shift < 64; shift += 7) {
+         final int b = dis.readUnsignedByte();
+         res |= (long) (b & 0x7F) << shift;
+         if ((b & 0x80) == 0)
+            return res;
+      }
+      throw new IOException("Malformed variable length integer.");
+   }
+
+   private static void writeVarLong(DataOutputStream dos, long val) throws IOException {
+      while ((val & ~0x7FL) != 0) {
+         dos.writeByte((int) ((val & 0x7F) | 0x80));
+         val >>>= 7;
+      }
+      dos.writeByte((int) val);
+   }
+
+   /**
+    * Writes spectra to a new archive. Spectra are written as they are added;
+    * the property table and index are written by close().
+    */
+   public static class Writer implements AutoCloseable {
+      private final DataOutputStream mOutput;
+      private final Deflater mDeflater = new Deflater(Deflater.BEST_SPEED);
+      private final ByteArrayOutputStream mBlock = new ByteArrayOutputStream();
+      private final LinkedHashMap<String, double[]> mColumns = new LinkedHashMap<>();
+      private long[] mOffsets = new long[256];
+      private int[] mLengths = new int[256];
+      private final List<String> mNames = new ArrayList<>();
+      private long mPosition;
+      private int mCount;
+      private boolean mClosed;
+
+      /**
+       * Creates a new archive (replacing any existing file).
+       *
+       * @param file
+       * @throws IOException
+       */
+      public Writer(File file) throws IOException {
+         mOutput = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 0x10000));
+         mOutput.write(MAGIC);
+         mOutput.writeInt(VERSION);
+         mPosition = MAGIC.length + 4;
+         for (final String col : new String[]{ZERO_OFFSET, CHANNEL_WIDTH, CHANNEL_COUNT, BEAM_ENERGY, LIVE_TIME, REAL_TIME, PROBE_CURRENT,
+               STAGE_X, STAGE_Y, STAGE_Z})
+            column(col);
+      }
+
+      private double[] column(String name) {
+         double[] col = mColumns.get(name);
+         if (col == null) {
+            col = new double[mOffsets.length];
+            Arrays.fill(col, Double.NaN);
+            mColumns.put(name, col);
+         }
+         return col;
+      }
+
+      private void set(String name, double value) {
+         column(name)[mCount] = value;
+      }
+
+      /**
+       * Number of spectra added so far.
+       *
+       * @return int
+       */
+      public int getSpectrumCount() {
+         return mCount;
+      }
+
+      /**
+       * Appends a spectrum to the archive.
+       *
+       * @param spec
+       * @throws IOException
+       */
+      public void add(ISpectrumData spec) throws IOException {
+         add(spec, Collections.emptyMap());
+      }
+
+      /**
+       * Appends a spectrum to the archive along with additional values for the
+       * property table.
+       *
+       * @param spec
+       * @param extra Column name to value
+       * @throws IOException
+       */
+      public void add(ISpectrumData spec, Map<String, Double> extra) throws IOException {
+         if (mClosed)
+            throw new IOException("The archive has been closed.");
+         if (mCount == mOffsets.length) {
+            final int len = 2 * mOffsets.length;
+            mOffsets = Arrays.copyOf(mOffsets, len);
+            mLengths = Arrays.copyOf(mLengths, len);
+            for (final Map.Entry<String, double[]> me : mColumns.entrySet()) {
+               final double[] col = Arrays.copyOf(me.getValue(), len);
+               Arrays.fill(col, mCount, len, Double.NaN);
+               me.setValue(col);
+            }
+         }
+         final SpectrumProperties sp = spec.getProperties().clone();
+         for (final SpectrumProperties.PropertyId pid : NOT_ARCHIVED)
+            sp.remove(pid);
+         sp.setNumericProperty(SpectrumProperties.EnergyScale, spec.getChannelWidth());
+         sp.setNumericProperty(SpectrumProperties.EnergyOffset, spec.getZeroOffset());
+         final int nCh = spec.getChannelCount();
+         // Build the uncompressed block
+         mBlock.reset();
+         final DataOutputStream dos = new DataOutputStream(mBlock);
+         boolean integral = true;
+         for (int i = 0; integral && (i < nCh); ++i) {
+            final double c = spec.getCounts(i);
+            integral = (c == Math.rint(c)) && (Math.abs(c) < 1.0e15);
+         }
+         dos.writeByte(integral ? INTEGRAL : REAL);
+         dos.writeInt(nCh);
+         if (integral) {
+            long prev = 0;
+            for (int i = 0; i < nCh; ++i) {
+               final long c = (long) spec.getCounts(i);
+               final long d = c - prev;
+               writeVarLong(dos, (d << 1) ^ (d >> 63));
+               prev = c;
+            }
+         } else
+            for (int i = 0; i < nCh; ++i)
+               dos.writeDouble(spec.getCounts(i));
+         final byte[] pb = EPQXStream.getInstance().toXML(sp).getBytes(StandardCharsets.UTF_8);
+         dos.writeInt(pb.length);
+         dos.write(pb);
+         dos.flush();
+         // Compress and write it
+         mDeflater.reset();
+         mDeflater.setInput(mBlock.toByteArray());
+         mDeflater.finish();
+         final byte[] buf = new byte[0x4000];
+         int len = 0;
+         while (!mDeflater.finished()) {
+            final int n = mDeflater.deflate(buf);
+            mOutput.write(buf, 0, n);
+            len += n;
+         }
+         mOffsets[mCount] = mPosition;
+         mLengths[mCount] = len;
+         mPosition += len;
+         mNames.add(spec.toString());
+         // Populate the property table
+         set(ZERO_OFFSET, spec.getZeroOffset());
+         set(CHANNEL_WIDTH, spec.getChannelWidth());
+         set(CHANNEL_COUNT, nCh);
+         set(BEAM_ENERGY, sp.getNumericWithDefault(SpectrumProperties.BeamEnergy, Double.NaN));
+         set(LIVE_TIME, sp.getNumericWithDefault(SpectrumProperties.LiveTime, Double.NaN));
+         set(REAL_TIME, sp.getNumericWithDefault(SpectrumProperties.RealTime, Double.NaN));
+         set(PROBE_CURRENT, SpectrumUtils.getAverageFaradayCurrent(sp, Double.NaN));
+         final Object obj = sp.getObjectWithDefault(SpectrumProperties.StagePosition, null);
+         if (obj instanceof StageCoordinate) {
+            final StageCoordinate pos = (StageCoordinate) obj;
+            if (pos.isPresent(Axis.X))
+               set(STAGE_X, pos.get(Axis.X));
+            if (pos.isPresent(Axis.Y))
+               set(STAGE_Y, pos.get(Axis.Y));
+            if (pos.isPresent(Axis.Z))
+               set(STAGE_Z, pos.get(Axis.Z));
+         }
+         final ParticleSignature ps = sp.getParticleSignatureWithDefault(SpectrumProperties.ParticleSignature, null);
+         if (ps != null)
+            for (final Element elm : ps.getAllElements())
+               set(signatureColumn(elm), ps.get(elm));
+         for (final Map.Entry<String, Double> me : extra.entrySet())
+            set(me.getKey(), me.getValue().doubleValue());
+         ++mCount;
+      }
+
+      /**
+       * Writes the property table and index and closes the file.
+       *
+       * @throws IOException
+       */
+      @Override
+      public void close() throws IOException {
+         if (!mClosed) {
+            mClosed = true;
+            try {
+               final long footer = mPosition;
+               mOutput.writeInt(mCount);
+               for (int i = 0; i < mCount; ++i) {
+                  mOutput.writeLong(mOffsets[i]);
+                  mOutput.writeInt(mLengths[i]);
+                  mOutput.writeUTF(mNames.get(i));
+               }
+               mOutput.writeInt(mColumns.size());
+               for (final Map.Entry<String, double[]> me : mColumns.entrySet()) {
+                  mOutput.writeUTF(me.getKey());
+                  final double[] col = me.getValue();
+                  for (int i = 0; i < mCount; ++i)
+                     mOutput.writeDouble(col[i]);
+               }
+               mOutput.writeLong(footer);
+               mOutput.write(MAGIC);
+            } finally {
+               mDeflater.end();
+               mOutput.close();
+            }
+         }
+      }
+   }
+
+   /**
+    * Archives every pixel in a RippleFile. The pixel spectra share the
+    * properties <code>props</code> which must include the energy calibration.
+    * The row and column of each pixel are recorded in the "Row" and "Column"
+    * columns of the property table.
+    *
+    * @param rf
+    * @param props
+    * @param dest
+    * @return The number of spectra archived
+    * @throws IOException
+    */
+   public static int convert(RippleFile rf, SpectrumProperties props, File dest) throws IOException {
+      final double[] data = new double[rf.getDepth()];
+      final Map<String, Double> extra = new LinkedHashMap<>();
+      try (final Writer wr = new Writer(dest)) {
+         for (int r = 0; r < rf.getHeight(); ++r)
+            for (int c = 0; c < rf.getWidth(); ++c) {
+               rf.readPixel(r, c, data);
+               final ArchivedSpectrum spec = new ArchivedSpectrum(data, props.clone());
+               spec.getProperties().setTextProperty(SpectrumProperties.SpectrumDisplayName, "Pixel[" + r + "," + c + "]");
+               extra.put("Row", Double.valueOf(r));
+               extra.put("Column", Double.valueOf(c));
+               wr.add(spec, extra);
+            }
+         return wr.getSpectrumCount();
+      }
+   }
+
+   /**
+    * Archives all the spectra in the specified files. The files are read in
+    * batches using SpectrumFile.openAll(...). Files which can not be read are
+    * skipped and added to <code>errors</code> along with the reason.
+    *
+    * @param files
+    * @param dest
+    * @param errors On return, the files which could not be read (may be null)
+    * @return The number of spectra archived
+    * @throws IOException
+    */
+   public static int convert(Collection<File> files, File dest, Map<File, EPQException> errors) throws IOException {
+      final int BATCH = 256;
+      final List<File> all = new ArrayList<>(files);
+      try (final Writer wr = new Writer(dest)) {
+         for (int b = 0; b < all.size(); b += BATCH) {
+            final SpectrumFile.ImportResult ir = SpectrumFile.openAll(all.subList(b, Math.min(b + BATCH, all.size())));
+            if (errors != null)
+               errors.putAll(ir.getErrors());
+            for (final ISpectrumData spec : ir.getSpectra())
+               wr.add(spec);
+         }
+         return wr.getSpectrumCount();
+      }
+   }
+
+   /**
+    * Archives all the spectra in the specified files. The spectra in the files
+    * which can be read are archived. If any file can not be read, an
+    * IOException naming the failed files is thrown once the archive has been
+    * written. Use convert(files, dest, errors) to skip unreadable files.
+    *
+    * @param files
+    * @param dest
+    * @return The number of spectra archived
+    * @throws IOException
+    */
+   public static int convert(Collection<File> files, File dest) throws IOException {
+      final Map<File, EPQException> errors = new LinkedHashMap<>();
+      final int res = convert(files, dest, errors);
+      if (!errors.isEmpty()) {
+         final StringBuilder sb = new StringBuilder();
+         sb.append("Unable to archive " + errors.size() + " of " + files.size() + " files.");
+         for (final Map.Entry<File, EPQException> me : errors.entrySet())
+            sb.append("\n" + me.getKey().getName() + ": " + me.getValue().getMessage());
+         throw new IOException(sb.toString(), errors.values().iterator().next());
+      }
+      return res;
+   }
+
+   /**
+    * Archives all the spectra in the files in the specified directory (not
+    * including subdirectories).
+    *
+    * @param dir
+    * @param dest
+    * @return The number of spectra archived
+    * @throws IOException If dir is not a directory or if any file in dir can
+    *            not be read (see convert(files, dest))
+    */
+   public static int convert(File dir, File dest) throws IOException {
+      final File[] files = dir.listFiles(File::isFile);
+      if (files == null)
+         throw new IOException(dir + " is not a directory.");
+      Arrays.sort(files);
+      return convert(Arrays.asList(files), dest);
+   }
+}
@@ -1,21 +1,44 @@
 package gov.nist.microanalysis.EPQTools;
 
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.FileInputStream;
-import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import gov.nist.microanalysis.EPQLibrary.EPQException;
 import gov.nist.microanalysis.EPQLibrary.ISpectrumData;
 import gov.nist.microanalysis.EPQLibrary.SpectrumProperties;
 import gov.nist.microanalysis.EPQLibrary.StandardBundle;
+import gov.nist.microanalysis.Utility.DescriptiveStatistics;
 
 /**
  * <p>
  * A utility class to open spectrum files of all ilks..
  * </p>
  * <p>
+ * Each file is opened once. The leading bytes (or, for files smaller than
+ * MAX_BUFFERED, the entire file) are read into a Header which is offered to
+ * each registered Format in turn. Formats associated with the file's
+ * extension are tried first. The Format which recognizes the Header then
+ * parses the buffered bytes rather than reopening the file whenever the
+ * underlying reader permits.
+ * </p>
+ * <p>
  * Copyright: Pursuant to title 17 Section 105 of the United States Code this
  * software is not subject to copyright protection and is in the public domain
  * </p>
@@ -29,194 +52,474 @@ import gov.nist.microanalysis.EPQLibrary.StandardBundle;
 
 public class SpectrumFile {
 
-   static public ISpectrumData[] open(final String path) throws EPQException {
-      return open(new File(path));
-   }
+   /**
+    * Files up to this size are read into memory in their entirety.
+    */
+   public static final int MAX_BUFFERED = 0x800000;
+   /**
+    * The number of bytes read from larger files to identify the format.
+    */
+   public static final int HEADER_LENGTH = 0x10000;
 
-   static public boolean isInstanceOf(final File file) {
-      boolean res = false;
-      try {
-         {
-            try (final FileInputStream st = new FileInputStream(file)) {
-               res = DTSAFile.isInstanceOf(st);
-            }
+   private static final String UNKNOWN = "Unknown";
+
+   /**
+    * The leading bytes of a file along with the information necessary to
+    * identify the file's format.
+    */
+   public static final class Header {
+      private final File mFile;
+      private final byte[] mData;
+      private final long mFileLength;
+
+      private Header(final File file) throws IOException {
+         mFile = file;
+         try (final FileInputStream fis = new FileInputStream(file)) {
+            mFileLength = fis.getChannel().size();
+            final byte[] data = new byte[mFileLength <= MAX_BUFFERED ? (int) mFileLength : HEADER_LENGTH];
+            int len = 0;
+            for (int n = 0; (len < data.length) && (n >= 0); len += Math.max(n, 0))
+               n = fis.read(data, len, data.length - len);
+            mData = len == data.length ? data : Arrays.copyOf(data, len);
          }
-         if (!res)
-            try (final FileInputStream st = new FileInputStream(file)) {
-               res = EMSAFile.isInstanceOf(st);
+      }
+
+      public File getFile() {
+         return mFile;
+      }
+
+      /**
+       * The file extension in lower case without the leading '.' or "" if
+       * none.
+       *
+       * @return String
+       */
+      public String getExtension() {
+         final String name = mFile.getName();
+         final int p = name.lastIndexOf('.');
+         return p != -1 ? name.substring(p + 1).toLowerCase() : "";
+      }
+
+      public long getFileLength() {
+         return mFileLength;
+      }
+
+      /**
+       * Does the header contain the entire file?
+       *
+       * @return boolean
+       */
+      public boolean isComplete() {
+         return mData.length == mFileLength;
+      }
+
+      /**
+       * The number of buffered bytes.
+       *
+       * @return int
+       */
+      public int length() {
+         return mData.length;
+      }
+
+      /**
+       * The buffered byte at the specified offset as an integer in [0,255].
+       *
+       * @param i
+       * @return int
+       */
+      public int get(final int i) {
+         return mData[i] & 0xFF;
+      }
+
+      public boolean startsWith(final byte[] magic) {
+         if (magic.length > mData.length)
+            return false;
+         for (int i = 0; i < magic.length; ++i)
+            if (mData[i] != magic[i])
+               return false;
+         return true;
+      }
+
+      /**
+       * Returns a stream over the buffered bytes. Suitable for identifying the
+       * format.
+       *
+       * @return InputStream
+       */
+      public InputStream getHeaderStream() {
+         return new ByteArrayInputStream(mData);
+      }
+
+      /**
+       * Returns a stream over the entire file. The buffered bytes are used when
+       * they contain the entire file; otherwise the file is reopened.
+       *
+       * @return InputStream
+       * @throws IOException
+       */
+      public InputStream openStream() throws IOException {
+         return isComplete() ? new ByteArrayInputStream(mData) : new BufferedInputStream(new FileInputStream(mFile));
+      }
+   }
+
+   /**
+    * A spectrum file format. A Format identifies files from a Header and
+    * parses the recognized files.
+    */
+   public static abstract class Format {
+      private final String mName;
+      private final List<String> mExtensions;
+
+      /**
+       * Constructs a Format
+       *
+       * @param name A human friendly name
+       * @param exts The typical file extensions (lower case, without '.')
+       */
+      protected Format(final String name, final String... exts) {
+         mName = name;
+         mExtensions = Arrays.asList(exts);
+      }
+
+      public String getName() {
+         return mName;
+      }
+
+      public boolean hasExtension(final String ext) {
+         return mExtensions.contains(ext);
+      }
+
+      /**
+       * Is the file described by the specified Header an instance of this
+       * format?
+       *
+       * @param h
+       * @return boolean
+       */
+      public abstract boolean isInstanceOf(Header h);
+
+      /**
+       * Reads all the spectra in the file described by the specified Header.
+       *
+       * @param h
+       * @return ISpectrumData[]
+       * @throws Exception
+       */
+      public abstract ISpectrumData[] read(Header h) throws Exception;
+
+      /**
+       * Reads the idx-th spectrum in the file described by the specified
+       * Header.
+       *
+       * @param h
+       * @param idx
+       * @return ISpectrumData
+       * @throws Exception
+       */
+      public ISpectrumData read(final Header h, final int idx) throws Exception {
+         final ISpectrumData[] res = read(h);
+         if ((idx < 0) || (idx >= res.length))
+            throw new EPQException(mName + " files can only contain " + res.length + " spectra.");
+         return res[idx];
+      }
+
+      @Override
+      public String toString() {
+         return mName;
+      }
+   }
+
+   private static final byte[] ZIP_MAGIC = new byte[]{'P', 'K', 3, 4};
+
+   private static final List<Format> mFormats = new CopyOnWriteArrayList<Format>(Arrays.asList( //
+         new Format("DTSA", "dat") {
+            @Override
+            public boolean isInstanceOf(final Header h) {
+               return DTSAFile.isInstanceOf(h.getHeaderStream());
             }
-         if (!res)
-            try (final FileInputStream st = new FileInputStream(file)) {
-               res = EMISPECFile.isInstanceOf(st);
+
+            @Override
+            public ISpectrumData[] read(final Header h) throws Exception {
+               try (final InputStream is = h.openStream()) {
+                  final DTSAFile df = new DTSAFile(is);
+                  final ISpectrumData[] res = new ISpectrumData[df.getSpectrumCount()];
+                  for (int j = 0; j < df.getSpectrumCount(); ++j)
+                     res[j] = df.getSpectrum(j);
+                  return res;
+               }
             }
-         if (!res)
-            try (final FileInputStream st = new FileInputStream(file)) {
-               res = ASPEXSpectrum.isInstanceOf(st);
+         }, //
+         new Format("EMSA", "msa", "emsa", "ems", "txt", "psmsa", "lsmsa") {
+            @Override
+            public boolean isInstanceOf(final Header h) {
+               return EMSAFile.isInstanceOf(h.getHeaderStream());
             }
-         if (!res)
-            try (final FileInputStream st = new FileInputStream(file)) {
-               res = IXRFSpectrum.isInstanceOf(st);
+
+            @Override
+            public ISpectrumData[] read(final Header h) throws Exception {
+               try (final InputStream is = h.openStream()) {
+                  return new ISpectrumData[]{new EMSAFile(is, h.getFile(), true)};
+               }
             }
-         if (!res)
-            try (final FileInputStream st = new FileInputStream(file)) {
-               res = IXRFSpectrum.isInstanceOf(st);
+
+            @Override
+            public ISpectrumData read(final Header h, final int idx) throws Exception {
+               if (idx != 0)
+                  throw new EPQException("EMSA files can only contain one spectrum.");
+               try (final InputStream is = h.openStream()) {
+                  return new EMSAFile(is, h.getFile(), false);
+               }
             }
-         if (!res)
-            try (final FileInputStream st = new FileInputStream(file)) {
-               res = PMCASpectrum.isInstanceOf(st);
+         }, //
+         new Format("EMISPEC", "ser") {
+            @Override
+            public boolean isInstanceOf(final Header h) {
+               return EMISPECFile.isInstanceOf(h.getHeaderStream());
             }
-         if (!res)
-            try (final FileInputStream st = new FileInputStream(file)) {
-               res = RadiantSPDSpectrum.isInstanceOf(st);
+
+            @Override
+            public ISpectrumData[] read(final Header h) throws Exception {
+               final EMISPECFile ef = new EMISPECFile();
+               try (final InputStream is = h.openStream()) {
+                  ef.read(is);
+               }
+               ef.setFilename(h.getFile().getName());
+               return new ISpectrumData[]{ef};
             }
-         if (!res)
-            try (final FileInputStream st = new FileInputStream(file)) {
-               res = EdaxSPCSpectrum.isInstanceOf(st);
+         }, //
+         new Format("ASPEX TIFF", "tif", "tiff") {
+            @Override
+            public boolean isInstanceOf(final Header h) {
+               return ASPEXSpectrum.isInstanceOf(h.getHeaderStream());
             }
-         if (!res)
-            try (final FileInputStream st = new FileInputStream(file)) {
-               res = BrukerSPX.isInstanceOf(st);
+
+            @Override
+            public ISpectrumData[] read(final Header h) throws Exception {
+               // The TIFF reader requires random access to the file
+               return new ISpectrumData[]{new ASPEXSpectrum(h.getFile(), true)};
             }
-         if (!res)
-            try (final FileInputStream st = new FileInputStream(file)) {
-               res = BrukerPDZ.isInstanceOf(st);
+
+            @Override
+            public ISpectrumData read(final Header h, final int idx) throws Exception {
+               if (idx != 0)
+                  throw new EPQException("ASPEX TIFF files can only contain one spectrum.");
+               return new ASPEXSpectrum(h.getFile());
             }
-         if (!res)
-            try (final FileInputStream st = new FileInputStream(file)) {
-               res = OxfordSPTFile.isInstanceOf(st);
+         }, //
+         new Format("IXRF", "spc", "txt") {
+            @Override
+            public boolean isInstanceOf(final Header h) {
+               return IXRFSpectrum.isInstanceOf(h.getHeaderStream());
             }
-      } catch (final FileNotFoundException e) {
-      } catch (final IOException e) {
-      }
-      return res;
-   }
 
-   static public ISpectrumData[] open(final File file) throws EPQException {
-      try {
-         ISpectrumData[] res = null;
-         try (FileInputStream fis = new FileInputStream(file)) {
-            if (DTSAFile.isInstanceOf(fis)) {
-               final DTSAFile df = new DTSAFile(file);
-               res = new ISpectrumData[df.getSpectrumCount()];
-               for (int j = 0; j < df.getSpectrumCount(); ++j)
-                  res[j] = df.getSpectrum(j);
-               return wrapResult(res, file);
+            @Override
+            public ISpectrumData[] read(final Header h) throws Exception {
+               try (final InputStream is = h.openStream()) {
+                  final IXRFSpectrum res = new IXRFSpectrum(is);
+                  res.setFilename(h.getFile().getName());
+                  return new ISpectrumData[]{res};
+               }
             }
-         }
-         try (FileInputStream fis = new FileInputStream(file)) {
-            if (EMSAFile.isInstanceOf(fis)) {
-               final EMSAFile ef = new EMSAFile(file, true);
-               res = new ISpectrumData[1];
-               res[0] = ef;
-               return wrapResult(res, file);
+         }, //
+         new Format("PMCA", "mca") {
+            @Override
+            public boolean isInstanceOf(final Header h) {
+               return PMCASpectrum.isInstanceOf(h.getHeaderStream());
             }
-         }
-         try (FileInputStream fis = new FileInputStream(file)) {
-            if (EMISPECFile.isInstanceOf(fis)) {
-               final EMISPECFile ef = new EMISPECFile();
-               try (final FileInputStream st5 = new FileInputStream(file)) {
-                  ef.read(st5);
+
+            @Override
+            public ISpectrumData[] read(final Header h) throws Exception {
+               try (final InputStream is = h.openStream()) {
+                  final PMCASpectrum res = new PMCASpectrum(is);
+                  res.setFilename(h.getFile().getName());
+                  return new ISpectrumData[]{res};
                }
-               ef.setFilename(file.getName());
-               res = new ISpectrumData[1];
-               res[0] = ef;
-               return wrapResult(res, file);
             }
-         }
-         try (FileInputStream fis = new FileInputStream(file)) {
-            if (ASPEXSpectrum.isInstanceOf(fis)) {
-               res = new ISpectrumData[1];
-               res[0] = new ASPEXSpectrum(file, true);
-               return wrapResult(res, file);
+         }, //
+         new Format("Radiant", "spd") {
+            @Override
+            public boolean isInstanceOf(final Header h) {
+               return (h.length() > 0) && RadiantSPDSpectrum.isInstanceOf(h.get(0), h.getFileLength());
             }
-         }
-         try (FileInputStream fis = new FileInputStream(file)) {
-            if (IXRFSpectrum.isInstanceOf(fis)) {
-               res = new ISpectrumData[1];
-               try (final FileInputStream st8 = new FileInputStream(file)) {
-                  final IXRFSpectrum is = new IXRFSpectrum(st8);
-                  is.setFilename(file.getName());
-                  res[0] = is;
+
+            @Override
+            public ISpectrumData[] read(final Header h) throws Exception {
+               try (final InputStream is = h.openStream()) {
+                  final RadiantSPDSpectrum res = new RadiantSPDSpectrum(is);
+                  res.setFilename(h.getFile().getName());
+                  return new ISpectrumData[]{res};
                }
-               return wrapResult(res, file);
             }
-         }
-         try (FileInputStream fis = new FileInputStream(file)) {
-            if (PMCASpectrum.isInstanceOf(fis)) {
-               res = new ISpectrumData[1];
-               try (final FileInputStream st10 = new FileInputStream(file)) {
-                  final PMCASpectrum is = new PMCASpectrum(st10);
-                  is.setFilename(file.getName());
-                  res[0] = is;
-               }
-               return wrapResult(res, file);
+         }, //
+         new Format("EDAX", "spc") {
+            @Override
+            public boolean isInstanceOf(final Header h) {
+               return EdaxSPCSpectrum.isInstanceOf(h.getHeaderStream());
             }
-         }
-         try (FileInputStream fis = new FileInputStream(file)) {
-            if (RadiantSPDSpectrum.isInstanceOf(fis)) {
-               res = new ISpectrumData[1];
-               try (final FileInputStream st12 = new FileInputStream(file)) {
-                  final RadiantSPDSpectrum is = new RadiantSPDSpectrum(st12);
-                  is.setFilename(file.getName());
-                  res[0] = is;
-                  return wrapResult(res, file);
+
+            @Override
+            public ISpectrumData[] read(final Header h) throws Exception {
+               // The SPC reader seeks using the file channel
+               try (final FileInputStream is = new FileInputStream(h.getFile())) {
+                  return new ISpectrumData[]{new EdaxSPCSpectrum(is)};
                }
             }
-         }
-         try (FileInputStream fis = new FileInputStream(file)) {
-            if (EdaxSPCSpectrum.isInstanceOf(fis)) {
-               res = new ISpectrumData[1];
-               try (final FileInputStream st14 = new FileInputStream(file)) {
-                  res[0] = new EdaxSPCSpectrum(st14);
-                  return wrapResult(res, file);
+         }, //
+         new Format("Bruker SPX", "spx") {
+            @Override
+            public boolean isInstanceOf(final Header h) {
+               return BrukerSPX.isInstanceOf(h.getHeaderStream());
+            }
+
+            @Override
+            public ISpectrumData[] read(final Header h) throws Exception {
+               try (final InputStream is = h.openStream()) {
+                  return new ISpectrumData[]{new BrukerSPX(is)};
                }
             }
-         }
-         try (FileInputStream fis = new FileInputStream(file)) {
-            if (BrukerSPX.isInstanceOf(fis)) {
-               res = new ISpectrumData[1];
-               try (final FileInputStream st16 = new FileInputStream(file)) {
-                  res[0] = new BrukerSPX(st16);
-                  return wrapResult(res, file);
+         }, //
+         new Format("Bruker TXT", "txt") {
+            @Override
+            public boolean isInstanceOf(final Header h) {
+               return BrukerTXT.isInstanceOf(h.getHeaderStream());
+            }
+
+            @Override
+            public ISpectrumData[] read(final Header h) throws Exception {
+               try (final InputStream is = h.openStream()) {
+                  return new ISpectrumData[]{new BrukerTXT(is)};
                }
             }
-         }
-         try (FileInputStream fis = new FileInputStream(file)) {
-            if (BrukerTXT.isInstanceOf(fis)) {
-               res = new ISpectrumData[1];
-               try (final FileInputStream st17 = new FileInputStream(file)) {
-                  res[0] = new BrukerTXT(st17);
-                  return wrapResult(res, file);
+         }, //
+         new Format("DTSA-II standard bundle", "zstd") {
+            @Override
+            public boolean isInstanceOf(final Header h) {
+               // Only open the zip directory when the magic number matches
+               return h.startsWith(ZIP_MAGIC) && StandardBundle.isInstance(h.getFile());
+            }
+
+            @Override
+            public ISpectrumData[] read(final Header h) throws Exception {
+               final List<ISpectrumData> specs = StandardBundle.readSpectra(h.getFile());
+               return specs.toArray(new ISpectrumData[specs.size()]);
+            }
+         }, //
+         new Format("Bruker PDZ", "pdz") {
+            @Override
+            public boolean isInstanceOf(final Header h) {
+               try {
+                  return BrukerPDZ.isInstanceOf(h.getHeaderStream());
+               } catch (final IOException e) {
+                  return false;
                }
             }
-         }
-         if (StandardBundle.isInstance(file)) {
-            final List<ISpectrumData> specs = StandardBundle.readSpectra(file);
-            return wrapResult(specs.toArray(new ISpectrumData[specs.size()]), file);
-         }
-         try (FileInputStream fis = new FileInputStream(file)) {
-            if (BrukerPDZ.isInstanceOf(fis)) {
-               res = new ISpectrumData[1];
-               try (final FileInputStream st18 = new FileInputStream(file)) {
-                  res[0] = new BrukerPDZ(st18);
-                  return wrapResult(res, file);
+
+            @Override
+            public ISpectrumData[] read(final Header h) throws Exception {
+               try (final InputStream is = h.openStream()) {
+                  return new ISpectrumData[]{new BrukerPDZ(is)};
                }
             }
-         }
-         try (FileInputStream fis = new FileInputStream(file)) {
-            if (OxfordSPTFile.isInstanceOf(fis)) {
-               res = new ISpectrumData[2];
-               try (final FileInputStream st19 = new FileInputStream(file)) {
-                  res[0] = new OxfordSPTFile(st19, false);
+         }, //
+         new Format("Oxford SPT", "spt") {
+            @Override
+            public boolean isInstanceOf(final Header h) {
+               return OxfordSPTFile.isInstanceOf(h.getHeaderStream());
+            }
+
+            @Override
+            public ISpectrumData[] read(final Header h) throws Exception {
+               final ISpectrumData[] res = new ISpectrumData[2];
+               try (final InputStream is = h.openStream()) {
+                  res[0] = new OxfordSPTFile(is, false);
                }
-               try (final FileInputStream st20 = new FileInputStream(file)) {
-                  res[1] = new OxfordSPTFile(st20, true);
+               try (final InputStream is = h.openStream()) {
+                  res[1] = new OxfordSPTFile(is, true);
                }
-               return wrapResult(res, file);
+               return res;
             }
-         }
+         }));
+
+   /**
+    * Adds a Format to the end of the list of formats consulted by open(...).
+    *
+    * @param fmt
+    */
+   static public void register(final Format fmt) {
+      mFormats.add(fmt);
+   }
+
+   /**
+    * Returns an unmodifiable list of the registered formats in the order in
+    * which they are consulted.
+    *
+    * @return List&lt;Format&gt;
+    */
+   static public List<Format> getFormats() {
+      return Collections.unmodifiableList(mFormats);
+   }
+
+   /**
+    * Identifies the Format of the file described by the specified Header.
+    * Formats associated with the file's extension are tried first.
+    *
+    * @param h
+    * @return Format or null if none matches
+    */
+   static public Format identify(final Header h) {
+      final String ext = h.getExtension();
+      for (final Format fmt : mFormats)
+         if (fmt.hasExtension(ext) && fmt.isInstanceOf(h))
+            return fmt;
+      for (final Format fmt : mFormats)
+         if ((!fmt.hasExtension(ext)) && fmt.isInstanceOf(h))
+            return fmt;
+      return null;
+   }
+
+   /**
+    * Identifies the Format of the specified file.
+    *
+    * @param file
+    * @return Format or null if the format is not recognized or the file can
+    *         not be read.
+    */
+   static public Format identify(final File file) {
+      try {
+         return identify(new Header(file));
+      } catch (final IOException e) {
+         return null;
+      }
+   }
+
+   static public ISpectrumData[] open(final String path) throws EPQException {
+      return open(new File(path));
+   }
+
+   static public boolean isInstanceOf(final File file) {
+      return identify(file) != null;
+   }
+
+   static public ISpectrumData[] open(final File file) throws EPQException {
+      return openTimed(file, null);
+   }
+
+   private static ISpectrumData[] openTimed(final File file, final Map<String, DescriptiveStatistics> timing) throws EPQException {
+      final long start = System.nanoTime();
+      Format fmt = null;
+      try {
+         final Header h = new Header(file);
+         fmt = identify(h);
+         if (fmt != null)
+            return wrapResult(fmt.read(h), file);
       } catch (final Exception e) {
          throw new EPQException(e);
+      } finally {
+         if (timing != null)
+            synchronized (timing) {
+               timing.computeIfAbsent(fmt != null ? fmt.getName() : UNKNOWN, k -> new DescriptiveStatistics()).add(1.0e-9 * (System.nanoTime() - start));
+            }
       }
       throw new EPQException("The file " + file.getName() + " does not seem to be in one of the known file formats.");
    }
@@ -244,111 +547,122 @@ public class SpectrumFile {
 
    static public ISpectrumData open(final File file, final int idx) throws EPQException {
       try {
-         try (FileInputStream fis = new FileInputStream(file)) {
-            if (DTSAFile.isInstanceOf(fis)) {
-               final DTSAFile df = new DTSAFile(file);
-               return wrapResult(df.getSpectrum(idx), file, idx);
-            }
-         }
-         try (FileInputStream fis = new FileInputStream(file)) {
-            if (EMSAFile.isInstanceOf(fis)) {
-               if (idx != 0)
-                  throw new EPQException("EMSA files can only contain one spectrum.");
-               final EMSAFile ef = new EMSAFile();
-               try (FileInputStream st = new FileInputStream(file)) {
-                  ef.read(st);
-                  ef.setFilename(file.getName());
-                  return wrapResult(ef, file, idx);
-               }
-            }
-         }
-         try (FileInputStream fis = new FileInputStream(file)) {
-            if (EMISPECFile.isInstanceOf(fis)) {
-               if (idx != 0)
-                  throw new EPQException("EMISPEC files can only contain one spectrum.");
-               final EMISPECFile ef = new EMISPECFile();
-               try (FileInputStream st = new FileInputStream(file)) {
-                  ef.read(st);
-                  ef.setFilename(file.getName());
-                  return wrapResult(ef, file, idx);
-               }
-            }
-         }
-         try (FileInputStream fis = new FileInputStream(file)) {
-            if (ASPEXSpectrum.isInstanceOf(fis)) {
-               if (idx != 0)
-                  throw new EPQException("ASPEX TIFF files can only contain one spectrum.");
-               return wrapResult(new ASPEXSpectrum(file), file, idx);
-            }
-         }
-         try (FileInputStream fis = new FileInputStream(file)) {
-            if (IXRFSpectrum.isInstanceOf(fis)) {
-               if (idx != 0)
-                  throw new EPQException("ASPEX TIFF files can only contain one spectrum.");
-               try (final FileInputStream st = new FileInputStream(file)) {
-                  final IXRFSpectrum is = new IXRFSpectrum(st);
-                  is.setFilename(file.getName());
-                  return wrapResult(is, file, idx);
-               }
-            }
-         }
-         try (FileInputStream fis = new FileInputStream(file)) {
-            if (PMCASpectrum.isInstanceOf(fis)) {
-               if (idx != 0)
-                  throw new EPQException("PMCA files can only contain one spectrum.");
-               try (final FileInputStream st = new FileInputStream(file)) {
-                  final PMCASpectrum is = new PMCASpectrum(st);
-                  is.setFilename(file.getName());
-                  return wrapResult(is, file, idx);
-               }
-            }
-         }
-         try (FileInputStream fis = new FileInputStream(file)) {
-            if (RadiantSPDSpectrum.isInstanceOf(fis)) {
-               if (idx != 0)
-                  throw new EPQException("Radiant files can only contain one spectrum.");
-               final RadiantSPDSpectrum is;
-               try (FileInputStream st = new FileInputStream(file)) {
-                  is = new RadiantSPDSpectrum(st);
-                  is.setFilename(file.getName());
-                  return wrapResult(is, file, idx);
-               }
-            }
-         }
-         try (FileInputStream fis = new FileInputStream(file)) {
-            if (EdaxSPCSpectrum.isInstanceOf(fis)) {
-               if (idx != 0)
-                  throw new EPQException("EDAX files can only contain one spectrum.");
-               try (FileInputStream st = new FileInputStream(file)) {
-                  return wrapResult(new EdaxSPCSpectrum(st), file, idx);
-               }
-            }
-         }
-         try (FileInputStream fis = new FileInputStream(file)) {
-            if (BrukerSPX.isInstanceOf(fis)) {
-               if (idx != 0)
-                  throw new EPQException("Only single spectrum Bruker files are supported.");
-               try (final FileInputStream st = new FileInputStream(file)) {
-                  return wrapResult(new BrukerSPX(st), file, idx);
-               }
-            }
-         }
-         try (FileInputStream fis = new FileInputStream(file)) {
-            if (BrukerTXT.isInstanceOf(fis)) {
-               if (idx != 0)
-                  throw new EPQException("Only single spectrum Bruker text file are supported.");
-               try (final FileInputStream st = new FileInputStream(file)) {
-                  return wrapResult(new BrukerTXT(st), file, idx);
-               }
-            }
-         }
-         if (StandardBundle.isInstance(file)) {
-            final List<ISpectrumData> specs = StandardBundle.readSpectra(file);
-            return wrapResult(specs.get(idx), file, idx);
-         }
+         final Header h = new Header(file);
+         final Format fmt = identify(h);
+         if (fmt != null)
+            return wrapResult(fmt.read(h, idx), file, idx);
          throw new EPQException("The file " + file.getName() + " does not seem to be in one of the known file formats.");
       } catch (final Exception ex) {
          throw new EPQException(ex);
       }
    }
+
+   /**
+    * The result of a call to openAll(...).
+    */
+   public static class ImportResult {
+      private final Map<File, ISpectrumData[]> mSpectra = new LinkedHashMap<>();
+      private final Map<File, EPQException> mErrors = new LinkedHashMap<>();
+      private final Map<String, DescriptiveStatistics> mTiming = new TreeMap<>();
+
+      private ImportResult() {
+      }
+
+      /**
+       * The spectra read from each file successfully read in the order in
+       * which the files were specified.
+       *
+       * @return Map&lt;File, ISpectrumData[]&gt;
+       */
+      public Map<File, ISpectrumData[]> getSpectraByFile() {
+         return Collections.unmodifiableMap(mSpectra);
+      }
+
+      /**
+       * All the spectra read in the order in which the files were specified.
+       *
+       * @return List&lt;ISpectrumData&gt;
+       */
+      public List<ISpectrumData> getSpectra() {
+         final List<ISpectrumData> res = new ArrayList<>();
+         for (final ISpectrumData[] specs : mSpectra.values())
+            res.addAll(Arrays.asList(specs));
+         return res;
+      }
+
+      /**
+       * The files which could not be read and the reason.
+       *
+       * @return Map&lt;File, EPQException&gt;
+       */
+      public Map<File, EPQException> getErrors() {
+         return Collections.unmodifiableMap(mErrors);
+      }
+
+      /**
+       * Statistics describing the time in seconds required to identify and
+       * read each file by format name. Files which were not recognized are
+       * listed under "Unknown".
+       *
+       * @return Map&lt;String, DescriptiveStatistics&gt;
+       */
+      public Map<String, DescriptiveStatistics> getTiming() {
+         return Collections.unmodifiableMap(mTiming);
+      }
+
+      @Override
+      public String toString() {
+         final StringBuffer sb = new StringBuffer();
+         sb.append(mSpectra.size() + " files read, " + mErrors.size() + " failed");
+         for (final Map.Entry<String, DescriptiveStatistics> me : mTiming.entrySet()) {
+            final DescriptiveStatistics ds = me.getValue();
+            sb.append("\n" + me.getKey() + ": " + ds.count() + " files in " + String.format("%.3f", ds.sum()) + " s ("
+                  + String.format("%.2f", 1000.0 * ds.average()) + " ms each)");
+         }
+         return sb.toString();
+      }
+   }
+
+   /**
+    * Reads the specified files concurrently using one thread per available
+    * processor. See openAll(files, threads).
+    *
+    * @param files
+    * @return ImportResult
+    */
+   static public ImportResult openAll(final Collection<File> files) {
+      return openAll(files, Runtime.getRuntime().availableProcessors());
+   }
+
+   /**
+    * Reads the specified files using at most <code>threads</code> threads.
+    * Files which can not be read are reported in ImportResult.getErrors()
+    * rather than aborting the import.
+    *
+    * @param files
+    * @param threads The maximum number of files to read concurrently
+    * @return ImportResult
+    */
+   static public ImportResult openAll(final Collection<File> files, final int threads) {
+      final ImportResult res = new ImportResult();
+      final ExecutorService es = Executors.newFixedThreadPool(Math.max(1, threads));
+      try {
+         final Map<File, Future<ISpectrumData[]>> futures = new LinkedHashMap<>();
+         for (final File file : files)
+            futures.put(file, es.submit(() -> openTimed(file, res.mTiming)));
+         for (final Map.Entry<File, Future<ISpectrumData[]>> me : futures.entrySet())
+            try {
+               res.mSpectra.put(me.getKey(), me.getValue().get());
+            } catch (final ExecutionException e) {
+               final Throwable cause = e.getCause();
+               res.mErrors.put(me.getKey(), cause instanceof EPQException ? (EPQException) cause : new EPQException(cause.toString()));
+            } catch (final InterruptedException e) {
+               Thread.currentThread().interrupt();
+               res.mErrors.put(me.getKey(), new EPQException(e));
+            }
+      } finally {
+         es.shutdownNow();
+      }
+      return res;
+   }
 }
@@ -0,0 +1,477 @@
+package gov.nist.microanalysis.EPQTools;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.function.Supplier;
+
+import gov.nist.microanalysis.EPQLibrary.BaseSpectrum;
+import gov.nist.microanalysis.EPQLibrary.Composition;
+import gov.nist.microanalysis.EPQLibrary.CompositionFromKRatios;
+import gov.nist.microanalysis.EPQLibrary.EPQException;
+import gov.nist.microanalysis.EPQLibrary.FilterFit;
+import gov.nist.microanalysis.EPQLibrary.ISpectrumData;
+import gov.nist.microanalysis.EPQLibrary.KRatioSet;
+import gov.nist.microanalysis.EPQLibrary.MapImage;
+import gov.nist.microanalysis.EPQLibrary.SpectrumProperties;
+import gov.nist.microanalysis.EPQLibrary.SpectrumUtils;
+import gov.nist.microanalysis.EPQLibrary.XRayTransitionSet;
+
+/**
+ * <p>
+ * Processes a spectrum image stored in a Ripple/Raw file into a set of planes
+ * (k-ratios or mass fractions) in a single streaming pass. The spectrum image
+ * is read in tiles of whole rows. Each tile is passed through a sequence of
+ * stages (zero-peak discrimination, filter fitting, matrix correction,...) on
+ * a pool of worker threads and the resulting planes are streamed into a Sink,
+ * typically another Ripple/Raw file. The number of tiles in flight is bounded
+ * so that neither the spectra nor the results for the full image need fit in
+ * memory at once.
+ * </p>
+ * <p>
+ * Stages are invoked concurrently on different tiles and so must be thread
+ * safe. The stages provided here keep one FilterFit or CompositionFromKRatios
+ * per worker thread. Tiles are read and sunk on the thread calling
+ * <code>run(...)</code>.
+ * </p>
+ * <p>
+ * Copyright: Pursuant to title 17 Section 105 of the United States Code this
+ * software is not subject to copyright protection and is in the public domain
+ * </p>
+ * <p>
+ * Institution: National Institute of Standards and Technology
+ * </p>
+ *
+ * @author Nicholas
+ * @version 1.0
+ */
+public class SpectrumImagePipeline {
+
+   /**
+    * <p>
+    * A block of whole rows from the spectrum image along with the spectra and
+    * the result planes for each pixel in the block. Pixels are indexed in row
+    * major order from the first row in the tile.
+    * </p>
+    */
+   public static class Tile {
+      private final int mRow;
+      private final int mRows;
+      private final int mWidth;
+      private final double[][] mChannels;
+      private final ISpectrumData[] mSpectra;
+      private final double[][] mPlanes;
+      private Throwable mError;
+
+      private Tile(SpectrumImagePipeline sip, int row, int rows) {
+         mRow = row;
+         mRows = rows;
+         mWidth = sip.mSource.getWidth();
+         final int n = mRows * mWidth;
+         mChannels = new double[n][sip.mSource.getDepth()];
+         mSpectra = new ISpectrumData[n];
+         mPlanes = new double[n][sip.mPlanes.length];
+         for (int p = 0; p < n; ++p)
+            mSpectra[p] = new PixelSpectrum(sip, mChannels[p]);
+      }
+
+      /**
+       * The index of the first row in this tile.
+       *
+       * @return int
+       */
+      public int getRow() {
+         return mRow;
+      }
+
+      /**
+       * The number of rows in this tile.
+       *
+       * @return int
+       */
+      public int getRows() {
+         return mRows;
+      }
+
+      /**
+       * The number of pixels in each row.
+       *
+       * @return int
+       */
+      public int getWidth() {
+         return mWidth;
+      }
+
+      /**
+       * The number of pixels in this tile.
+       *
+       * @return int
+       */
+      public int getPixelCount() {
+         return mSpectra.length;
+      }
+
+      /**
+       * The channel data for the specified pixel. Stages may modify the data
+       * in place.
+       *
+       * @param pixel
+       * @return double[]
+       */
+      public double[] getChannels(int pixel) {
+         return mChannels[pixel];
+      }
+
+      /**
+       * The spectrum at the specified pixel. The spectrum is a view of
+       * getChannels(pixel).
+       *
+       * @param pixel
+       * @return ISpectrumData
+       */
+      public ISpectrumData getSpectrum(int pixel) {
+         return mSpectra[pixel];
+      }
+
+      /**
+       * The spectra in this tile in row major order.
+       *
+       * @return List&lt;ISpectrumData&gt;
+       */
+      public List<ISpectrumData> getSpectra() {
+         return Collections.unmodifiableList(Arrays.asList(mSpectra));
+      }
+
+      /**
+       * The result planes for the specified pixel. Each stage may read and
+       * update these values.
+       *
+       * @param pixel
+       * @return double[] One value per plane
+       */
+      public double[] getPlanes(int pixel) {
+         return mPlanes[pixel];
+      }
+   }
+
+   /**
+    * A single step in the pipeline. Implementations are called concurrently
+    * on distinct tiles.
+    */
+   public interface Stage {
+      void process(Tile tile) throws EPQException;
+   }
+
+   /**
+    * The destination for the result planes. Sinks are called on the thread
+    * that calls <code>run(...)</code> in the order in which tiles complete.
+    */
+   public interface Sink {
+      void write(Tile tile) throws IOException;
+   }
+
+   // A light-weight spectrum wrapping a tile's channel data
+   private static class PixelSpectrum extends BaseSpectrum {
+      private final double[] mData;
+      private final SpectrumProperties mPixelProperties;
+
+      private PixelSpectrum(SpectrumImagePipeline sip, double[] data) {
+         mData = data;
+         mPixelProperties = sip.mProperties;
+         setEnergyScale(sip.mZeroOffset, sip.mChannelWidth);
+      }
+
+      @Override
+      public int getChannelCount() {
+         return mData.length;
+      }
+
+      @Override
+      public double getCounts(int i) {
+         return mData[i];
+      }
+
+      @Override
+      public SpectrumProperties getProperties() {
+         return mPixelProperties;
+      }
+   }
+
+   private final RippleFile mSource;
+   private final SpectrumProperties mProperties;
+   private final double mZeroOffset;
+   private final double mChannelWidth;
+   private final XRayTransitionSet[] mPlanes;
+   private final List<Stage> mStages = new ArrayList<Stage>();
+   private int mTileRows = 16;
+   private int mThreadCount = Runtime.getRuntime().availableProcessors();
+   private int mMaxTilesInFlight = 0;
+
+   /**
+    * Constructs a SpectrumImagePipeline to process the spectra in the
+    * specified Ripple file into one plane per XRayTransitionSet. The
+    * SpectrumProperties must define EnergyOffset and EnergyScale and are
+    * shared (read-only) by all pixel spectra.
+    *
+    * @param source A vector ordered Ripple file
+    * @param props
+    * @param planes
+    */
+   public SpectrumImagePipeline(RippleFile source, SpectrumProperties props, XRayTransitionSet[] planes) {
+      mSource = source;
+      mProperties = props;
+      mZeroOffset = props.getNumericWithDefault(SpectrumProperties.EnergyOffset, 0.0);
+      mChannelWidth = props.getNumericWithDefault(SpectrumProperties.EnergyScale, 10.0);
+      mPlanes = planes.clone();
+   }
+
+   /**
+    * Appends a stage to the sequence applied to each tile.
+    *
+    * @param stage
+    */
+   public void addStage(Stage stage) {
+      mStages.add(stage);
+   }
+
+   /**
+    * Returns the number of result planes.
+    *
+    * @return int
+    */
+   public int getPlaneCount() {
+      return mPlanes.length;
+   }
+
+   /**
+    * Returns the XRayTransitionSet associated with the specified plane.
+    *
+    * @param plane
+    * @return XRayTransitionSet
+    */
+   public XRayTransitionSet getPlane(int plane) {
+      return mPlanes[plane];
+   }
+
+   /**
+    * Sets the number of rows in each tile (default 16).
+    *
+    * @param rows
+    */
+   public void setTileRows(int rows) {
+      mTileRows = Math.max(1, rows);
+   }
+
+   /**
+    * Sets the number of worker threads (default one per processor).
+    *
+    * @param n
+    */
+   public void setThreadCount(int n) {
+      mThreadCount = Math.max(1, n);
+   }
+
+   /**
+    * Sets the maximum number of tiles that may be read but not yet sunk. The
+    * default (0) is twice the thread count.
+    *
+    * @param n
+    */
+   public void setMaxTilesInFlight(int n) {
+      mMaxTilesInFlight = Math.max(0, n);
+   }
+
+   /**
+    * Zeros the channels below the ZeroPeakDiscriminator property in place.
+    *
+    * @return Stage
+    */
+   public static Stage zeroPeakDiscriminator() {
+      return tile -> {
+         if (tile.getPixelCount() > 0) {
+            final int lld = Math.min(SpectrumUtils.getZeroStrobeDiscriminatorChannel(tile.getSpectrum(0)), tile.getChannels(0).length);
+            if (lld > 0)
+               for (int p = 0; p < tile.getPixelCount(); ++p)
+                  Arrays.fill(tile.getChannels(p), 0, lld, 0.0);
+         }
+      };
+   }
+
+   /**
+    * Filters and fits each spectrum in the tile using a FilterFit and sets
+    * each plane to the k-ratio for the plane's XRayTransitionSet. The tile is
+    * fit as a block using <code>FilterFit.getKRatios(List)</code>. The factory
+    * is called once per worker thread and must return a fully configured
+    * FilterFit.
+    *
+    * @param factory
+    * @return Stage
+    */
+   public Stage filterFit(Supplier<FilterFit> factory) {
+      final ThreadLocal<FilterFit> fits = ThreadLocal.withInitial(factory);
+      return tile -> {
+         final KRatioSet[] krss = fits.get().getKRatios(tile.getSpectra());
+         for (int p = 0; p < krss.length; ++p) {
+            final double[] planes = tile.getPlanes(p);
+            for (int i = 0; i < mPlanes.length; ++i)
+               planes[i] = krss[p].getKRatio(mPlanes[i]);
+         }
+      };
+   }
+
+   /**
+    * Treats the planes as k-ratios and replaces them with the mass fraction of
+    * the plane's element as computed by a CompositionFromKRatios. Pixels that
+    * fail to quantify are set to zero. The factory is called once per worker
+    * thread and must return a fully configured CompositionFromKRatios. The
+    * CompositionFromKRatios instances may share a CorrectionAlgorithm since
+    * they evaluate it through per-thread CorrectionAlgorithm.Context objects.
+    *
+    * @param factory
+    * @param unkProps Properties of the unknown
+    * @param normalize Report normalized mass fractions
+    * @return Stage
+    */
+   public Stage quantify(Supplier<CompositionFromKRatios> factory, SpectrumProperties unkProps, boolean normalize) {
+      final ThreadLocal<CompositionFromKRatios> cfks = ThreadLocal.withInitial(factory);
+      return tile -> {
+         final CompositionFromKRatios cfk = cfks.get();
+         for (int p = 0; p < tile.getPixelCount(); ++p) {
+            final double[] planes = tile.getPlanes(p);
+            final KRatioSet krs = new KRatioSet();
+            for (int i = 0; i < mPlanes.length; ++i)
+               krs.addKRatio(mPlanes[i], Math.max(0.0, planes[i]), 0.0);
+            try {
+               final Composition comp = cfk.compute(krs, unkProps);
+               for (int i = 0; i < mPlanes.length; ++i)
+                  planes[i] = Math.max(0.0, comp.weightFraction(mPlanes[i].getElement(), normalize));
+            }
+            catch (final EPQException e) {
+               Arrays.fill(planes, 0.0);
+            }
+         }
+      };
+   }
+
+   /**
+    * Returns a Sink that writes the planes into a vector ordered Ripple file
+    * with the same width and height as the source and one item per plane.
+    *
+    * @param dest
+    * @return Sink
+    */
+   public static Sink rippleSink(RippleFile dest) {
+      return tile -> {
+         for (int r = 0; r < tile.getRows(); ++r)
+            for (int c = 0; c < tile.getWidth(); ++c) {
+               dest.seek(tile.getRow() + r, c);
+               dest.write(tile.getPlanes((r * tile.getWidth()) + c));
+            }
+      };
+   }
+
+   /**
+    * Returns a Sink that writes the planes into a MapImage with the same width
+    * and height as the source and one ROI per plane.
+    *
+    * @param dest
+    * @return Sink
+    */
+   public static Sink mapImageSink(MapImage dest) {
+      return tile -> {
+         for (int r = 0; r < tile.getRows(); ++r)
+            for (int c = 0; c < tile.getWidth(); ++c) {
+               final double[] planes = tile.getPlanes((r * tile.getWidth()) + c);
+               for (int i = 0; i < planes.length; ++i)
+                  dest.set(c, tile.getRow() + r, i, planes[i]);
+            }
+      };
+   }
+
+   /**
+    * Processes the full spectrum image into a new 8-byte float Ripple file
+    * with one item per plane.
+    *
+    * @param rplFile
+    * @param rawFile
+    * @throws EPQException
+    * @throws IOException
+    */
+   public void run(String rplFile, String rawFile) throws EPQException, IOException {
+      try (final RippleFile dest = new RippleFile(mSource.getWidth(), mSource.getHeight(), mPlanes.length, RippleFile.FLOAT, 8,
+            RippleFile.DONT_CARE_ENDIAN, rplFile, rawFile)) {
+         run(rippleSink(dest));
+      }
+   }
+
+   /**
+    * Processes the full spectrum image passing each completed tile to the
+    * sink. Tiles are read on the calling thread, processed by the stages on
+    * the worker threads and sunk on the calling thread. At most
+    * <code>setMaxTilesInFlight(...)</code> tiles are held in memory.
+    *
+    * @param sink
+    * @throws EPQException If a stage fails (an Error thrown by a stage is
+    *            rethrown as is)
+    * @throws IOException
+    */
+   public void run(Sink sink) throws EPQException, IOException {
+      final int height = mSource.getHeight();
+      final int inFlight = mMaxTilesInFlight > 0 ? mMaxTilesInFlight : 2 * mThreadCount;
+      final Semaphore permits = new Semaphore(inFlight);
+      final LinkedBlockingQueue<Tile> done = new LinkedBlockingQueue<Tile>();
+      final ExecutorService workers = Executors.newFixedThreadPool(mThreadCount);
+      int submitted = 0, sunk = 0;
+      try {
+         for (int row = 0; row < height; row += mTileRows) {
+            // Sink completed tiles until there is room for another
+            while (!permits.tryAcquire()) {
+               sink(done.take(), sink);
+               ++sunk;
+               permits.release();
+            }
+            final Tile tile = new Tile(this, row, Math.min(mTileRows, height - row));
+            for (int r = 0; r < tile.getRows(); ++r)
+               for (int c = 0; c < tile.getWidth(); ++c)
+                  mSource.readPixel(row + r, c, tile.getChannels((r * tile.getWidth()) + c));
+            workers.execute(() -> {
+               try {
+                  for (final Stage stage : mStages)
+                     stage.process(tile);
+               }
+               catch (final Throwable e) {
+                  // Record the failure so that the tile is still released
+                  tile.mError = e;
+               }
+               done.add(tile);
+            });
+            ++submitted;
+         }
+         for (; sunk < submitted; ++sunk)
+            sink(done.take(), sink);
+      }
+      catch (final InterruptedException e) {
+         Thread.currentThread().interrupt();
+         throw new EPQException(e);
+      }
+      finally {
+         workers.shutdownNow();
+      }
+   }
+
+   private static void sink(Tile tile, Sink sink) throws EPQException, IOException {
+      if (tile.mError instanceof EPQException)
+         throw (EPQException) tile.mError;
+      if (tile.mError instanceof Error)
+         throw (Error) tile.mError;
+      if (tile.mError != null)
+         throw new EPQException(tile.mError);
+      sink.write(tile);
+   }
+}
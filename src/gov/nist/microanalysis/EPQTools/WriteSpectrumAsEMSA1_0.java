@@ -1,11 +1,12 @@
 package gov.nist.microanalysis.EPQTools;
 
+import java.io.BufferedWriter;
 import java.io.File;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.io.OutputStreamWriter;
-import java.io.PrintWriter;
-import java.io.UnsupportedEncodingException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
 import java.text.DecimalFormatSymbols;
 import java.text.NumberFormat;
 import java.util.Calendar;
@@ -33,6 +34,11 @@ import gov.nist.microanalysis.Utility.Math2;
  * interface to an ESMA 1.0 standard file.
  * </p>
  * <p>
+ * The file is written through a single buffered writer and integral channel
+ * counts are formatted without the overhead of a NumberFormat, which makes
+ * this suitable for bulk export.
+ * </p>
+ * <p>
  * Copyright: Pursuant to title 17 Section 105 of the United States Code this
  * software is not subject to copyright protection and is in the public domain
  * </p>
@@ -55,15 +61,27 @@ public class WriteSpectrumAsEMSA1_0 {
       return ((c >= 32) && (c <= 126)) ? c : '?';
    }
 
-   static private void writeln(PrintWriter pw, String keyword, String value) {
+   // PrintWriter.println() used the line separator fixed at start-up
+   private static final String EOL = System.lineSeparator();
+
+   static private void writeln(Writer pw, String keyword, String value) throws IOException {
       final StringBuffer sb = new StringBuffer("#           : ");
       sb.replace(1, keyword.length(), keyword);
       for (int p = 0; p < value.length(); ++p)
          sb.append(restrict(value.charAt(p)));
-      if (keyword != "ENDOFDATA")
-         pw.println(sb.toString());
-      else
-         pw.print(sb.toString());
+      if (!keyword.equals("ENDOFDATA"))
+         sb.append(EOL);
+      pw.write(sb.toString());
+   }
+
+   /**
+    * Formats a channel count as <code>nf.format(counts)</code> would. Integral
+    * values, by far the most common case, take a short cut.
+    */
+   private static String formatCounts(double counts, NumberFormat nf) {
+      if ((counts == Math.rint(counts)) && (Math.abs(counts) < 1.0e15) && ((counts != 0.0) || (1.0 / counts > 0.0)))
+         return Long.toString((long) counts);
+      return nf.format(counts);
    }
 
    public static void write(ISpectrumData spec, OutputStream os, Mode mode) throws EPQException {
@@ -72,10 +90,7 @@ public class WriteSpectrumAsEMSA1_0 {
 
    public static void write(ISpectrumData spec, OutputStream os, Mode mode, File path) throws EPQException {
       try {
-         final String oldLs = System.getProperty("line.separator");
-         // Force <CR><LF> as required by the standard
-         System.setProperty("line.separator", "\r\n");
-         final PrintWriter pw = new PrintWriter(new OutputStreamWriter(os, "US-ASCII"));
+         final Writer pw = new BufferedWriter(new OutputStreamWriter(os, StandardCharsets.US_ASCII), 0x10000);
          // Ensure that numbers are written in the standard US format without
          // grouping...
          final NumberFormat nf = new HalfUpFormat("#.#####;-#.#####", new DecimalFormatSymbols(Locale.US));
@@ -350,15 +365,18 @@ public class WriteSpectrumAsEMSA1_0 {
 
             }
             writeln(pw, "SPECTRUM", "");
-            for (int n = 0; n < nCh; ++n)
-               pw.println((n < spec.getChannelCount() ? nf.format(spec.getCounts(n)) : "0") + ",");
+            final int chCount = spec.getChannelCount();
+            for (int n = 0; n < nCh; ++n) {
+               pw.write(n < chCount ? formatCounts(spec.getCounts(n), nf) : "0");
+               pw.write(",");
+               pw.write(EOL);
+            }
             writeln(pw, "ENDOFDATA", "");
             pw.write('\n');
-            pw.flush();
          } finally {
-            System.setProperty("line.separator", oldLs);
+            pw.flush();
          }
-      } catch (final UnsupportedEncodingException e) {
+      } catch (final IOException e) {
          throw new EPQException(e);
       }
    }
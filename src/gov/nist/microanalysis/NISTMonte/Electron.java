@@ -1,6 +1,7 @@
 package gov.nist.microanalysis.NISTMonte;
 
 import gov.nist.microanalysis.EPQLibrary.Element;
+import gov.nist.microanalysis.EPQLibrary.SimulationContext;
 import gov.nist.microanalysis.NISTMonte.MonteCarloSS.RegionBase;
 import gov.nist.microanalysis.Utility.Math2;
 
@@ -57,7 +58,6 @@ public class Electron {
 
    transient private boolean mTrajectoryComplete;
 
-   private static long lastID = 0; // ID of last generated electron
    private final long ident; // A unique identifying number to assist tracking
    private long parentID = 0; // 0 if from e-gun. Otherwise ID of parent.
 
@@ -98,7 +98,7 @@ public class Electron {
       mPhi = phi;
       mStepCount = 0;
       mTrajectoryComplete = false;
-      ident = ++lastID;
+      ident = SimulationContext.current().nextElectronID();
    }
 
    /**
@@ -404,10 +404,11 @@ public class Electron {
    }
 
    /**
-    * @return Returns the identifier of the most recently created electron.
+    * @return Returns the identifier of the most recently created electron in
+    *         the current SimulationContext.
     */
    static public long getlastIdent() {
-      return lastID;
+      return SimulationContext.current().getLastElectronID();
    }
 
    /**
@@ -17,6 +17,7 @@ import gov.nist.microanalysis.EPQLibrary.EPQFatalException;
 import gov.nist.microanalysis.EPQLibrary.Element;
 import gov.nist.microanalysis.EPQLibrary.ITransform;
 import gov.nist.microanalysis.EPQLibrary.Material;
+import gov.nist.microanalysis.EPQLibrary.SimulationContext;
 import gov.nist.microanalysis.EPQLibrary.ToSI;
 import gov.nist.microanalysis.EPQLibrary.XRayTransition;
 import gov.nist.microanalysis.EPQLibrary.Detector.ElectronProbe;
@@ -651,6 +652,13 @@ final public class MonteCarloSS {
 
    private ElectronGun mGun = new GaussianBeam(1.0e-8);
 
+   /*
+    * The context (clock, electron numbering, tables and algorithms) in which
+    * this simulation runs. Bound to the calling thread while trajectories are
+    * run.
+    */
+   private SimulationContext mContext = SimulationContext.current();
+
    private static final IMaterialScatterModel NULL_MSM = new IMaterialScatterModel() {
 
       /*
@@ -1070,11 +1078,17 @@ final public class MonteCarloSS {
     * tracked to completion before runTrajectory will return.
     */
    public void runTrajectory() {
-      initializeTrajectory();
-      fireEvent(TrajectoryStartEvent);
-      while (!allElectronsComplete())
-         takeStep();
-      fireEvent(TrajectoryEndEvent);
+      final SimulationContext prev = SimulationContext.setCurrent(mContext);
+      try {
+         initializeTrajectory();
+         fireEvent(TrajectoryStartEvent);
+         while (!allElectronsComplete())
+            takeStep();
+         fireEvent(TrajectoryEndEvent);
+      }
+      finally {
+         SimulationContext.setCurrent(prev);
+      }
    }
 
    /**
@@ -1084,10 +1098,40 @@ final public class MonteCarloSS {
     *           int
     */
    public void runMultipleTrajectories(int n) {
-      fireEvent(FirstTrajectoryEvent);
-      for (int i = 0; i < n; ++i)
-         runTrajectory();
-      fireEvent(LastTrajectoryEvent);
+      final SimulationContext prev = SimulationContext.setCurrent(mContext);
+      try {
+         fireEvent(FirstTrajectoryEvent);
+         for (int i = 0; i < n; ++i)
+            runTrajectory();
+         fireEvent(LastTrajectoryEvent);
+      }
+      finally {
+         SimulationContext.setCurrent(prev);
+      }
+   }
+
+   /**
+    * Returns the SimulationContext in which this MonteCarloSS runs
+    * trajectories. By default, this is the context that was current when the
+    * MonteCarloSS was constructed.
+    *
+    * @return SimulationContext
+    */
+   public SimulationContext getContext() {
+      return mContext;
+   }
+
+   /**
+    * Sets the SimulationContext in which this MonteCarloSS runs trajectories.
+    * The context is bound to the calling thread for the duration of
+    * runTrajectory() and runMultipleTrajectories(...).
+    *
+    * @param context
+    */
+   public void setContext(SimulationContext context) {
+      if (context == null)
+         throw new EPQFatalException("The simulation context must not be null.");
+      mContext = context;
    }
 
    /**
@@ -0,0 +1,202 @@
+package gov.nist.microanalysis.Utility;
+
+/**
+ * <p>
+ * A small set of numerical kernels over double[] which dominate the time spent
+ * in filtering, summing and scaling spectra. The default implementation is
+ * plain Java. An implementation based on the incubating JDK Vector API is
+ * built by the Maven <code>vector</code> profile and is available when the JVM
+ * is started with
+ * <code>--add-modules jdk.incubator.vector
+ * -Dgov.nist.microanalysis.vector=true</code>. The choice is made once when
+ * this class is loaded. The vector implementation accumulates in a different
+ * order so results may differ in the last few bits.
+ * </p>
+ * <p>
+ * Copyright: Pursuant to title 17 Section 105 of the United States Code this
+ * software is not subject to copyright protection and is in the public domain
+ * </p>
+ * <p>
+ * Institution: National Institute of Standards and Technology
+ * </p>
+ *
+ * @author Nicholas
+ * @version 1.0
+ */
+public abstract class ArrayKernels {
+
+   /**
+    * The system property which enables the Vector API kernels.
+    */
+   public static final String VECTOR_PROPERTY = "gov.nist.microanalysis.vector";
+
+   private static final ArrayKernels SCALAR = new Scalar();
+   private static final ArrayKernels VECTOR = loadVector();
+   private static final ArrayKernels INSTANCE = Boolean.getBoolean(VECTOR_PROPERTY) && (VECTOR != null) ? VECTOR : SCALAR;
+
+   private static ArrayKernels loadVector() {
+      try {
+         return (ArrayKernels) Class.forName("gov.nist.microanalysis.Utility.VectorArrayKernels").getDeclaredConstructor().newInstance();
+      } catch (final ReflectiveOperationException | LinkageError e) {
+         // jdk.incubator.vector has not been added to the module graph
+         return null;
+      }
+   }
+
+   /**
+    * The kernels selected at start-up.
+    *
+    * @return ArrayKernels
+    */
+   public static ArrayKernels get() {
+      return INSTANCE;
+   }
+
+   /**
+    * The plain Java kernels.
+    *
+    * @return ArrayKernels
+    */
+   public static ArrayKernels scalar() {
+      return SCALAR;
+   }
+
+   /**
+    * The Vector API kernels or null if jdk.incubator.vector is not available.
+    *
+    * @return ArrayKernels
+    */
+   public static ArrayKernels vector() {
+      return VECTOR;
+   }
+
+   /**
+    * A descriptive name for this implementation.
+    *
+    * @return String
+    */
+   public abstract String getName();
+
+   /**
+    * Returns the sum of a[aOff+i]*b[bOff+i] for i in [0, len).
+    *
+    * @param a
+    * @param aOff
+    * @param b
+    * @param bOff
+    * @param len
+    * @return double
+    */
+   public abstract double dot(double[] a, int aOff, double[] b, int bOff, int len);
+
+   /**
+    * Returns the sum of a[i] for i in [from, to).
+    *
+    * @param a
+    * @param from
+    * @param to
+    * @return double
+    */
+   public abstract double sum(double[] a, int from, int to);
+
+   /**
+    * Computes x[i] = scale*x[i] + offset for i in [from, to).
+    *
+    * @param scale
+    * @param offset
+    * @param x
+    * @param from
+    * @param to
+    */
+   public abstract void scale(double scale, double offset, double[] x, int from, int to);
+
+   /**
+    * Computes y[yOff+i] += k*x[xOff+i] for i in [0, len).
+    *
+    * @param k
+    * @param x
+    * @param xOff
+    * @param y
+    * @param yOff
+    * @param len
+    */
+   public abstract void axpy(double k, double[] x, int xOff, double[] y, int yOff, int len);
+
+   /**
+    * Correlates the filter f with x. Computes dst[dstOff+j] = the sum of
+    * f[i]*x[xOff+j+i] for i in [0, f.length) for each j in [0, n). The
+    * elements x[xOff] to x[xOff+n+f.length-2] must exist.
+    *
+    * @param f
+    * @param x
+    * @param xOff
+    * @param dst
+    * @param dstOff
+    * @param n
+    */
+   public abstract void correlate(double[] f, double[] x, int xOff, double[] dst, int dstOff, int n);
+
+   /**
+    * Computes sum[i] += x[i] and sumOfSqrs[i] += x[i]*x[i] for i in [0,
+    * x.length).
+    *
+    * @param x
+    * @param sum
+    * @param sumOfSqrs
+    */
+   public abstract void accumulate(double[] x, double[] sum, double[] sumOfSqrs);
+
+   private static class Scalar extends ArrayKernels {
+
+      @Override
+      public String getName() {
+         return "Scalar";
+      }
+
+      @Override
+      public double dot(double[] a, int aOff, double[] b, int bOff, int len) {
+         double res = 0.0;
+         for (int i = 0; i < len; ++i)
+            res += a[aOff + i] * b[bOff + i];
+         return res;
+      }
+
+      @Override
+      public double sum(double[] a, int from, int to) {
+         double res = 0.0;
+         for (int i = from; i < to; ++i)
+            res += a[i];
+         return res;
+      }
+
+      @Override
+      public void scale(double scale, double offset, double[] x, int from, int to) {
+         for (int i = from; i < to; ++i)
+            x[i] = (scale * x[i]) + offset;
+      }
+
+      @Override
+      public void axpy(double k, double[] x, int xOff, double[] y, int yOff, int len) {
+         for (int i = 0; i < len; ++i)
+            y[yOff + i] += k * x[xOff + i];
+      }
+
+      @Override
+      public void correlate(double[] f, double[] x, int xOff, double[] dst, int dstOff, int n) {
+         for (int j = 0; j < n; ++j) {
+            double sum = 0.0;
+            for (int i = 0; i < f.length; ++i)
+               sum += f[i] * x[xOff + j + i];
+            dst[dstOff + j] = sum;
+         }
+      }
+
+      @Override
+      public void accumulate(double[] x, double[] sum, double[] sumOfSqrs) {
+         for (int i = 0; i < x.length; ++i) {
+            sum[i] += x[i];
+            sumOfSqrs[i] += x[i] * x[i];
+         }
+      }
+   }
+}
@@ -5,10 +5,25 @@
 package gov.nist.microanalysis.Utility;
 
 import java.util.Random;
+import java.util.SplittableRandom;
+import java.util.stream.IntStream;
 
 /**
  * <p>
- * A simple class for performing a one dimensional integration.
+ * A simple class for performing a Monte Carlo integration of a vector valued
+ * function over the volume defined by <code>inside(...)</code> within a
+ * bounding box.
+ * </p>
+ * <p>
+ * By default the sample points are pseudo-random and evaluated on the calling
+ * thread. <code>setSampling(Sampling.HALTON)</code> selects a randomly shifted
+ * Halton low-discrepancy sequence which typically converges much faster than
+ * pseudo-random sampling for smooth integrands.
+ * <code>setParallel(true)</code> evaluates blocks of sample points in parallel
+ * and requires that <code>function(...)</code> and <code>inside(...)</code>
+ * are thread-safe. <code>compute(double, int)</code> evaluates independent
+ * randomized replicates until the estimated relative error of each component
+ * of the result falls below a target.
  * </p>
  * <p>
  * Copyright: Pursuant to title 17 Section 105 of the United States Code this
@@ -17,19 +32,48 @@ import java.util.Random;
  * <p>
  * Institution: National Institute of Standards and Technology
  * </p>
- * 
+ *
  * @author nritchie
  * @version 1.0
  */
 abstract public class MCIntegrator {
 
+   /**
+    * The method used to generate sample points within the bounding box.
+    */
+   public enum Sampling {
+      /**
+       * Independent pseudo-random points
+       */
+      PSEUDO_RANDOM,
+      /**
+       * A Halton sequence with a random (Cranley-Patterson) shift
+       */
+      HALTON
+   };
+
+   private static final int[] PRIMES = {2, 3, 5, 7, 11, 13, 17, 19, 23, 29, 31, 37, 41, 43, 47, 53};
+   /**
+    * The number of independent replicates used to estimate the error in
+    * compute(double, int)
+    */
+   private static final int REPLICATES = 8;
+   /**
+    * The number of sample points evaluated as a single task
+    */
+   private static final int BLOCK = 4096;
+
    private final double[] mPoint1;
    private final double[] mPoint2;
    private final Random mRand;
+   private Sampling mSampling = Sampling.PSEUDO_RANDOM;
+   private boolean mParallel = false;
+   private double[] mRelativeErrors;
+   private long mEvaluations;
 
    /**
     * A user supplied function to integrate.
-    * 
+    *
     * @param args
     * @return The function value at <code>args</code>
     */
@@ -38,7 +82,7 @@ abstract public class MCIntegrator {
    /**
     * A user supplied function that returns true if <code>arg</code> is within
     * the integration volume and false otherwise.
-    * 
+    *
     * @param args
     * @return boolean - true within integration volume
     */
@@ -52,23 +96,225 @@ abstract public class MCIntegrator {
 
    }
 
-   public double[] compute(int nTests) {
+   public Sampling getSampling() {
+      return mSampling;
+   }
+
+   public void setSampling(Sampling sampling) {
+      assert (sampling != Sampling.HALTON) || (mPoint1.length <= PRIMES.length);
+      mSampling = sampling;
+   }
+
+   public boolean isParallel() {
+      return mParallel;
+   }
+
+   /**
+    * Evaluate blocks of sample points in parallel. Requires that
+    * <code>function(...)</code> and <code>inside(...)</code> are thread-safe.
+    *
+    * @param parallel
+    */
+   public void setParallel(boolean parallel) {
+      mParallel = parallel;
+   }
+
+   /**
+    * The estimated relative (one-sigma) error in each component of the result
+    * of the last call to <code>compute(double, int)</code>.
+    *
+    * @return double[] or null
+    */
+   public double[] getRelativeErrors() {
+      return mRelativeErrors != null ? mRelativeErrors.clone() : null;
+   }
+
+   /**
+    * The number of sample points evaluated by the last call to
+    * <code>compute(...)</code>.
+    *
+    * @return long
+    */
+   public long getEvaluationCount() {
+      return mEvaluations;
+   }
+
+   private double volume() {
       double volume = mPoint2[0] - mPoint1[0];
       for (int i = 1; i < mPoint1.length; i++)
          volume *= mPoint2[i] - mPoint1[i];
+      return volume;
+   }
 
+   /**
+    * The radical inverse of index in the specified base.
+    */
+   private static double radicalInverse(long index, int base) {
+      final double inv = 1.0 / base;
+      double res = 0.0, f = inv;
+      while (index > 0) {
+         res += f * (index % base);
+         index /= base;
+         f *= inv;
+      }
+      return res;
+   }
+
+   /**
+    * Sums the function over the sample points [first, first+n) which are
+    * inside the integration volume.
+    *
+    * @param first
+    *           The index of the first sample point (HALTON only)
+    * @param n
+    *           The number of sample points
+    * @param shift
+    *           The random shift (HALTON only)
+    * @param seed
+    *           The random seed (PSEUDO_RANDOM only)
+    * @return The sum or null if none of the points were inside
+    */
+   private double[] sum(long first, int n, double[] shift, long seed) {
+      final int dim = mPoint1.length;
+      final double[] pt = new double[dim];
+      final SplittableRandom rand = mSampling == Sampling.PSEUDO_RANDOM ? new SplittableRandom(seed) : null;
       double[] inner = null;
-      final double[] tempPoint = new double[mPoint1.length];
-      for (int i = 0; i < nTests; i++) {
-         for (int index = 0; index < mPoint1.length; index++)
-            tempPoint[index] = mPoint1[index] + (mRand.nextDouble() * (mPoint2[index] - mPoint1[index]));
-
-         if (inside(tempPoint)) {
-            final double[] f = function(tempPoint);
-            inner = (inner == null ? f : Math2.plusEquals(inner, f));
+      for (int i = 0; i < n; ++i) {
+         for (int index = 0; index < dim; index++) {
+            double u;
+            if (rand != null)
+               u = rand.nextDouble();
+            else {
+               u = radicalInverse(first + i + 1, PRIMES[index]) + shift[index];
+               if (u >= 1.0)
+                  u -= 1.0;
+            }
+            pt[index] = mPoint1[index] + (u * (mPoint2[index] - mPoint1[index]));
+         }
+         if (inside(pt)) {
+            final double[] f = function(pt);
+            inner = (inner == null ? f.clone() : Math2.plusEquals(inner, f));
          }
       }
-      return Math2.timesEquals(volume / nTests, inner);
+      return inner;
+   }
+
+   private static double[] add(double[] a, double[] b) {
+      return a == null ? b : (b == null ? a : Math2.plusEquals(a, b));
+   }
+
+   /**
+    * Evaluates the sums over [first, first+n) for each of the replicates
+    * breaking the work into blocks which may be evaluated in parallel.
+    */
+   private double[][] sums(long first, int n, double[][] shifts, long[] seeds) {
+      final int nBlocks = (n + BLOCK - 1) / BLOCK;
+      final int nRep = shifts.length;
+      final double[][][] blocks = new double[nRep][nBlocks][];
+      IntStream tasks = IntStream.range(0, nRep * nBlocks);
+      if (mParallel)
+         tasks = tasks.parallel();
+      tasks.forEach(task -> {
+         final int rep = task / nBlocks, blk = task % nBlocks;
+         final int len = Math.min(BLOCK, n - (blk * BLOCK));
+         final long start = first + ((long) blk * BLOCK);
+         blocks[rep][blk] = sum(start, len, shifts[rep], seeds[rep] + (start * 0x9E3779B97F4A7C15L));
+      });
+      final double[][] res = new double[nRep][];
+      for (int rep = 0; rep < nRep; ++rep)
+         for (final double[] blk : blocks[rep])
+            res[rep] = add(res[rep], blk);
+      mEvaluations += (long) nRep * n;
+      return res;
+   }
+
+   private double[] nextShift() {
+      final double[] shift = new double[mPoint1.length];
+      for (int i = 0; i < shift.length; ++i)
+         shift[i] = mRand.nextDouble();
+      return shift;
+   }
+
+   public double[] compute(int nTests) {
+      mEvaluations = 0;
+      final double[] inner = sums(0, nTests, new double[][]{nextShift()}, new long[]{mRand.nextLong()})[0];
+      return Math2.timesEquals(volume() / nTests, inner);
+   }
+
+   /**
+    * Integrates the function using as many sample points as necessary for the
+    * estimated relative error in each component of the result to fall below
+    * <code>relErr</code> (or until <code>maxTests</code> points have been
+    * evaluated.) The error is estimated from the scatter between independent
+    * randomized replicates each of which is extended by doubling the number of
+    * sample points until the stopping criterion is met.
+    *
+    * @param relErr
+    *           The target relative one-sigma error
+    * @param maxTests
+    *           The maximum number of sample points
+    * @return double[] The integral of each component of the function
+    */
+   public double[] compute(double relErr, int maxTests) {
+      mEvaluations = 0;
+      final double[][] shifts = new double[REPLICATES][];
+      final long[] seeds = new long[REPLICATES];
+      for (int rep = 0; rep < REPLICATES; ++rep) {
+         shifts[rep] = nextShift();
+         seeds[rep] = mRand.nextLong();
+      }
+      final double[][] reps = new double[REPLICATES][];
+      final double volume = volume();
+      long n = 0;
+      int step = Math.min(BLOCK, Math.max(1, maxTests / REPLICATES));
+      while (true) {
+         final double[][] next = sums(n, step, shifts, seeds);
+         for (int rep = 0; rep < REPLICATES; ++rep)
+            reps[rep] = add(reps[rep], next[rep]);
+         n += step;
+         final double[] mean = estimate(reps, volume / n);
+         if ((mean != null) && (Math2.max(mRelativeErrors) <= relErr))
+            return mean;
+         if ((REPLICATES * (n + n)) > maxTests) {
+            // Use up the remaining budget
+            final int rest = (int) Math.min(Integer.MAX_VALUE, (maxTests / REPLICATES) - n);
+            if (rest <= 0) {
+               if (mean != null)
+                  return mean;
+               // Too few points fell inside to estimate the error
+               double[] all = null;
+               for (final double[] rep : reps)
+                  all = add(all, rep);
+               return Math2.timesEquals(volume / (REPLICATES * n), all);
+            }
+            step = rest;
+         } else
+            step = (int) n;
+      }
    }
 
+   /**
+    * Computes the mean of the replicates scaled by k and updates
+    * mRelativeErrors.
+    */
+   private double[] estimate(double[][] reps, double k) {
+      for (final double[] rep : reps)
+         if (rep == null) {
+            mRelativeErrors = null;
+            return null;
+         }
+      final int dim = reps[0].length;
+      final double[] mean = new double[dim];
+      final double[] relErr = new double[dim];
+      for (int d = 0; d < dim; ++d) {
+         final DescriptiveStatistics ds = new DescriptiveStatistics();
+         for (final double[] rep : reps)
+            ds.add(k * rep[d]);
+         mean[d] = ds.average();
+         final double se = ds.standardDeviation() / Math.sqrt(reps.length);
+         relErr[d] = mean[d] != 0.0 ? Math.abs(se / mean[d]) : (se == 0.0 ? 0.0 : Double.POSITIVE_INFINITY);
+      }
+      mRelativeErrors = relErr;
+      return mean;
+   }
 }
@@ -40,13 +40,87 @@ public class Math2 {
     */
    public static final double SQRT_PI = Math.sqrt(Math.PI);
 
+   /**
+    * The Random that rgen uses. It draws numbers from the Random bound to the
+    * calling thread by <code>setThreadRandom(...)</code>. When no Random is
+    * bound to the thread, it draws from one Random shared by all threads.
+    */
+   private static final class ThreadBoundRandom extends Random {
+
+      private static final long serialVersionUID = -3467325185463427216L;
+
+      private final Random mShared;
+
+      private ThreadBoundRandom(Random shared) {
+         mShared = shared;
+      }
+
+      private Random target() {
+         final Random res = sThreadRandom.get();
+         return res != null ? res : mShared;
+      }
+
+      @Override
+      public synchronized void setSeed(long seed) {
+         // Called by the Random constructor before mShared is assigned
+         if (mShared == null)
+            super.setSeed(seed);
+         else
+            target().setSeed(seed);
+      }
+
+      @Override
+      public void nextBytes(byte[] bytes) {
+         target().nextBytes(bytes);
+      }
+
+      @Override
+      public int nextInt() {
+         return target().nextInt();
+      }
+
+      @Override
+      public int nextInt(int bound) {
+         return target().nextInt(bound);
+      }
+
+      @Override
+      public long nextLong() {
+         return target().nextLong();
+      }
+
+      @Override
+      public boolean nextBoolean() {
+         return target().nextBoolean();
+      }
+
+      @Override
+      public float nextFloat() {
+         return target().nextFloat();
+      }
+
+      @Override
+      public double nextDouble() {
+         return target().nextDouble();
+      }
+
+      @Override
+      public double nextGaussian() {
+         return target().nextGaussian();
+      }
+   }
+
+   private static final ThreadLocal<Random> sThreadRandom = new ThreadLocal<Random>();
+
    /**
     * A random number generator. It is invoked by, e.g., rgen.nextDouble(). By
     * default it functions similarly to Math.double(), with an initial seed
     * produced by a procedure unlikely to give the same value under repeated
-    * invocations.
+    * invocations. A thread that has bound its own Random using
+    * <code>setThreadRandom(...)</code> draws from that Random instead, so
+    * concurrent simulations can each be reproducible.
     */
-   public static Random rgen = new Random();
+   public static Random rgen = new ThreadBoundRandom(new Random());
 
    /**
     * initializeRandom - When called with an argument of type long, it
@@ -58,11 +132,30 @@ public class Math2 {
     *           Seed for {@link Random} constructor
     */
    public static void initializeRandom(long seed) {
-      rgen = new Random(seed);
+      rgen = new ThreadBoundRandom(new Random(seed));
    }
 
    public static void initializeRandom() {
-      rgen = new Random();
+      rgen = new ThreadBoundRandom(new Random());
+   }
+
+   /**
+    * Binds a Random to the calling thread so that numbers drawn from
+    * Math2.rgen on this thread come from <code>rnd</code>. A null argument
+    * unbinds it, and rgen goes back to the shared generator. Returns the
+    * previous binding (possibly null) so that it can be restored in a finally
+    * block.
+    *
+    * @param rnd
+    * @return Random The previous binding or null
+    */
+   public static Random setThreadRandom(Random rnd) {
+      final Random prev = sThreadRandom.get();
+      if (rnd == null)
+         sThreadRandom.remove();
+      else
+         sThreadRandom.set(rnd);
+      return prev;
    }
 
    /**
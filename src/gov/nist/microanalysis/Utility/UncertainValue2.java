@@ -1,17 +1,18 @@
 package gov.nist.microanalysis.Utility;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamField;
 import java.text.NumberFormat;
-import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
-import java.util.HashMap;
-import java.util.HashSet;
 import java.util.Map;
-import java.util.Objects;
 import java.util.Set;
 import java.util.TreeMap;
-import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import Jama.Matrix;
 import gov.nist.microanalysis.EPQLibrary.EPQException;
@@ -38,6 +39,16 @@ import gov.nist.microanalysis.EPQLibrary.EPQException;
  * as though it was the only source of uncertainty.
  * </p>
  * <p>
+ * Internally the component names are interned as small integer ids and the
+ * components are held as a sparse vector sorted by id. The String-keyed methods
+ * like <code>getComponents()</code> and <code>getComponent(String)</code> are
+ * views onto this representation. Operations like
+ * <code>add(double, Number, double, Number)</code>,
+ * <code>multiplyAdd(...)</code> and <code>linearCombination(...)</code> merge
+ * the sparse vectors in a single pass without creating intermediate
+ * UncertainValue2 objects.
+ * </p>
+ * <p>
  * Copyright: Pursuant to title 17 Section 105 of the United States Code this
  * software is not subject to copyright protection and is in the public domain
  * </p>
@@ -51,16 +62,131 @@ import gov.nist.microanalysis.EPQLibrary.EPQException;
 final public class UncertainValue2 extends Number implements Comparable<UncertainValue2> {
 
    public static final String DEFAULT = "Default";
-   private static transient long sDefIndex = 0;
    private static final long serialVersionUID = 119495064970078787L;
+   /**
+    * The serialized form is the original value plus a map of named components
+    * so that the interned ids never leave this virtual machine.
+    */
+   private static final ObjectStreamField[] serialPersistentFields = {
+         new ObjectStreamField("mValue", double.class),
+         new ObjectStreamField("mSigmas", TreeMap.class)
+   };
+
+   private static final int[] NO_IDS = new int[0];
+   private static final double[] NO_SIGMAS = new double[0];
+
+   /**
+    * Interns component names as small integer ids. Named components are
+    * allocated non-negative ids. The anonymous components created by
+    * <code>UncertainValue2(v, dv)</code> are allocated negative ids without
+    * being registered. Their name (DEFAULT + n) is built when it is requested.
+    */
+   private static final class ComponentIds {
+      /**
+       * The value returned by find(...) for names which are not in use.
+       */
+      static final int NONE = Integer.MIN_VALUE;
+
+      private static final ConcurrentHashMap<String, Integer> sIds = new ConcurrentHashMap<String, Integer>();
+      private static final AtomicInteger sAnonymous = new AtomicInteger();
+      // Reassigned after each write so that name(...) may read without locking
+      private static volatile String[] sNames = new String[1024];
+      private static int sCount = 0;
+
+      /**
+       * Returns n if name has the form DEFAULT + n with n &gt; 0 or 0
+       * otherwise.
+       */
+      private static int anonymousIndex(final String name) {
+         if (name.startsWith(DEFAULT) && (name.length() > DEFAULT.length()) && (name.length() < DEFAULT.length() + 10)) {
+            final String idx = name.substring(DEFAULT.length());
+            for (int i = 0; i < idx.length(); ++i)
+               if (!Character.isDigit(idx.charAt(i)))
+                  return 0;
+            final int n = Integer.parseInt(idx);
+            if ((n > 0) && Integer.toString(n).equals(idx))
+               return n;
+         }
+         return 0;
+      }
+
+      /**
+       * Returns the id of the anonymous DEFAULT component named name or NONE.
+       */
+      private static int anonymous(final String name) {
+         final int n = anonymousIndex(name);
+         return (n > 0) && (n <= sAnonymous.get()) ? -n : NONE;
+      }
+
+      /**
+       * Returns the id associated with name, allocating a new id if necessary.
+       * DEFAULT + n always maps to the anonymous id -n. Interning one which has
+       * not yet been allocated here (ie. read from another session) advances
+       * the anonymous counter past n so that nextAnonymous() never reuses it.
+       */
+      static int intern(final String name) {
+         final int id = find(name);
+         if (id != NONE)
+            return id;
+         final int n = anonymousIndex(name);
+         if (n > 0) {
+            sAnonymous.accumulateAndGet(n, Math::max);
+            return -n;
+         }
+         synchronized (ComponentIds.class) {
+            final Integer id2 = sIds.get(name);
+            if (id2 != null)
+               return id2.intValue();
+            String[] names = sNames;
+            if (sCount == names.length)
+               names = Arrays.copyOf(names, 2 * names.length);
+            final int res = sCount++;
+            names[res] = name;
+            sNames = names;
+            sIds.put(name, Integer.valueOf(res));
+            return res;
+         }
+      }
+
+      /**
+       * Returns the id associated with name or NONE if name is not in use.
+       */
+      static int find(final String name) {
+         final Integer id = sIds.get(name);
+         return id != null ? id.intValue() : anonymous(name);
+      }
+
+      /**
+       * Allocates a new anonymous DEFAULT component.
+       */
+      static int nextAnonymous() {
+         return -sAnonymous.incrementAndGet();
+      }
+
+      static String name(final int id) {
+         return id < 0 ? DEFAULT + Integer.toString(-id) : sNames[id];
+      }
+   }
+
    /**
     * The value
     */
-   private final double mValue;
+   private double mValue;
    /**
-    * A map of one-sigma width uncertainty components.
+    * The ids of the one-sigma width uncertainty components in increasing order.
+    * Arrays are never modified once assigned so they may be shared between
+    * instances.
     */
-   private final TreeMap<String, Double> mSigmas = new TreeMap<String, Double>();
+   private transient int[] mComponentIds;
+   /**
+    * The magnitude of the one-sigma width uncertainty components (non-zero)
+    * associated with mComponentIds.
+    */
+   private transient double[] mComponentSigmas;
+   /**
+    * A lazily built String-keyed view of the components.
+    */
+   private transient Map<String, Double> mView;
 
    public static final UncertainValue2 ONE = new UncertainValue2(1.0);
    public static final UncertainValue2 ZERO = new UncertainValue2(0.0);
@@ -71,7 +197,28 @@ final public class UncertainValue2 extends Number implements Comparable<Uncertai
 
    @Override
    public UncertainValue2 clone() {
-      return new UncertainValue2(mValue, mSigmas);
+      return new UncertainValue2(mValue, mComponentIds, mComponentSigmas);
+   }
+
+   /**
+    * Takes ownership of the first n ids and sigmas.
+    */
+   private UncertainValue2(final double v, final int[] ids, final double[] sigmas, final int n) {
+      mValue = v;
+      if (n == 0) {
+         mComponentIds = NO_IDS;
+         mComponentSigmas = NO_SIGMAS;
+      } else if (n == ids.length) {
+         mComponentIds = ids;
+         mComponentSigmas = sigmas;
+      } else {
+         mComponentIds = Arrays.copyOf(ids, n);
+         mComponentSigmas = Arrays.copyOf(sigmas, n);
+      }
+   }
+
+   private UncertainValue2(final double v, final int[] ids, final double[] sigmas) {
+      this(v, ids, sigmas, ids.length);
    }
 
    /**
@@ -84,7 +231,14 @@ final public class UncertainValue2 extends Number implements Comparable<Uncertai
     *           The associated uncertainty
     */
    public UncertainValue2(final double v, final double dv) {
-      this(v, DEFAULT + Long.toString(++sDefIndex), dv);
+      mValue = v;
+      if (dv != 0.0) {
+         mComponentIds = new int[]{ComponentIds.nextAnonymous()};
+         mComponentSigmas = new double[]{Math.abs(dv)};
+      } else {
+         mComponentIds = NO_IDS;
+         mComponentSigmas = NO_SIGMAS;
+      }
    }
 
    /**
@@ -113,7 +267,13 @@ final public class UncertainValue2 extends Number implements Comparable<Uncertai
     */
    public UncertainValue2(final double v, final String source, final double dv) {
       mValue = v;
-      assignComponent(source, dv);
+      if (dv != 0.0) {
+         mComponentIds = new int[]{ComponentIds.intern(source)};
+         mComponentSigmas = new double[]{Math.abs(dv)};
+      } else {
+         mComponentIds = NO_IDS;
+         mComponentSigmas = NO_SIGMAS;
+      }
    }
 
    /**
@@ -128,9 +288,10 @@ final public class UncertainValue2 extends Number implements Comparable<Uncertai
    public UncertainValue2(final double v, final Map<String, Double> sigmas) {
       super();
       mValue = v;
+      mComponentIds = NO_IDS;
+      mComponentSigmas = NO_SIGMAS;
       if (sigmas != null)
-         for (final Map.Entry<String, Double> me : sigmas.entrySet())
-            assignComponent(me.getKey(), me.getValue());
+         assignComponents(sigmas);
    }
 
    /**
@@ -156,10 +317,29 @@ final public class UncertainValue2 extends Number implements Comparable<Uncertai
     *           The magnitude of the uncertainty
     */
    public void assignComponent(final String name, final double sigma) {
-      if (sigma != 0.0)
-         mSigmas.put(name, Math.abs(sigma));
-      else
-         mSigmas.remove(name);
+      final int id = sigma != 0.0 ? ComponentIds.intern(name) : ComponentIds.find(name);
+      final int idx = indexOf(id);
+      if (sigma != 0.0) {
+         if (idx >= 0) {
+            final double[] sigmas = mComponentSigmas.clone();
+            sigmas[idx] = Math.abs(sigma);
+            mComponentSigmas = sigmas;
+         } else {
+            final int ins = -(idx + 1), n = mComponentIds.length;
+            final int[] ids = new int[n + 1];
+            final double[] sigmas = new double[n + 1];
+            System.arraycopy(mComponentIds, 0, ids, 0, ins);
+            System.arraycopy(mComponentSigmas, 0, sigmas, 0, ins);
+            ids[ins] = id;
+            sigmas[ins] = Math.abs(sigma);
+            System.arraycopy(mComponentIds, ins, ids, ins + 1, n - ins);
+            System.arraycopy(mComponentSigmas, ins, sigmas, ins + 1, n - ins);
+            mComponentIds = ids;
+            mComponentSigmas = sigmas;
+         }
+      } else if (idx >= 0)
+         removeIndex(idx);
+      mView = null;
    }
 
    public void assignComponents(final Map<String, Double> comps) {
@@ -167,19 +347,76 @@ final public class UncertainValue2 extends Number implements Comparable<Uncertai
          assignComponent(me.getKey(), me.getValue());
    }
 
+   /**
+    * Returns the index of the component with the specified id in
+    * mComponentIds or (-(insertion point) - 1) if not present.
+    */
+   private int indexOf(final int id) {
+      return id != ComponentIds.NONE ? Arrays.binarySearch(mComponentIds, id) : -1;
+   }
+
+   private int indexOf(final String name) {
+      return indexOf(ComponentIds.find(name));
+   }
+
+   private void removeIndex(final int idx) {
+      final int n = mComponentIds.length;
+      final int[] ids = new int[n - 1];
+      final double[] sigmas = new double[n - 1];
+      System.arraycopy(mComponentIds, 0, ids, 0, idx);
+      System.arraycopy(mComponentSigmas, 0, sigmas, 0, idx);
+      System.arraycopy(mComponentIds, idx + 1, ids, idx, n - idx - 1);
+      System.arraycopy(mComponentSigmas, idx + 1, sigmas, idx, n - idx - 1);
+      mComponentIds = ids;
+      mComponentSigmas = sigmas;
+   }
+
+   /**
+    * Returns a String-keyed, name-ordered view of the components.
+    */
+   private Map<String, Double> view() {
+      Map<String, Double> res = mView;
+      if (res == null) {
+         final TreeMap<String, Double> tm = new TreeMap<String, Double>();
+         for (int i = 0; i < mComponentIds.length; ++i)
+            tm.put(ComponentIds.name(mComponentIds[i]), Double.valueOf(mComponentSigmas[i]));
+         res = Collections.unmodifiableMap(tm);
+         mView = res;
+      }
+      return res;
+   }
+
+   private void writeObject(final ObjectOutputStream out) throws IOException {
+      final ObjectOutputStream.PutField pf = out.putFields();
+      pf.put("mValue", mValue);
+      pf.put("mSigmas", new TreeMap<String, Double>(view()));
+      out.writeFields();
+   }
+
+   private void readObject(final ObjectInputStream in) throws IOException, ClassNotFoundException {
+      final ObjectInputStream.GetField gf = in.readFields();
+      mValue = gf.get("mValue", 0.0);
+      mComponentIds = NO_IDS;
+      mComponentSigmas = NO_SIGMAS;
+      @SuppressWarnings("unchecked")
+      final Map<String, Double> sigmas = (Map<String, Double>) gf.get("mSigmas", null);
+      if (sigmas != null)
+         assignComponents(sigmas);
+   }
+
    @Override
    public String toString() {
-      if (mSigmas.size() > 0)
+      if (mComponentIds.length > 0)
          return Double.toString(mValue) + " \u00B1 " + Double.toString(uncertainty());
       else
          return Double.toString(mValue);
    }
 
    public String toLongString() {
-      if (mSigmas.size() > 0) {
+      if (mComponentIds.length > 0) {
          final StringBuffer sb = new StringBuffer();
          sb.append(mValue);
-         for (final Map.Entry<String, Double> me : mSigmas.entrySet()) {
+         for (final Map.Entry<String, Double> me : view().entrySet()) {
             sb.append("\u00B1");
             sb.append(me.getValue());
             sb.append("(");
@@ -206,7 +443,7 @@ final public class UncertainValue2 extends Number implements Comparable<Uncertai
     * @return String
     */
    public String format(final NumberFormat nf) {
-      if (mSigmas.size() > 0)
+      if (mComponentIds.length > 0)
          return nf.format(mValue) + "\u00B1" + nf.format(uncertainty());
       else
          return nf.format(mValue);
@@ -222,7 +459,7 @@ final public class UncertainValue2 extends Number implements Comparable<Uncertai
    public String formatLong(final NumberFormat nf) {
       final StringBuffer sb = new StringBuffer();
       sb.append(nf.format(mValue));
-      for (final Map.Entry<String, Double> me : mSigmas.entrySet()) {
+      for (final Map.Entry<String, Double> me : view().entrySet()) {
          sb.append("\u00B1");
          sb.append(nf.format(me.getValue()));
          sb.append("(");
@@ -240,8 +477,7 @@ final public class UncertainValue2 extends Number implements Comparable<Uncertai
     * @return String
     */
    public String format(final String src, final NumberFormat nf) {
-      final Double dv = mSigmas.get(src);
-      return "U(" + src + ")=" + nf.format(dv != null ? dv.doubleValue() : 0.0);
+      return "U(" + src + ")=" + nf.format(getComponent(src));
    }
 
    /**
@@ -251,8 +487,8 @@ final public class UncertainValue2 extends Number implements Comparable<Uncertai
     * @return The specified uncertainty or 0.0 if src not defined.
     */
    public double getComponent(final String src) {
-      final Double v = mSigmas.get(src);
-      return v != null ? v.doubleValue() : 0.0;
+      final int idx = indexOf(src);
+      return idx >= 0 ? mComponentSigmas[idx] : 0.0;
    }
 
    /**
@@ -262,20 +498,19 @@ final public class UncertainValue2 extends Number implements Comparable<Uncertai
     * @return double
     */
    public double getFractional(final String src) {
-      final Double v = mSigmas.get(src);
-      return v != null ? v.doubleValue() / mValue : 0.0;
+      final int idx = indexOf(src);
+      return idx >= 0 ? mComponentSigmas[idx] / mValue : 0.0;
 
    }
 
    public String formatComponent(final String comp, final NumberFormat nf) {
-      final Double v = mSigmas.get(comp);
-      return nf.format(v != null ? v.doubleValue() : 0.0) + "(" + comp + ")";
+      return nf.format(getComponent(comp)) + "(" + comp + ")";
    }
 
    public String formatComponent(final String comp, final int dec) {
-      final Double v = mSigmas.get(comp);
+      final double v = getComponent(comp);
       NumberFormat nf;
-      if ((v != null) && (Math.abs(v.doubleValue()) < (10.0 * Math.pow(10, -dec))))
+      if ((v != 0.0) && (Math.abs(v) < (10.0 * Math.pow(10, -dec))))
          nf = new ExponentFormat(2);
       else {
          final StringBuffer sf = new StringBuffer("0.");
@@ -283,7 +518,7 @@ final public class UncertainValue2 extends Number implements Comparable<Uncertai
             sf.append("0");
          nf = new HalfUpFormat(sf.toString());
       }
-      return nf.format(v != null ? v.doubleValue() : 0.0) + "(" + comp + ")";
+      return nf.format(v) + "(" + comp + ")";
    }
 
    /**
@@ -293,15 +528,21 @@ final public class UncertainValue2 extends Number implements Comparable<Uncertai
     * @return true or false
     */
    public boolean hasComponent(final String src) {
-      return mSigmas.containsKey(src);
+      return indexOf(src) >= 0;
    }
 
+   /**
+    * Returns an unmodifiable view of the components keyed by name and ordered
+    * by name.
+    * 
+    * @return Map&lt;String, Double&gt;
+    */
    public Map<String, Double> getComponents() {
-      return Collections.unmodifiableMap(mSigmas);
+      return view();
    }
 
    public Set<String> getComponentNames() {
-      return Collections.unmodifiableSet(mSigmas.keySet());
+      return view().keySet();
    }
 
    /**
@@ -312,11 +553,14 @@ final public class UncertainValue2 extends Number implements Comparable<Uncertai
     * @param newName
     */
    public void renameComponent(final String oldName, final String newName) throws EPQException {
-      if (mSigmas.containsKey(newName))
+      if (hasComponent(newName))
          throw new EPQException("A component named " + newName + " already exists.");
-      final Double val = mSigmas.remove(oldName);
-      if (val != null)
-         mSigmas.put(newName, val);
+      final int idx = indexOf(oldName);
+      if (idx >= 0) {
+         final double val = mComponentSigmas[idx];
+         removeIndex(idx);
+         assignComponent(newName, val);
+      }
    }
 
    static private UncertainValue2 toUV2(Number num) {
@@ -326,6 +570,141 @@ final public class UncertainValue2 extends Number implements Comparable<Uncertai
          return new UncertainValue2(num.doubleValue());
    }
 
+   /**
+    * Returns an UncertainValue2 with value v and components abs(k*x_i).
+    */
+   static private UncertainValue2 scale(final double v, final double k, final UncertainValue2 x) {
+      final int n = x.mComponentIds.length;
+      if ((n == 0) || (k == 0.0))
+         return new UncertainValue2(v, NO_IDS, NO_SIGMAS, 0);
+      final double ak = Math.abs(k);
+      if (ak == 1.0)
+         return new UncertainValue2(v, x.mComponentIds, x.mComponentSigmas);
+      final int[] xi = x.mComponentIds;
+      final double[] xs = x.mComponentSigmas;
+      final double[] sigmas = new double[n];
+      int m = 0;
+      for (int i = 0; i < n; ++i) {
+         sigmas[i] = ak * xs[i];
+         if (sigmas[i] != 0.0)
+            ++m;
+      }
+      if (m == n)
+         return new UncertainValue2(v, xi, sigmas);
+      // Underflow
+      final int[] ids = new int[m];
+      m = 0;
+      for (int i = 0; i < n; ++i)
+         if (sigmas[i] != 0.0) {
+            ids[m] = xi[i];
+            sigmas[m++] = sigmas[i];
+         }
+      return new UncertainValue2(v, ids, sigmas, m);
+   }
+
+   /**
+    * Returns an UncertainValue2 with value v and components abs(a*x_i+b*y_i)
+    * by merging the sorted component vectors.
+    */
+   static private UncertainValue2 combine(final double v, final double a, final UncertainValue2 x, final double b, final UncertainValue2 y) {
+      final int[] xi = x.mComponentIds, yi = y.mComponentIds;
+      final int nx = xi.length, ny = yi.length;
+      if (ny == 0)
+         return scale(v, a, x);
+      if (nx == 0)
+         return scale(v, b, y);
+      final double[] xs = x.mComponentSigmas, ys = y.mComponentSigmas;
+      final int[] ids = new int[nx + ny];
+      final double[] sigmas = new double[nx + ny];
+      int i = 0, j = 0, n = 0;
+      while ((i < nx) || (j < ny)) {
+         final int id;
+         final double s;
+         if ((j == ny) || ((i < nx) && (xi[i] < yi[j]))) {
+            id = xi[i];
+            s = a * xs[i++];
+         } else if ((i == nx) || (yi[j] < xi[i])) {
+            id = yi[j];
+            s = b * ys[j++];
+         } else {
+            id = xi[i];
+            s = (a * xs[i++]) + (b * ys[j++]);
+         }
+         if (s != 0.0) {
+            ids[n] = id;
+            sigmas[n++] = Math.abs(s);
+         }
+      }
+      return new UncertainValue2(v, ids, sigmas, n);
+   }
+
+   /**
+    * Returns an UncertainValue2 with value v and components abs(sum_j
+    * coeffs_j*uvs_j,i) by merging the sorted component vectors.
+    */
+   static private UncertainValue2 combine(final double v, final double[] coeffs, final UncertainValue2[] uvs) {
+      final int k = uvs.length;
+      final int[] pos = new int[k];
+      int total = 0;
+      for (final UncertainValue2 uv : uvs)
+         total += uv.mComponentIds.length;
+      final int[] ids = new int[total];
+      final double[] sigmas = new double[total];
+      int n = 0;
+      while (true) {
+         int id = Integer.MAX_VALUE;
+         for (int j = 0; j < k; ++j)
+            if ((pos[j] < uvs[j].mComponentIds.length) && (uvs[j].mComponentIds[pos[j]] < id))
+               id = uvs[j].mComponentIds[pos[j]];
+         if (id == Integer.MAX_VALUE)
+            break;
+         double s = 0.0;
+         for (int j = 0; j < k; ++j)
+            if ((pos[j] < uvs[j].mComponentIds.length) && (uvs[j].mComponentIds[pos[j]] == id))
+               s += coeffs[j] * uvs[j].mComponentSigmas[pos[j]++];
+         if (s != 0.0) {
+            ids[n] = id;
+            sigmas[n++] = Math.abs(s);
+         }
+      }
+      return new UncertainValue2(v, ids, sigmas, n);
+   }
+
+   /**
+    * Computes sum_i coeffs[i]*vals[i] in a single pass over the uncertainty
+    * components.
+    * 
+    * @param coeffs
+    * @param vals
+    * @return An UncertainValue2
+    */
+   static public UncertainValue2 linearCombination(final double[] coeffs, final Number[] vals) {
+      assert coeffs.length == vals.length;
+      final UncertainValue2[] uvs = new UncertainValue2[vals.length];
+      double sum = 0.0;
+      for (int i = 0; i < vals.length; ++i) {
+         uvs[i] = toUV2(vals[i]);
+         sum += coeffs[i] * uvs[i].mValue;
+      }
+      return combine(sum, coeffs, uvs);
+   }
+
+   /**
+    * Computes a*b+c without creating the intermediate product.
+    * 
+    * @param na
+    * @param nb
+    * @param nc
+    * @return An UncertainValue2
+    */
+   static public UncertainValue2 multiplyAdd(final Number na, final Number nb, final Number nc) {
+      final UncertainValue2 a = toUV2(na), b = toUV2(nb), c = toUV2(nc);
+      final double v = (a.mValue * b.mValue) + c.mValue;
+      if (c.mComponentIds.length == 0)
+         return combine(v, b.mValue, a, a.mValue, b);
+      return combine(v, new double[]{b.mValue, a.mValue, 1.0}, new UncertainValue2[]{a, b, c});
+   }
+
    /**
     * Add a list of {@link UncertainValue2}.
     * 
@@ -333,37 +712,18 @@ final public class UncertainValue2 extends Number implements Comparable<Uncertai
     * @return An UncertainValue2 equal to the sum of the uvs
     */
    static public UncertainValue2 add(final Collection<? extends Number> uvs) {
-      final HashSet<String> srcs = new HashSet<String>();
-      double sum = 0.0;
-      for (final Number n2 : uvs) {
-         final UncertainValue2 uv2 = toUV2(n2);
-         srcs.addAll(uv2.mSigmas.keySet());
-         sum += uv2.mValue;
-      }
-      final UncertainValue2 res = new UncertainValue2(sum);
-      for (final String src : srcs) {
-         double unc = 0.0;
-         for (final Number n2 : uvs) {
-            unc += toUV2(n2).getComponent(src);
-         }
-         res.assignComponent(src, unc);
-      }
-      return res;
+      return add(uvs.toArray(new Number[uvs.size()]));
    }
 
    static public UncertainValue2 add(final Number[] uvs) {
-      return add(Arrays.asList(uvs));
+      final double[] ones = new double[uvs.length];
+      Arrays.fill(ones, 1.0);
+      return linearCombination(ones, uvs);
    }
 
    static public UncertainValue2 add(final double a, final Number na, final double b, final Number nb) {
       final UncertainValue2 uva = toUV2(na), uvb = toUV2(nb);
-      final UncertainValue2 res = new UncertainValue2((a * uva.mValue) + (b * uvb.mValue));
-      final Set<String> srcs = new HashSet<String>();
-      srcs.addAll(uva.mSigmas.keySet());
-      srcs.addAll(uvb.mSigmas.keySet());
-      for (final String src : srcs)
-         res.assignComponent(src, Math.abs((a * uva.getComponent(src)) + (b * uvb.getComponent(src))));
-      return res;
+      return combine((a * uva.mValue) + (b * uvb.mValue), a, uva, b, uvb);
    }
 
    static public UncertainValue2 subtract(final Number na, final Number nb) {
@@ -379,7 +739,7 @@ final public class UncertainValue2 extends Number implements Comparable<Uncertai
    }
 
    public UncertainValue2 abs() {
-      return mValue >= 0.0 ? this : new UncertainValue2(-mValue, this.mSigmas);
+      return mValue >= 0.0 ? this : new UncertainValue2(-mValue, mComponentIds, mComponentSigmas);
    }
 
    public static UncertainValue2 abs(Number n) {
@@ -405,7 +765,7 @@ final public class UncertainValue2 extends Number implements Comparable<Uncertai
          if (Double.isNaN(ivar))
             throw new UtilException("Unable to compute the weighted mean when one or more datapoints have zero uncertainty.");
          varSum += ivar;
-         sum = UncertainValue2.add(sum, UncertainValue2.multiply(ivar, uv));
+         sum = UncertainValue2.add(1.0, sum, ivar, uv);
       }
       final double iVarSum = 1.0 / varSum;
       return Double.isNaN(iVarSum) ? UncertainValue2.NaN : UncertainValue2.multiply(iVarSum, sum);
@@ -432,7 +792,7 @@ final public class UncertainValue2 extends Number implements Comparable<Uncertai
          if (Double.isNaN(ivar))
             continue;
          varSum += ivar;
-         sum = UncertainValue2.add(sum, UncertainValue2.multiply(ivar, uv));
+         sum = UncertainValue2.add(1.0, sum, ivar, uv);
       }
       final double iVarSum = 1.0 / varSum;
       return Double.isNaN(iVarSum) ? UncertainValue2.NaN : UncertainValue2.multiply(iVarSum, sum);
@@ -492,9 +852,10 @@ final public class UncertainValue2 extends Number implements Comparable<Uncertai
     * @return An UncertainValue2
     */
    static public Number add(final Number v1, final double v2) {
-      if (v1 instanceof UncertainValue2)
-         return new UncertainValue2(((UncertainValue2) v1).mValue + v2, ((UncertainValue2) v1).mSigmas);
-      else
+      if (v1 instanceof UncertainValue2) {
+         final UncertainValue2 uv1 = (UncertainValue2) v1;
+         return new UncertainValue2(uv1.mValue + v2, uv1.mComponentIds, uv1.mComponentSigmas);
+      } else
          return Double.valueOf(v1.doubleValue() + v2);
    }
 
@@ -506,9 +867,10 @@ final public class UncertainValue2 extends Number implements Comparable<Uncertai
     * @return An UncertainValue2
     */
    static public UncertainValue2 add(final double v1, final Number v2) {
-      if (v2 instanceof UncertainValue2)
-         return new UncertainValue2(((UncertainValue2) v2).mValue + v1, ((UncertainValue2) v2).mSigmas);
-      else
+      if (v2 instanceof UncertainValue2) {
+         final UncertainValue2 uv2 = (UncertainValue2) v2;
+         return new UncertainValue2(uv2.mValue + v1, uv2.mComponentIds, uv2.mComponentSigmas);
+      } else
          return UncertainValue2.valueOf(v1 + v2.doubleValue());
    }
 
@@ -533,10 +895,7 @@ final public class UncertainValue2 extends Number implements Comparable<Uncertai
    static public UncertainValue2 multiply(final double v1, final Number n2) {
       UncertainValue2 v2 = toUV2(n2);
       assert v2.uncertainty() >= 0.0 : v2.toLongString();
-      final UncertainValue2 res = new UncertainValue2(v1 * v2.mValue);
-      for (final Map.Entry<String, Double> me : v2.mSigmas.entrySet())
-         res.assignComponent(me.getKey(), v1 * me.getValue());
-      return res;
+      return scale(v1 * v2.mValue, v1, v2);
    }
 
    /**
@@ -548,30 +907,19 @@ final public class UncertainValue2 extends Number implements Comparable<Uncertai
     */
    static public UncertainValue2 multiply(final Number na, final Number nb) {
       final UncertainValue2 a = toUV2(na), b = toUV2(nb);
-      final UncertainValue2 res = new UncertainValue2(a.mValue * b.mValue);
-      final Set<String> srcs = new TreeSet<String>();
-      srcs.addAll(a.mSigmas.keySet());
-      srcs.addAll(b.mSigmas.keySet());
-      final double ca = b.mValue;
-      final double cb = a.mValue;
-      for (final String src : srcs) {
-         final double ua = a.getComponent(src), ub = b.getComponent(src);
-         res.assignComponent(src, Math.abs((ca * ua) + (cb * ub)));
-      }
-      return res;
+      return combine(a.mValue * b.mValue, b.mValue, a, a.mValue, b);
    }
 
    static public UncertainValue2 invert(final Number nv) {
       final UncertainValue2 v = toUV2(nv);
-      final UncertainValue2 res = new UncertainValue2(1.0 / v.mValue);
-      if (!Double.isNaN(res.doubleValue())) {
+      final double iv = 1.0 / v.mValue;
+      if (!Double.isNaN(iv)) {
          final double cb = 1.0 / (v.mValue * v.mValue);
          if (Double.isNaN(cb))
             return UncertainValue2.NaN;
-         for (final String src : v.mSigmas.keySet())
-            res.assignComponent(src, Math.abs(cb * v.getComponent(src)));
+         return scale(iv, cb, v);
       }
-      return res;
+      return new UncertainValue2(iv);
    }
 
    /**
@@ -583,44 +931,31 @@ final public class UncertainValue2 extends Number implements Comparable<Uncertai
     */
    static public UncertainValue2 divide(final Number na, final Number nb) {
       final UncertainValue2 a = toUV2(na), b = toUV2(nb);
-      final UncertainValue2 res = new UncertainValue2(a.mValue / b.mValue);
-      if (!Double.isNaN(res.doubleValue())) {
-         final Set<String> srcs = new TreeSet<String>();
-         srcs.addAll(a.mSigmas.keySet());
-         srcs.addAll(b.mSigmas.keySet());
+      final double v = a.mValue / b.mValue;
+      if (!Double.isNaN(v)) {
          final double ca = 1.0 / b.mValue;
          final double cb = -a.mValue / (b.mValue * b.mValue);
          if (Double.isNaN(ca) || Double.isNaN(cb))
             return UncertainValue2.NaN;
-         for (final String src : srcs) {
-            final double ua = a.getComponent(src), ub = b.getComponent(src);
-            res.assignComponent(src, Math.abs((ca * ua) + (cb * ub)));
-         }
+         return combine(v, ca, a, cb, b);
       }
-      return res;
+      return new UncertainValue2(v);
    }
 
    static public UncertainValue2 divide(final double a, final Number nb) {
       final UncertainValue2 b = toUV2(nb);
-      final UncertainValue2 res = new UncertainValue2(a / b.mValue);
-      if (!Double.isNaN(res.doubleValue())) {
-         final double ub = Math.abs(a / (b.mValue * b.mValue));
-         for (final Map.Entry<String, Double> me : b.mSigmas.entrySet())
-            res.assignComponent(me.getKey(), ub * me.getValue().doubleValue());
-      }
-      return res;
+      final double v = a / b.mValue;
+      if (!Double.isNaN(v))
+         return scale(v, a / (b.mValue * b.mValue), b);
+      return new UncertainValue2(v);
    }
 
    static public UncertainValue2 divide(final Number na, final double b) {
       final UncertainValue2 a = toUV2(na);
       final double den = 1.0 / b;
-      if (!Double.isNaN(den)) {
-         final UncertainValue2 res = new UncertainValue2(den * a.doubleValue());
-         final double ua = Math.abs(den);
-         for (final Map.Entry<String, Double> me : a.mSigmas.entrySet())
-            res.assignComponent(me.getKey(), ua * me.getValue().doubleValue());
-         return res;
-      } else
+      if (!Double.isNaN(den))
+         return scale(den * a.doubleValue(), den, a);
+      else
          return UncertainValue2.NaN;
    }
 
@@ -635,10 +970,7 @@ final public class UncertainValue2 extends Number implements Comparable<Uncertai
       final UncertainValue2 x = toUV2(nx);
       assert !Double.isNaN(x.mValue) : x.toString();
       final double ex = Math.exp(x.mValue);
-      final UncertainValue2 res = new UncertainValue2(ex);
-      for (final Map.Entry<String, Double> me : x.mSigmas.entrySet())
-         res.assignComponent(me.getKey(), ex * me.getValue().doubleValue());
-      return res;
+      return scale(ex, ex, x);
    }
 
    /**
@@ -651,12 +983,9 @@ final public class UncertainValue2 extends Number implements Comparable<Uncertai
       final UncertainValue2 v2 = toUV2(nx);
       final double tmp = 1.0 / v2.mValue;
       final double lv = Math.log(v2.mValue);
-      if (!(Double.isNaN(tmp) || Double.isNaN(lv))) {
-         final UncertainValue2 res = new UncertainValue2(lv);
-         for (final Map.Entry<String, Double> me : v2.mSigmas.entrySet())
-            res.assignComponent(me.getKey(), tmp * me.getValue());
-         return res;
-      } else
+      if (!(Double.isNaN(tmp) || Double.isNaN(lv)))
+         return scale(lv, tmp, v2);
+      else
          return UncertainValue2.NaN;
    }
 
@@ -674,10 +1003,7 @@ final public class UncertainValue2 extends Number implements Comparable<Uncertai
       if (v1.mValue != 0.0) {
          final double f = Math.pow(v1.mValue, n);
          final double df = n * Math.pow(v1.mValue, n - 1.0);
-         final UncertainValue2 res = new UncertainValue2(f);
-         for (final Map.Entry<String, Double> me : v1.mSigmas.entrySet())
-            res.assignComponent(me.getKey(), me.getValue() * df);
-         return res;
+         return scale(f, df, v1);
       } else
          return UncertainValue2.ZERO;
    }
@@ -728,7 +1054,7 @@ final public class UncertainValue2 extends Number implements Comparable<Uncertai
     * @return boolean
     */
    public boolean isUncertain() {
-      return mSigmas.size() > 0;
+      return mComponentIds.length > 0;
    }
 
    /**
@@ -751,7 +1077,7 @@ final public class UncertainValue2 extends Number implements Comparable<Uncertai
     */
    public double variance() {
       double sigma2 = 0.0;
-      for (final Double s : mSigmas.values())
+      for (final double s : mComponentSigmas)
          sigma2 += s * s;
       return sigma2;
    }
@@ -791,7 +1117,7 @@ final public class UncertainValue2 extends Number implements Comparable<Uncertai
     */
    @Override
    public int hashCode() {
-      return Objects.hash(mValue, mSigmas);
+      return (31 * ((31 * Double.hashCode(mValue)) + Arrays.hashCode(mComponentIds))) + Arrays.hashCode(mComponentSigmas);
    }
 
    /**
@@ -806,7 +1132,7 @@ final public class UncertainValue2 extends Number implements Comparable<Uncertai
       if (getClass() != obj.getClass())
          return false;
       final UncertainValue2 other = (UncertainValue2) obj;
-      return mSigmas.equals(other.mSigmas) && (mValue == other.mValue);
+      return (mValue == other.mValue) && Arrays.equals(mComponentIds, other.mComponentIds) && Arrays.equals(mComponentSigmas, other.mComponentSigmas);
    }
 
    /**
@@ -820,12 +1146,20 @@ final public class UncertainValue2 extends Number implements Comparable<Uncertai
    public boolean equals(final UncertainValue2 other, double tolerance) {
       if (this == other)
          return true;
-      Set<String> keys = new TreeSet<String>();
-      keys.addAll(other.mSigmas.keySet());
-      keys.addAll(mSigmas.keySet());
-      for (String key : keys)
-         if (Math.abs(mSigmas.get(key) - other.mSigmas.get(key)) >= tolerance)
+      final int[] xi = mComponentIds, yi = other.mComponentIds;
+      final double[] xs = mComponentSigmas, ys = other.mComponentSigmas;
+      int i = 0, j = 0;
+      while ((i < xi.length) || (j < yi.length)) {
+         final double d;
+         if ((j == yi.length) || ((i < xi.length) && (xi[i] < yi[j])))
+            d = xs[i++];
+         else if ((i == xi.length) || (yi[j] < xi[i]))
+            d = ys[j++];
+         else
+            d = xs[i++] - ys[j++];
+         if (Math.abs(d) >= tolerance)
             return false;
+      }
       return (Math.abs(uncertainty() - other.uncertainty()) < tolerance) && (Math.abs(mValue - other.mValue) < tolerance);
    }
 
@@ -860,35 +1194,29 @@ final public class UncertainValue2 extends Number implements Comparable<Uncertai
 
    static public UncertainValue2 negate(final Number n) {
       final UncertainValue2 uv = toUV2(n);
-      return new UncertainValue2(-uv.mValue, uv.mSigmas);
+      return new UncertainValue2(-uv.mValue, uv.mComponentIds, uv.mComponentSigmas);
    }
 
    static public UncertainValue2 atan(final UncertainValue2 uv) {
       final double f = Math.atan(uv.doubleValue());
       final double df = 1.0 / (1.0 + (uv.doubleValue() * uv.doubleValue()));
-      if (!(Double.isNaN(f) || Double.isNaN(df))) {
-         final UncertainValue2 res = new UncertainValue2(f);
-         for (final Map.Entry<String, Double> me : uv.mSigmas.entrySet())
-            res.assignComponent(me.getKey(), df * me.getValue());
-         return res;
-      } else
+      if (!(Double.isNaN(f) || Double.isNaN(df)))
+         return scale(f, df, uv);
+      else
          return UncertainValue2.NaN;
    }
 
    static public UncertainValue2 atan2(final UncertainValue2 y, final UncertainValue2 x) {
       final double f = Math.atan2(y.doubleValue(), x.doubleValue());
       final double df = 1.0 / (1.0 + Math2.sqr(y.doubleValue() / x.doubleValue()));
-      if (!(Double.isNaN(f) || Double.isNaN(df))) {
-         final UncertainValue2 res = new UncertainValue2(f);
-         for (final Map.Entry<String, Double> me : UncertainValue2.divide(y, x).mSigmas.entrySet())
-            res.assignComponent(me.getKey(), df * me.getValue());
-         return res;
-      } else
+      if (!(Double.isNaN(f) || Double.isNaN(df)))
+         return scale(f, df, UncertainValue2.divide(y, x));
+      else
          return UncertainValue2.NaN;
    }
 
    static public UncertainValue2 nonNegative(final UncertainValue2 uv) {
-      return uv.doubleValue() >= 0.0 ? uv : new UncertainValue2(0.0, uv.mSigmas);
+      return uv.doubleValue() >= 0.0 ? uv : new UncertainValue2(0.0, uv.mComponentIds, uv.mComponentSigmas);
    }
 
    /**
@@ -911,35 +1239,84 @@ final public class UncertainValue2 extends Number implements Comparable<Uncertai
     */
    static public class Correlations {
 
-      static private class Key {
-         private final String mSource1;
-         private final String mSource2;
+      /*
+       * The matrix is stored as rows of the upper triangle (column id &ge; row
+       * id) over the interned component ids. The rows are held in order of
+       * increasing row id and the entries within each row in order of
+       * increasing column id so that both may be binary searched.
+       */
+      private int[] mRowIds;
+      private int[][] mColumns;
+      private double[][] mValues;
+      private int[] mRowSizes;
+      private int mRowCount;
+      private int mSize;
 
-         Key(final String src1, final String src2) {
-            mSource1 = src1;
-            mSource2 = src2;
-         }
+      public Correlations() {
+         mRowIds = new int[8];
+         mColumns = new int[8][];
+         mValues = new double[8][];
+         mRowSizes = new int[8];
+         mRowCount = 0;
+         mSize = 0;
+      }
 
-         @Override
-         public int hashCode() {
-            return mSource1.hashCode() + mSource2.hashCode();
-         }
+      /**
+       * Returns the index of the row associated with id in mRowIds or
+       * (-(insertion point) - 1) if not present.
+       */
+      private int rowOf(final int id) {
+         return Arrays.binarySearch(mRowIds, 0, mRowCount, id);
+      }
 
-         @Override
-         public boolean equals(final Object obj) {
-            if (obj instanceof Key) {
-               final Key k2 = (Key) obj;
-               return (mSource1.equals(k2.mSource1) && mSource2.equals(k2.mSource2))
-                     || (mSource1.equals(k2.mSource2) && mSource2.equals(k2.mSource1));
-            } else
-               return false;
+      private void put(final int id1, final int id2, final double corr) {
+         final int row = Math.min(id1, id2), col = Math.max(id1, id2);
+         int r = rowOf(row);
+         if (r < 0) {
+            r = -r - 1;
+            if (mRowCount == mRowIds.length) {
+               final int len = 2 * mRowIds.length;
+               mRowIds = Arrays.copyOf(mRowIds, len);
+               mColumns = Arrays.copyOf(mColumns, len);
+               mValues = Arrays.copyOf(mValues, len);
+               mRowSizes = Arrays.copyOf(mRowSizes, len);
+            }
+            final int tail = mRowCount - r;
+            System.arraycopy(mRowIds, r, mRowIds, r + 1, tail);
+            System.arraycopy(mColumns, r, mColumns, r + 1, tail);
+            System.arraycopy(mValues, r, mValues, r + 1, tail);
+            System.arraycopy(mRowSizes, r, mRowSizes, r + 1, tail);
+            mRowIds[r] = row;
+            mColumns[r] = new int[4];
+            mValues[r] = new double[4];
+            mRowSizes[r] = 0;
+            ++mRowCount;
+         }
+         final int size = mRowSizes[r];
+         int c = Arrays.binarySearch(mColumns[r], 0, size, col);
+         if (c >= 0) {
+            mValues[r][c] = corr;
+            return;
+         }
+         c = -c - 1;
+         if (size == mColumns[r].length) {
+            mColumns[r] = Arrays.copyOf(mColumns[r], 2 * size);
+            mValues[r] = Arrays.copyOf(mValues[r], 2 * size);
          }
+         System.arraycopy(mColumns[r], c, mColumns[r], c + 1, size - c);
+         System.arraycopy(mValues[r], c, mValues[r], c + 1, size - c);
+         mColumns[r][c] = col;
+         mValues[r][c] = corr;
+         mRowSizes[r] = size + 1;
+         ++mSize;
       }
 
-      private final HashMap<Key, Double> mCorrelations;
-
-      public Correlations() {
-         mCorrelations = new HashMap<Key, Double>();
+      private double get(final int id1, final int id2) {
+         final int r = rowOf(Math.min(id1, id2));
+         if (r < 0)
+            return 0.0;
+         final int c = Arrays.binarySearch(mColumns[r], 0, mRowSizes[r], Math.max(id1, id2));
+         return c >= 0 ? mValues[r][c] : 0.0;
       }
 
       /**
@@ -952,7 +1329,7 @@ final public class UncertainValue2 extends Number implements Comparable<Uncertai
        */
       public void add(final String src1, final String src2, final double corr) {
          assert (corr >= -1.0) && (corr <= 1.0);
-         mCorrelations.put(new Key(src1, src2), Math2.bound(corr, -1.0, 1.0));
+         put(ComponentIds.intern(src1), ComponentIds.intern(src2), Math2.bound(corr, -1.0, 1.0));
       }
 
       /**
@@ -964,8 +1341,18 @@ final public class UncertainValue2 extends Number implements Comparable<Uncertai
        * @return [-1.0,1.0] with 0.0 as default
        */
       public double get(final String src1, final String src2) {
-         final Double r = mCorrelations.get(new Correlations.Key(src1, src2));
-         return r == null ? 0.0 : r.doubleValue();
+         final int id1 = ComponentIds.find(src1), id2 = ComponentIds.find(src2);
+         return (id1 != ComponentIds.NONE) && (id2 != ComponentIds.NONE) ? get(id1, id2) : 0.0;
+      }
+
+      /**
+       * The number of pairs of sources for which a correlation has been
+       * specified.
+       * 
+       * @return int
+       */
+      public int size() {
+         return mSize;
       }
    }
 
@@ -986,13 +1373,32 @@ final public class UncertainValue2 extends Number implements Comparable<Uncertai
     * @return The correlated variance
     */
    public double variance(final Correlations corr) {
-      final ArrayList<String> keys = new ArrayList<String>(mSigmas.keySet());
+      final int n = mComponentIds.length;
       double res = 0.0;
-      for (int i = 0; i < keys.size(); ++i)
-         res += Math2.sqr(mSigmas.get(keys.get(i)));
-      for (int i = 0; i < (keys.size() - 1); ++i)
-         for (int j = i + 1; j < keys.size(); ++j)
-            res += 2.0 * mSigmas.get(keys.get(i)) * mSigmas.get(keys.get(j)) * corr.get(keys.get(i), keys.get(j));
+      for (int i = 0; i < n; ++i)
+         res += Math2.sqr(mComponentSigmas[i]);
+      // Only the specified correlations contribute to the off-diagonal terms
+      for (int i = 0; (i < (n - 1)) && (corr.mSize > 0); ++i) {
+         final int id = mComponentIds[i];
+         final int r = corr.rowOf(id);
+         if (r < 0)
+            continue;
+         final int[] cols = corr.mColumns[r];
+         final double[] vals = corr.mValues[r];
+         final int size = corr.mRowSizes[r];
+         // Both cols and mComponentIds are ordered so the search range shrinks
+         int lo = i + 1;
+         for (int k = 0; (k < size) && (lo < n); ++k) {
+            if (cols[k] == id)
+               continue;
+            final int j = Arrays.binarySearch(mComponentIds, lo, n, cols[k]);
+            if (j >= 0) {
+               res += 2.0 * mComponentSigmas[i] * mComponentSigmas[j] * vals[k];
+               lo = j + 1;
+            } else
+               lo = -j - 1;
+         }
+      }
       return res;
    }
 
@@ -1044,8 +1450,18 @@ final public class UncertainValue2 extends Number implements Comparable<Uncertai
 
    public static UncertainValue2[] normalize(UncertainValue2[] vals) {
       double s=0.0;
-      for(int i=0;i<vals.length;++i)
+      boolean exact = true;
+      for(int i=0;i<vals.length;++i) {
          s+=vals[i].doubleValue();
+         exact = exact && (vals[i].variance()==0.0);
+      }
+      if(exact) {
+         // No uncertainties to propagate
+         final UncertainValue2[] res = new UncertainValue2[vals.length];
+         for(int i=0;i<vals.length;++i)
+            res[i]=new UncertainValue2(vals[i].doubleValue()/s);
+         return res;
+      }
       final double[][] j = new double[vals.length][vals.length];
       for(int r=0;r<vals.length;++r) {
          j[r][r] = (s-vals[r].doubleValue())/(s*s);
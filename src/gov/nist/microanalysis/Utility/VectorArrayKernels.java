@@ -0,0 +1,123 @@
+package gov.nist.microanalysis.Utility;
+
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * <p>
+ * ArrayKernels implemented using the incubating JDK Vector API. Loaded
+ * reflectively by ArrayKernels so that the rest of the library does not depend
+ * upon jdk.incubator.vector at run-time.
+ * </p>
+ * <p>
+ * This class is only compiled by the Maven <code>vector</code> profile
+ * (<code>mvn -P vector</code>) since compiling against an incubating module
+ * always produces a warning. The default build uses the scalar kernels.
+ * </p>
+ * <p>
+ * Copyright: Pursuant to title 17 Section 105 of the United States Code this
+ * software is not subject to copyright protection and is in the public domain
+ * </p>
+ * <p>
+ * Institution: National Institute of Standards and Technology
+ * </p>
+ *
+ * @author Nicholas
+ * @version 1.0
+ */
+final class VectorArrayKernels extends ArrayKernels {
+
+   private static final VectorSpecies<Double> SPECIES = DoubleVector.SPECIES_PREFERRED;
+
+   VectorArrayKernels() {
+      super();
+   }
+
+   @Override
+   public String getName() {
+      return "Vector[" + SPECIES.length() + "]";
+   }
+
+   @Override
+   public double dot(double[] a, int aOff, double[] b, int bOff, int len) {
+      DoubleVector acc = DoubleVector.zero(SPECIES);
+      final int upper = SPECIES.loopBound(len);
+      int i = 0;
+      for (; i < upper; i += SPECIES.length())
+         acc = DoubleVector.fromArray(SPECIES, a, aOff + i).fma(DoubleVector.fromArray(SPECIES, b, bOff + i), acc);
+      double res = acc.reduceLanes(VectorOperators.ADD);
+      for (; i < len; ++i)
+         res += a[aOff + i] * b[bOff + i];
+      return res;
+   }
+
+   @Override
+   public double sum(double[] a, int from, int to) {
+      DoubleVector acc = DoubleVector.zero(SPECIES);
+      final int upper = from + SPECIES.loopBound(to - from);
+      int i = from;
+      for (; i < upper; i += SPECIES.length())
+         acc = acc.add(DoubleVector.fromArray(SPECIES, a, i));
+      double res = acc.reduceLanes(VectorOperators.ADD);
+      for (; i < to; ++i)
+         res += a[i];
+      return res;
+   }
+
+   @Override
+   public void scale(double scale, double offset, double[] x, int from, int to) {
+      final int upper = from + SPECIES.loopBound(to - from);
+      int i = from;
+      for (; i < upper; i += SPECIES.length())
+         DoubleVector.fromArray(SPECIES, x, i).fma(scale, offset).intoArray(x, i);
+      for (; i < to; ++i)
+         x[i] = (scale * x[i]) + offset;
+   }
+
+   @Override
+   public void axpy(double k, double[] x, int xOff, double[] y, int yOff, int len) {
+      final DoubleVector kv = DoubleVector.broadcast(SPECIES, k);
+      final int upper = SPECIES.loopBound(len);
+      int i = 0;
+      for (; i < upper; i += SPECIES.length())
+         DoubleVector.fromArray(SPECIES, x, xOff + i).fma(kv, DoubleVector.fromArray(SPECIES, y, yOff + i)).intoArray(y, yOff + i);
+      for (; i < len; ++i)
+         y[yOff + i] += k * x[xOff + i];
+   }
+
+   @Override
+   public void correlate(double[] f, double[] x, int xOff, double[] dst, int dstOff, int n) {
+      // Each lane accumulates one output channel so no horizontal sums are
+      // required.
+      final int upper = SPECIES.loopBound(n);
+      int j = 0;
+      for (; j < upper; j += SPECIES.length()) {
+         DoubleVector acc = DoubleVector.zero(SPECIES);
+         for (int i = 0; i < f.length; ++i)
+            acc = DoubleVector.fromArray(SPECIES, x, xOff + j + i).fma(DoubleVector.broadcast(SPECIES, f[i]), acc);
+         acc.intoArray(dst, dstOff + j);
+      }
+      for (; j < n; ++j) {
+         double sum = 0.0;
+         for (int i = 0; i < f.length; ++i)
+            sum += f[i] * x[xOff + j + i];
+         dst[dstOff + j] = sum;
+      }
+   }
+
+   @Override
+   public void accumulate(double[] x, double[] sum, double[] sumOfSqrs) {
+      final int upper = SPECIES.loopBound(x.length);
+      int i = 0;
+      for (; i < upper; i += SPECIES.length()) {
+         final DoubleVector xv = DoubleVector.fromArray(SPECIES, x, i);
+         xv.add(DoubleVector.fromArray(SPECIES, sum, i)).intoArray(sum, i);
+         xv.fma(xv, DoubleVector.fromArray(SPECIES, sumOfSqrs, i)).intoArray(sumOfSqrs, i);
+      }
+      for (; i < x.length; ++i) {
+         sum[i] += x[i];
+         sumOfSqrs[i] += x[i] * x[i];
+      }
+   }
+}
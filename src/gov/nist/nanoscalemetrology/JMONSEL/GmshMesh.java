@@ -4,15 +4,27 @@
  */
 package gov.nist.nanoscalemetrology.JMONSEL;
 
+import java.io.BufferedOutputStream;
 import java.io.BufferedReader;
+import java.io.DataOutputStream;
+import java.io.FileInputStream;
 import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
 import java.io.FileReader;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
-import java.util.LinkedList;
 import java.util.Locale;
 import java.util.Scanner;
+import java.util.stream.IntStream;
 
 import gov.nist.microanalysis.EPQLibrary.EPQFatalException;
 import gov.nist.microanalysis.Utility.Math2;
@@ -29,6 +41,13 @@ import gov.nist.nanoscalemetrology.JMONSELutils.FrequencyCounter;
  * instance of this Mesh class.
  * </p>
  * <p>
+ * Both the ASCII and binary variants of the .msh format (versions 2.1 and 2.2)
+ * are read. Since parsing and adjacency construction dominate the load time
+ * of large meshes, a mesh may be saved with writeCache(...) to an EPQ mesh
+ * cache file. The constructor recognizes cache files and loads them by memory
+ * mapping, with the adjacency table and boundary faces already computed.
+ * </p>
+ * <p>
  * Copyright: Pursuant to title 17 Section 105 of the United States Code this
  * software is not subject to copyright protection and is in the public domain
  * </p>
@@ -52,20 +71,132 @@ public class GmshMesh
    private int[][] elementsNodeIndices;
    private boolean elementAdjacentVolumesInitialized = false;
    private int[][] elementAdjacentVolumes;
+   private int[][] boundaryFaces;
    private int[] nElectronicCharges;
    private double[] volume;
    private int nVolumeElements = 0;
 
+   private static final int FORMAT_TEXT = 0;
+   private static final int FORMAT_BINARY = 1;
+   private static final int FORMAT_CACHE = 2;
+
+   private static final byte[] CACHE_MAGIC = "EPQMESH\0".getBytes(StandardCharsets.US_ASCII);
+   private static final int CACHE_VERSION = 1;
+   private static final int CACHE_HEADER_SIZE = 40;
+
    /**
-    * Constructs a Mesh
+    * Constructs a Mesh. The file may be a Gmsh .msh file in either the ASCII
+    * or the binary variant of mesh format 2.1 or 2.2, or an EPQ mesh cache
+    * file previously produced by writeCache(). The format is determined from
+    * the first bytes of the file.
     *
     * @param meshFileName
     * @throws FileNotFoundException
     */
-   @SuppressWarnings("unchecked")
    public GmshMesh(String meshFileName)
          throws FileNotFoundException {
       this.meshFileName = meshFileName;
+      final int format = detectFormat(meshFileName);
+      try {
+         switch(format) {
+            case FORMAT_CACHE:
+               readCache(meshFileName);
+               break;
+            case FORMAT_BINARY:
+               readBinary(meshFileName);
+               break;
+            default:
+               readText(meshFileName);
+               break;
+         }
+      }
+      catch(final FileNotFoundException e) {
+         throw e;
+      }
+      catch(final IOException e) {
+         throw new EPQFatalException("Error reading mesh file " + meshFileName, e);
+      }
+      initializeNodeAdjacentVolumes();
+      /* Initialize volume array */
+      for(int tetIndex = 1; tetIndex < elementTypes.length; tetIndex++)
+         if(elementTypes[tetIndex] == 4)
+            volume[tetIndex] = volumeFromNodes(elementsNodeIndices[tetIndex]);
+   }
+
+   /**
+    * Examines the first bytes of the file to determine whether it is an EPQ
+    * mesh cache, a binary Gmsh file, or an ASCII Gmsh file.
+    */
+   private static int detectFormat(String meshFileName)
+         throws FileNotFoundException {
+      final byte[] head = new byte[64];
+      int n = 0;
+      try (final FileInputStream fis = new FileInputStream(meshFileName)) {
+         int r;
+         while((n < head.length) && ((r = fis.read(head, n, head.length - n)) > 0))
+            n += r;
+      }
+      catch(final FileNotFoundException e) {
+         throw e;
+      }
+      catch(final IOException e) {
+         throw new EPQFatalException("Error reading mesh file " + meshFileName, e);
+      }
+      if((n >= CACHE_MAGIC.length) && Arrays.equals(Arrays.copyOf(head, CACHE_MAGIC.length), CACHE_MAGIC))
+         return FORMAT_CACHE;
+      /* $MeshFormat\n<version> <file-type> <data-size>\n */
+      final String[] lines = new String(head, 0, n, StandardCharsets.US_ASCII).split("\\r?\\n");
+      if((lines.length >= 2) && lines[0].trim().equals("$MeshFormat")) {
+         final String[] items = lines[1].trim().split("\\s+");
+         if((items.length >= 2) && items[1].equals("1"))
+            return FORMAT_BINARY;
+      }
+      return FORMAT_TEXT;
+   }
+
+   /**
+    * Allocates the per-element arrays for numElements elements.
+    */
+   private void allocateElements(int numElements) {
+      elementTypes = new int[numElements + 1];
+      ntags = new int[numElements + 1];
+      tags = new long[numElements + 1][];
+      elementsNodeIndices = new int[numElements + 1][];
+      elementAdjacentVolumes = new int[numElements + 1][];
+      nElectronicCharges = new int[numElements + 1];
+      volume = new double[numElements + 1];
+   }
+
+   /**
+    * Returns the number of nodes for the supported element types or -1 if the
+    * type is not supported.
+    */
+   private static int nodesPerElement(int type) {
+      switch(type) {
+         case 1: // 2-node line
+            return 2;
+         case 2: // 3-node triangle
+            return 3;
+         case 4: // 4-node tetrahedron
+            return 4;
+         default:
+            return -1;
+      }
+   }
+
+   private static EPQFatalException unsupportedType(int i, int type) {
+      if((type >= 1) && (type <= 31))
+         return new EPQFatalException("Element " + Integer.toString(i) + " is unimplemented type " + Integer.toString(type));
+      else
+         return new EPQFatalException("Encountered invalid element type = " + Integer.toString(type) + " at element # "
+               + Integer.toString(i));
+   }
+
+   /**
+    * Reads an ASCII Gmsh file.
+    */
+   private void readText(String meshFileName)
+         throws FileNotFoundException {
       final Scanner s = new Scanner(new BufferedReader(new FileReader(meshFileName)));
       s.useLocale(Locale.US);
       try {
@@ -104,9 +235,6 @@ public class GmshMesh
          /* Initialize arrays associated with nodes. */
          nodeCoords = new double[numNodes + 1][3];
          nodePotentials = new double[numNodes + 1];
-         nodeAdjacentVolumes = new int[numNodes + 1][];
-         /* A temporary collection to park items while we accumulate them */
-         final LinkedList<Integer>[] nodeAVlists = new LinkedList[numNodes + 1];
 
          for(int i = 1; i <= numNodes; i++) {
             if(s.nextInt() != i)
@@ -114,7 +242,6 @@ public class GmshMesh
             nodeCoords[i][0] = s.nextDouble();
             nodeCoords[i][1] = s.nextDouble();
             nodeCoords[i][2] = s.nextDouble();
-            nodeAVlists[i] = new LinkedList<Integer>();
          }
          if(!s.next().equals("$EndNodes"))
             throw new EPQFatalException("Expecting end of $Nodes");
@@ -129,13 +256,7 @@ public class GmshMesh
             throw new EPQFatalException("Expecting number of Elements");
 
          /* Initialize arrays associated with elements */
-         elementTypes = new int[numElements + 1];
-         ntags = new int[numElements + 1];
-         tags = new long[numElements + 1][];
-         elementsNodeIndices = new int[numElements + 1][];
-         elementAdjacentVolumes = new int[numElements + 1][];
-         nElectronicCharges = new int[numElements + 1];
-         volume = new double[numElements + 1];
+         allocateElements(numElements);
          for(int i = 1; i <= numElements; i++) {
             if(s.nextInt() != i)
                throw new EPQFatalException("Incorrect element number at element " + Integer.toString(i));
@@ -153,65 +274,423 @@ public class GmshMesh
             tags[i] = new long[ntags[i]];
             for(int j = 0; j < nt; j++)
                tags[i][j] = s.nextLong(); // ?
-            switch(type) {
-               case 1: // 2-node line
-                  elementsNodeIndices[i] = new int[] {
-                     s.nextInt(),
-                     s.nextInt()
-                  };
-                  break;
-               case 2: // 3-node triangle
-                  elementsNodeIndices[i] = new int[] {
-                     s.nextInt(),
-                     s.nextInt(),
-                     s.nextInt()
-                  };
-                  break;
-               case 4: // 4-node tetrahedron
-                  elementsNodeIndices[i] = new int[4];
-                  for(int j = 0; j < 4; j++) {
-                     elementsNodeIndices[i][j] = s.nextInt();
-                     nodeAVlists[elementsNodeIndices[i][j]].add(i);
-                  }
-                  elementAdjacentVolumes[i] = new int[4];
-                  nVolumeElements++;
-                  break;
-               default:
-                  if((type >= 1) && (type <= 31))
-                     throw new EPQFatalException("Element " + Integer.toString(i) + " is unimplemented type "
-                           + Integer.toString(type));
-                  else
-                     throw new EPQFatalException("Encountered invalid element type = " + Integer.toString(type)
-                           + " at element # " + Integer.toString(i));
+            final int nn = nodesPerElement(type);
+            if(nn < 0)
+               throw unsupportedType(i, type);
+            elementsNodeIndices[i] = new int[nn];
+            for(int j = 0; j < nn; j++)
+               elementsNodeIndices[i][j] = s.nextInt();
+            if(type == 4) {
+               elementAdjacentVolumes[i] = new int[4];
+               nVolumeElements++;
             }
-
          }
          if(!s.next().equals("$EndElements"))
             throw new EPQFatalException("Expecting end of $Elements");
+      }
+      finally {
+         if(s != null)
+            s.close();
+      }
+   }
 
-         /*
-          * Move the lists of node adjacent volumes to arrays to save space, and
-          * sort them.
-          */
+   /**
+    * Reads a binary Gmsh file (file-type = 1). The ASCII headers are the same
+    * as in the text format. Node and element records are binary. The byte
+    * order is determined from the integer 1 that follows the format line.
+    */
+   private void readBinary(String meshFileName)
+         throws IOException {
+      try (final FileChannel fc = FileChannel.open(Paths.get(meshFileName), StandardOpenOption.READ)) {
+         if(fc.size() > Integer.MAX_VALUE)
+            throw new EPQFatalException("Binary mesh files larger than 2 GB are not supported. Use a mesh cache file.");
+         final ByteBuffer bb = fc.map(FileChannel.MapMode.READ_ONLY, 0, fc.size());
+         if(!nextToken(bb).equals("$MeshFormat"))
+            throw new EPQFatalException("1st File token was not $MeshFormat");
+         final double versionNumber = Double.parseDouble(nextToken(bb));
+         if((versionNumber != 2.1) && (versionNumber != 2.2))
+            throw new EPQFatalException("Expecting mesh format = 2.1 or 2.2");
+         if(Integer.parseInt(nextToken(bb)) != 1)
+            throw new EPQFatalException("Expecting file type = 1");
+         if(Integer.parseInt(nextToken(bb)) != 8)
+            throw new EPQFatalException("Expecting data size = 8");
+         skipLine(bb);
+         bb.order(ByteOrder.LITTLE_ENDIAN);
+         final int one = bb.getInt(bb.position());
+         if(one != 1) {
+            bb.order(ByteOrder.BIG_ENDIAN);
+            if(bb.getInt(bb.position()) != 1)
+               throw new EPQFatalException("Unable to determine the byte order of the binary mesh file");
+         }
+         bb.position(bb.position() + 4);
+         if(!nextToken(bb).equals("$EndMeshFormat"))
+            throw new EPQFatalException("Expecting end of $MeshFormat");
+
+         /* Nodes */
+         if(!nextToken(bb).equals("$Nodes"))
+            throw new EPQFatalException("Expecting beginning of $Nodes");
+         final int numNodes = Integer.parseInt(nextToken(bb));
+         skipLine(bb);
+         nodeCoords = new double[numNodes + 1][3];
+         nodePotentials = new double[numNodes + 1];
          for(int i = 1; i <= numNodes; i++) {
-            nodeAdjacentVolumes[i] = new int[nodeAVlists[i].size()];
-            int j = 0;
-            for(final Integer vol : nodeAVlists[i])
-               nodeAdjacentVolumes[i][j++] = vol;
-            Arrays.sort(nodeAdjacentVolumes[i]);
+            if(bb.getInt() != i)
+               throw new EPQFatalException("Incorrect node number at node " + Integer.toString(i));
+            nodeCoords[i][0] = bb.getDouble();
+            nodeCoords[i][1] = bb.getDouble();
+            nodeCoords[i][2] = bb.getDouble();
          }
+         if(!nextToken(bb).equals("$EndNodes"))
+            throw new EPQFatalException("Expecting end of $Nodes");
 
-         /* Initialize volume array */
-         for(int tetIndex = 1; tetIndex <= numElements; tetIndex++)
-            if(elementTypes[tetIndex] == 4)
-               volume[tetIndex] = volumeFromNodes(elementsNodeIndices[tetIndex]);
+         /* Elements, in blocks of identical type and tag count */
+         if(!nextToken(bb).equals("$Elements"))
+            throw new EPQFatalException("Expecting beginning of $Elements");
+         final int numElements = Integer.parseInt(nextToken(bb));
+         skipLine(bb);
+         allocateElements(numElements);
+         int i = 1;
+         while(i <= numElements) {
+            final int type = bb.getInt();
+            final int count = bb.getInt();
+            final int nt = bb.getInt();
+            final int nn = nodesPerElement(type);
+            if(nn < 0)
+               throw unsupportedType(i, type);
+            if((count <= 0) || ((i + count) > (numElements + 1)))
+               throw new EPQFatalException("Invalid element block size at element " + Integer.toString(i));
+            for(int k = 0; k < count; k++, i++) {
+               if(bb.getInt() != i)
+                  throw new EPQFatalException("Incorrect element number at element " + Integer.toString(i));
+               elementTypes[i] = type;
+               ntags[i] = versionNumber == 2.1 ? nt : nt + 1;
+               tags[i] = new long[ntags[i]];
+               for(int j = 0; j < nt; j++)
+                  tags[i][j] = bb.getInt();
+               elementsNodeIndices[i] = new int[nn];
+               for(int j = 0; j < nn; j++)
+                  elementsNodeIndices[i][j] = bb.getInt();
+               if(type == 4) {
+                  elementAdjacentVolumes[i] = new int[4];
+                  nVolumeElements++;
+               }
+            }
+         }
+         if(!nextToken(bb).equals("$EndElements"))
+            throw new EPQFatalException("Expecting end of $Elements");
       }
-      finally {
-         if(s != null)
-            s.close();
+      catch(final NumberFormatException | BufferUnderflowException e) {
+         throw new EPQFatalException("Malformed binary mesh file " + meshFileName, e);
+      }
+   }
+
+   /**
+    * Returns the next whitespace delimited ASCII token in the buffer.
+    */
+   private static String nextToken(ByteBuffer bb) {
+      while(bb.hasRemaining() && Character.isWhitespace(bb.get(bb.position())))
+         bb.get();
+      final StringBuilder sb = new StringBuilder();
+      while(bb.hasRemaining() && !Character.isWhitespace(bb.get(bb.position())))
+         sb.append((char) bb.get());
+      return sb.toString();
+   }
+
+   /**
+    * Advances the buffer past the next line feed.
+    */
+   private static void skipLine(ByteBuffer bb) {
+      while(bb.hasRemaining() && (bb.get() != '\n'))
+         ;
+   }
+
+   /**
+    * Reads an EPQ mesh cache file as written by writeCache(). The node,
+    * element and adjacency sections are memory mapped and copied in bulk.
+    */
+   private void readCache(String meshFileName)
+         throws IOException {
+      try (final FileChannel fc = FileChannel.open(Paths.get(meshFileName), StandardOpenOption.READ)) {
+         final ByteBuffer hdr = fc.map(FileChannel.MapMode.READ_ONLY, 0, CACHE_HEADER_SIZE);
+         final byte[] magic = new byte[CACHE_MAGIC.length];
+         hdr.get(magic);
+         if(!Arrays.equals(magic, CACHE_MAGIC))
+            throw new EPQFatalException(meshFileName + " is not an EPQ mesh cache file.");
+         if(hdr.getInt() != CACHE_VERSION)
+            throw new EPQFatalException("Unsupported EPQ mesh cache version in " + meshFileName);
+         final int numNodes = hdr.getInt();
+         final int numElements = hdr.getInt();
+         nVolumeElements = hdr.getInt();
+         final int totalTags = hdr.getInt();
+         final int totalNodeRefs = hdr.getInt();
+         final int nBoundary = hdr.getInt();
+         long pos = CACHE_HEADER_SIZE;
+
+         final double[] coords = new double[3 * numNodes];
+         pos = mapDoubles(fc, pos, coords);
+         nodeCoords = new double[numNodes + 1][];
+         nodeCoords[0] = new double[3];
+         for(int i = 1; i <= numNodes; i++)
+            nodeCoords[i] = Arrays.copyOfRange(coords, 3 * (i - 1), 3 * i);
+         nodePotentials = new double[numNodes + 1];
+
+         allocateElements(numElements);
+         final int[] tmp = new int[numElements];
+         pos = mapInts(fc, pos, tmp);
+         System.arraycopy(tmp, 0, elementTypes, 1, numElements);
+         pos = mapInts(fc, pos, tmp);
+         System.arraycopy(tmp, 0, ntags, 1, numElements);
+         final long[] allTags = new long[totalTags];
+         pos = mapLongs(fc, pos, allTags);
+         final int[] allNodes = new int[totalNodeRefs];
+         pos = mapInts(fc, pos, allNodes);
+         final int[] adj = new int[4 * nVolumeElements];
+         pos = mapInts(fc, pos, adj);
+         final int[] bf = new int[2 * nBoundary];
+         pos = mapInts(fc, pos, bf);
+
+         for(int i = 1, t = 0, n = 0, v = 0; i <= numElements; i++) {
+            tags[i] = Arrays.copyOfRange(allTags, t, t + ntags[i]);
+            t += ntags[i];
+            final int nn = nodesPerElement(elementTypes[i]);
+            if(nn < 0)
+               throw unsupportedType(i, elementTypes[i]);
+            elementsNodeIndices[i] = Arrays.copyOfRange(allNodes, n, n + nn);
+            n += nn;
+            if(elementTypes[i] == 4) {
+               elementAdjacentVolumes[i] = Arrays.copyOfRange(adj, 4 * v, 4 * (v + 1));
+               v++;
+            }
+         }
+         boundaryFaces = new int[nBoundary][];
+         for(int i = 0; i < nBoundary; i++)
+            boundaryFaces[i] = new int[] {
+               bf[2 * i],
+               bf[(2 * i) + 1]
+            };
+         elementAdjacentVolumesInitialized = true;
+      }
+   }
+
+   /**
+    * The maximum number of primitive values mapped at once. Large sections are
+    * mapped in segments so that files larger than 2 GB may be read.
+    */
+   private static final int MAP_SEGMENT = 1 << 26;
+
+   private static long mapInts(FileChannel fc, long pos, int[] dst)
+         throws IOException {
+      for(int off = 0; off < dst.length; off += MAP_SEGMENT) {
+         final int len = Math.min(MAP_SEGMENT, dst.length - off);
+         fc.map(FileChannel.MapMode.READ_ONLY, pos, 4L * len).order(ByteOrder.BIG_ENDIAN).asIntBuffer().get(dst, off, len);
+         pos += 4L * len;
+      }
+      return pos;
+   }
+
+   private static long mapLongs(FileChannel fc, long pos, long[] dst)
+         throws IOException {
+      for(int off = 0; off < dst.length; off += MAP_SEGMENT) {
+         final int len = Math.min(MAP_SEGMENT, dst.length - off);
+         fc.map(FileChannel.MapMode.READ_ONLY, pos, 8L * len).order(ByteOrder.BIG_ENDIAN).asLongBuffer().get(dst, off, len);
+         pos += 8L * len;
+      }
+      return pos;
+   }
+
+   private static long mapDoubles(FileChannel fc, long pos, double[] dst)
+         throws IOException {
+      for(int off = 0; off < dst.length; off += MAP_SEGMENT) {
+         final int len = Math.min(MAP_SEGMENT, dst.length - off);
+         fc.map(FileChannel.MapMode.READ_ONLY, pos, 8L * len).order(ByteOrder.BIG_ENDIAN).asDoubleBuffer().get(dst, off, len);
+         pos += 8L * len;
+      }
+      return pos;
+   }
+
+   /**
+    * Writes this mesh, including its element adjacency table and boundary
+    * faces, to an EPQ mesh cache file. Loading the cache file with the
+    * GmshMesh(String) constructor is much faster than parsing the original
+    * .msh file because nothing needs to be parsed or recomputed. Node
+    * potentials and charges are not saved.
+    *
+    * @param cacheFileName
+    * @throws IOException
+    */
+   public void writeCache(String cacheFileName)
+         throws IOException {
+      if(!elementAdjacentVolumesInitialized)
+         initializeAdjacency();
+      final int numNodes = getNumberOfNodes();
+      final int numElements = getNumberOfElements();
+      int totalTags = 0, totalNodeRefs = 0;
+      for(int i = 1; i <= numElements; i++) {
+         totalTags += ntags[i];
+         totalNodeRefs += elementsNodeIndices[i].length;
+      }
+      try (final DataOutputStream dos = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(cacheFileName), 1 << 16))) {
+         dos.write(CACHE_MAGIC);
+         dos.writeInt(CACHE_VERSION);
+         dos.writeInt(numNodes);
+         dos.writeInt(numElements);
+         dos.writeInt(nVolumeElements);
+         dos.writeInt(totalTags);
+         dos.writeInt(totalNodeRefs);
+         dos.writeInt(boundaryFaces.length);
+         dos.writeInt(0); // pads the header to a multiple of 8 bytes
+         for(int i = 1; i <= numNodes; i++)
+            for(int j = 0; j < 3; j++)
+               dos.writeDouble(nodeCoords[i][j]);
+         for(int i = 1; i <= numElements; i++)
+            dos.writeInt(elementTypes[i]);
+         for(int i = 1; i <= numElements; i++)
+            dos.writeInt(ntags[i]);
+         for(int i = 1; i <= numElements; i++)
+            for(final long tag : tags[i])
+               dos.writeLong(tag);
+         for(int i = 1; i <= numElements; i++)
+            for(final int node : elementsNodeIndices[i])
+               dos.writeInt(node);
+         for(int i = 1; i <= numElements; i++)
+            if(elementTypes[i] == 4)
+               for(int j = 0; j < 4; j++)
+                  dos.writeInt(elementAdjacentVolumes[i][j]);
+         for(final int[] bf : boundaryFaces) {
+            dos.writeInt(bf[0]);
+            dos.writeInt(bf[1]);
+         }
       }
    }
 
+   /**
+    * Builds the sorted lists of tetrahedra adjacent to each node. A counting
+    * pass sizes the lists, so no intermediate collections are required.
+    * Tetrahedra are visited in index order so each list is sorted on
+    * completion.
+    */
+   private void initializeNodeAdjacentVolumes() {
+      final int numNodes = getNumberOfNodes();
+      final int[] counts = new int[numNodes + 1];
+      for(int i = 1; i < elementTypes.length; i++)
+         if(elementTypes[i] == 4)
+            for(final int node : elementsNodeIndices[i])
+               counts[node]++;
+      nodeAdjacentVolumes = new int[numNodes + 1][];
+      for(int i = 0; i <= numNodes; i++)
+         nodeAdjacentVolumes[i] = new int[counts[i]];
+      Arrays.fill(counts, 0);
+      for(int i = 1; i < elementTypes.length; i++)
+         if(elementTypes[i] == 4)
+            for(final int node : elementsNodeIndices[i])
+               nodeAdjacentVolumes[node][counts[node]++] = i;
+   }
+
+   /**
+    * Local node indices of the four faces of a tetrahedron. Consistent with
+    * tetFaceNodeIndices().
+    */
+   private static final int[][] TET_FACES = {
+      {
+         1,
+         2,
+         3
+      },
+      {
+         0,
+         3,
+         2
+      },
+      {
+         0,
+         1,
+         3
+      },
+      {
+         0,
+         2,
+         1
+      }
+   };
+
+   /**
+    * Initializes the elementAdjacentVolumes table and the list of boundary
+    * faces. Each tetrahedron face is identified by its three node indices.
+    * Faces are bucketed by their smallest node index with a counting sort and
+    * then each bucket is sorted on the remaining two nodes. Faces that share a
+    * tetrahedron neighbor are then adjacent in their bucket. Buckets are
+    * independent, so they are processed in parallel. When (in a malformed
+    * mesh) more than two tetrahedra share a face, the lowest indexed of the
+    * others is chosen, as before.
+    */
+   private void initializeAdjacency() {
+      final int numNodes = getNumberOfNodes();
+      final int[] tets = new int[nVolumeElements];
+      for(int i = 1, v = 0; i < elementTypes.length; i++)
+         if(elementTypes[i] == 4)
+            tets[v++] = i;
+      final int nFaces = 4 * tets.length;
+      final int[] faceMin = new int[nFaces];
+      final long[] faceKey = new long[nFaces];
+      IntStream.range(0, tets.length).parallel().forEach(v -> {
+         final int[] nodes = elementsNodeIndices[tets[v]];
+         for(int f = 0; f < 4; f++) {
+            final int a = nodes[TET_FACES[f][0]], b = nodes[TET_FACES[f][1]], c = nodes[TET_FACES[f][2]];
+            final int lo = Math.min(a, Math.min(b, c));
+            final int hi = Math.max(a, Math.max(b, c));
+            final int mid = (a + b + c) - lo - hi;
+            faceMin[(4 * v) + f] = lo;
+            faceKey[(4 * v) + f] = (((long) mid) << 32) | hi;
+         }
+      });
+      /* Counting sort by smallest node. Face order within a bucket is kept. */
+      final int[] bucketStart = new int[numNodes + 2];
+      for(final int lo : faceMin)
+         bucketStart[lo + 1]++;
+      for(int i = 1; i < bucketStart.length; i++)
+         bucketStart[i] += bucketStart[i - 1];
+      final int[] next = Arrays.copyOf(bucketStart, bucketStart.length);
+      final int[] sorted = new int[nFaces];
+      for(int face = 0; face < nFaces; face++)
+         sorted[next[faceMin[face]]++] = face;
+      IntStream.range(0, numNodes + 1).parallel().forEach(node -> {
+         final int start = bucketStart[node], end = bucketStart[node + 1];
+         /* Buckets are small, so a stable insertion sort is best */
+         for(int i = start + 1; i < end; i++) {
+            final int face = sorted[i];
+            final long key = faceKey[face];
+            int j = i - 1;
+            for(; (j >= start) && (faceKey[sorted[j]] > key); j--)
+               sorted[j + 1] = sorted[j];
+            sorted[j + 1] = face;
+         }
+         for(int i = start; i < end;) {
+            int j = i + 1;
+            while((j < end) && (faceKey[sorted[j]] == faceKey[sorted[i]]))
+               j++;
+            if((j - i) > 1)
+               for(int k = i; k < j; k++) {
+                  final int face = sorted[k];
+                  final int other = sorted[k == i ? i + 1 : i];
+                  elementAdjacentVolumes[tets[face >> 2]][face & 3] = tets[other >> 2];
+               }
+            i = j;
+         }
+      });
+      final ArrayList<int[]> bF = new ArrayList<int[]>();
+      for(final int tetIndex : tets) {
+         final int[] adj = elementAdjacentVolumes[tetIndex];
+         for(int faceIndex = 0; faceIndex < 4; faceIndex++)
+            if(adj[faceIndex] == 0)
+               bF.add(new int[] {
+                  tetIndex,
+                  faceIndex
+               });
+      }
+      boundaryFaces = bF.toArray(new int[bF.size()][]);
+      elementAdjacentVolumesInitialized = true;
+   }
+
    /**
     * @param index
     * @see gov.nist.nanoscalemetrology.JMONSEL.IBasicMesh#decrementChargeNumber(int)
@@ -348,24 +827,12 @@ public class GmshMesh
    /* The method also initializes the elementAdjacentVolumes array */
    @Override
    public int[][] getBoundaryFaces() {
-      /*
-       * Initialize tables of adjacent tets. Keep a list of faces that have no
-       * adjacent tet. These are boundary faces.
-       */
-      final ArrayList<int[]> bF = new ArrayList<int[]>();
-      for(int tetIndex = 1; tetIndex < elementTypes.length; tetIndex++)
-         if(elementTypes[tetIndex] == 4)
-            for(int faceIndex = 0; faceIndex < 4; faceIndex++)
-               if((!initializeAdjacentVolume(tetIndex, faceIndex)))
-                  bF.add(new int[] {
-                     tetIndex,
-                     faceIndex
-                  });
-      elementAdjacentVolumesInitialized = true;
-      final int[][] boundaryFaces = new int[bF.size()][];
-      for(int i = 0; i < bF.size(); i++)
-         boundaryFaces[i] = bF.get(i);
-      return boundaryFaces;
+      if(!elementAdjacentVolumesInitialized)
+         initializeAdjacency();
+      final int[][] res = new int[boundaryFaces.length][];
+      for(int i = 0; i < res.length; i++)
+         res[i] = boundaryFaces[i].clone();
+      return res;
    }
 
    /**
@@ -503,30 +970,6 @@ public class GmshMesh
       nElectronicCharges[index]++;
    }
 
-   /**
-    * Initializes elementAdjacentVolumes[tetIndex][faceIndex]. tetIndex and
-    * faceIndex are input parameters that identify a particular triangular
-    * face--the faceIndex face of the tetIndex tetrahedron. Besides the tetIndex
-    * tetrahedron, there is at most one other tetrahedron in the mesh that
-    * shares this face. The index of that tetrahedron is found, if it exists,
-    * stored in the indicated array location, and true is returned. If the
-    * identified face does not have a neighboring tetrahedron (i.e., because it
-    * is on the boundary of the mesh), false is returned.
-    *
-    * @param tetIndex - Index of a tetrahedron
-    * @param faceIndex - Index (0-3) of one of the faces of this tetrahedron
-    * @return - true if the adjacent volume exists, false if it doesn't (i.e.,
-    *         if this face is on the boundary of the mesh).
-    */
-   private boolean initializeAdjacentVolume(int tetIndex, int faceIndex) {
-      final ArrayList<FrequencyCounter> volList = extendedAdjacentVolumeList(tetIndex, faceIndex);
-      if(volList.get(0).count() == 3) {
-         elementAdjacentVolumes[tetIndex][faceIndex] = (Integer) volList.get(0).id();
-         return true;
-      }
-      return false;
-   }
-
    /**
     * @param elementIndex
     * @return
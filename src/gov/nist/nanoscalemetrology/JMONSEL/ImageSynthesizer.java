@@ -0,0 +1,480 @@
+package gov.nist.nanoscalemetrology.JMONSEL;
+
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Random;
+import java.util.SplittableRandom;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Function;
+import java.util.stream.IntStream;
+
+import gov.nist.microanalysis.EPQLibrary.EPQException;
+import gov.nist.microanalysis.EPQLibrary.EPQFatalException;
+import gov.nist.microanalysis.EPQLibrary.SimulationContext;
+import gov.nist.microanalysis.EPQLibrary.ToSI;
+import gov.nist.microanalysis.NISTMonte.BackscatterStats;
+import gov.nist.microanalysis.NISTMonte.Electron;
+import gov.nist.microanalysis.NISTMonte.MonteCarloSS;
+import gov.nist.microanalysis.NISTMonte.MonteCarloSS.TransformableRegion;
+import gov.nist.microanalysis.Utility.Math2;
+
+/**
+ * <p>
+ * Synthesizes SEM images by running a fixed number of trajectories at each of
+ * the beam positions produced by a ScanGenerator. The pixels are spread across
+ * a work-stealing thread pool. Each worker thread owns its own MonteCarloSS,
+ * built by a user supplied SimulatorFactory within a SimulationContext derived
+ * from the caller's, so the sample geometry, scatter models and electron
+ * numbering are never shared between threads.
+ * </p>
+ * <p>
+ * The pixel at column <code>i % width</code> and row <code>i / width</code>
+ * is simulated with the beam at <code>scan.get(i)</code>. The images are
+ * computed progressively. The first pass simulates every
+ * <code>coarseStride</code><sup>th</sup> pixel in each direction and the
+ * stride is halved on each subsequent pass. At the end of each pass the
+ * pixels that have not yet been simulated are filled from the nearest
+ * simulated pixel above and to the left and the ImageListeners are notified,
+ * so a rough image is available long before the full resolution image.
+ * </p>
+ * <p>
+ * The random numbers for each pixel come from a stream seeded from the
+ * ImageSynthesizer's seed and the pixel index. While the pixel is simulated,
+ * that stream is bound to the worker thread using Math2.setThreadRandom(...).
+ * The images therefore depend only on the seed, not on the number of threads
+ * or on which worker simulated which pixel.
+ * </p>
+ * <p>
+ * The time coordinate of the scan is ignored so ImageSynthesizer is suitable
+ * for non-charging samples only. The scanned position is used as the center
+ * of the electron gun.
+ * </p>
+ * <p>
+ * Copyright: Pursuant to title 17 Section 105 of the United States Code this
+ * software is not subject to copyright protection and is in the public domain
+ * </p>
+ * <p>
+ * Institution: National Institute of Standards and Technology
+ * </p>
+ *
+ * @author Nicholas
+ * @version 1.0
+ */
+public class ImageSynthesizer {
+
+   /**
+    * Builds a complete, independent MonteCarloSS (sample, scatter models and
+    * electron gun). The factory is called once on each worker thread.
+    */
+   public interface SimulatorFactory {
+      MonteCarloSS create() throws EPQException;
+   }
+
+   /**
+    * Notified by ImageSynthesizer each time a pass through the image has been
+    * completed.
+    */
+   public interface ImageListener {
+      /**
+       * Called after the pass with the specified stride has completed. The
+       * stride of the last pass is 1. Called on the thread that called
+       * <code>run()</code>.
+       *
+       * @param is
+       * @param stride
+       */
+      void passComplete(ImageSynthesizer is, int stride);
+   }
+
+   /**
+    * A PixelDetector creates a fresh ActionListener for each pixel and
+    * converts the listener's state into the pixel intensity once the
+    * trajectories for the pixel have been run.
+    *
+    * @param <T>
+    */
+   public static abstract class PixelDetector<T extends ActionListener> {
+      private final String mName;
+
+      protected PixelDetector(String name) {
+         mName = name;
+      }
+
+      /**
+       * Create a listener to collect statistics on the specified
+       * MonteCarloSS. The listener is added to and removed from the
+       * MonteCarloSS by the ImageSynthesizer.
+       *
+       * @param mcss
+       * @return T
+       */
+      protected abstract T create(MonteCarloSS mcss);
+
+      /**
+       * Compute the pixel intensity from the listener's statistics.
+       *
+       * @param listener
+       * @return double
+       */
+      protected abstract double measure(T listener);
+
+      public String getName() {
+         return mName;
+      }
+
+      @Override
+      public String toString() {
+         return mName;
+      }
+   }
+
+   /**
+    * Counts the electrons that leave the sample with an energy in a specified
+    * range.
+    */
+   private static class EnergyWindowCounter implements ActionListener {
+      private final double mMinE;
+      private final double mMaxE;
+      private int mTrajectories;
+      private int mCount;
+
+      private EnergyWindowCounter(double minE, double maxE) {
+         mMinE = minE;
+         mMaxE = maxE;
+      }
+
+      @Override
+      public void actionPerformed(ActionEvent ae) {
+         switch (ae.getID()) {
+            case MonteCarloSS.BackscatterEvent : {
+               final Electron el = ((MonteCarloSS) ae.getSource()).getElectron();
+               final double e = el.getEnergy();
+               if ((e >= mMinE) && (e <= mMaxE))
+                  ++mCount;
+               break;
+            }
+            case MonteCarloSS.TrajectoryEndEvent :
+               ++mTrajectories;
+               break;
+         }
+      }
+   }
+
+   /**
+    * Returns a PixelDetector that reports the BackscatterStats backscatter
+    * fraction.
+    *
+    * @return PixelDetector
+    */
+   public static PixelDetector<BackscatterStats> backscatterFraction() {
+      return new PixelDetector<BackscatterStats>("BSE") {
+         @Override
+         protected BackscatterStats create(MonteCarloSS mcss) {
+            return new BackscatterStats(mcss);
+         }
+
+         @Override
+         protected double measure(BackscatterStats listener) {
+            return listener.backscatterFraction();
+         }
+      };
+   }
+
+   /**
+    * Returns a PixelDetector that reports the fraction of trajectories that
+    * are detected by a RegionDetector. Since each worker has its own sample,
+    * the detector regions are looked up on each MonteCarloSS by the function
+    * <code>regions</code>.
+    *
+    * @param name
+    * @param regions Returns the detector regions within a MonteCarloSS
+    * @param minE Minimum detected energy in Joules
+    * @param maxE Maximum detected energy in Joules
+    * @param destructive As RegionDetector
+    * @return PixelDetector
+    */
+   public static PixelDetector<RegionDetector> regionDetector(String name, Function<MonteCarloSS, Collection<TransformableRegion>> regions,
+         double minE, double maxE, boolean destructive) {
+      return new PixelDetector<RegionDetector>(name) {
+         @Override
+         protected RegionDetector create(MonteCarloSS mcss) {
+            return new RegionDetector(mcss, regions.apply(mcss), minE, maxE, destructive);
+         }
+
+         @Override
+         protected double measure(RegionDetector listener) {
+            return listener.detectedFraction();
+         }
+      };
+   }
+
+   /**
+    * Returns a PixelDetector that reports the number of electrons per
+    * trajectory that escape the sample with an energy between minE and maxE.
+    * With minE = 0 and maxE = 50 eV this is the conventional secondary
+    * electron yield.
+    *
+    * @param name
+    * @param minE In Joules
+    * @param maxE In Joules
+    * @return PixelDetector
+    */
+   public static PixelDetector<?> energyWindow(String name, double minE, double maxE) {
+      return new PixelDetector<EnergyWindowCounter>(name) {
+         @Override
+         protected EnergyWindowCounter create(MonteCarloSS mcss) {
+            return new EnergyWindowCounter(minE, maxE);
+         }
+
+         @Override
+         protected double measure(EnergyWindowCounter listener) {
+            return listener.mTrajectories > 0 ? (double) listener.mCount / (double) listener.mTrajectories : 0.0;
+         }
+      };
+   }
+
+   /**
+    * Returns a PixelDetector that reports the conventional (E &lt;= 50 eV)
+    * secondary electron yield.
+    *
+    * @return PixelDetector
+    */
+   public static PixelDetector<?> secondaryYield() {
+      return energyWindow("SE", 0.0, ToSI.eV(50.0));
+   }
+
+   private final SimulatorFactory mFactory;
+   private final ScanGenerator mScan;
+   private final int mWidth;
+   private final int mHeight;
+   private final int mTrajectoriesPerPixel;
+   private final List<PixelDetector<?>> mDetectors = new ArrayList<PixelDetector<?>>();
+   private final List<ImageListener> mListeners = new ArrayList<ImageListener>();
+   private int mCoarseStride = 8;
+   private int mThreadCount = Runtime.getRuntime().availableProcessors();
+   private long mSeed = Math2.rgen.nextLong();
+   private float[][] mImages;
+
+   /**
+    * Constructs an ImageSynthesizer
+    *
+    * @param factory Builds one MonteCarloSS per worker thread
+    * @param scan Provides the beam position for each pixel
+    * @param width Image width in pixels
+    * @param height Image height in pixels
+    * @param trajectoriesPerPixel Number of trajectories run at each pixel
+    */
+   public ImageSynthesizer(SimulatorFactory factory, ScanGenerator scan, int width, int height, int trajectoriesPerPixel) {
+      if ((width <= 0) || (height <= 0))
+         throw new EPQFatalException("The image dimensions must be positive.");
+      if (trajectoriesPerPixel <= 0)
+         throw new EPQFatalException("The number of trajectories per pixel must be positive.");
+      mFactory = factory;
+      mScan = scan;
+      mWidth = width;
+      mHeight = height;
+      mTrajectoriesPerPixel = trajectoriesPerPixel;
+   }
+
+   /**
+    * Adds a detector. Each detector produces one image.
+    *
+    * @param det
+    */
+   public void addDetector(PixelDetector<?> det) {
+      mDetectors.add(det);
+   }
+
+   public List<PixelDetector<?>> getDetectors() {
+      return new ArrayList<PixelDetector<?>>(mDetectors);
+   }
+
+   public void addImageListener(ImageListener il) {
+      mListeners.add(il);
+   }
+
+   public void removeImageListener(ImageListener il) {
+      mListeners.remove(il);
+   }
+
+   /**
+    * Sets the pixel stride of the first (coarsest) pass. Rounded up to a power
+    * of two. Use 1 to compute the image in a single pass.
+    *
+    * @param stride
+    */
+   public void setCoarseStride(int stride) {
+      mCoarseStride = Integer.highestOneBit(Math.max(1, (2 * stride) - 1));
+   }
+
+   public int getCoarseStride() {
+      return mCoarseStride;
+   }
+
+   /**
+    * Sets the number of worker threads (and so the number of MonteCarloSS
+    * instances). Defaults to the number of available processors.
+    *
+    * @param n
+    */
+   public void setThreadCount(int n) {
+      mThreadCount = Math.max(1, n);
+   }
+
+   public int getThreadCount() {
+      return mThreadCount;
+   }
+
+   /**
+    * Sets the seed from which the random stream for each pixel is derived.
+    * The default is drawn from Math2.rgen when the ImageSynthesizer is
+    * constructed.
+    *
+    * @param seed
+    */
+   public void setSeed(long seed) {
+      mSeed = seed;
+   }
+
+   public long getSeed() {
+      return mSeed;
+   }
+
+   public int getWidth() {
+      return mWidth;
+   }
+
+   public int getHeight() {
+      return mHeight;
+   }
+
+   /**
+    * Returns the image associated with the specified detector as a row-major
+    * array of width*height values. The array is live and is updated by
+    * <code>run()</code>. Returns null before <code>run()</code> is called.
+    *
+    * @param detector Index of the detector in the order added
+    * @return float[]
+    */
+   public float[] getImage(int detector) {
+      return mImages != null ? mImages[detector] : null;
+   }
+
+   /**
+    * Simulates all the pixels in the image. Blocks until the last pass is
+    * complete.
+    */
+   public void run() {
+      final int nDet = mDetectors.size();
+      if (nDet == 0)
+         throw new EPQFatalException("No detectors have been added to the ImageSynthesizer.");
+      mImages = new float[nDet][mWidth * mHeight];
+      // Each worker's MonteCarloSS is built in its own context
+      final SimulationContext base = SimulationContext.current();
+      final ThreadLocal<MonteCarloSS> simulator = ThreadLocal.withInitial(() -> {
+         final SimulationContext prev = SimulationContext.setCurrent(base.derive());
+         try {
+            return mFactory.create();
+         }
+         catch (final EPQException e) {
+            throw new EPQFatalException(e);
+         }
+         finally {
+            SimulationContext.setCurrent(prev);
+         }
+      });
+      // Mixed so that the pixel streams of nearby seeds do not coincide
+      final long seed = new SplittableRandom(mSeed).nextLong();
+      final ForkJoinPool pool = new ForkJoinPool(mThreadCount);
+      try {
+         final boolean[] done = new boolean[mWidth * mHeight];
+         for (int stride = mCoarseStride; stride >= 1; stride /= 2) {
+            final int[] pixels = passPixels(stride, done);
+            pool.submit(() -> IntStream.of(pixels).parallel().forEach(p -> simulatePixel(simulator.get(), seed, p))).get();
+            for (final int p : pixels)
+               done[p] = true;
+            if (stride > 1)
+               fill(stride, done);
+            for (final ImageListener il : new ArrayList<ImageListener>(mListeners))
+               il.passComplete(this, stride);
+         }
+      }
+      catch (final InterruptedException e) {
+         Thread.currentThread().interrupt();
+         throw new EPQFatalException(e);
+      }
+      catch (final ExecutionException e) {
+         final Throwable cause = e.getCause();
+         if (cause instanceof RuntimeException)
+            throw (RuntimeException) cause;
+         throw new EPQFatalException(cause);
+      }
+      finally {
+         pool.shutdown();
+      }
+   }
+
+   /**
+    * The pixels on the stride grid that have not been simulated in an earlier
+    * pass.
+    */
+   private int[] passPixels(int stride, boolean[] done) {
+      final int[] res = new int[((mWidth + stride - 1) / stride) * ((mHeight + stride - 1) / stride)];
+      int n = 0;
+      for (int y = 0; y < mHeight; y += stride)
+         for (int x = 0; x < mWidth; x += stride) {
+            final int p = (y * mWidth) + x;
+            if (!done[p])
+               res[n++] = p;
+         }
+      return Arrays.copyOf(res, n);
+   }
+
+   /**
+    * Fills each pixel not yet simulated with the value of the simulated pixel
+    * at the top-left corner of its stride x stride block.
+    */
+   private void fill(int stride, boolean[] done) {
+      for (final float[] img : mImages)
+         for (int y = 0; y < mHeight; ++y) {
+            final int y0 = y - (y % stride);
+            for (int x = 0; x < mWidth; ++x) {
+               final int p = (y * mWidth) + x;
+               if (!done[p])
+                  img[p] = img[(y0 * mWidth) + (x - (x % stride))];
+            }
+         }
+   }
+
+   private void simulatePixel(MonteCarloSS mcss, long seed, int pixel) {
+      final double[] pos = mScan.get(pixel);
+      mcss.getElectronGun().setCenter(new double[]{pos[0], pos[1], pos[2]});
+      final int nDet = mDetectors.size();
+      final ActionListener[] listeners = new ActionListener[nDet];
+      for (int d = 0; d < nDet; ++d) {
+         listeners[d] = mDetectors.get(d).create(mcss);
+         mcss.addActionListener(listeners[d]);
+      }
+      final Random prev = Math2.setThreadRandom(new Random(new SplittableRandom(seed + pixel).nextLong()));
+      try {
+         mcss.runMultipleTrajectories(mTrajectoriesPerPixel);
+      }
+      finally {
+         Math2.setThreadRandom(prev);
+         for (final ActionListener al : listeners)
+            mcss.removeActionListener(al);
+      }
+      for (int d = 0; d < nDet; ++d)
+         mImages[d][pixel] = (float) measure(mDetectors.get(d), listeners[d]);
+   }
+
+   @SuppressWarnings("unchecked")
+   private static <T extends ActionListener> double measure(PixelDetector<T> det, ActionListener al) {
+      return det.measure((T) al);
+   }
+}
@@ -61,6 +61,34 @@ public class MONSEL_MaterialScatterModel implements Cloneable, IMaterialScatterM
 
    private int nscattermech;
 
+   /*
+    * Optional tabulated scatter rates. When rateTableE is non-null, rates for
+    * energies in [rateTableE[0], rateTableE[last]] are interpolated from the
+    * table instead of being computed by each mechanism. For each tabulated
+    * energy k, rateTableTotal[k] is the total scatter rate and the entries
+    * [k*nscattermech, (k+1)*nscattermech) of aliasProb and aliasIndex are a
+    * Walker alias table for choosing a mechanism.
+    */
+   private double[] rateTableE = null;
+
+   private double rateTableLogE0;
+
+   private double rateTableInvDLogE;
+
+   private double[] rateTableTotal;
+
+   private double[] aliasProb;
+
+   private int[] aliasIndex;
+
+   /*
+    * Table bin and fractional position of cached_eK when the cache was set
+    * from the rate table. cached_bin < 0 indicates exact rates were cached.
+    */
+   private int cached_bin = -1;
+
+   private double cached_fraction;
+
    /*
     * The continuous slowing down algorithm to use for this material
     */
@@ -147,6 +175,9 @@ public class MONSEL_MaterialScatterModel implements Cloneable, IMaterialScatterM
    private void setCache(Electron pe) {
       // Remember kinetic energy for which the cache was created
       cached_eK = pe.getEnergy();
+      if (setTableCache(cached_eK))
+         return;
+      cached_bin = -1;
       /*
        * Algorithm: 1. Get scatter rate (1/(mean free path) for each mechanism
        * active in this material 2. From this, determine the total scatter rate.
@@ -163,6 +194,252 @@ public class MONSEL_MaterialScatterModel implements Cloneable, IMaterialScatterM
       }
    }
 
+   /**
+    * Sets totalScatterRate, cached_bin and cached_fraction from the rate
+    * table if there is one and eK is within it.
+    *
+    * @return true if the cache was set from the table.
+    */
+   private boolean setTableCache(double eK) {
+      if ((rateTableE == null) || !(eK >= rateTableE[0]) || !(eK <= rateTableE[rateTableE.length - 1]))
+         return false;
+      final double x = (Math.log(eK) - rateTableLogE0) * rateTableInvDLogE;
+      int bin = Math.min((int) x, rateTableE.length - 2);
+      /* Correct for round-off in the logarithm */
+      if ((eK < rateTableE[bin]) && (bin > 0))
+         bin--;
+      else if ((eK > rateTableE[bin + 1]) && (bin < (rateTableE.length - 2)))
+         bin++;
+      /* Rates are linear in energy between tabulated points */
+      final double f = Math.max(0., Math.min(1., (eK - rateTableE[bin]) / (rateTableE[bin + 1] - rateTableE[bin])));
+      cached_bin = bin;
+      cached_fraction = f;
+      totalScatterRate = ((1. - f) * rateTableTotal[bin]) + (f * rateTableTotal[bin + 1]);
+      return true;
+   }
+
+   /**
+    * <p>
+    * Tabulates the scatter rates of all of the scatter mechanisms currently
+    * assigned to this material at energies spaced logarithmically between
+    * eMin and eMax. Subsequently, for electrons with energies in this range,
+    * the total scatter rate is interpolated from the table and the scatter
+    * mechanism for each scattering event is chosen in constant time from Walker
+    * alias tables rather than by calling each mechanism's scatterRate() method
+    * on every step. This is appropriate because the scatter rates depend only
+    * upon the electron's kinetic energy within a material.
+    * </p>
+    * <p>
+    * Rates are interpolated linearly in energy between tabulated points. A
+    * mechanism is chosen by first choosing one of the two bracketing tabulated
+    * energies with probability proportional to its weighted contribution to the
+    * interpolated total rate and then sampling that energy's alias table. The
+    * probability of each mechanism is therefore exactly its interpolated rate
+    * divided by the interpolated total rate. Electrons with energies outside
+    * [eMin, eMax] are handled as before.
+    * </p>
+    * <p>
+    * The table must be recomputed (by calling this method again) if the
+    * mechanisms are modified. Adding or removing a mechanism discards the
+    * table. Use validateRateTable() to check that the grid is fine enough, and
+    * clearRateTable() to revert to exact rates.
+    * </p>
+    *
+    * @param eMin
+    *           - Lowest tabulated kinetic energy (J), &gt; 0
+    * @param eMax
+    *           - Highest tabulated kinetic energy (J). Must not exceed the
+    *           range of any tabulated scatter mechanism.
+    * @param pointsPerDecade
+    *           - Number of tabulated energies per factor of 10 in energy
+    */
+   public void tabulateScatterRates(double eMin, double eMax, int pointsPerDecade) {
+      if (!(eMin > 0.) || !(eMax > eMin) || (pointsPerDecade < 1))
+         throw new IllegalArgumentException("Invalid rate table energy range or density.");
+      final int n = Math.max(2, (int) Math.ceil(Math.log10(eMax / eMin) * pointsPerDecade) + 1);
+      final double[] energies = new double[n];
+      final double logE0 = Math.log(eMin);
+      final double dLogE = (Math.log(eMax) - logE0) / (n - 1);
+      for (int k = 0; k < n; k++)
+         energies[k] = Math.exp(logE0 + (k * dLogE));
+      energies[n - 1] = eMax;
+      final double[] total = new double[n];
+      final int m = nscattermech;
+      final double[] prob = new double[n * m];
+      final int[] alias = new int[n * m];
+      final double[] rates = new double[m];
+      final Electron probe = new Electron(new double[] {
+         0.,
+         0.,
+         0.
+      }, eMin);
+      for (int k = 0; k < n; k++) {
+         probe.setEnergy(energies[k]);
+         double sum = 0.;
+         for (int i = 0; i < m; i++) {
+            rates[i] = scatterArray[i].scatterRate(probe);
+            sum += rates[i];
+         }
+         total[k] = sum;
+         buildAliasTable(rates, sum, prob, alias, k * m);
+      }
+      rateTableE = energies;
+      rateTableLogE0 = logE0;
+      rateTableInvDLogE = 1. / dLogE;
+      rateTableTotal = total;
+      aliasProb = prob;
+      aliasIndex = alias;
+      cached_eK = -1.; // Force recompute of cache on next call
+   }
+
+   /**
+    * Builds a Walker alias table for the probabilities rates[i]/sum in
+    * prob[offset..offset+rates.length) and alias[offset..offset+rates.length)
+    * using Vose's algorithm.
+    */
+   private static void buildAliasTable(double[] rates, double sum, double[] prob, int[] alias, int offset) {
+      final int m = rates.length;
+      if (sum <= 0.) {
+         /* No scattering at this energy. The table is never consulted. */
+         for (int i = 0; i < m; i++) {
+            prob[offset + i] = 1.;
+            alias[offset + i] = i;
+         }
+         return;
+      }
+      final double[] scaled = new double[m];
+      final int[] small = new int[m];
+      final int[] large = new int[m];
+      int ns = 0, nl = 0;
+      for (int i = 0; i < m; i++) {
+         scaled[i] = (rates[i] * m) / sum;
+         if (scaled[i] < 1.)
+            small[ns++] = i;
+         else
+            large[nl++] = i;
+      }
+      while ((ns > 0) && (nl > 0)) {
+         final int s = small[--ns];
+         final int l = large[--nl];
+         prob[offset + s] = scaled[s];
+         alias[offset + s] = l;
+         scaled[l] = (scaled[l] + scaled[s]) - 1.;
+         if (scaled[l] < 1.)
+            small[ns++] = l;
+         else
+            large[nl++] = l;
+      }
+      /* What remains has probability 1 up to round-off */
+      while (nl > 0) {
+         final int l = large[--nl];
+         prob[offset + l] = 1.;
+         alias[offset + l] = l;
+      }
+      while (ns > 0) {
+         final int s = small[--ns];
+         prob[offset + s] = 1.;
+         alias[offset + s] = s;
+      }
+   }
+
+   /**
+    * Discards the table created by tabulateScatterRates(). Scatter rates are
+    * once again computed by each scatter mechanism on every step.
+    */
+   public void clearRateTable() {
+      rateTableE = null;
+      rateTableTotal = null;
+      aliasProb = null;
+      aliasIndex = null;
+      cached_eK = -1.;
+   }
+
+   /**
+    * Returns true if tabulateScatterRates() has been called and the table has
+    * not since been discarded.
+    *
+    * @return boolean
+    */
+   public boolean hasRateTable() {
+      return rateTableE != null;
+   }
+
+   /**
+    * Compares the tabulated rates with the exact rates computed by each scatter
+    * mechanism at nPerBin energies within each bin of the table. This is the
+    * validation mode for the tabulated rates; it does not change the state of
+    * the model.
+    *
+    * @param nPerBin
+    *           - Number of test energies per table interval
+    * @return double[] - {maximum relative error in the total scatter rate,
+    *         maximum absolute error in any mechanism's selection probability}
+    */
+   public double[] validateRateTable(int nPerBin) {
+      if (rateTableE == null)
+         throw new IllegalStateException("tabulateScatterRates() has not been called.");
+      final int m = nscattermech;
+      final Electron probe = new Electron(new double[] {
+         0.,
+         0.,
+         0.
+      }, rateTableE[0]);
+      final double[] exact = new double[m];
+      double maxTotalErr = 0., maxProbErr = 0.;
+      for (int k = 0; (k + 1) < rateTableE.length; k++)
+         for (int j = 1; j <= nPerBin; j++) {
+            final double eK = rateTableE[k] + (((rateTableE[k + 1] - rateTableE[k]) * j) / (nPerBin + 1));
+            probe.setEnergy(eK);
+            double sum = 0.;
+            for (int i = 0; i < m; i++) {
+               exact[i] = scatterArray[i].scatterRate(probe);
+               sum += exact[i];
+            }
+            final double f = (eK - rateTableE[k]) / (rateTableE[k + 1] - rateTableE[k]);
+            final double total = ((1. - f) * rateTableTotal[k]) + (f * rateTableTotal[k + 1]);
+            if (sum > 0.)
+               maxTotalErr = Math.max(maxTotalErr, Math.abs(total - sum) / sum);
+            if ((sum > 0.) && (total > 0.))
+               for (int i = 0; i < m; i++) {
+                  final double p = (((1. - f) * rateTableTotal[k] * tabulatedProbability(k, i))
+                        + (f * rateTableTotal[k + 1] * tabulatedProbability(k + 1, i))) / total;
+                  maxProbErr = Math.max(maxProbErr, Math.abs(p - (exact[i] / sum)));
+               }
+         }
+      return new double[] {
+         maxTotalErr,
+         maxProbErr
+      };
+   }
+
+   /**
+    * Reconstructs the probability of mechanism i from the alias table at
+    * tabulated energy k.
+    */
+   private double tabulatedProbability(int k, int i) {
+      final int m = nscattermech;
+      double p = aliasProb[(k * m) + i];
+      for (int j = 0; j < m; j++)
+         if ((aliasIndex[(k * m) + j] == i) && (j != i))
+            p += 1. - aliasProb[(k * m) + j];
+      return p / m;
+   }
+
+   /**
+    * Chooses a scatter mechanism from the rate table for the energy cached in
+    * cached_bin and cached_fraction.
+    */
+   private int tabulatedMechanism() {
+      final int m = nscattermech;
+      final double f = cached_fraction;
+      final double wLo = (1. - f) * rateTableTotal[cached_bin];
+      final double wHi = f * rateTableTotal[cached_bin + 1];
+      final int k = (Math2.rgen.nextDouble() * (wLo + wHi)) < wLo ? cached_bin : cached_bin + 1;
+      final double r = Math2.rgen.nextDouble() * m;
+      final int col = Math.min((int) r, m - 1);
+      return (r - col) < aliasProb[(k * m) + col] ? col : aliasIndex[(k * m) + col];
+   }
+
    @Override
    public double randomMeanPathLength(Electron pe) {
       /*
@@ -234,6 +511,9 @@ public class MONSEL_MaterialScatterModel implements Cloneable, IMaterialScatterM
       // Find the scatter mechanism that produced this scattering event
       // Generate a random # between 0 and total cumulative scatter rate
 
+      if (cached_bin >= 0)
+         return scatterArray[tabulatedMechanism()].scatter(pe);
+
       final double r = Math2.rgen.nextDouble() * totalScatterRate;
       int index = 0; // Index is first index
 
@@ -299,7 +579,7 @@ public class MONSEL_MaterialScatterModel implements Cloneable, IMaterialScatterM
          scatterArray = scatterSet.toArray(new ScatterMechanism[1]);
          nscattermech = scatterArray.length;
          cached_cumulativeScatterRate = new double[nscattermech];
-         cached_eK = -1.;// Force recompute of cache on next call
+         clearRateTable(); // Also forces recompute of cache on next call
          return true;
       }
       return false;
@@ -329,7 +609,7 @@ public class MONSEL_MaterialScatterModel implements Cloneable, IMaterialScatterM
       scatterArray = scatterSet.toArray(new ScatterMechanism[1]);
       nscattermech = scatterArray.length;
       cached_cumulativeScatterRate = new double[nscattermech];
-      cached_eK = -1.; // Force recompute of cache on next call
+      clearRateTable(); // Also forces recompute of cache on next call
       return removed;
    }
 
@@ -9,8 +9,8 @@ import java.io.FileNotFoundException;
 import java.io.FileReader;
 import java.util.Locale;
 import java.util.Scanner;
-import java.util.TreeMap;
 
+import gov.nist.microanalysis.EPQLibrary.SimulationContext;
 import gov.nist.nanoscalemetrology.JMONSELutils.NULagrangeInterpolation;
 
 /**
@@ -36,7 +36,8 @@ import gov.nist.nanoscalemetrology.JMONSELutils.NULagrangeInterpolation;
  * The implementation only permits a single NUTableInterpolation instance for
  * each file that stores a table. This avoids storing duplicates of the same
  * table in memory. Use the static RegularTableInterpolation.getInstance()
- * method rather than the constructor to obtain an interpolation table.
+ * method rather than the constructor to obtain an interpolation table. The
+ * instances are registered in the current SimulationContext.
  * </p>
  * <p>
  * Copyright: Pursuant to title 17 Section 105 of the United States Code this
@@ -59,12 +60,11 @@ public class NUTableInterpolation {
     *           stores the table to be interpolated.
     */
    public static NUTableInterpolation getInstance(String tableFileName) throws FileNotFoundException {
-      NUTableInterpolation uniqueInstance = instanceMap.get(tableFileName);
-      if (uniqueInstance == null) {
-         uniqueInstance = new NUTableInterpolation(tableFileName);
-         instanceMap.put(tableFileName, uniqueInstance);
-      }
-      return uniqueInstance;
+      final SimulationContext sc = SimulationContext.current();
+      final NUTableInterpolation uniqueInstance = sc.getResource(NUTableInterpolation.class, tableFileName);
+      if (uniqueInstance != null)
+         return uniqueInstance;
+      return sc.putResourceIfAbsent(NUTableInterpolation.class, tableFileName, new NUTableInterpolation(tableFileName));
    }
 
    private double[] table1d;
@@ -80,8 +80,6 @@ public class NUTableInterpolation {
    // double[] xmin; // Array of minimum x values
    private final String tableFileName;
 
-   private static TreeMap<String, NUTableInterpolation> instanceMap = new TreeMap<String, NUTableInterpolation>();
-
    /**
     * RegularTableInterpolation - Create an interpolation table from the named
     * resource. The table is assumed to be stored in the resource as numbers (in
@@ -0,0 +1,681 @@
+/**
+ * gov.nist.nanoscalemetrology.JMONSEL.NormalHeightFieldShape
+ */
+
+package gov.nist.nanoscalemetrology.JMONSEL;
+
+import java.awt.Color;
+import java.io.BufferedReader;
+import java.io.FileNotFoundException;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.Writer;
+import java.text.NumberFormat;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.Scanner;
+
+import gov.nist.microanalysis.EPQLibrary.EPQFatalException;
+import gov.nist.microanalysis.NISTMonte.TrajectoryVRML;
+import gov.nist.microanalysis.NISTMonte.TrajectoryVRML.RenderContext;
+
+/**
+ * <p>
+ * NormalHeightFieldShape describes the same surface as NormalHeightMapShape,
+ * a regular 2-dimensional array of heights along z, but it is intended for
+ * large maps (e.g. 2048 x 2048 AFM images). The heights are stored in a single
+ * float[] rather than as a collection of NormalMultiPlaneShape blocks, and
+ * intersections are found by a ray caster written specifically for height
+ * fields.
+ * </p>
+ * <p>
+ * Each grid cell is divided into two triangles by the diagonal joining the
+ * (i+1,j) and (i,j+1) nodes, exactly as in NormalHeightMapShape. Outside the
+ * supplied data the surface is extended by continuing the edge profiles to
+ * infinity. A min/max pyramid (mip-map) of the cell heights is computed at
+ * construction. getFirstNormal() descends this pyramid along the ray, visiting
+ * child blocks in the order in which the ray crosses them, and skips any block
+ * whose height range does not overlap the height range of the ray within the
+ * block. Only cells that the ray might intersect are tested against their two
+ * triangles. The cost of a step is therefore roughly logarithmic in the size
+ * of the map when the step passes through empty space.
+ * </p>
+ * <p>
+ * As with NormalHeightMapShape, the shape may be the region below (the
+ * default) or above the surface. It cannot be rotated or translated, but may
+ * be made the base shape of an AffinizedNormalShape.
+ * </p>
+ * <p>
+ * Copyright: Pursuant to title 17 Section 105 of the United States Code this
+ * software is not subject to copyright protection and is in the public domain
+ * </p>
+ * <p>
+ * Institution: National Institute of Standards and Technology
+ * </p>
+ *
+ * @author John Villarrubia
+ * @version 1.0
+ */
+public class NormalHeightFieldShape implements NormalShape, TrajectoryVRML.IRender {
+
+   /* Lateral coordinates of the (0,0) height */
+   private final double x0, y0;
+   /* Distances between heights in x and y */
+   private final double dX, dY;
+   /* Number of heights in x and y (both >= 2) */
+   private final int nx, ny;
+   /* Heights, x index fastest: z(i,j) = heights[i + nx*j] */
+   private final float[] heights;
+   /* +1 when the shape is below the surface, -1 when above */
+   private final double sign;
+   /* Largest absolute height. Used to scale round-off tolerances. */
+   private final double maxAbsHeight;
+
+   /*
+    * The min/max pyramid. Level 0 has one entry per cell ((nx-1) x (ny-1)).
+    * Each entry of level k summarizes a 2x2 block of level k-1. The last level
+    * has a single entry.
+    */
+   private final float[][] levelMin;
+   private final float[][] levelMax;
+   private final int[] levelWidth;
+   private final int[] levelHeight;
+
+   private double[] result = null;
+
+   /*
+    * The state of a single traversal of the height field by the ray from pos0
+    * to pos1. Positions along the ray are parameterized by u in [0, 1].
+    */
+   private static final class Ray {
+      /* Lateral position in grid units and height as a function of u */
+      double fx0, dfx, fy0, dfy, z0, dz;
+      /* Round-off tolerance for the pyramid skip test */
+      double tol;
+      /* 0 = unknown, 1 = inside, -1 = outside */
+      int state;
+      /* When true, stop as soon as the initial state is known */
+      boolean stateOnly;
+      final double[] normal = new double[3];
+   }
+
+   /* Returned by the traversal when stateOnly is true */
+   private static final double STOP = -1.0;
+
+   /**
+    * Constructs a NormalHeightFieldShape from an nx x ny array of heights
+    * where data[i][j] is the height at (x0+i*dX, y0+j*dY). The shape is below
+    * the surface.
+    *
+    * @param x0
+    * @param y0
+    * @param dX
+    * @param dY
+    * @param data
+    */
+   public NormalHeightFieldShape(double x0, double y0, double dX, double dY, double[][] data) {
+      this(x0, y0, dX, dY, data, true);
+   }
+
+   /**
+    * Constructs a NormalHeightFieldShape. The arguments have the same meaning
+    * as for the equivalent NormalHeightMapShape constructor, including the
+    * conventions for one dimensional data (a single row or column of data, or
+    * dX == 0 or dY == 0).
+    *
+    * @param x0
+    * @param y0
+    * @param dX
+    * @param dY
+    * @param data
+    * @param isBelowHT
+    */
+   public NormalHeightFieldShape(double x0, double y0, double dX, double dY, double[][] data, boolean isBelowHT) {
+      this(x0, y0, dX, dY, data.length, data[0].length, flatten(data), isBelowHT);
+   }
+
+   /**
+    * Constructs a NormalHeightFieldShape from heights in a flat array with the
+    * x index varying fastest. That is, the height at (x0+i*dX, y0+j*dY) is
+    * data[i+nx*j]. The array is used directly, not copied.
+    *
+    * @param x0
+    * @param y0
+    * @param dX
+    * @param dY
+    * @param nx
+    * @param ny
+    * @param data
+    * @param isBelowHT
+    */
+   public NormalHeightFieldShape(double x0, double y0, double dX, double dY, int nx, int ny, float[] data, boolean isBelowHT) {
+      if (data.length < (nx * ny))
+         throw new EPQFatalException("The height data array is too short for a " + nx + " x " + ny + " map.");
+      this.x0 = x0;
+      this.y0 = y0;
+      /*
+       * One dimensional maps are duplicated into a second row (column) one
+       * (dummy) unit away. Since the surface is extended by continuing the edge
+       * profiles, this describes the same surface.
+       */
+      final boolean x1D = (nx == 1) || (dX == 0.);
+      final boolean y1D = (ny == 1) || (dY == 0.);
+      this.nx = x1D ? 2 : nx;
+      this.ny = y1D ? 2 : ny;
+      this.dX = x1D ? 1.0 : dX;
+      this.dY = y1D ? 1.0 : dY;
+      if (x1D || y1D) {
+         heights = new float[this.nx * this.ny];
+         for (int j = 0; j < this.ny; j++)
+            for (int i = 0; i < this.nx; i++)
+               heights[i + (this.nx * j)] = data[(x1D ? 0 : i) + (nx * (y1D ? 0 : j))];
+      } else
+         heights = data;
+      sign = isBelowHT ? 1.0 : -1.0;
+      double maxAbs = 0.0;
+      for (int k = 0; k < (this.nx * this.ny); k++)
+         maxAbs = Math.max(maxAbs, Math.abs(heights[k]));
+      maxAbsHeight = maxAbs;
+
+      /* Build the min/max pyramid */
+      int levels = 1;
+      for (int w = this.nx - 1, h = this.ny - 1; (w > 1) || (h > 1); w = (w + 1) / 2, h = (h + 1) / 2)
+         levels++;
+      levelMin = new float[levels][];
+      levelMax = new float[levels][];
+      levelWidth = new int[levels];
+      levelHeight = new int[levels];
+      levelWidth[0] = this.nx - 1;
+      levelHeight[0] = this.ny - 1;
+      levelMin[0] = new float[levelWidth[0] * levelHeight[0]];
+      levelMax[0] = new float[levelWidth[0] * levelHeight[0]];
+      for (int j = 0; j < levelHeight[0]; j++)
+         for (int i = 0; i < levelWidth[0]; i++) {
+            final float h1 = height(i, j), h2 = height(i + 1, j), h3 = height(i, j + 1), h4 = height(i + 1, j + 1);
+            levelMin[0][i + (levelWidth[0] * j)] = Math.min(Math.min(h1, h2), Math.min(h3, h4));
+            levelMax[0][i + (levelWidth[0] * j)] = Math.max(Math.max(h1, h2), Math.max(h3, h4));
+         }
+      for (int k = 1; k < levels; k++) {
+         final int pw = levelWidth[k - 1], ph = levelHeight[k - 1];
+         final int w = (pw + 1) / 2, h = (ph + 1) / 2;
+         levelWidth[k] = w;
+         levelHeight[k] = h;
+         levelMin[k] = new float[w * h];
+         levelMax[k] = new float[w * h];
+         for (int j = 0; j < h; j++)
+            for (int i = 0; i < w; i++) {
+               float min = Float.POSITIVE_INFINITY, max = Float.NEGATIVE_INFINITY;
+               for (int jj = 2 * j; jj < Math.min((2 * j) + 2, ph); jj++)
+                  for (int ii = 2 * i; ii < Math.min((2 * i) + 2, pw); ii++) {
+                     min = Math.min(min, levelMin[k - 1][ii + (pw * jj)]);
+                     max = Math.max(max, levelMax[k - 1][ii + (pw * jj)]);
+                  }
+               levelMin[k][i + (w * j)] = min;
+               levelMax[k][i + (w * j)] = max;
+            }
+      }
+   }
+
+   /**
+    * Constructs a NormalHeightFieldShape from a file in the $HeightMapFormat
+    * described for the NormalHeightMapShape(String) constructor.
+    *
+    * @param heightMapFileName
+    * @throws FileNotFoundException
+    */
+   public NormalHeightFieldShape(String heightMapFileName) throws FileNotFoundException {
+      this(HeightFile.read(heightMapFileName));
+   }
+
+   private NormalHeightFieldShape(HeightFile hf) {
+      this(hf.x0, hf.y0, hf.dX, hf.dY, hf.nx, hf.ny, hf.data, hf.isBelow);
+   }
+
+   /**
+    * The contents of a $HeightMapFormat file.
+    */
+   private static final class HeightFile {
+      boolean isBelow;
+      double x0, y0, dX, dY;
+      int nx, ny;
+      float[] data;
+
+      static HeightFile read(String fileName) throws FileNotFoundException {
+         final HeightFile res = new HeightFile();
+         try (final Scanner s = new Scanner(new BufferedReader(new FileReader(fileName)))) {
+            s.useLocale(Locale.US);
+            if (!s.next().equals("$HeightMapFormat"))
+               throw new EPQFatalException("1st token of  file was not $HeightMapFormat");
+            res.isBelow = s.nextDouble() != 0.;
+            res.x0 = s.nextDouble();
+            res.y0 = s.nextDouble();
+            res.nx = s.nextInt();
+            res.dX = s.nextDouble();
+            res.ny = s.nextInt();
+            res.dY = s.nextDouble();
+            final double zunit = s.nextDouble();
+            res.data = new float[res.nx * res.ny];
+            for (int k = 0; k < res.data.length; k++)
+               res.data[k] = (float) (s.nextDouble() * zunit);
+         }
+         return res;
+      }
+   }
+
+   private static float[] flatten(double[][] data) {
+      final int nx = data.length, ny = data[0].length;
+      final float[] res = new float[nx * ny];
+      for (int i = 0; i < nx; i++)
+         for (int j = 0; j < ny; j++)
+            res[i + (nx * j)] = (float) data[i][j];
+      return res;
+   }
+
+   /**
+    * Returns the height at node (i,j) with i and j clamped to the map. This
+    * clamping implements the extension of the edge profiles to infinity.
+    */
+   private float height(int i, int j) {
+      i = Math.max(0, Math.min(nx - 1, i));
+      j = Math.max(0, Math.min(ny - 1, j));
+      return heights[i + (nx * j)];
+   }
+
+   /**
+    * Returns the height of the surface at the lateral position (x, y).
+    *
+    * @param x
+    * @param y
+    * @return The height in meters
+    */
+   public double getHeight(double x, double y) {
+      final double fx = (x - x0) / dX, fy = (y - y0) / dY;
+      final int i = cellIndex(fx, nx), j = cellIndex(fy, ny);
+      final double u = fx - i, v = fy - j;
+      final double h1 = height(i, j), h2 = height(i + 1, j), h3 = height(i, j + 1), h4 = height(i + 1, j + 1);
+      if ((u + v) <= 1.0)
+         return h1 + ((h2 - h1) * u) + ((h3 - h1) * v);
+      else
+         return ((h2 + h3) - h4) + ((h4 - h3) * u) + ((h4 - h2) * v);
+   }
+
+   /*
+    * The extended cell index: -1 before the first node, n-1 after the last.
+    */
+   private static int cellIndex(double f, int n) {
+      if (f < 0.)
+         return -1;
+      if (f >= (n - 1))
+         return n - 1;
+      return (int) Math.floor(f);
+   }
+
+   /**
+    * @see gov.nist.microanalysis.NISTMonte.MonteCarloSS.Shape#contains(double[])
+    */
+   @Override
+   public boolean contains(double[] pos) {
+      return (sign * (pos[2] - getHeight(pos[0], pos[1]))) <= 0.;
+   }
+
+   /**
+    * @see gov.nist.nanoscalemetrology.JMONSEL.NormalShape#contains(double[],
+    *      double[])
+    */
+   @Override
+   public boolean contains(double[] pos0, double[] pos1) {
+      final Ray ray = makeRay(pos0, pos1);
+      ray.stateOnly = true;
+      traverse(ray);
+      return ray.state > 0;
+   }
+
+   /**
+    * @see gov.nist.microanalysis.NISTMonte.MonteCarloSS.Shape#getFirstIntersection(double[],
+    *      double[])
+    */
+   @Override
+   public double getFirstIntersection(double[] pos0, double[] pos1) {
+      return (getFirstNormal(pos0, pos1))[3];
+   }
+
+   /**
+    * @see gov.nist.nanoscalemetrology.JMONSEL.NormalShape#getFirstNormal(double[],
+    *      double[])
+    */
+   @Override
+   public double[] getFirstNormal(double[] pos0, double[] pos1) {
+      final Ray ray = makeRay(pos0, pos1);
+      final double u = traverse(ray);
+      if (u > 0.)
+         result = new double[]{ray.normal[0], ray.normal[1], ray.normal[2], u};
+      else
+         result = new double[]{0., 0., 0., Double.MAX_VALUE};
+      return result;
+   }
+
+   /**
+    * @see gov.nist.nanoscalemetrology.JMONSEL.NormalShape#getPreviousNormal()
+    */
+   @Override
+   public double[] getPreviousNormal() {
+      return result;
+   }
+
+   private Ray makeRay(double[] pos0, double[] pos1) {
+      final Ray ray = new Ray();
+      ray.fx0 = (pos0[0] - x0) / dX;
+      ray.dfx = (pos1[0] - pos0[0]) / dX;
+      ray.fy0 = (pos0[1] - y0) / dY;
+      ray.dfy = (pos1[1] - pos0[1]) / dY;
+      ray.z0 = pos0[2];
+      ray.dz = pos1[2] - pos0[2];
+      ray.tol = 1.0e-12 * (Math.abs(ray.z0) + Math.abs(ray.dz) + maxAbsHeight);
+      return ray;
+   }
+
+   /**
+    * Walks the ray from u = 0 to u = 1. The path is first split where it
+    * crosses the edges of the map. Pieces inside the map are handed to the
+    * pyramid descent. Pieces outside the map are walked cell by cell.
+    *
+    * @return The u of the first boundary crossing, NaN if there is none, or
+    *         STOP
+    */
+   private double traverse(Ray ray) {
+      final int cx = nx - 1, cy = ny - 1;
+      final double[] splits = new double[6];
+      int n = 0;
+      splits[n++] = 0.;
+      n = addCrossing(splits, n, ray.fx0, ray.dfx, 0.);
+      n = addCrossing(splits, n, ray.fx0, ray.dfx, cx);
+      n = addCrossing(splits, n, ray.fy0, ray.dfy, 0.);
+      n = addCrossing(splits, n, ray.fy0, ray.dfy, cy);
+      splits[n++] = 1.;
+      Arrays.sort(splits, 0, n);
+      for (int s = 0; (s + 1) < n; s++) {
+         final double ta = splits[s], tb = splits[s + 1];
+         if (tb <= ta)
+            continue;
+         final double tm = 0.5 * (ta + tb);
+         final int ix = cellIndex(ray.fx0 + (tm * ray.dfx), nx), iy = cellIndex(ray.fy0 + (tm * ray.dfy), ny);
+         final boolean xIn = (ix >= 0) && (ix < cx), yIn = (iy >= 0) && (iy < cy);
+         final double u;
+         if (xIn && yIn)
+            u = descend(ray, levelMin.length - 1, 0, 0, ta, tb);
+         else if (xIn)
+            u = walk(ray, true, iy, ta, tb);
+         else if (yIn)
+            u = walk(ray, false, ix, ta, tb);
+         else
+            u = testCell(ray, ix, iy, ta, tb);
+         if (!Double.isNaN(u))
+            return u;
+      }
+      return Double.NaN;
+   }
+
+   private static int addCrossing(double[] splits, int n, double f0, double df, double f) {
+      if (df != 0.) {
+         final double t = (f - f0) / df;
+         if ((t > 0.) && (t < 1.))
+            splits[n++] = t;
+      }
+      return n;
+   }
+
+   /**
+    * Descends the min/max pyramid from block (bi, bj) of level k. [ta, tb] is
+    * the range of u over which the ray is above the block.
+    */
+   private double descend(Ray ray, int k, int bi, int bj, double ta, double tb) {
+      if (ray.state != 0) {
+         final int idx = bi + (levelWidth[k] * bj);
+         final double za = ray.z0 + (ta * ray.dz), zb = ray.z0 + (tb * ray.dz);
+         final double zlo = Math.min(za, zb) - ray.tol, zhi = Math.max(za, zb) + ray.tol;
+         final boolean above = zlo > levelMax[k][idx], below = zhi < levelMin[k][idx];
+         /* Skip the block if the ray stays on the side it is on now */
+         if ((above || below) && ((ray.state > 0) == (below == (sign > 0.))))
+            return Double.NaN;
+      }
+      if (k == 0)
+         return testCell(ray, bi, bj, ta, tb);
+      final int half = 1 << (k - 1);
+      final int ci = 2 * bi, cj = 2 * bj;
+      final boolean hasRight = (ci + 1) < levelWidth[k - 1], hasTop = (cj + 1) < levelHeight[k - 1];
+      final double xm = (ci + 1) * (double) half, ym = (cj + 1) * (double) half;
+      final double[] splits = new double[4];
+      int n = 0;
+      splits[n++] = ta;
+      if (hasRight && (ray.dfx != 0.)) {
+         final double t = (xm - ray.fx0) / ray.dfx;
+         if ((t > ta) && (t < tb))
+            splits[n++] = t;
+      }
+      if (hasTop && (ray.dfy != 0.)) {
+         final double t = (ym - ray.fy0) / ray.dfy;
+         if ((t > ta) && (t < tb))
+            splits[n++] = t;
+      }
+      splits[n++] = tb;
+      if ((n == 4) && (splits[1] > splits[2])) {
+         final double tmp = splits[1];
+         splits[1] = splits[2];
+         splits[2] = tmp;
+      }
+      for (int s = 0; (s + 1) < n; s++) {
+         final double sa = splits[s], sb = splits[s + 1];
+         if (sb <= sa)
+            continue;
+         final double tm = 0.5 * (sa + sb);
+         final int i = (hasRight && ((ray.fx0 + (tm * ray.dfx)) >= xm)) ? ci + 1 : ci;
+         final int j = (hasTop && ((ray.fy0 + (tm * ray.dfy)) >= ym)) ? cj + 1 : cj;
+         final double u = descend(ray, k - 1, i, j, sa, sb);
+         if (!Double.isNaN(u))
+            return u;
+      }
+      return Double.NaN;
+   }
+
+   /**
+    * Walks a piece of the ray that lies off the edge of the map. When alongX
+    * is true the ray is above or below the map in y (row iy = -1 or ny-1) and
+    * steps through columns; otherwise it is to the left or right in x (column
+    * fixed) and steps through rows.
+    */
+   private double walk(Ray ray, boolean alongX, int fixed, double ta, double tb) {
+      final double f0 = alongX ? ray.fx0 : ray.fy0;
+      final double df = alongX ? ray.dfx : ray.dfy;
+      final int cells = (alongX ? nx : ny) - 1;
+      double sa = ta;
+      if (df != 0.) {
+         final double fa = f0 + (ta * df), fb = f0 + (tb * df);
+         final int lo = (int) Math.floor(Math.min(fa, fb)) + 1, hi = (int) Math.ceil(Math.max(fa, fb)) - 1;
+         for (int m = 0; m <= (hi - lo); m++) {
+            final int line = df > 0. ? lo + m : hi - m;
+            final double t = (line - f0) / df;
+            if ((t <= sa) || (t >= tb))
+               continue;
+            final double u = walkCell(ray, alongX, fixed, cells, f0, df, sa, t);
+            if (!Double.isNaN(u))
+               return u;
+            sa = t;
+         }
+      }
+      return walkCell(ray, alongX, fixed, cells, f0, df, sa, tb);
+   }
+
+   private double walkCell(Ray ray, boolean alongX, int fixed, int cells, double f0, double df, double sa, double sb) {
+      final int c = Math.max(0, Math.min(cells - 1, (int) Math.floor(f0 + (0.5 * (sa + sb) * df))));
+      return alongX ? testCell(ray, c, fixed, sa, sb) : testCell(ray, fixed, c, sa, sb);
+   }
+
+   /**
+    * Tests the part of the ray over cell (i, j) for [ta, tb]. The cell may be
+    * one of the extended cells outside the map (i or j = -1 or n-1), in which
+    * case the clamped node heights make both triangles the same plane.
+    */
+   private double testCell(Ray ray, int i, int j, double ta, double tb) {
+      final double h1 = height(i, j), h2 = height(i + 1, j), h3 = height(i, j + 1), h4 = height(i + 1, j + 1);
+      /* The diagonal is at u + v = 1 where u = fx - i and v = fy - j */
+      final double w0 = ((ray.fx0 - i) + (ray.fy0 - j)) - 1.0, dw = ray.dfx + ray.dfy;
+      double td = Double.NaN;
+      if (dw != 0.) {
+         final double t = -w0 / dw;
+         if ((t > ta) && (t < tb))
+            td = t;
+      }
+      if (Double.isNaN(td))
+         return testPiece(ray, i, j, h1, h2, h3, h4, w0, dw, ta, tb);
+      final double u = testPiece(ray, i, j, h1, h2, h3, h4, w0, dw, ta, td);
+      if (!Double.isNaN(u))
+         return u;
+      return testPiece(ray, i, j, h1, h2, h3, h4, w0, dw, td, tb);
+   }
+
+   private double testPiece(Ray ray, int i, int j, double h1, double h2, double h3, double h4, double w0, double dw, double pa,
+         double pb) {
+      final double pm = 0.5 * (pa + pb);
+      /* The plane is h = a + bu * u + bv * v */
+      final double a, bu, bv;
+      if ((w0 + (pm * dw)) <= 0.) {
+         a = h1;
+         bu = h2 - h1;
+         bv = h3 - h1;
+      } else {
+         a = (h2 + h3) - h4;
+         bu = h4 - h3;
+         bv = h4 - h2;
+      }
+      final double ga = sign * ((ray.z0 + (pa * ray.dz)) - (a + (bu * ((ray.fx0 + (pa * ray.dfx)) - i)) + (bv * ((ray.fy0 + (pa * ray.dfy)) - j))));
+      final double gb = sign * ((ray.z0 + (pb * ray.dz)) - (a + (bu * ((ray.fx0 + (pb * ray.dfx)) - i)) + (bv * ((ray.fy0 + (pb * ray.dfy)) - j))));
+      if (ray.state == 0) {
+         /* This is the first piece, so establish whether we start inside */
+         final double slope = sign * (ray.dz - ((bu * ray.dfx) + (bv * ray.dfy)));
+         setNormal(ray, bu, bv);
+         final boolean inside = (ga < 0.) || ((ga == 0.) && ((slope < 0.) || ((slope == 0.) && containsTieBreak(ray.normal))));
+         ray.state = inside ? 1 : -1;
+         if (ray.stateOnly)
+            return STOP;
+      }
+      final double u;
+      if ((ray.state > 0) && (gb > 0.))
+         u = ga >= 0. ? pa : pa + (((pb - pa) * -ga) / (gb - ga));
+      else if ((ray.state < 0) && (gb < 0.))
+         u = ga <= 0. ? pa : pa + (((pb - pa) * ga) / (ga - gb));
+      else
+         return Double.NaN;
+      if (u <= 0.)
+         return Double.NaN;
+      setNormal(ray, bu, bv);
+      return u;
+   }
+
+   /**
+    * Sets the outward normal for the plane with height slopes bu and bv per
+    * grid step.
+    */
+   private void setNormal(Ray ray, double bu, double bv) {
+      final double nx = -bu / dX, ny = -bv / dY;
+      final double norm = sign / Math.sqrt((nx * nx) + (ny * ny) + 1.0);
+      ray.normal[0] = nx * norm;
+      ray.normal[1] = ny * norm;
+      ray.normal[2] = norm;
+   }
+
+   /**
+    * The same tie-break as NormalMultiPlaneShape for a trajectory that lies in
+    * the surface.
+    */
+   private static boolean containsTieBreak(double[] normal) {
+      if (normal[0] < 0.)
+         return false;
+      if (normal[0] == 0.) {
+         if (normal[1] < 0.)
+            return false;
+         if (normal[1] == 0.)
+            if (normal[2] < 0.)
+               return false;
+      }
+      return true;
+   }
+
+   /**
+    * Get the step length in the X direction
+    *
+    * @return
+    */
+   public double gethtDeltaX() {
+      return dX;
+   }
+
+   /**
+    * Get the step length in the Y direction
+    *
+    * @return
+    */
+   public double gethtDeltaY() {
+      return dY;
+   }
+
+   /**
+    * Get the coordinates of the origin
+    *
+    * @return
+    */
+   public double[] gethtOrigin() {
+      return new double[]{x0, y0};
+   }
+
+   /**
+    * @see gov.nist.microanalysis.NISTMonte.TrajectoryVRML.IRender#render(gov.nist.microanalysis.NISTMonte.TrajectoryVRML.RenderContext,
+    *      java.io.Writer)
+    */
+   @Override
+   public void render(RenderContext rc, Writer wr) throws IOException {
+      final NumberFormat nf = NumberFormat.getInstance(Locale.US);
+      nf.setMaximumFractionDigits(3);
+      nf.setGroupingUsed(false);
+      final Color color = rc.getCurrentColor();
+      final String trStr = nf.format(rc.getTransparency());
+      final String colorStr = nf.format(color.getRed() / 255.0) + " " + nf.format(color.getGreen() / 255.0) + " "
+            + nf.format(color.getBlue() / 255.0);
+      wr.append("\nShape {\n");
+      wr.append(" geometry IndexedFaceSet {\n");
+      wr.append("  coord Coordinate {\n");
+      wr.append("   point [ ");
+      for (int i = 0; i < nx; i++)
+         for (int j = 0; j < ny; j++) {
+            if ((i != 0) || (j != 0))
+               wr.append(", \n");
+            wr.append(nf.format((x0 + (i * dX)) / TrajectoryVRML.SCALE));
+            wr.append(" ");
+            wr.append(nf.format((y0 + (j * dY)) / TrajectoryVRML.SCALE));
+            wr.append(" ");
+            wr.append(nf.format(height(i, j) / TrajectoryVRML.SCALE));
+         }
+      wr.append(" ]\n");
+      wr.append("  }\n");
+      wr.append("  coordIndex [ ");
+      for (int i = 0; i < (nx - 1); i++)
+         for (int j = 0; j < (ny - 1); j++) {
+            if ((i != 0) || (j != 0))
+               wr.append(" -1 \n");
+            wr.append(Integer.toString((ny * i) + j) + " " + Integer.toString((ny * (i + 1)) + j) + " " + Integer.toString((ny * i) + j + 1)
+                  + " -1 ");
+            wr.append(Integer.toString((ny * (i + 1)) + j) + " " + Integer.toString((ny * (i + 1)) + j + 1) + " "
+                  + Integer.toString((ny * i) + (j + 1)));
+         }
+      wr.append(" ]\n");
+      wr.append("  solid FALSE\n");
+      wr.append(" }\n");
+      wr.append(" appearance Appearance {\n");
+      wr.append("  material Material {\n");
+      wr.append("   emissiveColor " + colorStr + "\n");
+      wr.append("   transparency " + trStr + "\n");
+      wr.append("  }\n");
+      wr.append(" }\n");
+      wr.append("}");
+      wr.flush();
+   }
+}
@@ -55,6 +55,11 @@ import gov.nist.microanalysis.Utility.Math2;
  * map building blocks.
  * </p>
  * <p>
+ * For large maps (e.g., AFM images with millions of heights)
+ * NormalHeightFieldShape describes the same surface with much less memory and
+ * a faster intersection algorithm.
+ * </p>
+ * <p>
  * Copyright: Pursuant to title 17 Section 105 of the United States Code this
  * software is not subject to copyright protection and is in the public domain
  * </p>
@@ -7,8 +7,8 @@ import java.io.FileNotFoundException;
 import java.io.InputStream;
 import java.util.Locale;
 import java.util.Scanner;
-import java.util.TreeMap;
 
+import gov.nist.microanalysis.EPQLibrary.SimulationContext;
 import gov.nist.nanoscalemetrology.JMONSELutils.ULagrangeInterpolation;
 
 /*
@@ -39,7 +39,8 @@ import gov.nist.nanoscalemetrology.JMONSELutils.ULagrangeInterpolation;
  * for each resource (file) that stores a table. This avoids storing duplicates
  * of the same table in memory. Use the static
  * RegularTableInterpolation.getInstance() method rather than the constructor to
- * obtain an interpolation table.
+ * obtain an interpolation table. The instances are registered in the current
+ * SimulationContext.
  * </p>
  * <p>
  * Copyright: Pursuant to title 17 Section 105 of the United States Code this
@@ -62,12 +63,11 @@ public class RegularTableInterpolation {
     *           stores the table to be interpolated.
     */
    public static RegularTableInterpolation getInstance(String tableFileName) throws FileNotFoundException {
-      RegularTableInterpolation uniqueInstance = instanceMap.get(tableFileName);
-      if (uniqueInstance == null) {
-         uniqueInstance = new RegularTableInterpolation(tableFileName);
-         instanceMap.put(tableFileName, uniqueInstance);
-      }
-      return uniqueInstance;
+      final SimulationContext sc = SimulationContext.current();
+      final RegularTableInterpolation uniqueInstance = sc.getResource(RegularTableInterpolation.class, tableFileName);
+      if (uniqueInstance != null)
+         return uniqueInstance;
+      return sc.putResourceIfAbsent(RegularTableInterpolation.class, tableFileName, new RegularTableInterpolation(tableFileName));
    }
 
    private double[] table1d;
@@ -80,8 +80,6 @@ public class RegularTableInterpolation {
    double[] xmin; // Array of minimum x values
    private final String tableFileName;
 
-   private static TreeMap<String, RegularTableInterpolation> instanceMap = new TreeMap<String, RegularTableInterpolation>();
-
    /**
     * RegularTableInterpolation - Create an interpolation table from the named
     * resource. The table is assumed to be stored in the resource as numbers (in
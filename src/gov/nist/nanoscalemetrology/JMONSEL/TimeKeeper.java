@@ -4,6 +4,8 @@
  */
 package gov.nist.nanoscalemetrology.JMONSEL;
 
+import gov.nist.microanalysis.EPQLibrary.SimulationContext;
+
 /**
  * <p>
  * A class to facilitate time-dependent models. TimeKeeper keeps time in
@@ -13,9 +15,11 @@ package gov.nist.nanoscalemetrology.JMONSEL;
  * lines, so much additional time between frames, etc.) each time a new landing
  * position is selected. Models that depend upon time (e.g., conduction that
  * involves a finite RC time constant) can then access the time via TimeKeeper's
- * getTime() method. For convenience, TimeKeeper is implemented as a singleton
- * class. Any algorithm that uses getTimeKeeper will therefore be given access
- * to the same TimeKeeper, eliminating the need to pass it in the argument list.
+ * getTime() method. For convenience, the time is stored in the current
+ * SimulationContext. Any algorithm that uses getTimeKeeper within the same
+ * context will therefore be given access to the same time, eliminating the need
+ * to pass it in the argument list. Simulations run under different contexts
+ * keep independent clocks.
  * </p>
  * <p>
  * Copyright: Pursuant to title 17 Section 105 of the United States Code this
@@ -30,26 +34,31 @@ package gov.nist.nanoscalemetrology.JMONSEL;
  */
 public class TimeKeeper {
 
+   private final SimulationContext context;
+
    /**
-    * Constructs a TimeKeeper
+    * Returns a TimeKeeper for the current SimulationContext. (With no context
+    * bound to the calling thread, this is the JVM-wide global clock.)
+    *
+    * @return - A TimeKeeper for the current context
     */
-   private double time = 0.;
-   static private TimeKeeper tk = null;
+   static public TimeKeeper getTimeKeeper() {
+      return new TimeKeeper(SimulationContext.current());
+   }
 
    /**
-    * Returns the existing TimeKeeper if there is one. Otherwise, it generates
-    * and returns a new one with initial time = 0.
+    * Returns a TimeKeeper for the specified SimulationContext.
     *
-    * @return - Existing or new TimeKeeper
+    * @param context
+    * @return - A TimeKeeper for context
     */
-   static public TimeKeeper getTimeKeeper() {
-      if (tk == null)
-         tk = new TimeKeeper();
-      return tk;
+   static public TimeKeeper getTimeKeeper(SimulationContext context) {
+      return new TimeKeeper(context);
    }
 
-   private TimeKeeper() {
+   private TimeKeeper(SimulationContext context) {
       super();
+      this.context = context;
    }
 
    /**
@@ -58,7 +67,7 @@ public class TimeKeeper {
     * @return Returns the time.
     */
    public double getTime() {
-      return time;
+      return context.getTime();
    }
 
    /**
@@ -68,8 +77,7 @@ public class TimeKeeper {
     *           The value to which to set time.
     */
    public void setTime(double time) {
-      if (this.time != time)
-         this.time = time;
+      context.setTime(time);
    }
 
    /**
@@ -78,7 +86,7 @@ public class TimeKeeper {
     * @param deltat
     */
    public void incrementTime(double deltat) {
-      time += deltat;
+      context.incrementTime(deltat);
    }
 
 }